@@ -261,6 +261,14 @@ CREATE TABLE m_object (
   PRIMARY KEY (oid)
 );
 
+CREATE TABLE m_object_change (
+  id             BIGINT      NOT NULL,
+  objectType     INTEGER     NOT NULL,
+  oid            VARCHAR(36) NOT NULL,
+  timestampValue TIMESTAMP   NOT NULL,
+  PRIMARY KEY (id)
+);
+
 CREATE TABLE m_object_ext_date (
   eName      VARCHAR(157) NOT NULL,
   owner_oid  VARCHAR(36)  NOT NULL,
@@ -624,6 +632,14 @@ ADD CONSTRAINT fk_audit_delta
 FOREIGN KEY (record_id)
 REFERENCES m_audit_event;
 
+CREATE INDEX iAuditInitiatorOid ON m_audit_event (initiatorOid);
+
+CREATE INDEX iAuditTargetOid ON m_audit_event (targetOid);
+
+CREATE INDEX iAuditTargetOwnerOid ON m_audit_event (targetOwnerOid);
+
+CREATE INDEX iAuditTimestamp ON m_audit_event (timestampValue);
+
 ALTER TABLE m_connector
 ADD CONSTRAINT fk_connector
 FOREIGN KEY (oid)
@@ -671,6 +687,8 @@ CREATE INDEX iObjectNameOrig ON m_object (name_orig);
 
 CREATE INDEX iObjectNameNorm ON m_object (name_norm);
 
+CREATE INDEX iObjectChangeTimestamp ON m_object_change (timestampValue);
+
 CREATE INDEX iExtensionDate ON m_object_ext_date (ownerType, eName, dateValue);
 
 CREATE INDEX iExtensionDateDef ON m_object_ext_date (owner_oid, ownerType);
@@ -859,3 +877,5 @@ FOREIGN KEY (oid)
 REFERENCES m_object;
 
 CREATE SEQUENCE hibernate_sequence START WITH 1 INCREMENT BY 1;
+
+CREATE SEQUENCE m_object_change_seq START WITH 1 INCREMENT BY 1;
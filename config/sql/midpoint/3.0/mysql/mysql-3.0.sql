@@ -331,6 +331,17 @@ CREATE TABLE m_object (
   COLLATE utf8_bin
   ENGINE =InnoDB;
 
+CREATE TABLE m_object_change (
+  id             BIGINT      NOT NULL,
+  objectType     INTEGER     NOT NULL,
+  oid            VARCHAR(36) NOT NULL,
+  timestampValue DATETIME(6) NOT NULL,
+  PRIMARY KEY (id)
+)
+  DEFAULT CHARACTER SET utf8
+  COLLATE utf8_bin
+  ENGINE =InnoDB;
+
 CREATE TABLE m_object_ext_date (
   eName      VARCHAR(157) NOT NULL,
   owner_oid  VARCHAR(36)  NOT NULL,
@@ -784,6 +795,14 @@ ADD CONSTRAINT fk_audit_delta
 FOREIGN KEY (record_id)
 REFERENCES m_audit_event (id);
 
+CREATE INDEX iAuditInitiatorOid ON m_audit_event (initiatorOid);
+
+CREATE INDEX iAuditTargetOid ON m_audit_event (targetOid);
+
+CREATE INDEX iAuditTargetOwnerOid ON m_audit_event (targetOwnerOid);
+
+CREATE INDEX iAuditTimestamp ON m_audit_event (timestampValue);
+
 ALTER TABLE m_connector
 ADD INDEX fk_connector (oid),
 ADD CONSTRAINT fk_connector
@@ -838,6 +857,8 @@ CREATE INDEX iObjectNameOrig ON m_object (name_orig);
 
 CREATE INDEX iObjectNameNorm ON m_object (name_norm);
 
+CREATE INDEX iObjectChangeTimestamp ON m_object_change (timestampValue);
+
 CREATE INDEX iExtensionDate ON m_object_ext_date (ownerType, eName, dateValue);
 
 CREATE INDEX iExtensionDateDef ON m_object_ext_date (owner_oid, ownerType);
@@ -1053,3 +1074,9 @@ CREATE TABLE hibernate_sequence (
 );
 
 INSERT INTO hibernate_sequence VALUES (1);
+
+CREATE TABLE m_object_change_seq (
+  next_val BIGINT
+);
+
+INSERT INTO m_object_change_seq VALUES (1);
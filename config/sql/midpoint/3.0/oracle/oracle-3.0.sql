@@ -264,6 +264,14 @@ CREATE TABLE m_object (
   PRIMARY KEY (oid)
 ) INITRANS 30;
 
+CREATE TABLE m_object_change (
+  id             NUMBER(19, 0)     NOT NULL,
+  objectType     NUMBER(10, 0)     NOT NULL,
+  oid            VARCHAR2(36 CHAR) NOT NULL,
+  timestampValue TIMESTAMP         NOT NULL,
+  PRIMARY KEY (id)
+) INITRANS 30;
+
 CREATE TABLE m_object_ext_date (
   eName      VARCHAR2(157 CHAR) NOT NULL,
   owner_oid  VARCHAR2(36 CHAR)  NOT NULL,
@@ -627,6 +635,14 @@ ADD CONSTRAINT fk_audit_delta
 FOREIGN KEY (record_id)
 REFERENCES m_audit_event;
 
+CREATE INDEX iAuditInitiatorOid ON m_audit_event (initiatorOid) INITRANS 30;
+
+CREATE INDEX iAuditTargetOid ON m_audit_event (targetOid) INITRANS 30;
+
+CREATE INDEX iAuditTargetOwnerOid ON m_audit_event (targetOwnerOid) INITRANS 30;
+
+CREATE INDEX iAuditTimestamp ON m_audit_event (timestampValue) INITRANS 30;
+
 ALTER TABLE m_connector
 ADD CONSTRAINT fk_connector
 FOREIGN KEY (oid)
@@ -674,6 +690,8 @@ CREATE INDEX iObjectNameOrig ON m_object (name_orig) INITRANS 30;
 
 CREATE INDEX iObjectNameNorm ON m_object (name_norm) INITRANS 30;
 
+CREATE INDEX iObjectChangeTimestamp ON m_object_change (timestampValue);
+
 CREATE INDEX iExtensionDate ON m_object_ext_date (ownerType, eName, dateValue) INITRANS 30;
 
 CREATE INDEX iExtensionDateDef ON m_object_ext_date (owner_oid, ownerType) INITRANS 30;
@@ -862,3 +880,5 @@ FOREIGN KEY (oid)
 REFERENCES m_object;
 
 CREATE SEQUENCE hibernate_sequence START WITH 1 INCREMENT BY 1;
+
+CREATE SEQUENCE m_object_change_seq START WITH 1 INCREMENT BY 1;
@@ -51,9 +51,11 @@ public abstract class BaseSortableDataProvider<T extends Serializable> extends S
     private List<T> availableData;
     private ObjectQuery query;
 
+    // when there are more cached sizes, expired ones are removed
+    private static final int CACHE_CLEANUP_SIZE = 1000;
+
     // after this amount of time cached size will be removed
     // from cache and replaced by new value, time in seconds
-    private Map<Serializable, CachedSize> cache = new HashMap<Serializable, CachedSize>();
     private int cacheCleanupThreshold = 60;
     private boolean useCache;
 
@@ -150,8 +152,19 @@ public abstract class BaseSortableDataProvider<T extends Serializable> extends S
                 (String) sortParam.getProperty(), SchemaConstantsGenerated.NS_COMMON, order);
     }
 
+    /**
+     * Sizes are cached in application, so they're shared by providers of all pages and they survive page
+     * reloads. Cached size is valid for {@link #getCacheCleanupThreshold()} seconds.
+     */
+    private Map<Serializable, CachedSize> getCache() {
+        MidPointApplication application = (MidPointApplication) MidPointApplication.get();
+        return application.getCountCache();
+    }
+
     public void clearCache() {
-        cache.clear();
+        if (useCache) {
+            getCache().remove(getCacheKey());
+        }
         getAvailableData().clear();
     }
 
@@ -184,22 +197,21 @@ public abstract class BaseSortableDataProvider<T extends Serializable> extends S
             return internalSize();
         }
 
+        Map<Serializable, CachedSize> cache = getCache();
+        Serializable key = getCacheKey();
+
         long size;
-        CachedSize cachedSize = getCachedSize(cache);
-        if (cachedSize != null) {
-            long timestamp = cachedSize.getTimestamp();
-            if (System.currentTimeMillis() - timestamp > cacheCleanupThreshold * 1000) {
-                //recreate
-                size = internalSize();
-                addCachedSize(cache, new CachedSize(size, System.currentTimeMillis()));
-            } else {
-                LOGGER.trace("Size returning from cache.");
-                size = cachedSize.getSize();
-            }
+        CachedSize cachedSize = cache.get(key);
+        if (cachedSize != null && !isExpired(cachedSize)) {
+            LOGGER.trace("Size returning from cache.");
+            size = cachedSize.getSize();
         } else {
             //recreate
             size = internalSize();
-            addCachedSize(cache, new CachedSize(size, System.currentTimeMillis()));
+            if (cache.size() > CACHE_CLEANUP_SIZE) {
+                removeExpired(cache);
+            }
+            cache.put(key, new CachedSize(size, System.currentTimeMillis()));
         }
 
         LOGGER.trace("end::size()");
@@ -208,12 +220,21 @@ public abstract class BaseSortableDataProvider<T extends Serializable> extends S
 
     protected abstract int internalSize();
 
-    protected CachedSize getCachedSize(Map<Serializable, CachedSize> cache) {
-        return cache.get(query);
+    protected Serializable getCacheKey() {
+        return new TypedCacheKey(query, null);
     }
 
-    protected void addCachedSize(Map<Serializable, CachedSize> cache, CachedSize newSize) {
-        cache.put(query, newSize);
+    private boolean isExpired(CachedSize cachedSize) {
+        return System.currentTimeMillis() - cachedSize.getTimestamp() > cacheCleanupThreshold * 1000;
+    }
+
+    private void removeExpired(Map<Serializable, CachedSize> cache) {
+        Iterator<CachedSize> iterator = cache.values().iterator();
+        while (iterator.hasNext()) {
+            if (isExpired(iterator.next())) {
+                iterator.remove();
+            }
+        }
     }
 
     public static class CachedSize implements Serializable {
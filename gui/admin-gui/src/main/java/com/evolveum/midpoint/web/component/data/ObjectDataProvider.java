@@ -131,13 +131,8 @@ public class ObjectDataProvider<W extends Serializable, T extends ObjectType>
     }
 
     @Override
-    protected CachedSize getCachedSize(Map<Serializable, CachedSize> cache) {
-        return cache.get(new TypedCacheKey(getQuery(), type));
-    }
-
-    @Override
-    protected void addCachedSize(Map<Serializable, CachedSize> cache, CachedSize newSize) {
-        cache.put(new TypedCacheKey(getQuery(), type), newSize);
+    protected Serializable getCacheKey() {
+        return new TypedCacheKey(getQuery(), type);
     }
 
     public void setType(Class<T> type) {
@@ -197,13 +197,8 @@ public class RepositoryObjectDataProvider
     }
 
     @Override
-    protected CachedSize getCachedSize(Map<Serializable, CachedSize> cache) {
-        return cache.get(new TypedCacheKey(getQuery(), type));
-    }
-
-    @Override
-    protected void addCachedSize(Map<Serializable, CachedSize> cache, CachedSize newSize) {
-        cache.put(new TypedCacheKey(getQuery(), type), newSize);
+    protected Serializable getCacheKey() {
+        return new TypedCacheKey(getQuery(), type);
     }
 
     private static class ResourceDescription implements Serializable {
@@ -17,21 +17,32 @@
 package com.evolveum.midpoint.web.component.data;
 
 import com.evolveum.midpoint.prism.query.ObjectQuery;
-import com.evolveum.prism.xml.ns._public.query_3.QueryType;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.web.security.SecurityUtils;
 
 import java.io.Serializable;
 
 /**
+ * Key for cached count of objects. Object query doesn't implement equals, therefore query filter is stored
+ * as its debug dump. Paging is not part of the key, it doesn't change the count. Authorizations can make
+ * counts different for every user, therefore principal is part of the key too.
+ *
  * @author lazyman
  */
 public class TypedCacheKey implements Serializable {
 
-    private ObjectQuery query;
+    private String filter;
     private Class type;
+    private String principalOid;
 
     public TypedCacheKey(ObjectQuery query, Class type) {
-        this.query = query;
+        if (query != null && query.getFilter() != null) {
+            this.filter = query.getFilter().debugDump();
+        }
         this.type = type;
+
+        MidPointPrincipal principal = SecurityUtils.getPrincipalUser();
+        this.principalOid = principal != null ? principal.getOid() : null;
     }
 
     @Override
@@ -41,16 +52,19 @@ public class TypedCacheKey implements Serializable {
 
         TypedCacheKey cacheKey = (TypedCacheKey) o;
 
-        if (query != null ? !query.equals(cacheKey.query) : cacheKey.query != null) return false;
+        if (filter != null ? !filter.equals(cacheKey.filter) : cacheKey.filter != null) return false;
         if (type != null ? !type.equals(cacheKey.type) : cacheKey.type != null) return false;
+        if (principalOid != null ? !principalOid.equals(cacheKey.principalOid) : cacheKey.principalOid != null)
+            return false;
 
         return true;
     }
 
     @Override
     public int hashCode() {
-        int result = query != null ? query.hashCode() : 0;
+        int result = filter != null ? filter.hashCode() : 0;
         result = 31 * result + (type != null ? type.hashCode() : 0);
+        result = 31 * result + (principalOid != null ? principalOid.hashCode() : 0);
         return result;
     }
 }
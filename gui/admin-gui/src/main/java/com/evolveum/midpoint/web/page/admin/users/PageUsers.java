@@ -299,7 +299,9 @@ public class PageUsers extends PageAdminUsers {
                 };
         provider.setQuery(createQuery());
 
+        // table shows only indexed properties, full objects don't have to be loaded
         Collection<SelectorOptions<GetOperationOptions>> options = new ArrayList<SelectorOptions<GetOperationOptions>>();
+        options.add(new SelectorOptions<GetOperationOptions>(GetOperationOptions.createSummary()));
         options.add(SelectorOptions.create(UserType.F_LINK_REF,
                 GetOperationOptions.createRetrieve(RetrieveOption.INCLUDE)));
         options.add(SelectorOptions.create(UserType.F_ASSIGNMENT,
@@ -33,6 +33,7 @@ import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.web.application.DescriptorLoader;
 import com.evolveum.midpoint.web.component.GuiComponents;
 import com.evolveum.midpoint.web.component.atmosphere.NotifyMessage;
+import com.evolveum.midpoint.web.component.data.BaseSortableDataProvider;
 import com.evolveum.midpoint.web.page.admin.home.PageDashboard;
 import com.evolveum.midpoint.web.page.error.PageError;
 import com.evolveum.midpoint.web.page.error.PageError401;
@@ -68,6 +69,9 @@ import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author lazyman
@@ -104,6 +108,9 @@ public class MidPointApplication extends AuthenticatedWebApplication {
     transient Protector protector;
     private WebApplicationConfiguration webApplicationConfiguration;
 
+    private Map<Serializable, BaseSortableDataProvider.CachedSize> countCache =
+            new ConcurrentHashMap<Serializable, BaseSortableDataProvider.CachedSize>();
+
     @Override
     protected void onDestroy() {
         GuiComponents.destroy();
@@ -267,6 +274,10 @@ public class MidPointApplication extends AuthenticatedWebApplication {
         return modelInteractionService;
     }
 
+    public Map<Serializable, BaseSortableDataProvider.CachedSize> getCountCache() {
+        return countCache;
+    }
+
     public EventBus getEventBus() {
         return eventBus;
     }
@@ -38,6 +38,9 @@ public class DummyConfiguration extends AbstractConfiguration {
     private boolean supportSchema = true;
     private boolean supportActivation = true;
     private boolean supportValidity = false;
+    private boolean supportPaging = false;
+    private int maxPageSize = 0;
+    private boolean pageSizeOnly = false;
     private String uidMode =  UID_MODE_NAME;
     private boolean enforceUniqueName = true;
     private boolean readablePassword = false;
@@ -99,6 +102,50 @@ public class DummyConfiguration extends AbstractConfiguration {
 	public void setSupportValidity(boolean supportValidity) {
 		this.supportValidity = supportValidity;
 	}
+
+	/**
+     * If set to true the connector will declare and honor paged search options (page size,
+     * paged results cookie and offset).
+     */
+    @ConfigurationProperty(displayMessageKey = "UI_SUPPORT_PAGING",
+    		helpMessageKey = "UI_SUPPORT_PAGING_HELP")
+	public boolean getSupportPaging() {
+		return supportPaging;
+	}
+
+	public void setSupportPaging(boolean supportPaging) {
+		this.supportPaging = supportPaging;
+	}
+
+	/**
+     * Maximum number of objects returned in one page of a paged search. The page is cut at this
+     * size even if the client asks for more (and the paged results cookie points to the rest).
+     * Zero means no limit. Used to force several pages in tests with few objects.
+     */
+    @ConfigurationProperty(displayMessageKey = "UI_MAX_PAGE_SIZE",
+    		helpMessageKey = "UI_MAX_PAGE_SIZE_HELP")
+	public int getMaxPageSize() {
+		return maxPageSize;
+	}
+
+	public void setMaxPageSize(int maxPageSize) {
+		this.maxPageSize = maxPageSize;
+	}
+
+	/**
+     * If set to true (together with supportPaging) the connector declares only the page size option.
+     * It returns just the first page without paged results cookie, like a resource that can only limit
+     * the number of returned objects.
+     */
+    @ConfigurationProperty(displayMessageKey = "UI_PAGE_SIZE_ONLY",
+    		helpMessageKey = "UI_PAGE_SIZE_ONLY_HELP")
+	public boolean getPageSizeOnly() {
+		return pageSizeOnly;
+	}
+
+	public void setPageSizeOnly(boolean pageSizeOnly) {
+		this.pageSizeOnly = pageSizeOnly;
+	}
 	
 	@ConfigurationProperty(displayMessageKey = "UI_UID_MODE",
     		helpMessageKey = "UI_UID_MODE_HELP")
@@ -729,6 +729,14 @@ public class DummyConnector implements Connector, AuthenticateOp, ResolveUsernam
         builder.defineObjectClass(createGroupObjectClass(configuration.getSupportActivation()));
         builder.defineObjectClass(createPrivilegeObjectClass());
 
+        if (configuration.getSupportPaging()) {
+        	builder.defineOperationOption(OperationOptionInfoBuilder.buildPageSize(), SearchOp.class);
+        	if (!configuration.getPageSizeOnly()) {
+        		builder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsCookie(), SearchOp.class);
+        		builder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsOffset(), SearchOp.class);
+        	}
+        }
+
         log.info("schema::end");
         return builder.build();
     }
@@ -863,33 +871,25 @@ public class DummyConnector implements Connector, AuthenticateOp, ResolveUsernam
         Collection<String> attributesToGet = getAttrsToGet(options);
         
         try {
+	        Collection<? extends DummyObject> objects;
 	        if (ObjectClass.ACCOUNT.is(objectClass.getObjectClassValue())) {
-	        	
-		        Collection<DummyAccount> accounts = resource.listAccounts();
-		        for (DummyAccount account : accounts) {
-		        	ConnectorObject co = convertToConnectorObject(account, attributesToGet);
-		        	handler.handle(co);
-		        }
-		        
+	        	objects = resource.listAccounts();
 	        } else if (ObjectClass.GROUP.is(objectClass.getObjectClassValue())) {
-	        	
-	        	Collection<DummyGroup> groups = resource.listGroups();
-		        for (DummyGroup group : groups) {
-		        	ConnectorObject co = convertToConnectorObject(group, attributesToGet);
-		        	handler.handle(co);
-		        }
-		        
+	        	objects = resource.listGroups();
 	        } else if (objectClass.is(OBJECTCLASS_PRIVILEGE_NAME)) {
-	        	
-	        	Collection<DummyPrivilege> privs = resource.listPrivileges();
-		        for (DummyPrivilege priv : privs) {
-		        	ConnectorObject co = convertToConnectorObject(priv, attributesToGet);
-		        	handler.handle(co);
-		        }
-	        	
+	        	objects = resource.listPrivileges();
 	        } else {
 	        	throw new ConnectorException("Unknown object class "+objectClass);
 	        }
+
+	        if (configuration.getSupportPaging() && options != null && options.getPageSize() != null) {
+	        	executePagedQuery(objects, handler, options, attributesToGet);
+	        } else {
+		        for (DummyObject object : objects) {
+		        	ConnectorObject co = convertToConnectorObject(object, attributesToGet);
+		        	handler.handle(co);
+		        }
+	        }
 	        
 		} catch (ConnectException e) {
 	        log.info("executeQuery::exception "+e);
@@ -902,6 +902,54 @@ public class DummyConnector implements Connector, AuthenticateOp, ResolveUsernam
         log.info("executeQuery::end");
     }
 
+    /**
+     * Returns one page of objects. The paged results cookie is simply the index of the
+     * first object of the next page.
+     */
+    private void executePagedQuery(Collection<? extends DummyObject> objects, ResultsHandler handler,
+    		OperationOptions options, Collection<String> attributesToGet) {
+    	int pageSize = options.getPageSize();
+    	if (configuration.getMaxPageSize() > 0 && pageSize > configuration.getMaxPageSize()) {
+    		pageSize = configuration.getMaxPageSize();
+    	}
+    	int first = 0;
+    	if (options.getPagedResultsCookie() != null) {
+    		first = Integer.parseInt(options.getPagedResultsCookie());
+    	} else if (options.getPagedResultsOffset() != null) {
+    		// ICF offsets are 1-based
+    		first = options.getPagedResultsOffset() - 1;
+    	}
+    	log.info("executeQuery::page first={0}, size={1}", first, pageSize);
+
+    	int index = 0;
+    	int returned = 0;
+    	for (DummyObject object : objects) {
+    		if (index < first) {
+    			index++;
+    			continue;
+    		}
+    		if (returned >= pageSize) {
+    			break;
+    		}
+    		ConnectorObject co = convertToConnectorObject(object, attributesToGet);
+    		index++;
+    		returned++;
+    		if (!handler.handle(co)) {
+    			break;
+    		}
+    	}
+
+    	if (configuration.getPageSizeOnly()) {
+    		// nothing is known about the rest
+    		return;
+    	}
+    	if (handler instanceof SearchResultsHandler) {
+    		int remaining = Math.max(objects.size() - index, 0);
+    		String cookie = remaining > 0 ? Integer.toString(index) : null;
+    		((SearchResultsHandler) handler).handleResult(new SearchResult(cookie, remaining));
+    	}
+    }
+
 	/**
      * {@inheritDoc}
      */
@@ -948,7 +996,10 @@ public class DummyConnector implements Connector, AuthenticateOp, ResolveUsernam
 	        	
 	        	SyncDelta syncDelta = builder.build();
 	        	log.info("sync::handle {0}",syncDelta);
-				handler.handle(syncDelta);
+				if (!handler.handle(syncDelta)) {
+					log.info("sync::stopped by the handler");
+					break;
+				}
 	        }
 	        
 		} catch (ConnectException e) {
@@ -1070,6 +1121,18 @@ public class DummyConnector implements Connector, AuthenticateOp, ResolveUsernam
 		return date.getTime();
 	}
 
+	private ConnectorObject convertToConnectorObject(DummyObject object, Collection<String> attributesToGet) {
+		if (object instanceof DummyAccount) {
+			return convertToConnectorObject((DummyAccount) object, attributesToGet);
+		} else if (object instanceof DummyGroup) {
+			return convertToConnectorObject((DummyGroup) object, attributesToGet);
+		} else if (object instanceof DummyPrivilege) {
+			return convertToConnectorObject((DummyPrivilege) object, attributesToGet);
+		} else {
+			throw new ConnectorException("Unknown dummy object "+object);
+		}
+	}
+
 	private ConnectorObject convertToConnectorObject(DummyAccount account, Collection<String> attributesToGet) {
 		
 		DummyObjectClass objectClass;
@@ -15,63 +15,104 @@
  */
 package com.evolveum.midpoint.common.monitor;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
+ * Counters are updated without locking, caches record every request from many threads.
+ *
  * @author semancik
  *
  */
 public class CachingStatistics {
 	
-	private long requests = 0;
-	private long hits = 0;
-	private long misses = 0;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	// loads of missing values (e.g. script compilations), time in nanoseconds
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong loadTime = new AtomicLong();
 	
 	public long getRequests() {
-		return requests;
+		return requests.get();
 	}
 	
-	public synchronized void setRequests(long requests) {
-		this.requests = requests;
+	public void setRequests(long requests) {
+		this.requests.set(requests);
 	}
 	
-	public synchronized void recordRequest() {
-		this.requests++;
+	public void recordRequest() {
+		this.requests.incrementAndGet();
 	}
 	
 	public long getHits() {
-		return hits;
+		return hits.get();
 	}
 	
-	public synchronized void setHits(long hits) {
-		this.hits = hits;
+	public void setHits(long hits) {
+		this.hits.set(hits);
 	}
 	
-	public synchronized void recordHit() {
-		this.hits++;
+	public void recordHit() {
+		this.hits.incrementAndGet();
 	}
 	
 	public long getMisses() {
-		return misses;
+		return misses.get();
 	}
 	
-	public synchronized void setMisses(long misses) {
-		this.misses = misses;
+	public void setMisses(long misses) {
+		this.misses.set(misses);
 	}
 	
-	public synchronized void recordMiss() {
-		this.misses++;
+	public void recordMiss() {
+		this.misses.incrementAndGet();
 	}
 	
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public void setEvictions(long evictions) {
+		this.evictions.set(evictions);
+	}
+
+	public void recordEviction() {
+		this.evictions.incrementAndGet();
+	}
+
+	public long getLoads() {
+		return loads.get();
+	}
+
+	/**
+	 * @return total time spent loading missing values, in milliseconds
+	 */
+	public long getLoadTime() {
+		return TimeUnit.NANOSECONDS.toMillis(loadTime.get());
+	}
+
+	public void recordLoad(long nanos) {
+		this.loads.incrementAndGet();
+		this.loadTime.addAndGet(nanos);
+	}
+
 	public CachingStatistics clone() {
 		CachingStatistics clone = new CachingStatistics();
-		clone.requests = this.requests;
-		clone.hits = this.hits;
-		clone.misses = this.misses;
+		clone.requests.set(this.requests.get());
+		clone.hits.set(this.hits.get());
+		clone.misses.set(this.misses.get());
+		clone.evictions.set(this.evictions.get());
+		clone.loads.set(this.loads.get());
+		clone.loadTime.set(this.loadTime.get());
 		return clone;
 	}
 
 	@Override
 	public String toString() {
-		return "CachingStatistics(requests=" + requests + ", hits=" + hits + ", misses=" + misses + ")";
+		return "CachingStatistics(requests=" + requests + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+				+ ", loads=" + loads + ", loadTime=" + getLoadTime() + "ms)";
 	}
 
 }
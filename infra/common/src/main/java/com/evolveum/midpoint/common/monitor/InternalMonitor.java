@@ -18,6 +18,11 @@ package com.evolveum.midpoint.common.monitor;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Simple monitoring object. It records the count of expensive operations
  * in the system. It is used in the tests to make sure such operations are not
@@ -39,6 +44,8 @@ public class InternalMonitor {
 	private static long connectorCapabilitiesFetchCount = 0;
 	private static CachingStatistics resourceCacheStats = new CachingStatistics();
 	private static CachingStatistics connectorCacheStats = new CachingStatistics();
+	private static CachingStatistics repositoryCacheStats = new CachingStatistics();
+	private static final ConcurrentMap<String, CachingStatistics> namedCacheStats = new ConcurrentHashMap<String, CachingStatistics>();
 	private static long scriptCompileCount = 0;
 	private static long scriptExecutionCount = 0;
 	
@@ -107,6 +114,40 @@ public class InternalMonitor {
 		return connectorCacheStats;
 	}
 
+	/**
+	 * Statistics of node-wide (global) repository object cache.
+	 */
+	public static CachingStatistics getRepositoryCacheStats() {
+		return repositoryCacheStats;
+	}
+
+	/**
+	 * Statistics of cache with specified name (e.g. expression cache or compiled script cache of one script evaluator).
+	 * Statistics are created on first use.
+	 */
+	public static CachingStatistics getCacheStats(String cacheName) {
+		CachingStatistics stats = namedCacheStats.get(cacheName);
+		if (stats == null) {
+			CachingStatistics newStats = new CachingStatistics();
+			stats = namedCacheStats.putIfAbsent(cacheName, newStats);
+			if (stats == null) {
+				stats = newStats;
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * @return copy of statistics of all named caches, sorted by cache name
+	 */
+	public static Map<String, CachingStatistics> getAllCacheStats() {
+		Map<String, CachingStatistics> all = new TreeMap<String, CachingStatistics>();
+		for (Map.Entry<String, CachingStatistics> entry : namedCacheStats.entrySet()) {
+			all.put(entry.getKey(), entry.getValue().clone());
+		}
+		return all;
+	}
+
 	public static long getScriptCompileCount() {
 		return scriptCompileCount;
 	}
@@ -115,7 +156,7 @@ public class InternalMonitor {
 		InternalMonitor.scriptCompileCount = scriptCompileCount;
 	}
 	
-	public static void recordScriptCompile() {
+	public synchronized static void recordScriptCompile() {
 		scriptCompileCount++;
 	}
 
@@ -127,7 +168,7 @@ public class InternalMonitor {
 		InternalMonitor.scriptExecutionCount = scriptExecutionCount;
 	}
 	
-	public static void recordScriptExecution() {
+	public synchronized static void recordScriptExecution() {
 		scriptExecutionCount++;
 	}
 
@@ -188,6 +229,8 @@ public class InternalMonitor {
 		connectorCapabilitiesFetchCount = 0;
 		resourceCacheStats = new CachingStatistics();
 		connectorCacheStats = new CachingStatistics();
+		repositoryCacheStats = new CachingStatistics();
+		namedCacheStats.clear();
 		scriptCompileCount = 0;
 		scriptExecutionCount = 0;
 		shadowFetchOperationCount = 0;
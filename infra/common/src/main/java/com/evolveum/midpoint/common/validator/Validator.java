@@ -20,8 +20,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -38,6 +51,9 @@ import javax.xml.validation.Schema;
 
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.staxmate.dom.DOMConverter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -77,6 +93,10 @@ public class Validator {
 	private static final String OPERATION_RESOURCE_BASICS_CHECK = OPERATION_PREFIX + "objectBasicsCheck";
 	private static final String START_LINE_NUMBER = "startLineNumber";
 	private static final String END_LINE_NUMBER = "endLineNumber";
+	/**
+	 * Number of objects waiting for (or being processed by) a worker, per worker thread.
+	 */
+	private static final int PENDING_OBJECTS_PER_THREAD = 4;
 	private boolean verbose = false;
 	private boolean validateSchemas = true;
 	private boolean allowAnyType = false;
@@ -85,7 +105,8 @@ public class Validator {
 	private Unmarshaller unmarshaller = null;
 	private PrismContext prismContext;
 	private Schema midPointJavaxSchema;
-	private javax.xml.validation.Validator xsdValidator;
+	private ThreadLocal<javax.xml.validation.Validator> xsdValidator;
+	private int workerThreads = 0;
 	long progress = 0;
 	long errors = 0;
 	long stopAfterErrors = 0;
@@ -106,10 +127,17 @@ public class Validator {
 		if (prismContext == null) {
 			throw new IllegalStateException("No prism context set during validator initialization");
 		}
-		SchemaRegistry schemaRegistry = prismContext.getSchemaRegistry();
+		final SchemaRegistry schemaRegistry = prismContext.getSchemaRegistry();
 		midPointJavaxSchema = schemaRegistry.getJavaxSchema();
-		xsdValidator = midPointJavaxSchema.newValidator();
-		xsdValidator.setResourceResolver(schemaRegistry);
+		// XSD validators are not thread-safe, each worker thread needs its own one
+		xsdValidator = new ThreadLocal<javax.xml.validation.Validator>() {
+			@Override
+			protected javax.xml.validation.Validator initialValue() {
+				javax.xml.validation.Validator validator = midPointJavaxSchema.newValidator();
+				validator.setResourceResolver(schemaRegistry);
+				return validator;
+			}
+		};
 	}
 
 	public EventHandler getHandler() {
@@ -156,6 +184,26 @@ public class Validator {
 		this.stopAfterErrors = stopAfterErrors;
 	}
 
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	/**
+	 * Number of threads that validate, parse and handle the objects (including the handler's postMarshall
+	 * call) when a file with several objects is processed. The objects are still read from the stream by the
+	 * calling thread and their results are recorded in the order of the input. Zero or one means that
+	 * everything is done by the calling thread.
+	 * 
+	 * The handler has to be thread-safe if more threads are used. Workers run with the authentication of the
+	 * calling thread. Objects are not processed in the order of the input, except that an object with a reference
+	 * specified by filter or with a reference to the OID of an object that is still being processed waits until
+	 * all preceding objects are done. When the processing is stopped (by the handler
+	 * or by too many errors), the objects that were already passed to the workers are still processed.
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
 	public long getProgress() {
 		return progress;
 	}
@@ -219,6 +267,13 @@ public class Validator {
 				throw new SystemException("StAX Malfunction?");
 			}
 
+			if (workerThreads > 1) {
+				if (!validateObjectsInParallel(stream, rootNamespaceDeclarations, validatorResult,
+						objectResultOperationName)) {
+					return;
+				}
+			}
+
 			while (stream.hasNext()) {
 				eventType = stream.next();
 				if (eventType == XMLStreamConstants.START_ELEMENT) {
@@ -282,8 +337,199 @@ public class Validator {
 
 	}
 
+	/**
+	 * Reads the objects from the stream and passes them to worker threads. The results of the objects are
+	 * added to the validator result in the order of the input, as soon as all the preceding objects are done.
+	 * Workers run with the authentication of the calling thread.
+	 * <p>
+	 * Objects with references specified by filter are processed only after all preceding objects are done,
+	 * because the filter may point to an object that precedes it in the same stream. The same applies to objects
+	 * that refer to the OID of a preceding object which is not done yet (e.g. referential integrity is checked
+	 * by the handler).
+	 * 
+	 * @return false if the processing was stopped
+	 */
+	private boolean validateObjectsInParallel(XMLStreamReader stream, Map<String, String> rootNamespaceDeclarations,
+			OperationResult validatorResult, String objectResultOperationName) throws XMLStreamException {
+		
+		final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		ExecutorService executor = Executors.newFixedThreadPool(workerThreads, new WorkerThreadFactory());
+		Deque<PendingObject> pending = new ArrayDeque<PendingObject>();
+		int maxPending = workerThreads * PENDING_OBJECTS_PER_THREAD;
+		boolean cont = true;
+		try {
+			while (cont && stream.hasNext()) {
+				int eventType = stream.next();
+				if (eventType != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				
+				// the result is added to the validator result when the object is done, to keep the order
+				final OperationResult objectResult = new OperationResult(objectResultOperationName);
+				progress++;
+				objectResult.addContext(OperationResult.CONTEXT_PROGRESS, progress);
+				
+				final Element objectElement = readFromStream(stream, objectResult, rootNamespaceDeclarations, validatorResult);
+				PendingObject pendingObject = new PendingObject(objectResult,
+						objectElement != null ? getOid(objectElement) : null);
+				if (objectElement == null) {
+					pendingObject.eventResult = EventResult.skipObject();
+				} else {
+					if (dependsOnPending(objectElement, pending)) {
+						while (cont && !pending.isEmpty()) {
+							cont = completeObject(pending.removeFirst(), validatorResult);
+						}
+						if (!cont) {
+							break;
+						}
+					}
+					pendingObject.future = executor.submit(new Callable<EventResult>() {
+						@Override
+						public EventResult call() {
+							SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+							securityContext.setAuthentication(authentication);
+							SecurityContextHolder.setContext(securityContext);
+							try {
+								// global errors are recorded in the object result, the validator result is not thread-safe
+								return validateObjectInternal(objectElement, objectResult, objectResult);
+							} finally {
+								SecurityContextHolder.clearContext();
+							}
+						}
+					});
+				}
+				pending.addLast(pendingObject);
+				
+				while (cont && !pending.isEmpty() 
+						&& (pending.size() >= maxPending || pending.peekFirst().isDone())) {
+					cont = completeObject(pending.removeFirst(), validatorResult);
+				}
+			}
+			
+			// wait for the objects that are still being processed, even if the processing was stopped 
+			while (!pending.isEmpty()) {
+				boolean objectCont = completeObject(pending.removeFirst(), validatorResult);
+				cont = cont && objectCont;
+			}
+			return cont;
+			
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if any reference in the object (element named *Ref) is specified by a filter or points
+	 * to an object that is still pending.
+	 */
+	private boolean dependsOnPending(Element element, Collection<PendingObject> pending) {
+		if (pending.isEmpty()) {
+			return false;
+		}
+		Set<String> pendingOids = new HashSet<String>();
+		for (PendingObject pendingObject : pending) {
+			if (pendingObject.oid != null) {
+				pendingOids.add(pendingObject.oid);
+			}
+		}
+		return hasDependentReference(element, pendingOids);
+	}
+
+	private boolean hasDependentReference(Element element, Set<String> pendingOids) {
+		for (Element child : DOMUtil.listChildElements(element)) {
+			String localName = child.getLocalName();
+			if (localName != null && localName.endsWith("Ref")) {
+				if (DOMUtil.getChildElement(child, "filter") != null) {
+					return true;
+				}
+				String oid = getOid(child);
+				if (oid != null && pendingOids.contains(oid)) {
+					return true;
+				}
+			}
+			if (hasDependentReference(child, pendingOids)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String getOid(Element element) {
+		String oid = element.getAttribute("oid");
+		return StringUtils.isBlank(oid) ? null : oid;
+	}
+
+	private boolean completeObject(PendingObject pendingObject, OperationResult validatorResult) {
+		OperationResult objectResult = pendingObject.objectResult;
+		EventResult cont;
+		try {
+			cont = pendingObject.getEventResult();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			validatorResult.recordFatalError("Processing has been interrupted");
+			return false;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (objectResult.isUnknown()) {
+				// Make sure that unexpected error is recorded.
+				objectResult.recordFatalError(cause);
+			}
+			validatorResult.addSubresult(objectResult);
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SystemException(cause.getMessage(), cause);
+		}
+		
+		validatorResult.addSubresult(objectResult);
+		if (objectResult.isError()) {
+			errors++;
+		}
+		
+		objectResult.cleanupResult();
+		validatorResult.summarize();
+		
+		if (cont.isStop()) {
+			if (cont.getReason() != null) {
+				validatorResult.recordFatalError("Processing has been stopped: " + cont.getReason());
+			} else {
+				validatorResult.recordFatalError("Processing has been stopped");
+			}
+			return false;
+		}
+		if (!cont.isCont()) {
+			if (stopAfterErrors > 0 && errors >= stopAfterErrors) {
+				validatorResult.recordFatalError("Too many errors (" + errors + ")");
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private EventResult readFromStreamAndValidate(XMLStreamReader stream, OperationResult objectResult,
 			Map<String, String> rootNamespaceDeclarations, OperationResult validatorResult) {
+		
+		Element objectElement = readFromStream(stream, objectResult, rootNamespaceDeclarations, validatorResult);
+		if (objectElement == null) {
+			return EventResult.skipObject();
+		}
+		return validateObjectInternal(objectElement, objectResult, validatorResult);
+	}
+	
+	/**
+	 * Reads single object from the stream to DOM.
+	 * 
+	 * @return object element or null if the object cannot be parsed (the error is recorded in the results)
+	 */
+	private Element readFromStream(XMLStreamReader stream, OperationResult objectResult,
+			Map<String, String> rootNamespaceDeclarations, OperationResult validatorResult) {
 
 		objectResult.addContext(START_LINE_NUMBER, stream.getLocation().getLineNumber());
 
@@ -297,7 +543,7 @@ public class Validator {
 				handler.handleGlobalError(validatorResult);
 			}
 			objectResult.recordFatalError(ex);
-			return EventResult.skipObject();
+			return null;
 		}
 
 		objectResult.addContext(END_LINE_NUMBER, stream.getLocation().getLineNumber());
@@ -308,8 +554,7 @@ public class Validator {
 		// element
 		Element objectElement = DOMUtil.getFirstChildElement(objectDoc);
 		DOMUtil.setNamespaceDeclarations(objectElement, rootNamespaceDeclarations);
-
-		return validateObjectInternal(objectElement, objectResult, validatorResult);
+		return objectElement;
 	}
 	
 	public EventResult validateObject(String stringXml, OperationResult objectResult) {
@@ -426,7 +671,7 @@ public class Validator {
 		OperationResult result = objectResult.createSubresult(Validator.class.getName() + ".validateSchema");
 		DOMResult validationResult = new DOMResult();
 		try {
-			xsdValidator.validate(new DOMSource(objectDoc), validationResult);
+			xsdValidator.get().validate(new DOMSource(objectDoc), validationResult);
 		} catch (SAXException e) {
 			result.recordFatalError("Validation error: " + e.getMessage(), e);
 			objectResult.computeStatus("Validation error: " + e.getMessage());
@@ -517,4 +762,37 @@ public class Validator {
 		subResult.recordFatalError("<" + propertyName + ">: " + message);
 	}
 
+	private static class PendingObject {
+		
+		private final OperationResult objectResult;
+		private final String oid;
+		private Future<EventResult> future;
+		private EventResult eventResult;
+		
+		PendingObject(OperationResult objectResult, String oid) {
+			this.objectResult = objectResult;
+			this.oid = oid;
+		}
+		
+		boolean isDone() {
+			return future == null || future.isDone();
+		}
+		
+		EventResult getEventResult() throws InterruptedException, ExecutionException {
+			return future != null ? future.get() : eventResult;
+		}
+	}
+	
+	private static class WorkerThreadFactory implements ThreadFactory {
+		
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "validator-worker-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
 }
@@ -29,6 +29,7 @@ public class ObjectPaging implements DebugDumpable, Serializable {
 	private Integer maxSize;
 	private QName orderBy;
 	private OrderDirection direction;
+	private String cookie;
 
 	
 	ObjectPaging() {
@@ -86,6 +87,24 @@ public class ObjectPaging implements DebugDumpable, Serializable {
 		this.orderBy = orderBy;
 	}
 	
+	/**
+	 * Opaque position in the result set. If set, the search continues after the position
+	 * (and it is ordered in a way that makes the position meaningful). Empty string means
+	 * the beginning of such ordered result set.
+	 * 
+	 * The cookie is owned by the repository: repository iterative search uses OID of the last
+	 * returned object as a cookie (keyset position). It has no meaning for a resource. Provisioning
+	 * does not pass it to connectors and the paged results cookies of the connectors are never
+	 * stored here, they are kept inside the connector search that walks the pages.
+	 */
+	public String getCookie() {
+		return cookie;
+	}
+
+	public void setCookie(String cookie) {
+		this.cookie = cookie;
+	}
+
 	public Integer getMaxSize() {
 		return maxSize;
 	}
@@ -95,7 +114,9 @@ public class ObjectPaging implements DebugDumpable, Serializable {
 	}
 	
 	public ObjectPaging clone() {
-		return new ObjectPaging(offset, maxSize, orderBy, direction);
+		ObjectPaging clone = new ObjectPaging(offset, maxSize, orderBy, direction);
+		clone.cookie = cookie;
+		return clone;
 	}
 
 	@Override
@@ -124,6 +145,10 @@ public class ObjectPaging implements DebugDumpable, Serializable {
 			sb.append("Order direction: " + getDirection());
 			sb.append("\n");
 		}
+		if (getCookie() != null) {
+			sb.append("Cookie: " + getCookie());
+			sb.append("\n");
+		}
 		return sb.toString();
 	}
 	
@@ -154,6 +179,10 @@ public class ObjectPaging implements DebugDumpable, Serializable {
 			sb.append("D:");
 			sb.append(getDirection());
 		}
+		if (getCookie() != null){
+			sb.append(", C: ");
+			sb.append(getCookie());
+		}
 		
 		return sb.toString();
 	}
@@ -16,6 +16,7 @@
 package com.evolveum.midpoint.schema;
 
 import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.xml.ns._public.common.api_types_3.GetOperationOptionsType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 import javax.xml.namespace.QName;
@@ -23,6 +24,7 @@ import javax.xml.namespace.QName;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * @author semancik
@@ -80,6 +82,14 @@ public class GetOperationOptions implements Serializable {
 	 */
 	Boolean doNotDiscovery;
 	
+	/**
+	 * Return only object summary, i.e. items which the repository keeps in indexed columns (name, some
+	 * well-known user properties, activation status, links and assignment targets). Full object data are not read
+	 * nor parsed. Returned objects are incomplete and must not be used as a base for modifications.
+	 * It is meant for listing large amounts of objects, e.g. in GUI tables.
+	 */
+	Boolean summary;
+	
 	
 	public RetrieveOption getRetrieve() {
 		return retrieve;
@@ -163,6 +173,16 @@ public class GetOperationOptions implements Serializable {
         return optionsCollection;
     }
 
+    /**
+     * Retrieves only object name and specified top-level items, other items are excluded. Repository doesn't
+     * convert items which were not requested to prism items.
+     */
+    public static Collection<SelectorOptions<GetOperationOptions>> createRetrieveOnlyOptions(QName... items) {
+        Collection<SelectorOptions<GetOperationOptions>> optionsCollection = createRetrieveAttributesOptions(items);
+        optionsCollection.add(SelectorOptions.create(ItemPath.EMPTY_PATH, createRetrieve(RetrieveOption.EXCLUDE)));
+        return optionsCollection;
+    }
+
     public Boolean getRaw() {
 		return raw;
 	}
@@ -211,6 +231,68 @@ public class GetOperationOptions implements Serializable {
 		return opts;
 	}
 
+	public Boolean getSummary() {
+		return summary;
+	}
+
+	public void setSummary(Boolean summary) {
+		this.summary = summary;
+	}
+	
+	public static boolean isSummary(GetOperationOptions options) {
+		if (options == null) {
+			return false;
+		}
+		if (options.summary == null) {
+			return false;
+		}
+		return options.summary;
+	}
+	
+	public static GetOperationOptions createSummary() {
+		GetOperationOptions opts = new GetOperationOptions();
+		opts.setSummary(true);
+		return opts;
+	}
+
+	/**
+	 * Creates root options from REST query parameters, e.g. ?options=raw&options=noFetch.
+	 * Unknown options are ignored.
+	 */
+	public static GetOperationOptions fromRestOptions(List<String> options) {
+		if (options == null || options.isEmpty()) {
+			return null;
+		}
+
+		GetOperationOptions opts = new GetOperationOptions();
+		for (String option : options) {
+			if (GetOperationOptionsType.F_RAW.getLocalPart().equals(option)) {
+				opts.setRaw(true);
+			}
+			if (GetOperationOptionsType.F_NO_FETCH.getLocalPart().equals(option)) {
+				opts.setNoFetch(true);
+			}
+			if (GetOperationOptionsType.F_RESOLVE.getLocalPart().equals(option)) {
+				opts.setResolve(true);
+			}
+			if (GetOperationOptionsType.F_NO_DISCOVERY.getLocalPart().equals(option)) {
+				opts.setDoNotDiscovery(true);
+			}
+		}
+		return opts;
+	}
+
+
+	public GetOperationOptions clone() {
+		GetOperationOptions clone = new GetOperationOptions();
+		clone.retrieve = this.retrieve;
+		clone.resolve = this.resolve;
+		clone.noFetch = this.noFetch;
+		clone.raw = this.raw;
+		clone.doNotDiscovery = this.doNotDiscovery;
+		clone.summary = this.summary;
+		return clone;
+	}
 
 	@Override
 	public int hashCode() {
@@ -220,6 +302,7 @@ public class GetOperationOptions implements Serializable {
 		result = prime * result + ((raw == null) ? 0 : raw.hashCode());
 		result = prime * result + ((resolve == null) ? 0 : resolve.hashCode());
 		result = prime * result + ((doNotDiscovery == null) ? 0 : doNotDiscovery.hashCode());
+		result = prime * result + ((summary == null) ? 0 : summary.hashCode());
 		return result;
 	}
 
@@ -252,6 +335,11 @@ public class GetOperationOptions implements Serializable {
 				return false;
 		} else if (!doNotDiscovery.equals(other.doNotDiscovery))
 			return false;
+		if (summary == null) {
+			if (other.summary != null)
+				return false;
+		} else if (!summary.equals(other.summary))
+			return false;
         if (retrieve != null ? !retrieve.equals(other.retrieve) : other.retrieve != null)
             return false;
 
@@ -261,7 +349,7 @@ public class GetOperationOptions implements Serializable {
 	@Override
 	public String toString() {
 		return "GetOperationOptions(resolve=" + resolve + ", noFetch=" + noFetch
-				+ ", raw=" + raw + ", doNotDiscovery="+doNotDiscovery+", retrieve="+retrieve+")";
+				+ ", raw=" + raw + ", doNotDiscovery="+doNotDiscovery+", summary="+summary+", retrieve="+retrieve+")";
 	}
 
 }
@@ -168,6 +168,19 @@ public abstract class SchemaConstants {
 	public static final String MODEL_DISABLE_REASON_MAPPED = QNameUtil.qNameToUri(new QName(NS_MODEL_DISABLE_REASON, "mapped"));
 	
     public static final QName MODEL_EXTENSION_OBJECT_QUERY = new QName(NS_MODEL_EXTENSION, "objectQuery");
+    public static final QName MODEL_EXTENSION_LAST_PROCESSED_OID = new QName(NS_MODEL_EXTENSION, "lastProcessedOid");
+    public static final QName MODEL_EXTENSION_WORKER_THREADS = new QName(NS_MODEL_EXTENSION, "workerThreads");
+    public static final QName MODEL_EXTENSION_WORK_BUCKET_COUNT = new QName(NS_MODEL_EXTENSION, "workBucketCount");
+    public static final QName MODEL_EXTENSION_WORKER_TASKS = new QName(NS_MODEL_EXTENSION, "workerTasks");
+    public static final QName MODEL_EXTENSION_WORK_BUCKET = new QName(NS_MODEL_EXTENSION, "workBucket");
+    public static final QName MODEL_EXTENSION_WORK_BUCKET_WORKER = new QName(NS_MODEL_EXTENSION, "workBucketWorker");
+    public static final QName MODEL_EXTENSION_LIVE_SYNC_CHECKPOINT_CHANGES = new QName(NS_MODEL_EXTENSION, "liveSyncCheckpointChanges");
+    public static final QName MODEL_EXTENSION_LIVE_SYNC_CHECKPOINT_INTERVAL = new QName(NS_MODEL_EXTENSION, "liveSyncCheckpointInterval");
+    public static final QName MODEL_EXTENSION_BULK_CORRELATION = new QName(NS_MODEL_EXTENSION, "bulkCorrelation");
+    public static final QName MODEL_EXTENSION_ROLE_EVALUATION_CACHE = new QName(NS_MODEL_EXTENSION, "roleEvaluationCache");
+    public static final QName MODEL_EXTENSION_OBJECT_DELTA = new QName(NS_MODEL_EXTENSION, "objectDelta");
+    public static final QName MODEL_EXTENSION_EXECUTE_OPTIONS = new QName(NS_MODEL_EXTENSION, "executeOptions");
+    public static final QName MODEL_EXTENSION_BATCH_SIZE = new QName(NS_MODEL_EXTENSION, "batchSize");
 
     public static final String NS_GUI = NS_MIDPOINT_PUBLIC + "/gui";
 	public static final String NS_GUI_CHANNEL = NS_GUI + "/channels-3";
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.util.exception;
+
+/**
+ * Precondition of a conditional operation (e.g. conditional modification of a repository object)
+ * does not hold. Nothing was changed.
+ * 
+ * This is a normal outcome of optimistic "test-and-set" style operations, the caller is expected
+ * to re-read the current state and decide whether to retry.
+ * 
+ * @author Radovan Semancik
+ *
+ */
+public class PreconditionViolationException extends CommonException {
+
+	public PreconditionViolationException() {
+	}
+
+	public PreconditionViolationException(String message) {
+		super(message);
+	}
+
+	public PreconditionViolationException(Throwable cause) {
+		super(cause);
+	}
+
+	public PreconditionViolationException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	@Override
+	public String getOperationResultMessage() {
+		return "Precondition violation";
+	}
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.common.expression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
+import com.evolveum.midpoint.common.monitor.InternalMonitor;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Thread-safe cache of values which are expensive to create (parsed expressions, compiled scripts).
+ * 
+ * The number of entries is bounded. When the cache grows over its maximal size, least recently used entries
+ * are evicted in one batch, so the eviction cost is spread over many insertions. Missing values are loaded
+ * only once: if several threads ask for the same missing key, one of them loads the value and the others
+ * wait for it. Loading failures are not cached.
+ * 
+ * Hits, misses, evictions and load times are recorded in {@link InternalMonitor} under the cache name.
+ * 
+ * @author Radovan Semancik
+ *
+ */
+public class BoundedCache<K, V> {
+	
+	private static final Trace LOGGER = TraceManager.getTrace(BoundedCache.class);
+	
+	/**
+	 * Part of entries evicted when the cache is full.
+	 */
+	private static final double EVICTION_FACTOR = 0.1;
+	
+	public interface Loader<V, E extends Exception> {
+		
+		V load() throws E;
+	}
+	
+	private static class Entry<V> {
+		
+		private volatile V value;
+		private volatile long lastAccess;
+	}
+	
+	private final String name;
+	private volatile int maxSize;
+	private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+	private final AtomicLong clock = new AtomicLong();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	
+	/**
+	 * @param name name of statistics in {@link InternalMonitor}
+	 * @param maxSize maximal number of entries, zero or negative number means that nothing is cached
+	 */
+	public BoundedCache(String name, int maxSize) {
+		this.name = name;
+		this.maxSize = maxSize;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		evictIfNeeded();
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	public void clear() {
+		entries.clear();
+	}
+	
+	public CachingStatistics getStatistics() {
+		return InternalMonitor.getCacheStats(name);
+	}
+	
+	/**
+	 * Returns cached value or loads it using the loader.
+	 */
+	public <E extends Exception> V get(K key, Loader<V, E> loader) throws E {
+		CachingStatistics stats = getStatistics();
+		stats.recordRequest();
+		
+		Entry<V> entry = entries.get(key);
+		if (entry != null && entry.value != null) {
+			stats.recordHit();
+			entry.lastAccess = clock.incrementAndGet();
+			return entry.value;
+		}
+		
+		if (maxSize <= 0) {
+			stats.recordMiss();
+			return load(loader, stats);
+		}
+		
+		if (entry == null) {
+			Entry<V> newEntry = new Entry<V>();
+			entry = entries.putIfAbsent(key, newEntry);
+			if (entry == null) {
+				entry = newEntry;
+			}
+		}
+		
+		boolean loaded = false;
+		synchronized (entry) {
+			if (entry.value == null) {
+				stats.recordMiss();
+				try {
+					entry.value = load(loader, stats);
+				} catch (Throwable t) {
+					entries.remove(key, entry);
+					throw t;
+				}
+				loaded = true;
+			} else {
+				stats.recordHit();
+			}
+			entry.lastAccess = clock.incrementAndGet();
+		}
+		
+		if (loaded) {
+			evictIfNeeded();
+		}
+		return entry.value;
+	}
+	
+	private <E extends Exception> V load(Loader<V, E> loader, CachingStatistics stats) throws E {
+		long start = System.nanoTime();
+		try {
+			return loader.load();
+		} finally {
+			stats.recordLoad(System.nanoTime() - start);
+		}
+	}
+	
+	private void evictIfNeeded() {
+		if (entries.size() <= maxSize || !evictionLock.tryLock()) {
+			// another thread is already evicting
+			return;
+		}
+		
+		try {
+			int overflow = entries.size() - maxSize;
+			if (overflow <= 0) {
+				return;
+			}
+			int toEvict = Math.max(overflow, (int) (maxSize * EVICTION_FACTOR));
+			
+			List<Map.Entry<K, Entry<V>>> list = new ArrayList<Map.Entry<K, Entry<V>>>(entries.entrySet());
+			Collections.sort(list, new Comparator<Map.Entry<K, Entry<V>>>() {
+				
+				@Override
+				public int compare(Map.Entry<K, Entry<V>> e1, Map.Entry<K, Entry<V>> e2) {
+					long a1 = e1.getValue().lastAccess;
+					long a2 = e2.getValue().lastAccess;
+					return a1 < a2 ? -1 : (a1 == a2 ? 0 : 1);
+				}
+			});
+			
+			CachingStatistics stats = getStatistics();
+			int evicted = 0;
+			for (Map.Entry<K, Entry<V>> e : list) {
+				if (evicted >= toEvict) {
+					break;
+				}
+				if (e.getValue().value == null) {
+					// being loaded right now
+					continue;
+				}
+				if (entries.remove(e.getKey(), e.getValue())) {
+					stats.recordEviction();
+					evicted++;
+				}
+			}
+			LOGGER.trace("Evicted {} entries from cache {}", evicted, name);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+}
@@ -28,6 +28,7 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ObjectResolver;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.TunnelException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ExpressionType;
 
 /**
@@ -36,9 +37,13 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ExpressionType;
  */
 public class ExpressionFactory {
 	
+	public static final String CACHE_NAME = "expression";
+	public static final int DEFAULT_CACHE_MAX_SIZE = 5000;
+	
 	private Map<QName,ExpressionEvaluatorFactory> evaluatorFactories = new HashMap<QName, ExpressionEvaluatorFactory>();
 	private ExpressionEvaluatorFactory defaultEvaluatorFactory;
-	private Map<ExpressionIdentifier, Expression<?>> cache = new HashMap<ExpressionIdentifier, Expression<?>>();
+	private BoundedCache<ExpressionIdentifier, Expression<?>> cache =
+			new BoundedCache<ExpressionIdentifier, Expression<?>>(CACHE_NAME, DEFAULT_CACHE_MAX_SIZE);
 	private PrismContext prismContext;
 	private ObjectResolver objectResolver;
 	
@@ -65,16 +70,42 @@ public class ExpressionFactory {
 		return prismContext;
 	}
 
-	public <V extends PrismValue> Expression<V> makeExpression(ExpressionType expressionType, 
-			ItemDefinition outputDefinition, String shortDesc, OperationResult result) 
+	/**
+	 * Maximal number of parsed expressions kept in the cache.
+	 */
+	public int getCacheMaxSize() {
+		return cache.getMaxSize();
+	}
+
+	public void setCacheMaxSize(int cacheMaxSize) {
+		cache.setMaxSize(cacheMaxSize);
+	}
+
+	public <V extends PrismValue> Expression<V> makeExpression(final ExpressionType expressionType, 
+			final ItemDefinition outputDefinition, final String shortDesc, final OperationResult result) 
 					throws SchemaException, ObjectNotFoundException {
 		ExpressionIdentifier eid = new ExpressionIdentifier(expressionType, outputDefinition);
-		Expression<V> expression = (Expression<V>) cache.get(eid);
-		if (expression == null) {
-			expression = createExpression(expressionType, outputDefinition, shortDesc, result);
-			cache.put(eid, expression);
+		try {
+			return (Expression<V>) cache.get(eid, new BoundedCache.Loader<Expression<?>, RuntimeException>() {
+				@Override
+				public Expression<?> load() {
+					try {
+						return createExpression(expressionType, outputDefinition, shortDesc, result);
+					} catch (SchemaException | ObjectNotFoundException e) {
+						throw new TunnelException(e);
+					}
+				}
+			});
+		} catch (TunnelException e) {
+			Throwable originalException = e.getCause();
+			if (originalException instanceof SchemaException) {
+				throw (SchemaException) originalException;
+			} else if (originalException instanceof ObjectNotFoundException) {
+				throw (ObjectNotFoundException) originalException;
+			} else {
+				throw e;
+			}
 		}
-		return expression;
 	}
 
 	private <V extends PrismValue> Expression<V> createExpression(ExpressionType expressionType, 
@@ -88,6 +88,7 @@ public abstract class AbstractSearchExpressionEvaluator<V extends PrismValue>
 	private Protector protector;
 	private ObjectResolver objectResolver;
 	private ModelService modelService;
+	private SearchResultCache resultCache;
 
 	protected AbstractSearchExpressionEvaluator(SearchObjectExpressionEvaluatorType expressionEvaluatorType, 
 			ItemDefinition outputDefinition, Protector protector, ObjectResolver objectResolver, 
@@ -120,6 +121,14 @@ public abstract class AbstractSearchExpressionEvaluator<V extends PrismValue>
 		return modelService;
 	}
 
+	public SearchResultCache getResultCache() {
+		return resultCache;
+	}
+
+	public void setResultCache(SearchResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
 	@Override
 	protected List<V> transformSingleValue(ExpressionVariables variables, PlusMinusZero valueDestination, boolean useNew,
 			ExpressionEvaluationContext params, String contextDescription, Task task, OperationResult result) 
@@ -167,12 +176,15 @@ public abstract class AbstractSearchExpressionEvaluator<V extends PrismValue>
 				LOGGER.trace("Query after extension: {}", query.debugDump());
 			}
 			
-			resultValues = executeSearch(targetTypeClass, targetTypeQName, query, params, params.getResult());
+			resultValues = executeSearchUsingCache(targetTypeClass, targetTypeQName, query, params, task, params.getResult());
 		}
 			
 		if (resultValues.isEmpty() && getExpressionEvaluatorType().isCreateOnDemand() == Boolean.TRUE &&
 				(valueDestination == PlusMinusZero.PLUS || valueDestination == PlusMinusZero.ZERO || useNew)) {
 			String createdObjectOid = createOnDemand(targetTypeClass, variables, params, params.getContextDescription(), task, params.getResult());
+			if (resultCache != null) {
+				resultCache.invalidate(targetTypeClass);
+			}
 			resultValues.add(createPrismValue(createdObjectOid, targetTypeQName, params));
 		}
 		
@@ -189,19 +201,49 @@ public abstract class AbstractSearchExpressionEvaluator<V extends PrismValue>
 		return null;
 	}
 
-	private <O extends ObjectType> List<V> executeSearch(Class<O> targetTypeClass,
-			final QName targetTypeQName, ObjectQuery query, final ExpressionEvaluationContext params, OperationResult result) throws ExpressionEvaluationException, ObjectNotFoundException {
-		final List<V> list = new ArrayList<V>();
+	private <O extends ObjectType> List<V> executeSearchUsingCache(Class<O> targetTypeClass, QName targetTypeQName, 
+			ObjectQuery query, ExpressionEvaluationContext params, Task task, OperationResult result) 
+					throws ExpressionEvaluationException, ObjectNotFoundException {
+		boolean searchOnResource = BooleanUtils.isTrue(getExpressionEvaluatorType().isSearchOnResource());
+		SearchResultCache.Key key = null;
+		if (resultCache != null && !searchOnResource) {
+			key = resultCache.createKey(targetTypeClass, query, task);
+		}
+		
+		List<String> oids = null;
+		if (key != null) {
+			oids = resultCache.get(key);
+			if (oids != null) {
+				LOGGER.trace("Search expression result for {} taken from the cache: {}", query, oids);
+			}
+		}
+		if (oids == null) {
+			oids = executeSearch(targetTypeClass, query, searchOnResource, result);
+			if (key != null) {
+				resultCache.put(key, oids);
+			}
+		}
+		
+		List<V> list = new ArrayList<V>(oids.size());
+		for (String oid : oids) {
+			list.add(createPrismValue(oid, targetTypeQName, params));
+		}
+		return list;
+	}
+
+	private <O extends ObjectType> List<String> executeSearch(Class<O> targetTypeClass,
+			ObjectQuery query, boolean searchOnResource, OperationResult result) throws ExpressionEvaluationException, ObjectNotFoundException {
+		final List<String> list = new ArrayList<String>();
 		
 		Collection<SelectorOptions<GetOperationOptions>> options = null;
-		if (!BooleanUtils.isTrue(getExpressionEvaluatorType().isSearchOnResource())) {
+		if (!searchOnResource) {
 			options = SelectorOptions.createCollection(GetOperationOptions.createNoFetch());
 		}
 		
 		ResultHandler<O> handler = new ResultHandler<O>() {
 			@Override
 			public boolean handle(PrismObject<O> object, OperationResult parentResult) {
-				list.add(createPrismValue(object.getOid(), targetTypeQName, params));
+				list.add(object.getOid());
 
 				// TODO: we should count results and stop after some reasonably high number?
 				
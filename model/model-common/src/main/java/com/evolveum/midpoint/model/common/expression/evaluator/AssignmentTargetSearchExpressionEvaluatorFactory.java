@@ -44,6 +44,7 @@ public class AssignmentTargetSearchExpressionEvaluatorFactory implements Express
 	private Protector protector;
 	private ObjectResolver objectResolver;
 	private ModelService modelService;
+	private SearchResultCache resultCache;
 
 	public AssignmentTargetSearchExpressionEvaluatorFactory(PrismContext prismContext, Protector protector, ObjectResolver objectResolver, ModelService modelService) {
 		super();
@@ -53,6 +54,17 @@ public class AssignmentTargetSearchExpressionEvaluatorFactory implements Express
 		this.modelService = modelService;
 	}
 
+	public SearchResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * Optional cache of search results, shared by all evaluators created by the factory.
+	 */
+	public void setResultCache(SearchResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.evolveum.midpoint.common.expression.ExpressionEvaluatorFactory#getElementName()
 	 */
@@ -85,6 +97,7 @@ public class AssignmentTargetSearchExpressionEvaluatorFactory implements Express
         }
         AssignmentTargetSearchExpressionEvaluator expressionEvaluator = new AssignmentTargetSearchExpressionEvaluator((SearchObjectExpressionEvaluatorType)evaluatorTypeObject, 
         		outputDefinition, protector, objectResolver, modelService, prismContext);
+        expressionEvaluator.setResultCache(resultCache);
         return (ExpressionEvaluator<V>) expressionEvaluator;
 	}
 
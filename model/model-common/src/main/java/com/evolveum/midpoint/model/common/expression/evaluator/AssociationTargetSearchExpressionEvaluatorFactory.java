@@ -43,6 +43,7 @@ public class AssociationTargetSearchExpressionEvaluatorFactory implements Expres
 	private Protector protector;
 	private ObjectResolver objectResolver;
 	private ModelService modelService;
+	private SearchResultCache resultCache;
 
 	public AssociationTargetSearchExpressionEvaluatorFactory(PrismContext prismContext, Protector protector, ObjectResolver objectResolver, ModelService modelService) {
 		super();
@@ -52,6 +53,17 @@ public class AssociationTargetSearchExpressionEvaluatorFactory implements Expres
 		this.modelService = modelService;
 	}
 
+	public SearchResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * Optional cache of search results, shared by all evaluators created by the factory.
+	 */
+	public void setResultCache(SearchResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.evolveum.midpoint.common.expression.ExpressionEvaluatorFactory#getElementName()
 	 */
@@ -84,6 +96,7 @@ public class AssociationTargetSearchExpressionEvaluatorFactory implements Expres
         }
         AssociationTargetSearchExpressionEvaluator evaluator = new AssociationTargetSearchExpressionEvaluator((SearchObjectExpressionEvaluatorType)evaluatorTypeObject, 
         		outputDefinition, protector, objectResolver, modelService, prismContext);
+        evaluator.setResultCache(resultCache);
         return (ExpressionEvaluator<V>) evaluator;
 	}
 
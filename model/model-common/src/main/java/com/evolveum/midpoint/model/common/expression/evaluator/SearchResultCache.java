@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.common.expression.evaluator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
+import com.evolveum.midpoint.common.monitor.InternalMonitor;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.PrismValue;
+import com.evolveum.midpoint.prism.query.AllFilter;
+import com.evolveum.midpoint.prism.query.ComparativeFilter;
+import com.evolveum.midpoint.prism.query.InOidFilter;
+import com.evolveum.midpoint.prism.query.LogicalFilter;
+import com.evolveum.midpoint.prism.query.NoneFilter;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrgFilter;
+import com.evolveum.midpoint.prism.query.PropertyValueFilter;
+import com.evolveum.midpoint.prism.query.SubstringFilter;
+import com.evolveum.midpoint.prism.query.TypeFilter;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Cache of the results of search expressions (assignmentTargetSearch, associationTargetSearch). The same
+ * evaluated query is usually executed for many focal objects, e.g. "group with name equal to the department"
+ * during a recompute. The cache keeps only OIDs of the found objects, the output values are created by the
+ * evaluator for every evaluation. Searches on the resource are never cached, the resource is authoritative
+ * for them.
+ * 
+ * Entries expire after the time to live. Empty results are cached as well, but usually with a shorter time
+ * to live, as the objects are often created shortly after (e.g. on demand). The entries are invalidated when
+ * an object of the target type is added or deleted through midPoint.
+ * 
+ * If the cache is task-scoped (the default) the results are only shared by evaluations in the same task,
+ * so an interactive operation never sees results of searches done by other operations. Worker subtasks
+ * share the results with their parent task and with each other.
+ * 
+ * The key contains the structure of the query (filter types, paths, matching rules and real values), as
+ * equals() of the filters does not compare all of them and debug dump is too expensive to be computed for
+ * every evaluation. Queries with filters that are not known here are not cached.
+ * 
+ * Hits, misses and evictions are recorded in {@link InternalMonitor} as "search.expression".
+ * 
+ * @author Radovan Semancik
+ */
+public class SearchResultCache {
+	
+	private static final Trace LOGGER = TraceManager.getTrace(SearchResultCache.class);
+	
+	public static final String CACHE_NAME = "search.expression";
+	
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	public static final long DEFAULT_TIME_TO_LIVE = 60000L;
+	public static final long DEFAULT_NEGATIVE_TIME_TO_LIVE = 5000L;
+	
+	/**
+	 * Part of entries evicted when the cache is full.
+	 */
+	private static final double EVICTION_FACTOR = 0.1;
+	
+	private volatile int maxSize = DEFAULT_MAX_SIZE;
+	private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+	private volatile long negativeTimeToLive = DEFAULT_NEGATIVE_TIME_TO_LIVE;
+	private volatile boolean taskScoped = true;
+	
+	private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Maximal number of cached results, zero or negative number switches the cache off.
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		evictIfNeeded();
+	}
+
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Time to live of non-empty results in milliseconds.
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	public long getNegativeTimeToLive() {
+		return negativeTimeToLive;
+	}
+
+	/**
+	 * Time to live of empty results in milliseconds, zero or negative number means that empty results are not cached.
+	 */
+	public void setNegativeTimeToLive(long negativeTimeToLive) {
+		this.negativeTimeToLive = negativeTimeToLive;
+	}
+
+	public boolean isTaskScoped() {
+		return taskScoped;
+	}
+
+	public void setTaskScoped(boolean taskScoped) {
+		this.taskScoped = taskScoped;
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	public void clear() {
+		entries.clear();
+	}
+	
+	public CachingStatistics getStatistics() {
+		return InternalMonitor.getCacheStats(CACHE_NAME);
+	}
+	
+	/**
+	 * Returns the key of the search or null if the search should not be cached.
+	 * The query must be already evaluated (no expressions in the filter).
+	 */
+	public Key createKey(Class<? extends ObjectType> type, ObjectQuery query, Task task) {
+		if (maxSize <= 0) {
+			return null;
+		}
+		String taskIdentifier = null;
+		if (taskScoped) {
+			if (task == null || task.getTaskIdentifier() == null) {
+				return null;
+			}
+			// worker subtasks are scoped by the task that created them
+			taskIdentifier = task.getParent() != null ? task.getParent() : task.getTaskIdentifier();
+		}
+		List<Object> queryKey = new ArrayList<Object>();
+		if (query != null) {
+			if (!appendFilter(queryKey, query.getFilter())) {
+				return null;
+			}
+			appendPaging(queryKey, query.getPaging());
+		}
+		return new Key(type, queryKey, taskIdentifier);
+	}
+	
+	/**
+	 * Appends the structure of the filter to the key, returns false if the filter is not supported.
+	 */
+	private boolean appendFilter(List<Object> key, ObjectFilter filter) {
+		if (filter == null) {
+			key.add(null);
+			return true;
+		}
+		key.add(filter.getClass());
+		if (filter instanceof PropertyValueFilter) {
+			PropertyValueFilter<?> valueFilter = (PropertyValueFilter<?>) filter;
+			if (valueFilter.getExpression() != null) {
+				return false;
+			}
+			key.add(valueFilter.getFullPath());
+			key.add(valueFilter.getMatchingRule());
+			if (filter instanceof ComparativeFilter) {
+				key.add(((ComparativeFilter<?>) filter).isEquals());
+			} else if (filter instanceof SubstringFilter) {
+				key.add(((SubstringFilter<?>) filter).isAnchorStart());
+				key.add(((SubstringFilter<?>) filter).isAnchorEnd());
+			}
+			List<Object> values = new ArrayList<Object>();
+			if (valueFilter.getValues() != null) {
+				for (PrismValue value : valueFilter.getValues()) {
+					Object realValue = getRealValue(value);
+					if (realValue == null) {
+						return false;
+					}
+					values.add(realValue);
+				}
+			}
+			key.add(values);
+			return true;
+		} else if (filter instanceof LogicalFilter) {
+			// unary logical filters (not) keep their only filter in the conditions as well
+			List<Object> conditions = new ArrayList<Object>();
+			for (ObjectFilter condition : ((LogicalFilter) filter).getConditions()) {
+				if (!appendFilter(conditions, condition)) {
+					return false;
+				}
+			}
+			key.add(conditions);
+			return true;
+		} else if (filter instanceof InOidFilter) {
+			key.add(new ArrayList<String>(((InOidFilter) filter).getOids()));
+			return true;
+		} else if (filter instanceof OrgFilter) {
+			OrgFilter orgFilter = (OrgFilter) filter;
+			key.add(orgFilter.getOrgRef() != null ? orgFilter.getOrgRef().getOid() : null);
+			key.add(orgFilter.getScope());
+			key.add(orgFilter.isRoot());
+			return true;
+		} else if (filter instanceof TypeFilter) {
+			key.add(((TypeFilter) filter).getType());
+			return appendFilter(key, ((TypeFilter) filter).getFilter());
+		} else if (filter instanceof AllFilter || filter instanceof NoneFilter) {
+			return true;
+		}
+		return false;
+	}
+	
+	private Object getRealValue(PrismValue value) {
+		if (value instanceof PrismPropertyValue) {
+			return ((PrismPropertyValue<?>) value).getValue();
+		} else if (value instanceof PrismReferenceValue) {
+			PrismReferenceValue refValue = (PrismReferenceValue) value;
+			return Arrays.asList(refValue.getOid(), refValue.getTargetType(), refValue.getRelation());
+		}
+		return null;
+	}
+	
+	private void appendPaging(List<Object> key, ObjectPaging paging) {
+		if (paging == null) {
+			key.add(null);
+			return;
+		}
+		key.add(Arrays.asList(paging.getOffset(), paging.getMaxSize(), paging.getOrderBy(), paging.getDirection(),
+				paging.getCookie()));
+	}
+	
+	/**
+	 * Returns the cached OIDs or null if there is no valid entry for the key.
+	 */
+	public List<String> get(Key key) {
+		CachingStatistics stats = getStatistics();
+		stats.recordRequest();
+		Entry entry = entries.get(key);
+		if (entry != null && entry.expires < System.currentTimeMillis()) {
+			entries.remove(key, entry);
+			entry = null;
+		}
+		if (entry == null) {
+			stats.recordMiss();
+			return null;
+		}
+		stats.recordHit();
+		return entry.oids;
+	}
+	
+	public void put(Key key, List<String> oids) {
+		long ttl = oids.isEmpty() ? negativeTimeToLive : timeToLive;
+		if (ttl <= 0) {
+			return;
+		}
+		Entry entry = new Entry();
+		entry.oids = Collections.unmodifiableList(new ArrayList<String>(oids));
+		entry.expires = System.currentTimeMillis() + ttl;
+		entries.put(key, entry);
+		evictIfNeeded();
+	}
+	
+	/**
+	 * Removes all results of searches for objects of the type (or its supertypes and subtypes).
+	 */
+	public void invalidate(Class<? extends ObjectType> type) {
+		if (entries.isEmpty()) {
+			return;
+		}
+		int removed = 0;
+		Iterator<Key> iterator = entries.keySet().iterator();
+		while (iterator.hasNext()) {
+			Key key = iterator.next();
+			if (key.type.isAssignableFrom(type) || type.isAssignableFrom(key.type)) {
+				iterator.remove();
+				removed++;
+			}
+		}
+		LOGGER.trace("Invalidated {} search results because of a change of {}", removed, type.getSimpleName());
+	}
+	
+	private void evictIfNeeded() {
+		if (entries.size() <= maxSize || !evictionLock.tryLock()) {
+			// another thread is already evicting
+			return;
+		}
+		
+		try {
+			int overflow = entries.size() - maxSize;
+			if (overflow <= 0) {
+				return;
+			}
+			int toEvict = Math.max(overflow, (int) (maxSize * EVICTION_FACTOR));
+			
+			// entries that expire first go first, the expired ones among them
+			List<Map.Entry<Key, Entry>> list = new ArrayList<Map.Entry<Key, Entry>>(entries.entrySet());
+			Collections.sort(list, new Comparator<Map.Entry<Key, Entry>>() {
+				
+				@Override
+				public int compare(Map.Entry<Key, Entry> e1, Map.Entry<Key, Entry> e2) {
+					long x1 = e1.getValue().expires;
+					long x2 = e2.getValue().expires;
+					return x1 < x2 ? -1 : (x1 == x2 ? 0 : 1);
+				}
+			});
+			
+			CachingStatistics stats = getStatistics();
+			int evicted = 0;
+			for (Map.Entry<Key, Entry> e : list) {
+				if (evicted >= toEvict) {
+					break;
+				}
+				if (entries.remove(e.getKey(), e.getValue())) {
+					stats.recordEviction();
+					evicted++;
+				}
+			}
+			LOGGER.trace("Evicted {} entries from cache {}", evicted, CACHE_NAME);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+	
+	private static class Entry {
+		
+		private List<String> oids;
+		private long expires;
+	}
+	
+	public static class Key {
+		
+		private final Class<? extends ObjectType> type;
+		private final List<Object> query;
+		private final String taskIdentifier;
+		
+		Key(Class<? extends ObjectType> type, List<Object> query, String taskIdentifier) {
+			this.type = type;
+			this.query = query;
+			this.taskIdentifier = taskIdentifier;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + type.hashCode();
+			result = prime * result + query.hashCode();
+			result = prime * result + ((taskIdentifier == null) ? 0 : taskIdentifier.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			Key other = (Key) obj;
+			if (!type.equals(other.type) || !query.equals(other.query)) {
+				return false;
+			}
+			return taskIdentifier == null ? other.taskIdentifier == null : taskIdentifier.equals(other.taskIdentifier);
+		}
+
+		@Override
+		public String toString() {
+			return "Key(" + type.getSimpleName() + ", " + query + ", " + taskIdentifier + ")";
+		}
+	}
+}
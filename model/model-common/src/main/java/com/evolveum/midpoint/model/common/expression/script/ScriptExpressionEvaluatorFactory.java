@@ -41,6 +41,10 @@ public class ScriptExpressionEvaluatorFactory implements ExpressionEvaluatorFact
 		this.scriptExpressionFactory = scriptExpressionFactory;
 	}
 
+	public ScriptExpressionFactory getScriptExpressionFactory() {
+		return scriptExpressionFactory;
+	}
+
 	@Override
 	public QName getElementName() {
 		return new ObjectFactory().createScript(new ScriptExpressionEvaluatorType()).getName();
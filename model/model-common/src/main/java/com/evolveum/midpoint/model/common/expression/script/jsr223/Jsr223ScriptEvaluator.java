@@ -22,7 +22,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.script.Bindings;
 import javax.script.Compilable;
@@ -34,7 +33,9 @@ import javax.xml.namespace.QName;
 
 import org.w3c.dom.Element;
 
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
 import com.evolveum.midpoint.common.monitor.InternalMonitor;
+import com.evolveum.midpoint.model.common.expression.BoundedCache;
 import com.evolveum.midpoint.model.common.expression.ExpressionSyntaxException;
 import com.evolveum.midpoint.model.common.expression.ExpressionUtil;
 import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
@@ -77,12 +78,14 @@ import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 
 	private static final String LANGUAGE_URL_BASE = MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX + "/expression/language#";
+	
+	public static final int DEFAULT_SCRIPT_CACHE_MAX_SIZE = 1000;
 
 	private ScriptEngine scriptEngine;
 	private PrismContext prismContext;
 	private Protector protector;
 	
-	private Map<String, CompiledScript> scriptCache;
+	private BoundedCache<String, CompiledScript> scriptCache;
 	
 	public Jsr223ScriptEvaluator(String engineName, PrismContext prismContext, Protector protector) {
 		ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
@@ -92,7 +95,23 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 		}
 		this.prismContext = prismContext;
 		this.protector = protector;
-		this.scriptCache = new ConcurrentHashMap<String, CompiledScript>();
+		this.scriptCache = new BoundedCache<String, CompiledScript>("script." + engineName, DEFAULT_SCRIPT_CACHE_MAX_SIZE);
+	}
+	
+	/**
+	 * Maximal number of compiled scripts kept in the cache. Dynamically generated scripts are evicted
+	 * when the cache is full.
+	 */
+	public int getScriptCacheMaxSize() {
+		return scriptCache.getMaxSize();
+	}
+	
+	public void setScriptCacheMaxSize(int scriptCacheMaxSize) {
+		scriptCache.setMaxSize(scriptCacheMaxSize);
+	}
+	
+	public CachingStatistics getScriptCacheStatistics() {
+		return scriptCache.getStatistics();
 	}
 	
 	@Override
@@ -164,19 +183,19 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 		return pvals;
 	}
 	
-	private CompiledScript createCompiledScript(String codeString, String contextDescription) throws ExpressionEvaluationException {
-		CompiledScript compiledScript = scriptCache.get(codeString);
-		if (compiledScript != null) {
-			return compiledScript;
-		}
-		try {
-			InternalMonitor.recordScriptCompile();
-			compiledScript = ((Compilable)scriptEngine).compile(codeString);
-		} catch (ScriptException e) {
-			throw new ExpressionEvaluationException(e.getMessage() + " " + contextDescription, e);
-		}
-		scriptCache.put(codeString, compiledScript);
-		return compiledScript;
+	private CompiledScript createCompiledScript(final String codeString, final String contextDescription) throws ExpressionEvaluationException {
+		// concurrent requests for the same script wait for a single compilation
+		return scriptCache.get(codeString, new BoundedCache.Loader<CompiledScript, ExpressionEvaluationException>() {
+			@Override
+			public CompiledScript load() throws ExpressionEvaluationException {
+				try {
+					InternalMonitor.recordScriptCompile();
+					return ((Compilable)scriptEngine).compile(codeString);
+				} catch (ScriptException e) {
+					throw new ExpressionEvaluationException(e.getMessage() + " " + contextDescription, e);
+				}
+			}
+		});
 	}
 
 	private <T> T convertScalarResult(Class<T> expectedType, Object rawValue, String contextDescription) throws ExpressionEvaluationException {
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.common.expression.script.xpath;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathFunction;
+import javax.xml.xpath.XPathFunctionException;
+import javax.xml.xpath.XPathFunctionResolver;
+import javax.xml.xpath.XPathVariableResolver;
+
+/**
+ * XPath expression code compiled for repeated evaluation.
+ * 
+ * JAXP compiled expressions are not thread-safe and they keep the variable and function resolvers that were
+ * set at compile time. Therefore the expression is compiled with delegating resolvers and the compiled
+ * instances are pooled. Each evaluation borrows an instance, points its resolvers to the variables and
+ * functions of that evaluation and releases it when done. A new instance is compiled only if all pooled
+ * instances are in use by other threads.
+ * 
+ * The namespace context is given by the namespace declarations in the code, so the code string itself
+ * identifies the compiled expression.
+ * 
+ * @author Radovan Semancik
+ *
+ */
+public class CompiledXPathExpression {
+	
+	/**
+	 * Maximal number of idle compiled instances kept for one expression.
+	 */
+	private static final int MAX_POOL_SIZE = 16;
+	
+	// XPathFactory is not thread-safe
+	private static final ThreadLocal<XPathFactory> FACTORY = new ThreadLocal<XPathFactory>() {
+		@Override
+		protected XPathFactory initialValue() {
+			return XPathFactory.newInstance();
+		}
+	};
+	
+	private final String code;
+	private final String expression;
+	private final MidPointNamespaceContext namespaceContext;
+	private final Queue<Instance> pool = new ConcurrentLinkedQueue<Instance>();
+	
+	public CompiledXPathExpression(String code) {
+		XPathExpressionCodeHolder codeHolder = new XPathExpressionCodeHolder(code);
+		this.code = code;
+		this.expression = codeHolder.getExpressionAsString();
+		this.namespaceContext = new MidPointNamespaceContext(codeHolder.getNamespaceMap());
+	}
+	
+	public String getCode() {
+		return code;
+	}
+	
+	/**
+	 * Compiles the first instance, so syntax errors are reported before the expression is cached.
+	 */
+	public void prepare(XPathVariableResolver variableResolver, XPathFunctionResolver functionResolver)
+			throws XPathExpressionException {
+		borrow(variableResolver, functionResolver).release();
+	}
+	
+	/**
+	 * Returns compiled instance bound to the resolvers. The instance must be released after the evaluation.
+	 */
+	public Instance borrow(XPathVariableResolver variableResolver, XPathFunctionResolver functionResolver)
+			throws XPathExpressionException {
+		Instance instance = pool.poll();
+		if (instance == null) {
+			instance = new Instance();
+		}
+		instance.variableResolver.delegate = variableResolver;
+		instance.functionResolver.delegate = functionResolver;
+		if (instance.xpathExpression == null) {
+			// resolvers have to be set, functions are checked during compilation
+			instance.compile();
+		}
+		return instance;
+	}
+	
+	public class Instance {
+		
+		private final DelegatingVariableResolver variableResolver = new DelegatingVariableResolver();
+		private final DelegatingFunctionResolver functionResolver = new DelegatingFunctionResolver();
+		private XPathExpression xpathExpression;
+		
+		private void compile() throws XPathExpressionException {
+			XPath xpath = FACTORY.get().newXPath();
+			xpath.setXPathVariableResolver(variableResolver);
+			xpath.setNamespaceContext(namespaceContext);
+			xpath.setXPathFunctionResolver(functionResolver);
+			xpathExpression = xpath.compile(expression);
+		}
+		
+		public Object evaluate(Object item, QName returnType) throws XPathExpressionException {
+			return xpathExpression.evaluate(item, returnType);
+		}
+		
+		public void release() {
+			variableResolver.delegate = null;
+			functionResolver.delegate = null;
+			if (pool.size() < MAX_POOL_SIZE) {
+				pool.offer(this);
+			}
+		}
+	}
+	
+	private static class DelegatingVariableResolver implements XPathVariableResolver {
+		
+		private XPathVariableResolver delegate;
+
+		@Override
+		public Object resolveVariable(QName variableName) {
+			return delegate.resolveVariable(variableName);
+		}
+	}
+	
+	/**
+	 * Functions are resolved again on each call, so the compiled expression does not keep function
+	 * libraries of the evaluation which compiled it.
+	 */
+	private static class DelegatingFunctionResolver implements XPathFunctionResolver {
+		
+		private XPathFunctionResolver delegate;
+
+		@Override
+		public XPathFunction resolveFunction(final QName functionName, final int arity) {
+			if (delegate.resolveFunction(functionName, arity) == null) {
+				return null;
+			}
+			return new XPathFunction() {
+				
+				@Override
+				public Object evaluate(List args) throws XPathFunctionException {
+					XPathFunction function = delegate.resolveFunction(functionName, arity);
+					if (function == null) {
+						throw new XPathFunctionException("Unknown function " + functionName + " with " + arity + " arguments");
+					}
+					return function.evaluate(args);
+				}
+			};
+		}
+	}
+}
@@ -15,6 +15,8 @@
  */
 package com.evolveum.midpoint.model.common.expression.script.xpath;
 
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
+import com.evolveum.midpoint.model.common.expression.BoundedCache;
 import com.evolveum.midpoint.model.common.expression.ExpressionSyntaxException;
 import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
 import com.evolveum.midpoint.model.common.expression.functions.BasicExpressionFunctions;
@@ -60,13 +62,32 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
 
     public static String XPATH_LANGUAGE_URL = "http://www.w3.org/TR/xpath/";
 
-    private XPathFactory factory = XPathFactory.newInstance();
-    
+    public static final int DEFAULT_SCRIPT_CACHE_MAX_SIZE = 1000;
+
     private PrismContext prismContext;
+    
+    private BoundedCache<String, CompiledXPathExpression> scriptCache;
 
     public XPathScriptEvaluator(PrismContext prismContext) {
 		this.prismContext = prismContext;
+		this.scriptCache = new BoundedCache<String, CompiledXPathExpression>("script.xpath", DEFAULT_SCRIPT_CACHE_MAX_SIZE);
 	}
+    
+    /**
+     * Maximal number of compiled expressions kept in the cache. Zero means that the expression is compiled
+     * for every evaluation.
+     */
+    public int getScriptCacheMaxSize() {
+    	return scriptCache.getMaxSize();
+    }
+    
+    public void setScriptCacheMaxSize(int scriptCacheMaxSize) {
+    	scriptCache.setMaxSize(scriptCacheMaxSize);
+    }
+    
+    public CachingStatistics getScriptCacheStatistics() {
+    	return scriptCache.getStatistics();
+    }
 
     @Override
 	public <T> List<PrismPropertyValue<T>> evaluate(ScriptExpressionEvaluatorType expressionType,
@@ -140,19 +161,14 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
     		String contextDescription, OperationResult result)
             throws ExpressionEvaluationException, ObjectNotFoundException, ExpressionSyntaxException {
 
-        XPathExpressionCodeHolder codeHolder = new XPathExpressionCodeHolder(code);
-        //System.out.println("code " + code);
-        XPath xpath = factory.newXPath();
         XPathVariableResolver variableResolver = new LazyXPathVariableResolver(variables, objectResolver, 
         		contextDescription, prismContext, result);
-        xpath.setXPathVariableResolver(variableResolver);
-        xpath.setNamespaceContext(new MidPointNamespaceContext(codeHolder.getNamespaceMap()));
-        xpath.setXPathFunctionResolver(getFunctionResolver(functions));
+        XPathFunctionResolver functionResolver = getFunctionResolver(functions);
 
-        XPathExpression expr;
+        CompiledXPathExpression expr;
         try {
 
-            expr = xpath.compile(codeHolder.getExpressionAsString());
+            expr = getCompiledExpression(code, variableResolver, functionResolver);
 
         } catch (Exception e) {
             Throwable originalException = ExceptionUtil.lookForTunneledException(e);
@@ -181,7 +197,12 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
 
         try {
 
-            evaluatedExpression = expr.evaluate(rootNode, returnType);
+        	CompiledXPathExpression.Instance instance = expr.borrow(variableResolver, functionResolver);
+        	try {
+        		evaluatedExpression = instance.evaluate(rootNode, returnType);
+        	} finally {
+        		instance.release();
+        	}
 
         } catch (Exception e) {
             Throwable originalException = ExceptionUtil.lookForTunneledException(e);
@@ -208,6 +229,19 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
     }
 
 
+    private CompiledXPathExpression getCompiledExpression(final String code, final XPathVariableResolver variableResolver,
+    		final XPathFunctionResolver functionResolver) throws XPathExpressionException {
+    	// concurrent requests for the same code wait for a single compilation
+    	return scriptCache.get(code, new BoundedCache.Loader<CompiledXPathExpression, XPathExpressionException>() {
+			@Override
+			public CompiledXPathExpression load() throws XPathExpressionException {
+				CompiledXPathExpression compiledExpression = new CompiledXPathExpression(code);
+				compiledExpression.prepare(variableResolver, functionResolver);
+				return compiledExpression;
+			}
+		});
+    }
+
     private ExpressionEvaluationException createExpressionEvaluationException(Exception e, String contextDescription) {
         return new ExpressionEvaluationException(lookForMessage(e) + " in " + contextDescription, e);
     }
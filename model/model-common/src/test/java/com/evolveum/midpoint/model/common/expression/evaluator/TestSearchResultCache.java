@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.common.expression.evaluator;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.common.monitor.InternalMonitor;
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.AndFilter;
+import com.evolveum.midpoint.prism.query.EqualFilter;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.SubstringFilter;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * @author Radovan Semancik
+ */
+public class TestSearchResultCache {
+	
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+	
+	@Test
+	public void testHitAndInvalidation() throws Exception {
+		final String TEST_NAME = "testHitAndInvalidation";
+		TestUtil.displayTestTile(TEST_NAME);
+		
+		// GIVEN
+		InternalMonitor.reset();
+		SearchResultCache cache = createCache();
+		SearchResultCache.Key roleKey = cache.createKey(RoleType.class, createNameQuery(RoleType.class, "pirate"), null);
+		SearchResultCache.Key sameRoleKey = cache.createKey(RoleType.class, createNameQuery(RoleType.class, "pirate"), null);
+		SearchResultCache.Key orgKey = cache.createKey(OrgType.class, createNameQuery(OrgType.class, "pirate"), null);
+		
+		// WHEN
+		assertNull("Unexpected cached result", cache.get(roleKey));
+		cache.put(roleKey, Arrays.asList("oid1", "oid2"));
+		cache.put(orgKey, Arrays.asList("oid3"));
+		List<String> oids = cache.get(sameRoleKey);
+		
+		// THEN
+		assertEquals("Wrong cached result", Arrays.asList("oid1", "oid2"), oids);
+		assertEquals("Unexpected number of cache hits", 1, cache.getStatistics().getHits());
+		assertEquals("Unexpected number of cache misses", 1, cache.getStatistics().getMisses());
+		
+		// WHEN
+		cache.invalidate(RoleType.class);
+		
+		// THEN
+		assertNull("Role result not invalidated", cache.get(roleKey));
+		assertNotNull("Org result invalidated", cache.get(orgKey));
+	}
+	
+	@Test
+	public void testNegativeResultExpiration() throws Exception {
+		final String TEST_NAME = "testNegativeResultExpiration";
+		TestUtil.displayTestTile(TEST_NAME);
+		
+		// GIVEN
+		SearchResultCache cache = createCache();
+		cache.setNegativeTimeToLive(50);
+		SearchResultCache.Key key = cache.createKey(ShadowType.class, createNameQuery(ShadowType.class, "group"), null);
+		
+		// WHEN
+		cache.put(key, Collections.<String>emptyList());
+		
+		// THEN
+		assertEquals("Negative result not cached", Collections.<String>emptyList(), cache.get(key));
+		Thread.sleep(100);
+		assertNull("Negative result has not expired", cache.get(key));
+		
+		// WHEN
+		cache.setNegativeTimeToLive(0);
+		cache.put(key, Collections.<String>emptyList());
+		
+		// THEN
+		assertNull("Negative result cached although disabled", cache.get(key));
+	}
+	
+	@Test
+	public void testMaxSize() throws Exception {
+		final String TEST_NAME = "testMaxSize";
+		TestUtil.displayTestTile(TEST_NAME);
+		
+		// GIVEN
+		SearchResultCache cache = createCache();
+		cache.setMaxSize(3);
+		
+		// WHEN
+		for (int i = 0; i < 5; i++) {
+			cache.put(cache.createKey(RoleType.class, createNameQuery(RoleType.class, "role" + i), null), Arrays.asList("oid" + i));
+		}
+		
+		// THEN
+		assertEquals("Wrong cache size", 3, cache.size());
+		
+		// WHEN
+		cache.setMaxSize(0);
+		
+		// THEN
+		assertNull("Key created for disabled cache", cache.createKey(RoleType.class, createNameQuery(RoleType.class, "role0"), null));
+	}
+	
+	/**
+	 * The key is created from the structure of the query, not from its debug dump.
+	 */
+	@Test
+	public void testStructuralKey() throws Exception {
+		final String TEST_NAME = "testStructuralKey";
+		TestUtil.displayTestTile(TEST_NAME);
+		
+		// GIVEN
+		SearchResultCache cache = createCache();
+		
+		// WHEN
+		SearchResultCache.Key andKey = cache.createKey(RoleType.class, createAndQuery("pirate", "captain"), null);
+		SearchResultCache.Key sameAndKey = cache.createKey(RoleType.class, createAndQuery("pirate", "captain"), null);
+		SearchResultCache.Key otherAndKey = cache.createKey(RoleType.class, createAndQuery("pirate", "sailor"), null);
+		SearchResultCache.Key equalKey = cache.createKey(RoleType.class, createNameQuery(RoleType.class, "pirate"), null);
+		SearchResultCache.Key substringKey = cache.createKey(RoleType.class, ObjectQuery.createObjectQuery(
+				SubstringFilter.createSubstring(ObjectType.F_NAME, RoleType.class, PrismTestUtil.getPrismContext(), "pirate")), null);
+		ObjectQuery pagedQuery = createNameQuery(RoleType.class, "pirate");
+		pagedQuery.setPaging(ObjectPaging.createPaging(0, 10));
+		SearchResultCache.Key pagedKey = cache.createKey(RoleType.class, pagedQuery, null);
+		
+		// THEN
+		assertNotNull("No key for and query", andKey);
+		assertEquals("Keys of the same query differ", andKey, sameAndKey);
+		assertEquals("Hash codes of the same query differ", andKey.hashCode(), sameAndKey.hashCode());
+		assertFalse("Keys of queries with different values are equal", andKey.equals(otherAndKey));
+		assertFalse("Keys of equal and substring queries are equal", equalKey.equals(substringKey));
+		assertFalse("Keys of paged and unpaged queries are equal", equalKey.equals(pagedKey));
+	}
+	
+	private SearchResultCache createCache() {
+		SearchResultCache cache = new SearchResultCache();
+		cache.setTaskScoped(false);
+		return cache;
+	}
+	
+	private <O extends Objectable> ObjectQuery createNameQuery(Class<O> type, String name) throws SchemaException {
+		return ObjectQuery.createObjectQuery(EqualFilter.createEqual(ObjectType.F_NAME, type, 
+				PrismTestUtil.getPrismContext(), new PolyString(name)));
+	}
+	
+	private ObjectQuery createAndQuery(String name, String description) throws SchemaException {
+		return ObjectQuery.createObjectQuery(AndFilter.createAnd(
+				EqualFilter.createEqual(ObjectType.F_NAME, RoleType.class, PrismTestUtil.getPrismContext(), new PolyString(name)),
+				EqualFilter.createEqual(ObjectType.F_DESCRIPTION, RoleType.class, PrismTestUtil.getPrismContext(), description)));
+	}
+}
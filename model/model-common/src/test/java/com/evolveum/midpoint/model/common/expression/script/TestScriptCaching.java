@@ -15,6 +15,7 @@
  */
 package com.evolveum.midpoint.model.common.expression.script;
 
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
 import com.evolveum.midpoint.common.monitor.InternalMonitor;
 import com.evolveum.midpoint.model.common.expression.ExpressionUtil;
 import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
@@ -65,7 +66,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -145,6 +148,95 @@ public class TestScriptCaching {
     	assertTrue("Even Horatio was wrong! "+horatio1Time+" -> "+horatio2Time, horatio2Time <= horatio1Time);
     }
     	
+    @Test
+    public void testConcurrentCompilation() throws Exception {
+    	final String TEST_NAME = "testConcurrentCompilation";
+    	TestUtil.displayTestTile(TEST_NAME);
+    	
+    	// GIVEN
+    	final int THREADS = 32;
+    	final ScriptExpressionEvaluatorType scriptType = parseScriptType("expression-string-variables.xml");
+    	scriptType.setCode("bar + '-' + foo");
+    	InternalMonitor.reset();
+    	
+    	final CountDownLatch startLatch = new CountDownLatch(1);
+    	final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    	List<Thread> threads = new ArrayList<Thread>();
+    	for (int i = 0; i < THREADS; i++) {
+    		final String desc = TEST_NAME + " " + i;
+    		Thread thread = new Thread() {
+    			@Override
+    			public void run() {
+    				try {
+    					startLatch.await();
+    					assertEquals("Wrong script result", "BAR-FOO", executeScript(scriptType, desc));
+    				} catch (Throwable t) {
+    					errors.add(t);
+    				}
+    			}
+    		};
+    		thread.start();
+    		threads.add(thread);
+    	}
+    	
+    	// WHEN
+    	startLatch.countDown();
+    	for (Thread thread : threads) {
+    		thread.join();
+    	}
+    	
+    	// THEN
+    	assertTrue("Errors during concurrent evaluation: " + errors, errors.isEmpty());
+    	assertScriptMonitor(1, THREADS, TEST_NAME);
+    	CachingStatistics stats = ((Jsr223ScriptEvaluator) evaluator).getScriptCacheStatistics();
+    	System.out.println("Script cache: " + stats);
+    	assertEquals("Unexpected number of cache misses", 1, stats.getMisses());
+    	assertEquals("Unexpected number of cache hits", THREADS - 1, stats.getHits());
+    }
+    
+    @Test
+    public void testBoundedCache() throws Exception {
+    	final String TEST_NAME = "testBoundedCache";
+    	TestUtil.displayTestTile(TEST_NAME);
+    	
+    	// GIVEN
+    	Jsr223ScriptEvaluator jsr223Evaluator = (Jsr223ScriptEvaluator) evaluator;
+    	int maxSize = jsr223Evaluator.getScriptCacheMaxSize();
+    	jsr223Evaluator.setScriptCacheMaxSize(2);
+    	InternalMonitor.reset();
+    	try {
+    		ScriptExpressionEvaluatorType scriptType = parseScriptType("expression-string-variables.xml");
+    		
+    		// WHEN
+    		for (int i = 0; i < 5; i++) {
+    			scriptType.setCode("foo + bar + '" + i + "'");
+    			assertEquals("Wrong script result", "FOOBAR" + i, executeScript(scriptType, TEST_NAME + " " + i));
+    		}
+    		scriptType.setCode("foo + bar + '4'");
+    		executeScript(scriptType, TEST_NAME + " again");
+    		
+    		// THEN
+    		// last script is still cached, older ones were evicted
+    		assertScriptMonitor(5, 6, TEST_NAME);
+    		CachingStatistics stats = jsr223Evaluator.getScriptCacheStatistics();
+    		System.out.println("Script cache: " + stats);
+    		assertEquals("Unexpected number of evictions", 3, stats.getEvictions());
+    	} finally {
+    		jsr223Evaluator.setScriptCacheMaxSize(maxSize);
+    	}
+    }
+    
+    private String executeScript(ScriptExpressionEvaluatorType scriptType, String desc) throws Exception {
+    	OperationResult result = new OperationResult(desc);
+    	ItemDefinition outputDefinition = new PrismPropertyDefinition(PROPERTY_NAME, DOMUtil.XSD_STRING, PrismTestUtil.getPrismContext());
+    	ScriptExpression scriptExpression = scriptExpressionfactory.createScriptExpression(scriptType, outputDefinition, desc);
+    	ExpressionVariables variables = ExpressionVariables.create(
+				new QName(NS_WHATEVER, "foo"), "FOO",
+				new QName(NS_WHATEVER, "bar"), "BAR"
+		);
+    	return asScalarString(scriptExpression.<String>evaluate(variables, null, false, desc, result));
+    }
+    	
     private void assertScriptMonitor(int expCompilations, int expExecutions, String desc) {
 		assertEquals("Unexpected number of script compilations after "+desc, expCompilations, InternalMonitor.getScriptCompileCount());
 		assertEquals("Unexpected number of script executions after "+desc, expExecutions, InternalMonitor.getScriptExecutionCount());
@@ -15,17 +15,38 @@
  */
 package com.evolveum.midpoint.model.common.expression.script;
 
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
+import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
 import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluator;
 import com.evolveum.midpoint.model.common.expression.script.xpath.XPathScriptEvaluator;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
 import com.evolveum.midpoint.prism.crypto.Protector;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
+
+import org.testng.annotations.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.xml.namespace.QName;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
 
 /**
  * @author Radovan Semancik
  */
 public class TestXPathExpressions extends AbstractScriptTest {
+	
+	private static final String NS_X = "http://example.com/xxx";
+	private static final String NS_Y = "http://example.com/yyy";
 
     @Override
 	protected ScriptEvaluator createEvaluator(PrismContext prismContext, Protector protector) {
@@ -42,4 +63,59 @@ public class TestXPathExpressions extends AbstractScriptTest {
 		return true;
 	}
 
+	/**
+	 * The same expression is evaluated by many threads with different variables. Compiled expression
+	 * is shared, so each evaluation must see its own variables.
+	 */
+	@Test
+	public void testConcurrentEvaluation() throws Exception {
+		final String TEST_NAME = "testConcurrentEvaluation";
+		TestUtil.displayTestTile(TEST_NAME);
+		
+		// GIVEN
+		final int THREADS = 16;
+		final int ITERATIONS = 50;
+		final ScriptExpressionEvaluatorType scriptType = parseScriptType("expression-string-variables.xml");
+		CachingStatistics stats = ((XPathScriptEvaluator) evaluator).getScriptCacheStatistics();
+		long missesBefore = stats.getMisses();
+		
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			final String foo = "FOO" + i;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+						for (int j = 0; j < ITERATIONS; j++) {
+							ExpressionVariables variables = ExpressionVariables.create(
+									new QName(NS_X, "foo"), foo,
+									new QName(NS_Y, "bar"), "BAR" + j);
+							PrismPropertyValue<String> value = evaluateExpressionScalar(scriptType, DOMUtil.XSD_STRING,
+									variables, TEST_NAME, new OperationResult(TEST_NAME));
+							assertEquals("Wrong expression result", foo + "BAR" + j, value.getValue());
+						}
+					} catch (Throwable t) {
+						errors.add(t);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		
+		// WHEN
+		startLatch.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		// THEN
+		assertTrue("Errors during concurrent evaluation: " + errors, errors.isEmpty());
+		System.out.println("XPath cache: " + stats);
+		assertTrue("Expression compiled more than once", stats.getMisses() - missesBefore <= 1);
+	}
+
 }
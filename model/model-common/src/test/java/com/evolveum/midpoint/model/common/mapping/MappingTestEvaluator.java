@@ -35,6 +35,8 @@ import com.evolveum.midpoint.model.common.expression.ExpressionTestUtil;
 import com.evolveum.midpoint.model.common.expression.ObjectDeltaObject;
 import com.evolveum.midpoint.model.common.expression.Source;
 import com.evolveum.midpoint.model.common.expression.StringPolicyResolver;
+import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluator;
+import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionEvaluatorFactory;
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.OriginType;
 import com.evolveum.midpoint.prism.PrismContext;
@@ -62,7 +64,9 @@ import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.MappingType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectFactory;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.StringPolicyType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
@@ -85,6 +89,7 @@ public class MappingTestEvaluator {
     
     private PrismContext prismContext;
     private MappingFactory mappingFactory;
+    private ExpressionFactory expressionFactory;
     AESProtector protector;
     
     public PrismContext getPrismContext() {
@@ -98,7 +103,7 @@ public class MappingTestEvaluator {
     	prismContext = PrismTestUtil.createInitializedPrismContext();
     	ObjectResolver resolver = new DirectoryFileObjectResolver(MidPointTestConstants.OBJECTS_DIR);
     	protector = ExpressionTestUtil.createInitializedProtector(prismContext);
-    	ExpressionFactory expressionFactory = ExpressionTestUtil.createInitializedExpressionFactory(resolver, protector, prismContext);
+    	expressionFactory = ExpressionTestUtil.createInitializedExpressionFactory(resolver, protector, prismContext);
     	
         mappingFactory = new MappingFactory();
         mappingFactory.setExpressionFactory(expressionFactory);
@@ -112,6 +117,13 @@ public class MappingTestEvaluator {
 	public AESProtector getProtector() {
 		return protector;
 	}
+	
+	public <E extends ScriptEvaluator> E getScriptEvaluator(String languageUrl) {
+		QName scriptElementName = new ObjectFactory().createScript(new ScriptExpressionEvaluatorType()).getName();
+		ScriptExpressionEvaluatorFactory scriptFactory = 
+				(ScriptExpressionEvaluatorFactory) expressionFactory.getEvaluatorFactory(scriptElementName);
+		return (E) scriptFactory.getScriptExpressionFactory().getEvaluators().get(languageUrl);
+	}
 
 	public <T> Mapping<PrismPropertyValue<T>> createMapping(String filename, String testName, final StringPolicyType policy, String defaultTargetPropertyName, ObjectDelta<UserType> userDelta) throws SchemaException, IOException, JAXBException, EncryptionException  {
 		return createMapping(filename, testName, policy, toPath(defaultTargetPropertyName), userDelta);
@@ -39,6 +39,7 @@ import org.testng.annotations.Test;
 import org.xml.sax.SAXException;
 
 import com.evolveum.midpoint.model.common.expression.evaluator.GenerateExpressionEvaluator;
+import com.evolveum.midpoint.model.common.expression.script.xpath.XPathScriptEvaluator;
 import com.evolveum.midpoint.prism.Item;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismPropertyDefinition;
@@ -78,6 +79,9 @@ public class TestMappingDynamicSimple {
 	private static final String NS_EXTENSION = "http://midpoint.evolveum.com/xml/ns/test/extension";
 	private static final String PATTERN_NUMERIC = "^\\d+$";
 	
+	private static final int BENCHMARK_WARMUP_ITERATIONS = 2000;
+	private static final int BENCHMARK_ITERATIONS = 10000;
+	
 	private MappingTestEvaluator evaluator;
 	    
     @BeforeClass
@@ -1311,5 +1315,68 @@ public class TestMappingDynamicSimple {
         assertNotNull(value1);
         assertNotNull(value1.getEncryptedDataType());
     }
+	
+	/**
+	 * Compares evaluation time of XPath mappings with and without the compiled expression cache.
+	 * Mappings are created outside of the measured interval, only the evaluation is measured.
+	 */
+	@Test(enabled = false)
+	public void benchmarkScriptXPath() throws Exception {
+		final String TEST_NAME = "benchmarkScriptXPath";
+		TestUtil.displayTestTile(TEST_NAME);
+		
+		XPathScriptEvaluator xpathEvaluator = evaluator.getScriptEvaluator(XPathScriptEvaluator.XPATH_LANGUAGE_URL);
+		int cacheMaxSize = xpathEvaluator.getScriptCacheMaxSize();
+		try {
+			for (String[] mapping : new String[][] {
+					{ "mapping-script-simple-xpath.xml", "employeeType" },
+					{ "mapping-script-variables-xpath.xml", "employeeType" },
+					{ "mapping-script-system-variables-polystring-xpath.xml", "fullName" } }) {
+				
+				xpathEvaluator.setScriptCacheMaxSize(0);
+				double uncached = benchmarkMapping(TEST_NAME, mapping[0], mapping[1]);
+				xpathEvaluator.setScriptCacheMaxSize(cacheMaxSize);
+				double cached = benchmarkMapping(TEST_NAME, mapping[0], mapping[1]);
+				
+				System.out.println(String.format("%s: %.1f us/op without cache, %.1f us/op with cache",
+						mapping[0], uncached, cached));
+			}
+			System.out.println("XPath cache: " + xpathEvaluator.getScriptCacheStatistics());
+		} finally {
+			xpathEvaluator.setScriptCacheMaxSize(cacheMaxSize);
+		}
+	}
+	
+	/**
+	 * @return average evaluation time in microseconds
+	 */
+	private double benchmarkMapping(String testName, String filename, String targetPropertyName) throws Exception {
+		ObjectDelta<UserType> userDelta = ObjectDelta.createModificationAddProperty(UserType.class,
+				MappingTestEvaluator.USER_OLD_OID, evaluator.toPath("employeeType"), evaluator.getPrismContext(),
+				"CAPTAIN", "SWASHBUCKLER");
+		
+		for (int i = 0; i < BENCHMARK_WARMUP_ITERATIONS; i++) {
+			evaluateMapping(testName, filename, targetPropertyName, userDelta);
+		}
+		
+		long total = 0;
+		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+			total += evaluateMapping(testName, filename, targetPropertyName, userDelta);
+		}
+		return total / 1000.0 / BENCHMARK_ITERATIONS;
+	}
+	
+	private long evaluateMapping(String testName, String filename, String targetPropertyName,
+			ObjectDelta<UserType> userDelta) throws Exception {
+		Mapping<PrismPropertyValue<Object>> mapping = evaluator.createMapping(filename, testName, targetPropertyName, userDelta);
+		OperationResult opResult = new OperationResult(testName);
+		
+		long start = System.nanoTime();
+		mapping.evaluate(null, opResult);
+		long time = System.nanoTime() - start;
+		
+		evaluator.assertResult(opResult);
+		return time;
+	}
         
 }
@@ -1,6 +1,7 @@
 package com.evolveum.midpoint.model.impl;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -15,6 +16,7 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
@@ -31,10 +33,15 @@ import antlr.Utils;
 
 import com.evolveum.midpoint.model.api.ModelExecuteOptions;
 import com.evolveum.midpoint.model.api.PolicyViolationException;
+import com.evolveum.midpoint.model.impl.controller.BulkChangesExecutor;
+import com.evolveum.midpoint.model.impl.rest.BulkChangesStreamingOutput;
+import com.evolveum.midpoint.model.impl.rest.ObjectStreamingOutput;
 import com.evolveum.midpoint.model.impl.rest.PATCH;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.QueryJaxbConvertor;
 import com.evolveum.midpoint.provisioning.api.GenericConnectorException;
@@ -45,6 +52,7 @@ import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.security.api.SecurityEnforcer;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.task.api.TaskManager;
 import com.evolveum.midpoint.util.MiscUtil;
@@ -58,6 +66,7 @@ import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SecurityViolationException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.api_types_3.ObjectDeltaListType;
 import com.evolveum.midpoint.xml.ns._public.common.api_types_3.ObjectListType;
 import com.evolveum.midpoint.xml.ns._public.common.api_types_3.ObjectModificationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ModelExecuteOptionsType;
@@ -82,6 +91,12 @@ public class ModelRestService {
 	@Autowired(required = true)
 	private PrismContext prismContext;
 	
+	@Autowired(required = true)
+	private SecurityEnforcer securityEnforcer;
+	
+	@Autowired(required = true)
+	private BulkChangesExecutor bulkChangesExecutor;
+	
 	
 	private static final Trace LOGGER = TraceManager.getTrace(ModelRestService.class);
 	
@@ -422,6 +437,145 @@ LOGGER.info("model rest service for add operation start");
 		
 	}
 
+	/**
+	 * Streams search results instead of collecting them in memory, which is suitable for big results.
+	 * Objects are written as XML (in "objects" element) or as newline-delimited JSON, which is selected by
+	 * format parameter ("xml", "ndjson") or by the accepted media type.
+	 * 
+	 * Paging from query can be overridden by offset and maxSize parameters. If maxSize is used without offset
+	 * and ordering, results are ordered by OID and the next page can be requested by passing OID of the last
+	 * returned object as continue parameter (supported for objects stored in the repository). Fields parameters
+	 * restrict returned items to name and specified top-level items, e.g. ?fields=fullName&fields=employeeNumber.
+	 */
+	@POST
+	@Path("/{type}/search/stream")
+	@Produces({"application/xml", ObjectStreamingOutput.MEDIA_TYPE_NDJSON, "application/json"})
+	public <T extends ObjectType> Response searchObjectsStream(@PathParam("type") String type, QueryType queryType,
+			@QueryParam("offset") Integer offset, @QueryParam("maxSize") Integer maxSize,
+			@QueryParam("continue") String continuation, @QueryParam("fields") List<String> fields,
+			@QueryParam("options") List<String> options, @QueryParam("format") String format,
+			@Context HttpHeaders headers, @Context MessageContext mc) {
+		
+		LOGGER.info("model rest service for streaming search operation start");
+
+		UserType user = (UserType) mc.get("authenticatedUser");
+		
+		Task task = taskManager.createTaskInstance();
+		task.setOwner(user.asPrismObject());
+
+		Class<T> clazz = ObjectTypes.getClassFromRestType(type);
+		try {
+			ObjectQuery query = queryType != null ? QueryJaxbConvertor.createObjectQuery(clazz, queryType, prismContext) : null;
+			if (query == null) {
+				query = new ObjectQuery();
+			}
+			
+			ObjectPaging paging = query.getPaging();
+			if (offset != null || maxSize != null || continuation != null) {
+				if (paging == null) {
+					paging = ObjectPaging.createEmptyPaging();
+					query.setPaging(paging);
+				}
+				if (offset != null) {
+					paging.setOffset(offset);
+				}
+				if (maxSize != null) {
+					paging.setMaxSize(maxSize);
+				}
+				if (continuation != null) {
+					paging.setCookie(continuation);
+				}
+				if (paging.getCookie() == null && paging.getMaxSize() != null && paging.getOffset() == null
+						&& paging.getOrderBy() == null) {
+					// first page, keep results ordered by OID so they can be continued
+					paging.setCookie("");
+				}
+			}
+			
+			boolean json = isJsonRequested(format, headers);
+			ObjectStreamingOutput<T> output = new ObjectStreamingOutput<>(model, securityEnforcer, prismContext, clazz, query,
+					GetOperationOptions.fromRestOptions(options), fields, json, task);
+			
+			return Response.ok(output).type(json ? ObjectStreamingOutput.MEDIA_TYPE_NDJSON : MediaType.APPLICATION_XML).build();
+		} catch (SchemaException e) {
+			return Response.status(Status.CONFLICT).entity(e.getMessage()).type(MediaType.TEXT_HTML).build();
+		}
+	}
+	
+	/**
+	 * Executes a list of object deltas, each delta as a separate model operation. The deltas are executed in batches
+	 * (batchSize, default 100), optionally by more threads, and the result of each delta is streamed back as
+	 * soon as it is known, in the order of the request (see {@link #searchObjectsStream} for the output formats).
+	 * Batch size and number of threads are limited by the configured maximum (see {@link BulkChangesExecutor}).
+	 * With async=true the deltas are executed by a background task instead, and the response only contains
+	 * OID of the task (and its location).
+	 */
+	@POST
+	@Path("/bulk")
+	@Consumes({"application/xml", "application/json"})
+	@Produces({"application/xml", ObjectStreamingOutput.MEDIA_TYPE_NDJSON, "application/json", "text/plain"})
+	public Response executeChanges(ObjectDeltaListType deltaList, @QueryParam("batchSize") Integer batchSize,
+			@QueryParam("threads") Integer threads, @QueryParam("async") boolean async,
+			@QueryParam("options") List<String> options, @QueryParam("format") String format,
+			@Context HttpHeaders headers, @Context UriInfo uriInfo, @Context MessageContext mc) {
+		
+		LOGGER.info("model rest service for bulk execute changes operation start");
+
+		UserType user = (UserType) mc.get("authenticatedUser");
+		
+		Task task = taskManager.createTaskInstance();
+		task.setOwner(user.asPrismObject());
+		
+		OperationResult parentResult = new OperationResult("execute changes");
+		
+		int batch = batchSize != null ? batchSize : BulkChangesExecutor.DEFAULT_BATCH_SIZE;
+		int threadCount = threads != null ? threads : 1;
+		ModelExecuteOptions modelOptions = ModelExecuteOptions.fromRestOptions(options);
+		try {
+			List<ObjectDelta<? extends ObjectType>> deltas = new ArrayList<>();
+			if (deltaList != null) {
+				for (ObjectDelta delta : DeltaConvertor.createObjectDeltas(deltaList, prismContext)) {
+					prismContext.adopt(delta);
+					deltas.add(delta);
+				}
+			}
+			
+			if (async) {
+				if (deltas.size() > bulkChangesExecutor.getMaxBackgroundDeltas()) {
+					return Response.status(Status.BAD_REQUEST).entity("Too many deltas to be executed in background: "
+							+ deltas.size() + ", at most " + bulkChangesExecutor.getMaxBackgroundDeltas()
+							+ " deltas are allowed. Split the request or execute it synchronously.")
+							.type(MediaType.TEXT_HTML).build();
+				}
+				bulkChangesExecutor.executeChangesInBackground(deltas, modelOptions, batch, threadCount, task, parentResult);
+				URI location = uriInfo.getBaseUriBuilder().path(this.getClass(), "getObject")
+						.build(ObjectTypes.TASK.getRestType(), task.getOid());
+				return Response.accepted(task.getOid()).type(MediaType.TEXT_PLAIN).location(location).build();
+			}
+			
+			boolean json = isJsonRequested(format, headers);
+			BulkChangesStreamingOutput output = new BulkChangesStreamingOutput(bulkChangesExecutor, securityEnforcer,
+					prismContext, deltas, modelOptions, batch, threadCount, json, task);
+			
+			return Response.ok(output).type(json ? ObjectStreamingOutput.MEDIA_TYPE_NDJSON : MediaType.APPLICATION_XML).build();
+		} catch (SchemaException e) {
+			return Response.status(Status.CONFLICT).entity(e.getMessage()).type(MediaType.TEXT_HTML).build();
+		}
+	}
+	
+	private boolean isJsonRequested(String format, HttpHeaders headers) {
+		if (format != null) {
+			return "ndjson".equals(format) || "json".equals(format);
+		}
+		for (MediaType mediaType : headers.getAcceptableMediaTypes()) {
+			if (mediaType.isWildcardType()) {
+				continue;
+			}
+			return mediaType.getSubtype().endsWith("json");
+		}
+		return false;
+	}
+
 	@POST
 	@Path("/resources/{resourceOid}/import/{objectClass}")
 //	@Produces({"text/html", "application/xml"})
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.midpoint.model.impl.controller;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.model.api.ModelExecuteOptions;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismPropertyDefinition;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
+import com.evolveum.midpoint.schema.DeltaConvertor;
+import com.evolveum.midpoint.schema.ObjectDeltaOperation;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.SecurityEnforcer;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskCategory;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.prism.xml.ns._public.types_3.ObjectDeltaType;
+
+/**
+ * Executes many independent object deltas, e.g. deltas sent by a client in one bulk request.
+ * 
+ * Each delta is executed by a separate executeChanges call (a model operation can change only one focus),
+ * but the deltas share one task and they are divided into batches. A batch is executed by one thread
+ * and its item results are reported together, so the caller does not need to handle each delta separately.
+ * If more threads are used, the batches are executed in parallel. The results are still reported in the
+ * order of the deltas, by the thread that started the execution. Only a limited number of batches is
+ * executed ahead of the reported ones. Each batch executed by a worker thread uses its own worker task.
+ * 
+ * Batch size and number of threads are limited by bulkChangesMaxBatchSize and bulkChangesMaxThreads
+ * in the midpoint.model section of the midPoint configuration. Larger values are silently reduced.
+ * Deltas executed in background are stored in the task, their number is limited by bulkChangesMaxBackgroundDeltas
+ * and larger requests are rejected (they should be split by the client or executed synchronously).
+ * 
+ * @author Radovan Semancik
+ */
+@Component
+public class BulkChangesExecutor {
+	
+	private static final Trace LOGGER = TraceManager.getTrace(BulkChangesExecutor.class);
+	
+	private static final String DOT_CLASS = BulkChangesExecutor.class.getName() + ".";
+	
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	
+	private static final String CONFIG_SECTION = "midpoint.model";
+	private static final String KEY_MAX_BATCH_SIZE = "bulkChangesMaxBatchSize";
+	private static final String KEY_MAX_THREADS = "bulkChangesMaxThreads";
+	private static final String KEY_MAX_BACKGROUND_DELTAS = "bulkChangesMaxBackgroundDeltas";
+	private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+	private static final int DEFAULT_MAX_THREADS = 8;
+	private static final int DEFAULT_MAX_BACKGROUND_DELTAS = 1000;
+	
+	private static final int PENDING_BATCHES_PER_THREAD = 2;
+	
+	@Autowired(required = true)
+	private ModelController modelController;
+	
+	@Autowired(required = true)
+	private TaskManager taskManager;
+	
+	@Autowired(required = true)
+	private PrismContext prismContext;
+	
+	@Autowired(required = true)
+	private SecurityEnforcer securityEnforcer;
+	
+	@Autowired(required = true)
+	private MidpointConfiguration midpointConfiguration;
+	
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private int maxThreads = DEFAULT_MAX_THREADS;
+	private int maxBackgroundDeltas = DEFAULT_MAX_BACKGROUND_DELTAS;
+	
+	@PostConstruct
+	public void initialize() {
+		Configuration config = midpointConfiguration.getConfiguration(CONFIG_SECTION);
+		maxBatchSize = Math.max(1, config.getInt(KEY_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE));
+		maxThreads = Math.max(1, config.getInt(KEY_MAX_THREADS, DEFAULT_MAX_THREADS));
+		maxBackgroundDeltas = Math.max(1, config.getInt(KEY_MAX_BACKGROUND_DELTAS, DEFAULT_MAX_BACKGROUND_DELTAS));
+		LOGGER.debug("Bulk changes limits: batch size {}, threads {}, background deltas {}",
+				new Object[]{maxBatchSize, maxThreads, maxBackgroundDeltas});
+	}
+	
+	/**
+	 * Returns batch size that is actually used for the requested one (default if not positive, at most the configured maximum).
+	 */
+	public int limitBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			batchSize = DEFAULT_BATCH_SIZE;
+		}
+		return Math.min(batchSize, maxBatchSize);
+	}
+	
+	/**
+	 * Returns number of threads that is actually used for the requested one (at least one, at most the configured maximum).
+	 */
+	public int limitThreads(int threads) {
+		return Math.max(1, Math.min(threads, maxThreads));
+	}
+	
+	/**
+	 * Returns maximal number of deltas that can be executed in background (they are all stored in the task).
+	 */
+	public int getMaxBackgroundDeltas() {
+		return maxBackgroundDeltas;
+	}
+	
+	/**
+	 * Receives results of the executed deltas.
+	 */
+	public interface ItemHandler {
+		
+		/**
+		 * Called for each delta in the order of the deltas. OID of the delta is set if the delta added a new object.
+		 * 
+		 * @return false to stop the execution (batches that are already being executed are not reported)
+		 */
+		boolean handle(ObjectDelta<? extends ObjectType> delta, OperationResult itemResult);
+	}
+	
+	/**
+	 * Executes the deltas and reports their results to the handler. Errors of individual deltas are recorded in
+	 * the item results, they do not stop the execution. The calling thread is expected to have the security context
+	 * set up, worker threads use the owner of the task.
+	 */
+	public void executeChanges(List<ObjectDelta<? extends ObjectType>> deltas, ModelExecuteOptions options,
+			int batchSize, int threads, Task task, ItemHandler handler, OperationResult parentResult) {
+		
+		batchSize = limitBatchSize(batchSize);
+		threads = limitThreads(threads);
+		OperationResult result = parentResult.createSubresult(DOT_CLASS + "executeChanges");
+		result.addParam("deltas", deltas.size());
+		result.addParam("batchSize", batchSize);
+		result.addParam("threads", threads);
+		
+		List<List<ObjectDelta<? extends ObjectType>>> batches = createBatches(deltas, batchSize);
+		Counters counters = new Counters();
+		try {
+			if (threads <= 1) {
+				for (List<ObjectDelta<? extends ObjectType>> batch : batches) {
+					if (!reportBatch(batch, executeBatch(batch, options, task), handler, counters)) {
+						break;
+					}
+				}
+			} else {
+				executeInParallel(batches, options, threads, task, handler, counters);
+			}
+		} finally {
+			result.addReturn("processed", counters.processed);
+			result.addReturn("errors", counters.errors);
+			result.computeStatusIfUnknown();
+		}
+	}
+	
+	/**
+	 * Stores the deltas in the task extension and switches the (transient) task to background, where the deltas
+	 * are executed by {@link BulkChangesTaskHandler}. The whole task is stored in the repository, therefore the
+	 * number of deltas is limited (see {@link #getMaxBackgroundDeltas()}).
+	 * 
+	 * @throws IllegalArgumentException if there are more deltas than the limit
+	 */
+	public void executeChangesInBackground(List<ObjectDelta<? extends ObjectType>> deltas, ModelExecuteOptions options,
+			int batchSize, int threads, Task task, OperationResult parentResult) throws SchemaException {
+		
+		OperationResult result = parentResult.createSubresult(DOT_CLASS + "executeChangesInBackground");
+		if (!task.isTransient()) {
+			throw new IllegalStateException("Task must be transient");
+		}
+		if (task.getHandlerUri() != null) {
+			throw new IllegalStateException("Task must not have a handler");
+		}
+		if (deltas.size() > maxBackgroundDeltas) {
+			IllegalArgumentException e = new IllegalArgumentException("Too many deltas to be executed in background: "
+					+ deltas.size() + ", at most " + maxBackgroundDeltas + " deltas are allowed");
+			result.recordFatalError(e.getMessage(), e);
+			throw e;
+		}
+		
+		PrismPropertyDefinition definition = prismContext.getSchemaRegistry()
+				.findPropertyDefinitionByElementName(SchemaConstants.MODEL_EXTENSION_OBJECT_DELTA);
+		PrismProperty<ObjectDeltaType> deltasProperty = definition.instantiate();
+		for (ObjectDelta<? extends ObjectType> delta : deltas) {
+			deltasProperty.addRealValue(DeltaConvertor.toObjectDeltaType(delta));
+		}
+		task.setExtensionProperty(deltasProperty);
+		if (options != null) {
+			task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_EXECUTE_OPTIONS,
+					options.toModelExecutionOptionsType());
+		}
+		task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_BATCH_SIZE, limitBatchSize(batchSize));
+		task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS, limitThreads(threads));
+		
+		task.setName("Bulk changes (" + deltas.size() + " deltas)");
+		task.setCategory(TaskCategory.BULK_ACTIONS);
+		task.setHandlerUri(BulkChangesTaskHandler.HANDLER_URI);
+		taskManager.switchToBackground(task, result);
+		result.computeStatus();
+	}
+	
+	private void executeInParallel(List<List<ObjectDelta<? extends ObjectType>>> batches,
+			final ModelExecuteOptions options, int threads, final Task task, ItemHandler handler, Counters counters) {
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+		Deque<Future<List<OperationResult>>> pending = new ArrayDeque<>();
+		try {
+			int next = 0;
+			int reported = 0;
+			while (reported < batches.size()) {
+				while (next < batches.size() && pending.size() < threads * PENDING_BATCHES_PER_THREAD) {
+					final List<ObjectDelta<? extends ObjectType>> batch = batches.get(next++);
+					pending.add(executor.submit(new Callable<List<OperationResult>>() {
+
+						@Override
+						public List<OperationResult> call() {
+							return executeBatchInWorker(batch, options, task);
+						}
+					}));
+				}
+				
+				List<OperationResult> results = getResults(pending.poll());
+				if (!reportBatch(batches.get(reported++), results, handler, counters)) {
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	private List<OperationResult> getResults(Future<List<OperationResult>> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SystemException("Interrupted while waiting for bulk changes batch", e);
+		} catch (ExecutionException e) {
+			throw new SystemException("Bulk changes batch failed: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+	
+	private List<OperationResult> executeBatchInWorker(List<ObjectDelta<? extends ObjectType>> batch,
+			ModelExecuteOptions options, Task task) {
+		if (task.getOwner() != null) {
+			securityEnforcer.setupPreAuthenticatedSecurityContext(task.getOwner());
+		}
+		RepositoryCache.enter();
+		try {
+			// the task is not thread-safe, workers must not share it
+			return executeBatch(batch, options, createWorkerTask(task));
+		} finally {
+			RepositoryCache.exit();
+			// pooled thread, the next batch must not inherit the context
+			SecurityContextHolder.clearContext();
+		}
+	}
+	
+	private Task createWorkerTask(Task task) {
+		Task workerTask;
+		if (task.isTransient()) {
+			// transient tasks can't have subtasks, a separate transient task is used instead
+			workerTask = taskManager.createTaskInstance(DOT_CLASS + "worker");
+			workerTask.setOwner(task.getOwner());
+		} else {
+			workerTask = task.createSubtask();
+		}
+		workerTask.setChannel(task.getChannel());
+		return workerTask;
+	}
+	
+	private List<OperationResult> executeBatch(List<ObjectDelta<? extends ObjectType>> batch,
+			ModelExecuteOptions options, Task task) {
+		List<OperationResult> results = new ArrayList<>(batch.size());
+		for (ObjectDelta<? extends ObjectType> delta : batch) {
+			OperationResult itemResult = new OperationResult(DOT_CLASS + "executeDelta");
+			itemResult.addContext("objectType", delta.getObjectTypeClass().getSimpleName());
+			itemResult.addContext("oid", delta.getOid());
+			try {
+				Collection<ObjectDelta<? extends ObjectType>> deltas = new ArrayList<>(1);
+				deltas.add(delta);
+				Collection<ObjectDeltaOperation<? extends ObjectType>> executed = modelController.executeChanges(
+						deltas, options, task, itemResult);
+				updateOid(delta, executed);
+				itemResult.computeStatus();
+			} catch (CommonException | RuntimeException e) {
+				LoggingUtils.logException(LOGGER, "Couldn't execute {}", e, delta);
+				itemResult.recordFatalError(e.getMessage(), e);
+			}
+			results.add(itemResult);
+		}
+		return results;
+	}
+	
+	private void updateOid(ObjectDelta<? extends ObjectType> delta, Collection<ObjectDeltaOperation<? extends ObjectType>> executed) {
+		if (!delta.isAdd() || delta.getOid() != null || executed == null) {
+			return;
+		}
+		for (ObjectDeltaOperation<? extends ObjectType> operation : executed) {
+			ObjectDelta<? extends ObjectType> executedDelta = operation.getObjectDelta();
+			if (executedDelta != null && executedDelta.isAdd() && executedDelta.getOid() != null
+					&& delta.getObjectTypeClass().equals(executedDelta.getObjectTypeClass())) {
+				delta.setOid(executedDelta.getOid());
+				return;
+			}
+		}
+	}
+	
+	private boolean reportBatch(List<ObjectDelta<? extends ObjectType>> batch, List<OperationResult> results,
+			ItemHandler handler, Counters counters) {
+		for (int i = 0; i < batch.size(); i++) {
+			OperationResult itemResult = results.get(i);
+			counters.processed++;
+			if (!itemResult.isAcceptable()) {
+				counters.errors++;
+			}
+			if (!handler.handle(batch.get(i), itemResult)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private List<List<ObjectDelta<? extends ObjectType>>> createBatches(List<ObjectDelta<? extends ObjectType>> deltas,
+			int batchSize) {
+		if (batchSize <= 0) {
+			batchSize = DEFAULT_BATCH_SIZE;
+		}
+		List<List<ObjectDelta<? extends ObjectType>>> batches = new ArrayList<>();
+		for (int i = 0; i < deltas.size(); i += batchSize) {
+			batches.add(deltas.subList(i, Math.min(i + batchSize, deltas.size())));
+		}
+		return batches;
+	}
+	
+	private static class Counters {
+		private int processed;
+		private int errors;
+	}
+	
+	private static class WorkerThreadFactory implements ThreadFactory {
+		
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "bulk-changes-worker-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
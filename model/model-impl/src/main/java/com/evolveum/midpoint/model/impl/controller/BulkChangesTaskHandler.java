@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.midpoint.model.impl.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.xml.namespace.QName;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.model.api.ModelExecuteOptions;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.schema.DeltaConvertor;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskCategory;
+import com.evolveum.midpoint.task.api.TaskHandler;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.task.api.TaskRunResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ModelExecuteOptionsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.prism.xml.ns._public.types_3.ObjectDeltaType;
+
+/**
+ * Executes object deltas stored in the task extension (objectDelta) using {@link BulkChangesExecutor}.
+ * Batch size, number of worker threads and execute options are also taken from the task extension.
+ * The task progress is the number of executed deltas. Only the numbers of executed and failed deltas
+ * are kept in the task result (the task may contain many deltas), failed deltas are logged.
+ * 
+ * @author Radovan Semancik
+ */
+@Component
+public class BulkChangesTaskHandler implements TaskHandler {
+
+	private static final Trace LOGGER = TraceManager.getTrace(BulkChangesTaskHandler.class);
+
+	private static final String DOT_CLASS = BulkChangesTaskHandler.class.getName() + ".";
+
+	public static final String HANDLER_URI = "http://midpoint.evolveum.com/xml/ns/public/model/bulk-changes/handler-3";
+
+	@Autowired(required = true)
+	private TaskManager taskManager;
+
+	@Autowired(required = true)
+	private PrismContext prismContext;
+
+	@Autowired(required = true)
+	private BulkChangesExecutor bulkChangesExecutor;
+
+	@Override
+	public TaskRunResult run(final Task task) {
+
+		final OperationResult result = task.getResult().createSubresult(DOT_CLASS + "run");
+		TaskRunResult runResult = new TaskRunResult();
+
+		PrismProperty<ObjectDeltaType> deltasProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_OBJECT_DELTA);
+		if (deltasProperty == null) {
+			throw new IllegalStateException("There are no deltas to be executed in task " + task + " (property "
+					+ SchemaConstants.MODEL_EXTENSION_OBJECT_DELTA + ")");
+		}
+
+		List<ObjectDelta<? extends ObjectType>> deltas = new ArrayList<>();
+		try {
+			for (ObjectDeltaType deltaType : deltasProperty.getRealValues()) {
+				ObjectDelta<ObjectType> delta = DeltaConvertor.createObjectDelta(deltaType, prismContext);
+				prismContext.adopt(delta);
+				deltas.add(delta);
+			}
+		} catch (SchemaException e) {
+			result.recordFatalError("Couldn't parse deltas: " + e.getMessage(), e);
+			LoggingUtils.logException(LOGGER, "Couldn't parse deltas in task {}", e, task);
+			task.getResult().computeStatus();
+			runResult.setRunResultStatus(TaskRunResult.TaskRunResultStatus.PERMANENT_ERROR);
+			runResult.setOperationResult(task.getResult());
+			return runResult;
+		}
+
+		task.setProgress(0);
+		final int[] errors = new int[] { 0 };
+		BulkChangesExecutor.ItemHandler handler = new BulkChangesExecutor.ItemHandler() {
+
+			@Override
+			public boolean handle(ObjectDelta<? extends ObjectType> delta, OperationResult itemResult) {
+				if (!itemResult.isAcceptable()) {
+					errors[0]++;
+					LOGGER.warn("Execution of {} in task {} failed: {}", new Object[]{delta, task, itemResult.getMessage()});
+				}
+				task.setProgress(task.getProgress() + 1);
+				return task.canRun();
+			}
+		};
+
+		bulkChangesExecutor.executeChanges(deltas, getOptions(task), getIntProperty(task, SchemaConstants.MODEL_EXTENSION_BATCH_SIZE),
+				getIntProperty(task, SchemaConstants.MODEL_EXTENSION_WORKER_THREADS), task, handler, result);
+
+		if (errors[0] > 0) {
+			result.recordPartialError("Execution of " + errors[0] + " out of " + task.getProgress() + " deltas failed");
+		} else {
+			result.computeStatus();
+		}
+		runResult.setRunResultStatus(task.canRun() ? TaskRunResult.TaskRunResultStatus.FINISHED
+				: TaskRunResult.TaskRunResultStatus.INTERRUPTED);
+
+		task.getResult().computeStatus();
+		runResult.setProgress(task.getProgress());
+		runResult.setOperationResult(task.getResult());
+		return runResult;
+	}
+
+	private ModelExecuteOptions getOptions(Task task) {
+		PrismProperty<ModelExecuteOptionsType> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_EXECUTE_OPTIONS);
+		return property != null ? ModelExecuteOptions.fromModelExecutionOptionsType(property.getRealValue()) : null;
+	}
+
+	private int getIntProperty(Task task, QName name) {
+		PrismProperty<Integer> property = task.getExtensionProperty(name);
+		if (property == null || property.getRealValue() == null) {
+			return 0;
+		}
+		return property.getRealValue();
+	}
+
+	@Override
+	public Long heartbeat(Task task) {
+		return null; // null - as *not* to record progress
+	}
+
+	@Override
+	public void refreshStatus(Task task) {
+	}
+
+	@Override
+	public String getCategoryName(Task task) {
+		return TaskCategory.BULK_ACTIONS;
+	}
+
+	@Override
+	public List<String> getCategoryNames() {
+		return null;
+	}
+
+	@PostConstruct
+	private void initialize() {
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("Registering with taskManager as a handler for " + HANDLER_URI);
+		}
+		taskManager.registerHandler(HANDLER_URI, this);
+	}
+}
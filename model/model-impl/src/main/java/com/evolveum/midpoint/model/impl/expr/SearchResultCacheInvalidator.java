@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.expr;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.model.api.context.ModelContext;
+import com.evolveum.midpoint.model.api.context.ModelElementContext;
+import com.evolveum.midpoint.model.api.context.ModelProjectionContext;
+import com.evolveum.midpoint.model.api.context.ModelState;
+import com.evolveum.midpoint.model.api.hooks.ChangeHook;
+import com.evolveum.midpoint.model.api.hooks.HookOperationMode;
+import com.evolveum.midpoint.model.api.hooks.HookRegistry;
+import com.evolveum.midpoint.model.common.expression.evaluator.SearchResultCache;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Invalidates cached results of search expressions when objects are added or deleted. Modifications
+ * are not tracked, the changed results are refreshed when the cached entries expire.
+ * 
+ * @author Radovan Semancik
+ */
+@Component
+public class SearchResultCacheInvalidator implements ChangeHook {
+	
+	public static final String HOOK_URI = "http://midpoint.evolveum.com/model/search-result-cache-hook-1";
+	
+	@Autowired(required = true)
+	private HookRegistry hookRegistry;
+	
+	@Autowired(required = true)
+	private SearchResultCache searchExpressionResultCache;
+	
+	@PostConstruct
+	public void init() {
+		hookRegistry.registerChangeHook(HOOK_URI, this);
+	}
+	
+	@Override
+	public <O extends ObjectType> HookOperationMode invoke(ModelContext<O> context, Task task, OperationResult result) {
+		if (context.getState() != ModelState.FINAL || searchExpressionResultCache.size() == 0) {
+			return HookOperationMode.FOREGROUND;
+		}
+		ModelElementContext<O> focusContext = context.getFocusContext();
+		if (focusContext != null && isAddOrDelete(focusContext)) {
+			searchExpressionResultCache.invalidate(focusContext.getObjectTypeClass());
+		}
+		for (ModelProjectionContext projectionContext : context.getProjectionContexts()) {
+			if (isAddOrDelete(projectionContext)) {
+				searchExpressionResultCache.invalidate(ShadowType.class);
+				break;
+			}
+		}
+		return HookOperationMode.FOREGROUND;
+	}
+	
+	private boolean isAddOrDelete(ModelElementContext<?> elementContext) {
+		return (elementContext.getObjectOld() == null) != (elementContext.getObjectNew() == null);
+	}
+	
+	@Override
+	public void invokeOnException(ModelContext context, Throwable throwable, Task task, OperationResult result) {
+		// nothing was changed
+	}
+}
@@ -26,6 +26,7 @@ import org.springframework.stereotype.Component;
 import com.evolveum.midpoint.common.refinery.RefinedObjectClassDefinition;
 import com.evolveum.midpoint.common.refinery.RefinedResourceSchema;
 import com.evolveum.midpoint.model.impl.ModelConstants;
+import com.evolveum.midpoint.model.impl.sync.CorrelationIndexManager;
 import com.evolveum.midpoint.model.impl.sync.SynchronizeAccountResultHandler;
 import com.evolveum.midpoint.model.impl.util.AbstractSearchIterativeResultHandler;
 import com.evolveum.midpoint.model.impl.util.AbstractSearchIterativeTaskHandler;
@@ -101,6 +102,9 @@ public class ImportAccountsFromResourceTaskHandler extends AbstractSearchIterati
     @Autowired(required = true)
     private ChangeNotificationDispatcher changeNotificationDispatcher;
     
+    @Autowired(required = true)
+    private CorrelationIndexManager correlationIndexManager;
+    
     private PrismPropertyDefinition<QName> objectclassPropertyDefinition;
 
     private static final Trace LOGGER = TraceManager.getTrace(ImportAccountsFromResourceTaskHandler.class);
@@ -170,6 +174,18 @@ public class ImportAccountsFromResourceTaskHandler extends AbstractSearchIterati
         LOGGER.trace("Import from resource {} switched to background, control thread returning with task {}", ObjectTypeUtil.toShortString(resource), task);
     }
 
+	@Override
+	public TaskRunResult run(Task task) {
+		boolean bulkCorrelation = correlationIndexManager.startBulkCorrelation(task);
+		try {
+			return super.run(task);
+		} finally {
+			if (bulkCorrelation) {
+				correlationIndexManager.finishBulkCorrelation(task);
+			}
+		}
+	}
+
 	@Override
 	protected SynchronizeAccountResultHandler createHandler(TaskRunResult runResult, Task task,
 			OperationResult opResult) {
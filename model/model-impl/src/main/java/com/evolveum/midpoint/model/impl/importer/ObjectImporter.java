@@ -113,6 +113,10 @@ public class ObjectImporter {
 
     public void importObjects(InputStream input, final ImportOptionsType options, final Task task, final OperationResult parentResult) {
 
+        final boolean parallel = options != null && options.getWorkerThreads() != null && options.getWorkerThreads() > 1;
+        // task is not thread-safe, each worker thread imports objects with its own task
+        final ThreadLocal<Task> workerTasks = new ThreadLocal<Task>();
+
         EventHandler handler = new EventHandler() {
 
             @Override
@@ -182,7 +186,15 @@ public class ObjectImporter {
                 
                 try {
 
-                    importObjectToRepository(object, options, task, objectResult);
+                    Task objectTask = task;
+                    if (parallel) {
+                        objectTask = workerTasks.get();
+                        if (objectTask == null) {
+                            objectTask = createWorkerTask(task);
+                            workerTasks.set(objectTask);
+                        }
+                    }
+                    importObjectToRepository(object, options, objectTask, objectResult);
 
                     LOGGER.info("Imported object {}", object);
 
@@ -242,6 +254,9 @@ public class ObjectImporter {
 	        if (options.getStopAfterErrors() != null) {
 	            validator.setStopAfterErrors(options.getStopAfterErrors().longValue());
 	        }
+	        if (options.getWorkerThreads() != null) {
+	            validator.setWorkerThreads(options.getWorkerThreads());
+	        }
 	        if (options.isSummarizeErrors()) {
 	        	parentResult.setSummarizeErrors(true);
 	        }
@@ -254,6 +269,19 @@ public class ObjectImporter {
 
     }
 
+    private Task createWorkerTask(Task task) {
+        Task workerTask;
+        if (task.isTransient()) {
+            // transient tasks can't have subtasks, a separate transient task is used instead
+            workerTask = taskManager.createTaskInstance(ObjectImporter.class.getName() + ".worker");
+            workerTask.setOwner(task.getOwner());
+        } else {
+            workerTask = task.createSubtask();
+        }
+        workerTask.setChannel(task.getChannel());
+        return workerTask;
+    }
+
     private <T extends ObjectType> void importObjectToRepository(PrismObject<T> object, ImportOptionsType options,
                                          Task task, OperationResult objectResult) throws ObjectNotFoundException, ExpressionEvaluationException, CommunicationException,
 				ConfigurationException, PolicyViolationException, SecurityViolationException, SchemaException, ObjectAlreadyExistsException {
@@ -83,6 +83,7 @@ public class AssignmentEvaluator<F extends FocusType> {
 	XMLGregorianCalendar now;
 	private boolean evaluateConstructions = true;
 	private PrismObject<SystemConfigurationType> systemConfiguration;
+	private RoleEvaluationCache roleEvaluationCache;
 	
 	public RepositoryService getRepository() {
 		return repository;
@@ -172,6 +173,17 @@ public class AssignmentEvaluator<F extends FocusType> {
 		this.systemConfiguration = systemConfiguration;
 	}
 
+	public RoleEvaluationCache getRoleEvaluationCache() {
+		return roleEvaluationCache;
+	}
+
+	/**
+	 * Optional cache of resolved assignment targets, shared by all evaluations in a task run.
+	 */
+	public void setRoleEvaluationCache(RoleEvaluationCache roleEvaluationCache) {
+		this.roleEvaluationCache = roleEvaluationCache;
+	}
+
 	public SimpleDelta<EvaluatedAssignment> evaluate(SimpleDelta<AssignmentType> assignmentTypeDelta, ObjectType source, String sourceDescription,
 			Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, PolicyViolationException {
 		SimpleDelta<EvaluatedAssignment> delta = new SimpleDelta<EvaluatedAssignment>();
@@ -342,11 +354,22 @@ public class AssignmentEvaluator<F extends FocusType> {
 			throw new SchemaException("Missing type in target reference in " + assignmentType + " in " + sourceDescription);
 		}
 		PrismObject<? extends ObjectType> target = null;
+		long invalidationCount = 0;
+		if (roleEvaluationCache != null) {
+			target = roleEvaluationCache.get(clazz, oid);
+			if (target != null) {
+				return target;
+			}
+			invalidationCount = roleEvaluationCache.getInvalidationCount();
+		}
 		try {
 			target = repository.getObject(clazz, oid, null, result);
 			if (target == null) {
 				throw new IllegalArgumentException("Got null target from repository, oid:"+oid+", class:"+clazz+" (should not happen, probably a bug) in "+sourceDescription);
 			}
+			if (roleEvaluationCache != null) {
+				roleEvaluationCache.put(target, invalidationCount);
+			}
 		} catch (ObjectNotFoundException ex) {
 			// Do not throw an exception. We don't have referential integrity. Therefore if a role is deleted then throwing
 			// an exception would prohibit any operations with the users that have the role, including removal of the reference.
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.lens;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Assignment targets (roles, orgs) resolved during one task run. The same roles are usually assigned to most of
+ * the objects processed by the task, therefore they are read and parsed only once and the assignment evaluator
+ * gets a copy of the cached object for each processed object. The copy is needed because the evaluated target
+ * ends up in the lens context (e.g. in the parentOrgRef values).
+ * 
+ * The cache is populated and invalidated concurrently by the workers of the task and by
+ * {@link RoleEvaluationCacheManager} (change hook and cache dispatcher). A worker reads {@link #getInvalidationCount()} before it reads
+ * the target from the repository and passes it to {@link #put(PrismObject, long)}, so a target that was
+ * invalidated meanwhile (and may therefore be stale) is not put back to the cache.
+ * 
+ * @author Radovan Semancik
+ */
+public class RoleEvaluationCache {
+	
+	private final ConcurrentMap<String, PrismObject<? extends ObjectType>> targets = 
+			new ConcurrentHashMap<String, PrismObject<? extends ObjectType>>();
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	
+	// incremented by each invalidation, even if the target is not cached (it may be just being read)
+	private long invalidationCount = 0;
+	
+	/**
+	 * Returns a copy of the cached target or null if it is not cached or it is not of the expected type. 
+	 */
+	public <O extends ObjectType> PrismObject<O> get(Class<O> type, String oid) {
+		PrismObject<? extends ObjectType> target = targets.get(oid);
+		if (target == null || !type.isAssignableFrom(target.getCompileTimeClass())) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return (PrismObject<O>) target.clone();
+	}
+	
+	/**
+	 * @param invalidationCount value of {@link #getInvalidationCount()} read before the target was read
+	 */
+	public synchronized void put(PrismObject<? extends ObjectType> target, long invalidationCount) {
+		if (invalidationCount != this.invalidationCount) {
+			// something was invalidated while the target was being read, it may be the target itself
+			return;
+		}
+		targets.put(target.getOid(), target.clone());
+	}
+	
+	public synchronized void invalidate(String oid) {
+		invalidationCount++;
+		if (targets.remove(oid) != null) {
+			invalidations.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Drops all cached targets, e.g. when some changes could have been missed.
+	 */
+	public synchronized void invalidateAll() {
+		invalidationCount++;
+		invalidations.addAndGet(targets.size());
+		targets.clear();
+	}
+	
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+	
+	public int size() {
+		return targets.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+	
+	/**
+	 * Ratio of lookups answered from the cache, between 0 and 1. Zero if there were no lookups.
+	 */
+	public double getHitRatio() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0.0 : (double) h / total;
+	}
+
+	@Override
+	public String toString() {
+		return "RoleEvaluationCache(" + targets.size() + " targets, hits: " + hits + ", misses: " + misses
+				+ ", invalidations: " + invalidations + ")";
+	}
+}
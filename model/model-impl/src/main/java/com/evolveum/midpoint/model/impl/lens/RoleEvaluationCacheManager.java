@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.lens;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.model.api.context.ModelContext;
+import com.evolveum.midpoint.model.api.context.ModelElementContext;
+import com.evolveum.midpoint.model.api.context.ModelState;
+import com.evolveum.midpoint.model.api.hooks.ChangeHook;
+import com.evolveum.midpoint.model.api.hooks.HookOperationMode;
+import com.evolveum.midpoint.model.api.hooks.HookRegistry;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheInvalidationListener;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractRoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Keeps role evaluation caches of running tasks that process many focal objects (recompute, import,
+ * reconciliation).
+ * 
+ * The task handler starts the cache before it starts to process objects and finishes it afterwards; the cache
+ * statistics are then recorded in the task run result. Worker subtasks of the task use the cache of their parent.
+ * 
+ * As a change hook, the manager removes roles and orgs modified or deleted through midPoint on this node from
+ * the caches of all running tasks. Changes made on other nodes (or directly in the repository) are delivered
+ * by the cache dispatcher that polls the repository object change log. The cache is therefore enabled by default
+ * only if the dispatcher is running and up to date, otherwise it has to be switched on in the task extension.
+ * 
+ * @see RoleEvaluationCache
+ * 
+ * @author Radovan Semancik
+ */
+@Component
+public class RoleEvaluationCacheManager implements ChangeHook {
+	
+	private static final Trace LOGGER = TraceManager.getTrace(RoleEvaluationCacheManager.class);
+	
+	public static final String HOOK_URI = "http://midpoint.evolveum.com/model/role-evaluation-cache-hook-1";
+	
+	@Autowired(required = true)
+	private HookRegistry hookRegistry;
+	
+	@Autowired(required = false)
+	private CacheDispatcher cacheDispatcher;
+	
+	/**
+	 * Caches of running tasks, by task identifier.
+	 */
+	private final ConcurrentMap<String, RoleEvaluationCache> taskCaches = new ConcurrentHashMap<String, RoleEvaluationCache>();
+	
+	@PostConstruct
+	public void init() {
+		hookRegistry.registerChangeHook(HOOK_URI, this);
+		if (cacheDispatcher != null) {
+			cacheDispatcher.registerCacheListener(new CacheInvalidationListener() {
+				@Override
+				public <T extends ObjectType> void invalidate(Class<T> type, String oid) {
+					if (type == null || AbstractRoleType.class.isAssignableFrom(type) 
+							|| type.isAssignableFrom(AbstractRoleType.class)) {
+						invalidateTarget(oid);
+					}
+				}
+				
+				@Override
+				public void invalidateAll() {
+					LOGGER.trace("Clearing role evaluation caches");
+					for (RoleEvaluationCache cache : taskCaches.values()) {
+						cache.invalidateAll();
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * The cache is used if it is switched on in the task extension. If the extension does not say anything,
+	 * it is used only if changes from the other nodes are delivered by the cache dispatcher.
+	 */
+	public boolean isCacheEnabled(Task task) {
+		PrismProperty<Boolean> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_ROLE_EVALUATION_CACHE);
+		if (property != null && property.getRealValue() != null) {
+			return property.getRealValue();
+		}
+		return cacheDispatcher != null && cacheDispatcher.isCoherent();
+	}
+	
+	/**
+	 * Creates the cache for the task run, unless it is switched off in the task extension.
+	 * 
+	 * @return true if the cache was created and {@link #finishCache(Task, OperationResult)} has to be called
+	 */
+	public boolean startCache(Task task) {
+		if (!isCacheEnabled(task)) {
+			return false;
+		}
+		LOGGER.trace("Starting role evaluation cache for {}", task);
+		taskCaches.put(task.getTaskIdentifier(), new RoleEvaluationCache());
+		return true;
+	}
+	
+	/**
+	 * Drops the cache of the task run and records its statistics in the result (if provided).
+	 */
+	public void finishCache(Task task, OperationResult result) {
+		RoleEvaluationCache cache = taskCaches.remove(task.getTaskIdentifier());
+		if (cache == null) {
+			return;
+		}
+		LOGGER.debug("Finished {} for {}, hit ratio {}", new Object[]{cache, task, cache.getHitRatio()});
+		if (result != null) {
+			result.addReturn("roleEvaluationCacheHits", cache.getHits());
+			result.addReturn("roleEvaluationCacheMisses", cache.getMisses());
+			result.addReturn("roleEvaluationCacheInvalidations", cache.getInvalidations());
+			result.addReturn("roleEvaluationCacheHitRatio", cache.getHitRatio());
+		}
+	}
+	
+	/**
+	 * Returns the cache of the running task (or of its parent, if the task is a worker subtask)
+	 * or null if there is none.
+	 */
+	public RoleEvaluationCache getCache(Task task) {
+		if (task == null || task.getTaskIdentifier() == null) {
+			return null;
+		}
+		RoleEvaluationCache cache = taskCaches.get(task.getTaskIdentifier());
+		if (cache == null && task.getParent() != null) {
+			cache = taskCaches.get(task.getParent());
+		}
+		return cache;
+	}
+	
+	@Override
+	public <O extends ObjectType> HookOperationMode invoke(ModelContext<O> context, Task task, OperationResult result) {
+		if (taskCaches.isEmpty() || context.getState() != ModelState.FINAL || context.getFocusContext() == null) {
+			return HookOperationMode.FOREGROUND;
+		}
+		ModelElementContext<O> focusContext = context.getFocusContext();
+		if (!AbstractRoleType.class.isAssignableFrom(focusContext.getObjectTypeClass()) || focusContext.getOid() == null) {
+			return HookOperationMode.FOREGROUND;
+		}
+		invalidateTarget(focusContext.getOid());
+		return HookOperationMode.FOREGROUND;
+	}
+	
+	private void invalidateTarget(String oid) {
+		LOGGER.trace("Invalidating {} in role evaluation caches", oid);
+		for (RoleEvaluationCache cache : taskCaches.values()) {
+			cache.invalidate(oid);
+		}
+	}
+	
+	@Override
+	public void invokeOnException(ModelContext context, Throwable throwable, Task task, OperationResult result) {
+		// nothing was changed
+	}
+}
@@ -38,6 +38,7 @@ import com.evolveum.midpoint.model.impl.lens.LensContext;
 import com.evolveum.midpoint.model.impl.lens.LensFocusContext;
 import com.evolveum.midpoint.model.impl.lens.LensProjectionContext;
 import com.evolveum.midpoint.model.impl.lens.LensUtil;
+import com.evolveum.midpoint.model.impl.lens.RoleEvaluationCacheManager;
 import com.evolveum.midpoint.prism.*;
 import com.evolveum.midpoint.prism.delta.ContainerDelta;
 import com.evolveum.midpoint.prism.delta.DeltaSetTriple;
@@ -138,6 +139,9 @@ public class AssignmentProcessor {
     @Autowired(required = true)
     private ObjectTemplateProcessor objectTemplateProcessor;
 
+    @Autowired(required = true)
+    private RoleEvaluationCacheManager roleEvaluationCacheManager;
+
     private static final Trace LOGGER = TraceManager.getTrace(AssignmentProcessor.class);
 
     /**
@@ -205,6 +209,7 @@ public class AssignmentProcessor {
         assignmentEvaluator.setActivationComputer(activationComputer);
         assignmentEvaluator.setNow(now);
         assignmentEvaluator.setSystemConfiguration(context.getSystemConfiguration());
+        assignmentEvaluator.setRoleEvaluationCache(roleEvaluationCacheManager.getCache(task));
 
         // We will be collecting the evaluated account constructions into these three sets. 
         // It forms a kind of delta set triple for the account constructions.
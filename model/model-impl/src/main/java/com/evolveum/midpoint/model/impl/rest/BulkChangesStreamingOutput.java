@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.midpoint.model.impl.rest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.namespace.QName;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.evolveum.midpoint.model.api.ModelExecuteOptions;
+import com.evolveum.midpoint.model.impl.controller.BulkChangesExecutor;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.schema.DeltaConvertor;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.SecurityEnforcer;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectDeltaOperationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Executes deltas of a bulk request and writes the result of each delta (the delta with OID of added object
+ * and its operation result) to the response as soon as it is known, in the order of the request. Results are
+ * written as deltaOperation elements in "objectDeltaOperationList" element or as newline-delimited JSON.
+ * 
+ * Like {@link ObjectStreamingOutput}, the deltas are executed with the security context of the task owner.
+ * 
+ * @author Radovan Semancik
+ */
+public class BulkChangesStreamingOutput implements StreamingOutput {
+	
+	private static final Trace LOGGER = TraceManager.getTrace(BulkChangesStreamingOutput.class);
+	
+	private static final QName DELTA_OPERATION = new QName(SchemaConstants.NS_API_TYPES, "deltaOperation");
+	
+	private final BulkChangesExecutor bulkChangesExecutor;
+	private final SecurityEnforcer securityEnforcer;
+	private final PrismContext prismContext;
+	private final List<ObjectDelta<? extends ObjectType>> deltas;
+	private final ModelExecuteOptions options;
+	private final int batchSize;
+	private final int threads;
+	private final boolean json;
+	private final Task task;
+
+	public BulkChangesStreamingOutput(BulkChangesExecutor bulkChangesExecutor, SecurityEnforcer securityEnforcer,
+			PrismContext prismContext, List<ObjectDelta<? extends ObjectType>> deltas, ModelExecuteOptions options,
+			int batchSize, int threads, boolean json, Task task) {
+		this.bulkChangesExecutor = bulkChangesExecutor;
+		this.securityEnforcer = securityEnforcer;
+		this.prismContext = prismContext;
+		this.deltas = deltas;
+		this.options = options;
+		this.batchSize = batchSize;
+		this.threads = threads;
+		this.json = json;
+		this.task = task;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException, WebApplicationException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(output, "utf-8"));
+		if (!json) {
+			writer.write("<objectDeltaOperationList xmlns=\"" + SchemaConstants.NS_API_TYPES + "\">\n");
+		}
+		
+		BulkChangesExecutor.ItemHandler handler = new BulkChangesExecutor.ItemHandler() {
+			
+			@Override
+			public boolean handle(ObjectDelta<? extends ObjectType> delta, OperationResult itemResult) {
+				try {
+					writeItem(writer, delta, itemResult);
+				} catch (IOException | SchemaException e) {
+					throw new SystemException("Couldn't write result of " + delta + ": " + e.getMessage(), e);
+				}
+				return true;
+			}
+		};
+		
+		OperationResult result = new OperationResult(BulkChangesStreamingOutput.class.getName() + ".write");
+		Authentication originalAuthentication = SecurityContextHolder.getContext().getAuthentication();
+		securityEnforcer.setupPreAuthenticatedSecurityContext(task.getOwner());
+		try {
+			bulkChangesExecutor.executeChanges(deltas, options, batchSize, threads, task, handler, result);
+		} catch (RuntimeException e) {
+			LoggingUtils.logException(LOGGER, "Couldn't execute bulk changes", e);
+			throw new WebApplicationException(e);
+		} finally {
+			securityEnforcer.setupPreAuthenticatedSecurityContext(originalAuthentication);
+		}
+		
+		if (!json) {
+			writer.write("</objectDeltaOperationList>\n");
+		}
+		writer.flush();
+	}
+	
+	private void writeItem(Writer writer, ObjectDelta<? extends ObjectType> delta, OperationResult itemResult)
+			throws IOException, SchemaException {
+		ObjectDeltaOperationType deltaOperation = new ObjectDeltaOperationType();
+		deltaOperation.setObjectDelta(DeltaConvertor.toObjectDeltaType(delta));
+		deltaOperation.setExecutionResult(itemResult.createOperationResultType());
+		
+		if (json) {
+			writer.write(ObjectStreamingOutput.toSingleLine(
+					prismContext.serializeAnyData(deltaOperation, DELTA_OPERATION, PrismContext.LANG_JSON)));
+		} else {
+			writer.write(prismContext.serializeAnyData(deltaOperation, DELTA_OPERATION, PrismContext.LANG_XML));
+		}
+		writer.write('\n');
+		// every item is a whole model operation, the client should see its result immediately
+		writer.flush();
+	}
+}
@@ -13,6 +13,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
@@ -54,6 +55,10 @@ public class MidpointXmlProvider<T> extends AbstractConfigurableProvider impleme
 	@Override
 	public boolean isWriteable(Class<?> type, Type genericType,
 			Annotation[] annotations, MediaType mediaType) {
+		if (StreamingOutput.class.isAssignableFrom(type)) {
+			// writes itself (e.g. ObjectStreamingOutput)
+			return false;
+		}
 		if (type.getPackage().getName().startsWith("com.evolveum.midpoint")){
 			return true;
 		}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.midpoint.model.impl.rest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.namespace.QName;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.evolveum.midpoint.model.impl.ModelCrudService;
+import com.evolveum.midpoint.prism.Item;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.RetrieveOption;
+import com.evolveum.midpoint.schema.SchemaConstantsGenerated;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.SecurityEnforcer;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Writes search results to the response as they are returned by iterative search, so the whole result
+ * is never kept in memory. Objects are written either as XML elements wrapped in one "objects" element
+ * or as newline-delimited JSON (one object per line).
+ * 
+ * If fields are specified, only the name and the specified top-level items are returned (and only those
+ * are requested from the repository).
+ * 
+ * The headers were already sent when the search fails, therefore the error is only logged and the response
+ * is terminated prematurely.
+ * 
+ * The output is written after the REST authentication handler has already cleared the security context,
+ * so the search runs with the security context of the task owner (the authenticated user). The original
+ * authentication of the thread is restored afterwards.
+ * 
+ * @author Radovan Semancik
+ */
+public class ObjectStreamingOutput<T extends ObjectType> implements StreamingOutput {
+	
+	public static final String MEDIA_TYPE_NDJSON = "application/x-ndjson";
+	
+	private static final Trace LOGGER = TraceManager.getTrace(ObjectStreamingOutput.class);
+	
+	private static final int FLUSH_INTERVAL = 100;
+	private static final Pattern JSON_LINE_BREAK = Pattern.compile("\\r?\\n\\s*");
+	
+	private final ModelCrudService model;
+	private final SecurityEnforcer securityEnforcer;
+	private final PrismContext prismContext;
+	private final Class<T> type;
+	private final ObjectQuery query;
+	private final GetOperationOptions rootOptions;
+	private final List<QName> fields;
+	private final boolean json;
+	private final Task task;
+
+	public ObjectStreamingOutput(ModelCrudService model, SecurityEnforcer securityEnforcer, PrismContext prismContext,
+			Class<T> type, ObjectQuery query, GetOperationOptions rootOptions, List<String> fields, boolean json, Task task) {
+		this.model = model;
+		this.securityEnforcer = securityEnforcer;
+		this.prismContext = prismContext;
+		this.type = type;
+		this.query = query;
+		this.rootOptions = rootOptions;
+		this.fields = createFieldNames(fields);
+		this.json = json;
+		this.task = task;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException, WebApplicationException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(output, "utf-8"));
+		if (!json) {
+			writer.write("<objects xmlns=\"" + SchemaConstantsGenerated.NS_COMMON + "\">\n");
+		}
+		
+		ResultHandler<T> handler = new ResultHandler<T>() {
+			
+			private int count = 0;
+			
+			@Override
+			public boolean handle(PrismObject<T> object, OperationResult parentResult) {
+				try {
+					writeObject(writer, object);
+					count++;
+					if (count % FLUSH_INTERVAL == 0) {
+						writer.flush();
+					}
+				} catch (IOException | SchemaException e) {
+					throw new SystemException("Couldn't write object " + object + ": " + e.getMessage(), e);
+				}
+				return true;
+			}
+		};
+		
+		OperationResult result = new OperationResult(ObjectStreamingOutput.class.getName() + ".write");
+		Authentication originalAuthentication = SecurityContextHolder.getContext().getAuthentication();
+		securityEnforcer.setupPreAuthenticatedSecurityContext(task.getOwner());
+		try {
+			search(handler, result);
+		} catch (CommonException | RuntimeException e) {
+			LoggingUtils.logException(LOGGER, "Couldn't stream search results for {}", e, type.getSimpleName());
+			throw new WebApplicationException(e);
+		} finally {
+			securityEnforcer.setupPreAuthenticatedSecurityContext(originalAuthentication);
+		}
+		
+		if (!json) {
+			writer.write("</objects>\n");
+		}
+		writer.flush();
+	}
+
+	private void search(ResultHandler<T> handler, OperationResult result) throws CommonException {
+		Collection<SelectorOptions<GetOperationOptions>> options = createOptions();
+		
+		ObjectTypes.ObjectManager manager = ObjectTypes.getObjectManagerForClass(type);
+		if (manager == ObjectTypes.ObjectManager.TASK_MANAGER || manager == ObjectTypes.ObjectManager.WORKFLOW) {
+			// iterative search is not supported for these, there are usually not many such objects anyway
+			for (PrismObject<T> object : model.searchObjects(type, query, options, task, result)) {
+				if (!handler.handle(object, result)) {
+					break;
+				}
+			}
+			return;
+		}
+		
+		model.searchObjectsIterative(type, query, handler, options, task, result);
+	}
+	
+	private Collection<SelectorOptions<GetOperationOptions>> createOptions() {
+		Collection<SelectorOptions<GetOperationOptions>> options = new ArrayList<>();
+		GetOperationOptions root = rootOptions;
+		if (fields != null) {
+			options.addAll(GetOperationOptions.createRetrieveAttributesOptions(fields.toArray(new QName[fields.size()])));
+			// options of the caller are not changed
+			root = root != null ? root.clone() : new GetOperationOptions();
+			root.setRetrieve(RetrieveOption.EXCLUDE);
+		}
+		if (root != null) {
+			options.add(new SelectorOptions<>(root));
+		}
+		return options.isEmpty() ? null : options;
+	}
+
+	private void writeObject(Writer writer, PrismObject<T> object) throws IOException, SchemaException {
+		if (fields != null) {
+			object = project(object);
+		}
+		
+		if (json) {
+			writer.write(toSingleLine(prismContext.serializeObjectToString(object, PrismContext.LANG_JSON)));
+		} else {
+			writer.write(prismContext.serializeObjectToString(object, PrismContext.LANG_XML));
+		}
+		writer.write('\n');
+	}
+	
+	/**
+	 * Removes line breaks from pretty-printed JSON, so it can be used as a line of newline-delimited JSON.
+	 * Line breaks can only be between tokens (they are escaped in strings).
+	 */
+	static String toSingleLine(String json) {
+		return JSON_LINE_BREAK.matcher(json).replaceAll("");
+	}
+	
+	private PrismObject<T> project(PrismObject<T> object) throws SchemaException {
+		PrismObject<T> projected = object.getDefinition().instantiate();
+		projected.setOid(object.getOid());
+		projected.setVersion(object.getVersion());
+		for (QName field : fields) {
+			Item<?> item = object.findItem(field);
+			if (item != null) {
+				projected.add(item.clone());
+			}
+		}
+		return projected;
+	}
+
+	private static List<QName> createFieldNames(List<String> fields) {
+		if (fields == null || fields.isEmpty()) {
+			return null;
+		}
+		
+		List<QName> names = new ArrayList<>();
+		names.add(ObjectType.F_NAME);
+		for (String field : fields) {
+			QName name = new QName(SchemaConstantsGenerated.NS_COMMON, field);
+			if (!names.contains(name)) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+}
@@ -18,7 +18,9 @@ package com.evolveum.midpoint.model.impl.sync;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang.Validate;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -38,6 +40,7 @@ import com.evolveum.midpoint.prism.PrismPropertyDefinition;
 import com.evolveum.midpoint.prism.PrismPropertyValue;
 import com.evolveum.midpoint.prism.delta.PrismValueDeltaSetTriple;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.prism.query.EqualFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.QueryJaxbConvertor;
 import com.evolveum.midpoint.repo.api.RepositoryService;
@@ -80,6 +83,9 @@ public class CorrelationConfirmationEvaluator {
 	@Autowired(required = true)
 	private MatchingRuleRegistry matchingRuleRegistry;
 	
+	@Autowired(required = true)
+	private CorrelationIndexManager correlationIndexManager;
+	
 	public <F extends FocusType> List<PrismObject<F>> findFocusesByCorrelationRule(Class<F> focusType, ShadowType currentShadow,
 			List<ConditionalSearchFilterType> conditionalFilters, ResourceType resourceType, SystemConfigurationType configurationType, Task task, OperationResult result)
 					throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException {
@@ -216,7 +222,10 @@ public class CorrelationConfirmationEvaluator {
 				PagingType paging = new PagingType();
 				// ObjectQuery q = QueryConvertor.createObjectQuery(UserType.class,
 				// query, prismContext);
-				users = repositoryService.searchObjects(focusType, q, null, result);
+				users = findUsersInCorrelationIndex(focusType, q, task, result);
+				if (users == null) {
+					users = repositoryService.searchObjects(focusType, q, null, result);
+				}
 
 				if (users == null) {
 					users = new ArrayList<PrismObject<F>>();
@@ -230,6 +239,48 @@ public class CorrelationConfirmationEvaluator {
 			
 			return users;
 		}
+		
+		/**
+		 * Answers the correlation query from the correlation index of a bulk synchronization task.
+		 * Returns null if there is no index for the query, the repository has to be searched then.
+		 */
+		private <F extends FocusType> List<PrismObject<F>> findUsersInCorrelationIndex(Class<F> focusType, ObjectQuery q,
+				Task task, OperationResult result) throws SchemaException {
+			if (task == null || !(q.getFilter() instanceof EqualFilter)) {
+				return null;
+			}
+			EqualFilter<?> filter = (EqualFilter<?>) q.getFilter();
+			if (filter.getValues() == null || filter.getValues().isEmpty()) {
+				return null;
+			}
+			CorrelationIndex<F> index = correlationIndexManager.getIndex(focusType, filter, task, result);
+			if (index == null) {
+				return null;
+			}
+			
+			Set<String> oids = new HashSet<String>();
+			for (PrismPropertyValue<?> value : filter.getValues()) {
+				Set<String> found = index.lookup(value.getValue());
+				if (found == null) {
+					LOGGER.trace("Value {} can't be looked up in correlation index, searching repository", value);
+					return null;
+				}
+				oids.addAll(found);
+			}
+			LOGGER.trace("SYNCHRONIZATION: CORRELATION: index returned {} for filter {}", oids, filter);
+			
+			List<PrismObject<F>> users = new ArrayList<PrismObject<F>>(oids.size());
+			for (String oid : oids) {
+				try {
+					users.add(repositoryService.getObject(focusType, oid, null, result));
+				} catch (ObjectNotFoundException e) {
+					// deleted by somebody else, it is no longer a candidate
+					LOGGER.trace("Correlated {} {} was not found, skipping it", focusType.getSimpleName(), oid);
+					result.muteLastSubresultError();
+				}
+			}
+			return users;
+		}
 
 
 private <F extends FocusType> boolean matchUserCorrelationRule(Class<F> focusType, PrismObject<ShadowType> currentShadow, 
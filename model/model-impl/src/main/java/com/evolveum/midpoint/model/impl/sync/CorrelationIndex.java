@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.sync;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismPropertyDefinition;
+import com.evolveum.midpoint.prism.match.PolyStringNormMatchingRule;
+import com.evolveum.midpoint.prism.match.PolyStringOrigMatchingRule;
+import com.evolveum.midpoint.prism.match.PolyStringStrictMatchingRule;
+import com.evolveum.midpoint.prism.match.StringIgnoreCaseMatchingRule;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.EqualFilter;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+/**
+ * In-memory index of focus property values used for correlation of resource objects in bulk synchronization
+ * tasks (import, reconciliation). Focal objects are scanned only once when the index is built. Correlation
+ * lookups are then answered from the index instead of a repository search for each resource object.
+ * 
+ * Only simple equality filters on string and polystring properties can be indexed. The index maps normalized
+ * property values (according to the matching rule of the filter) to OIDs of the focal objects.
+ * 
+ * @see CorrelationIndexManager
+ * 
+ * @author Radovan Semancik
+ */
+public class CorrelationIndex<F extends FocusType> {
+	
+	private static final Trace LOGGER = TraceManager.getTrace(CorrelationIndex.class);
+	
+	private final Class<F> focusType;
+	private final ItemPath path;
+	private final QName typeName;
+	private final QName matchingRule;
+	private final PrismContext prismContext;
+	private final ConcurrentMap<String, Set<String>> index = new ConcurrentHashMap<String, Set<String>>();
+	
+	CorrelationIndex(Class<F> focusType, ItemPath path, QName typeName, QName matchingRule, PrismContext prismContext) {
+		this.focusType = focusType;
+		this.path = path;
+		this.typeName = typeName;
+		this.matchingRule = matchingRule;
+		this.prismContext = prismContext;
+	}
+	
+	/**
+	 * Returns true if the filter is a simple equality on a property which can be answered from the index.
+	 */
+	public static boolean isIndexable(EqualFilter<?> filter) {
+		if (filter.getFullPath() == null || filter.getExpression() != null) {
+			return false;
+		}
+		PrismPropertyDefinition definition = filter.getDefinition();
+		if (definition == null) {
+			return false;
+		}
+		QName matchingRule = filter.getMatchingRule();
+		if (QNameUtil.match(DOMUtil.XSD_STRING, definition.getTypeName())) {
+			return matchingRule == null || QNameUtil.match(StringIgnoreCaseMatchingRule.NAME, matchingRule);
+		}
+		if (QNameUtil.match(PolyStringType.COMPLEX_TYPE, definition.getTypeName())) {
+			return matchingRule == null || QNameUtil.match(PolyStringStrictMatchingRule.NAME, matchingRule)
+					|| QNameUtil.match(PolyStringOrigMatchingRule.NAME, matchingRule)
+					|| QNameUtil.match(PolyStringNormMatchingRule.NAME, matchingRule);
+		}
+		return false;
+	}
+	
+	public Class<F> getFocusType() {
+		return focusType;
+	}
+	
+	public ItemPath getPath() {
+		return path;
+	}
+	
+	public QName getMatchingRule() {
+		return matchingRule;
+	}
+	
+	public int size() {
+		return index.size();
+	}
+	
+	/**
+	 * Fills the index with one iterative search over all focal objects of the type.
+	 */
+	void build(RepositoryService repositoryService, OperationResult result) throws SchemaException {
+		long start = System.currentTimeMillis();
+		ResultHandler<F> handler = new ResultHandler<F>() {
+			@Override
+			public boolean handle(PrismObject<F> object, OperationResult parentResult) {
+				add(object);
+				return true;
+			}
+		};
+		repositoryService.searchObjectsIterative(focusType, null, handler, null, result);
+		LOGGER.debug("Correlation index for {} {} built with {} values in {} ms", new Object[]{
+				focusType.getSimpleName(), path, index.size(), System.currentTimeMillis() - start});
+	}
+	
+	/**
+	 * Returns OIDs of focal objects having the value (compared by the matching rule of the index).
+	 * Returns null if the value can't be looked up in the index.
+	 */
+	public Set<String> lookup(Object value) {
+		String key = createKey(value);
+		if (key == null) {
+			return null;
+		}
+		Set<String> oids = index.get(key);
+		if (oids == null) {
+			return Collections.emptySet();
+		}
+		synchronized (oids) {
+			return new HashSet<String>(oids);
+		}
+	}
+	
+	/**
+	 * Updates the index after the focal object was created, modified or deleted.
+	 */
+	public void update(PrismObject<F> objectOld, PrismObject<F> objectNew) {
+		if (objectOld != null) {
+			remove(objectOld);
+		}
+		if (objectNew != null) {
+			add(objectNew);
+		}
+	}
+	
+	private void add(PrismObject<F> object) {
+		if (object.getOid() == null) {
+			return;
+		}
+		for (String key : getKeys(object)) {
+			Set<String> oids = index.get(key);
+			if (oids == null) {
+				Set<String> newOids = new HashSet<String>(1);
+				oids = index.putIfAbsent(key, newOids);
+				if (oids == null) {
+					oids = newOids;
+				}
+			}
+			synchronized (oids) {
+				oids.add(object.getOid());
+			}
+		}
+	}
+	
+	private void remove(PrismObject<F> object) {
+		if (object.getOid() == null) {
+			return;
+		}
+		for (String key : getKeys(object)) {
+			Set<String> oids = index.get(key);
+			if (oids != null) {
+				synchronized (oids) {
+					oids.remove(object.getOid());
+				}
+			}
+		}
+	}
+	
+	private Set<String> getKeys(PrismObject<F> object) {
+		Set<String> keys = new HashSet<String>();
+		PrismProperty<?> property = object.findProperty(path);
+		if (property == null) {
+			return keys;
+		}
+		Collection<?> values = property.getRealValues();
+		for (Object value : values) {
+			String key = createKey(value);
+			if (key != null) {
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+	
+	private String createKey(Object value) {
+		if (value instanceof PolyStringType) {
+			value = ((PolyStringType) value).toPolyString();
+		}
+		if (value instanceof String) {
+			if (QNameUtil.match(PolyStringType.COMPLEX_TYPE, typeName)) {
+				value = new PolyString((String) value);
+			} else if (matchingRule != null) {
+				// stringIgnoreCase is the only supported matching rule for strings
+				return ((String) value).toLowerCase();
+			} else {
+				return (String) value;
+			}
+		}
+		if (value instanceof PolyString) {
+			PolyString polyString = (PolyString) value;
+			if (matchingRule != null && QNameUtil.match(PolyStringNormMatchingRule.NAME, matchingRule)) {
+				if (polyString.getNorm() != null) {
+					return polyString.getNorm();
+				}
+				return prismContext.getDefaultPolyStringNormalizer().normalize(polyString.getOrig());
+			}
+			// norm is computed from orig, so strict match is the same as the match of orig values
+			return polyString.getOrig();
+		}
+		return null;
+	}
+}
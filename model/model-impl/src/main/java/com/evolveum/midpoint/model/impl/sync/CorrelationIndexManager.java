@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.sync;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+import javax.xml.namespace.QName;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.model.api.context.ModelContext;
+import com.evolveum.midpoint.model.api.context.ModelElementContext;
+import com.evolveum.midpoint.model.api.context.ModelState;
+import com.evolveum.midpoint.model.api.hooks.ChangeHook;
+import com.evolveum.midpoint.model.api.hooks.HookOperationMode;
+import com.evolveum.midpoint.model.api.hooks.HookRegistry;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.EqualFilter;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Keeps correlation indexes of bulk synchronization tasks (import, reconciliation) that have bulk correlation
+ * enabled in their extension.
+ * 
+ * The task handler starts the bulk correlation before it starts to process resource objects and finishes it
+ * afterwards. Indexes are built lazily when a correlation filter that can be indexed is evaluated for the first
+ * time in the task. As a change hook, the manager updates the indexes when focal objects are created, modified
+ * or deleted by the task, so the objects created during the run can be correlated as well.
+ * 
+ * @see CorrelationIndex
+ * 
+ * @author Radovan Semancik
+ */
+@Component
+public class CorrelationIndexManager implements ChangeHook {
+	
+	private static final Trace LOGGER = TraceManager.getTrace(CorrelationIndexManager.class);
+	
+	public static final String HOOK_URI = "http://midpoint.evolveum.com/model/correlation-index-hook-1";
+	
+	private static final String DOT_CLASS = CorrelationIndexManager.class.getName() + ".";
+	
+	@Autowired(required = true)
+	private HookRegistry hookRegistry;
+	
+	@Autowired(required = true)
+	@Qualifier("cacheRepositoryService")
+	private RepositoryService repositoryService;
+	
+	@Autowired(required = true)
+	private PrismContext prismContext;
+	
+	/**
+	 * Indexes of running tasks, by task identifier.
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<IndexKey, CorrelationIndex<?>>> taskIndexes = 
+			new ConcurrentHashMap<String, ConcurrentMap<IndexKey, CorrelationIndex<?>>>();
+	
+	@PostConstruct
+	public void init() {
+		hookRegistry.registerChangeHook(HOOK_URI, this);
+	}
+	
+	public static boolean isBulkCorrelation(Task task) {
+		PrismProperty<Boolean> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_BULK_CORRELATION);
+		return property != null && Boolean.TRUE.equals(property.getRealValue());
+	}
+	
+	/**
+	 * Enables the bulk correlation for the task, if it is configured in the task extension.
+	 * 
+	 * @return true if the bulk correlation was enabled and {@link #finishBulkCorrelation(Task)} has to be called
+	 */
+	public boolean startBulkCorrelation(Task task) {
+		if (!isBulkCorrelation(task)) {
+			return false;
+		}
+		LOGGER.debug("Starting bulk correlation for {}", task);
+		taskIndexes.put(task.getTaskIdentifier(), new ConcurrentHashMap<IndexKey, CorrelationIndex<?>>());
+		return true;
+	}
+	
+	public void finishBulkCorrelation(Task task) {
+		ConcurrentMap<IndexKey, CorrelationIndex<?>> indexes = taskIndexes.remove(task.getTaskIdentifier());
+		if (indexes != null) {
+			LOGGER.debug("Finished bulk correlation for {}, used {} index(es)", task, indexes.size());
+		}
+	}
+	
+	/**
+	 * Returns the index that answers the (already evaluated) correlation filter. Builds the index if this is the
+	 * first use of the filter in the task. Returns null if the bulk correlation is not enabled for the task or
+	 * if the filter can't be indexed.
+	 */
+	public <F extends FocusType> CorrelationIndex<F> getIndex(Class<F> focusType, EqualFilter<?> filter, Task task,
+			OperationResult parentResult) throws SchemaException {
+		ConcurrentMap<IndexKey, CorrelationIndex<?>> indexes = findIndexes(task);
+		if (indexes == null || !CorrelationIndex.isIndexable(filter)) {
+			return null;
+		}
+		
+		IndexKey key = new IndexKey(focusType, filter.getFullPath(), filter.getMatchingRule());
+		CorrelationIndex<F> index = (CorrelationIndex<F>) indexes.get(key);
+		if (index != null) {
+			return index;
+		}
+		
+		// workers of the task wait for a single build of the index
+		synchronized (indexes) {
+			index = (CorrelationIndex<F>) indexes.get(key);
+			if (index != null) {
+				return index;
+			}
+			OperationResult result = parentResult.createSubresult(DOT_CLASS + "buildIndex");
+			result.addParam("focusType", focusType.getName());
+			result.addParam("path", filter.getFullPath().toString());
+			try {
+				index = new CorrelationIndex<F>(focusType, filter.getFullPath(), filter.getDefinition().getTypeName(), 
+						filter.getMatchingRule(), prismContext);
+				index.build(repositoryService, result);
+				indexes.put(key, index);
+				result.recordSuccess();
+			} catch (SchemaException | RuntimeException e) {
+				result.recordFatalError(e);
+				throw e;
+			}
+			return index;
+		}
+	}
+	
+	@Override
+	public <O extends ObjectType> HookOperationMode invoke(ModelContext<O> context, Task task, OperationResult result) {
+		if (taskIndexes.isEmpty() || context.getState() != ModelState.FINAL || context.getFocusContext() == null) {
+			return HookOperationMode.FOREGROUND;
+		}
+		ConcurrentMap<IndexKey, CorrelationIndex<?>> indexes = findIndexes(task);
+		if (indexes == null) {
+			return HookOperationMode.FOREGROUND;
+		}
+		
+		ModelElementContext<O> focusContext = context.getFocusContext();
+		PrismObject<O> objectOld = focusContext.getObjectOld();
+		PrismObject<O> objectNew = focusContext.getObjectNew();
+		if (objectNew != null && objectNew.getOid() == null) {
+			objectNew.setOid(focusContext.getOid());
+		}
+		for (CorrelationIndex<?> index : new ArrayList<CorrelationIndex<?>>(indexes.values())) {
+			if (index.getFocusType().isAssignableFrom(focusContext.getObjectTypeClass())) {
+				LOGGER.trace("Updating correlation index for {} {}", index.getFocusType().getSimpleName(), index.getPath());
+				((CorrelationIndex) index).update(objectOld, objectNew);
+			}
+		}
+		return HookOperationMode.FOREGROUND;
+	}
+	
+	/**
+	 * Worker threads of the task process objects with subtasks of the task (see
+	 * {@link com.evolveum.midpoint.model.impl.util.AbstractSearchIterativeResultHandler}), they use indexes
+	 * of the parent task.
+	 */
+	private ConcurrentMap<IndexKey, CorrelationIndex<?>> findIndexes(Task task) {
+		ConcurrentMap<IndexKey, CorrelationIndex<?>> indexes = taskIndexes.get(task.getTaskIdentifier());
+		if (indexes == null && task.getParent() != null) {
+			indexes = taskIndexes.get(task.getParent());
+		}
+		return indexes;
+	}
+	
+	@Override
+	public void invokeOnException(ModelContext context, Throwable throwable, Task task, OperationResult result) {
+		// nothing was changed
+	}
+	
+	private static class IndexKey {
+		
+		private final Class<?> focusType;
+		private final ItemPath path;
+		private final QName matchingRule;
+		
+		IndexKey(Class<?> focusType, ItemPath path, QName matchingRule) {
+			this.focusType = focusType;
+			this.path = path;
+			this.matchingRule = matchingRule;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + focusType.hashCode();
+			result = prime * result + ((path == null) ? 0 : path.hashCode());
+			result = prime * result + ((matchingRule == null) ? 0 : matchingRule.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			IndexKey other = (IndexKey) obj;
+			if (!focusType.equals(other.focusType)) {
+				return false;
+			}
+			if (path == null ? other.path != null : !path.equals(other.path)) {
+				return false;
+			}
+			return matchingRule == null ? other.matchingRule == null : matchingRule.equals(other.matchingRule);
+		}
+	}
+}
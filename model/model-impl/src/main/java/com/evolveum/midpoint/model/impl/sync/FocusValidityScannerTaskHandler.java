@@ -151,7 +151,7 @@ public class FocusValidityScannerTaskHandler extends AbstractScannerTaskHandler<
 				task, FocusValidityScannerTaskHandler.class.getName(), "recompute", "recompute task") {
 			@Override
 			protected boolean handleObject(PrismObject<UserType> user, OperationResult result) throws CommonException {
-				recomputeUser(user, task, result);
+				recomputeUser(user, getTask(), result);
 				return true;
 			}
 		};
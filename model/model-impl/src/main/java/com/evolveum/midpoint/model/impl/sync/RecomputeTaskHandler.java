@@ -113,6 +113,7 @@ public class RecomputeTaskHandler extends AbstractSearchIterativeTaskHandler<Use
 	
 	public RecomputeTaskHandler() {
         super(UserType.class, "Recompute users", OperationConstants.RECOMPUTE);
+        setResumable(true);
     }
 
 	@PostConstruct
@@ -143,7 +144,7 @@ public class RecomputeTaskHandler extends AbstractSearchIterativeTaskHandler<Use
 				task, RecomputeTaskHandler.class.getName(), "recompute", "recompute task") {
 			@Override
 			protected boolean handleObject(PrismObject<UserType> user, OperationResult result) throws CommonException {
-				recomputeUser(user, task, result);
+				recomputeUser(user, getTask(), result);
 				return true;
 			}
 		};
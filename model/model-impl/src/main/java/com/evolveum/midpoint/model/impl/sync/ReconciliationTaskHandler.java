@@ -35,6 +35,7 @@ import com.evolveum.midpoint.common.Clock;
 import com.evolveum.midpoint.common.refinery.RefinedObjectClassDefinition;
 import com.evolveum.midpoint.common.refinery.RefinedResourceSchema;
 import com.evolveum.midpoint.model.impl.ModelConstants;
+import com.evolveum.midpoint.model.impl.lens.RoleEvaluationCacheManager;
 import com.evolveum.midpoint.model.impl.util.Utils;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
@@ -126,6 +127,12 @@ public class ReconciliationTaskHandler implements TaskHandler {
 	@Autowired(required = true)
 	private ChangeNotificationDispatcher changeNotificationDispatcher;
 	
+	@Autowired(required = true)
+	private CorrelationIndexManager correlationIndexManager;
+	
+	@Autowired(required = true)
+	private RoleEvaluationCacheManager roleEvaluationCacheManager;
+	
 	@Autowired(required = true)
 	private AuditService auditService;
 	
@@ -156,6 +163,19 @@ public class ReconciliationTaskHandler implements TaskHandler {
 
 	@Override
 	public TaskRunResult run(Task task) {
+		boolean roleEvaluationCache = roleEvaluationCacheManager.startCache(task);
+		TaskRunResult runResult = null;
+		try {
+			runResult = runReconciliation(task);
+			return runResult;
+		} finally {
+			if (roleEvaluationCache) {
+				roleEvaluationCacheManager.finishCache(task, runResult != null ? runResult.getOperationResult() : null);
+			}
+		}
+	}
+
+	private TaskRunResult runReconciliation(Task task) {
 		LOGGER.trace("ReconciliationTaskHandler.run starting");
 
 		ReconciliationTaskResult reconResult = new ReconciliationTaskResult();
@@ -398,6 +418,7 @@ public class ReconciliationTaskHandler implements TaskHandler {
 		handler.setSourceChannel(SchemaConstants.CHANGE_CHANNEL_RECON);
 		handler.setStopOnError(false);
 
+		boolean bulkCorrelation = correlationIndexManager.startBulkCorrelation(task);
 		try {
 			
 			ObjectQuery query = createObjectclassSearchQuery(resource, rObjectclassDef);
@@ -439,6 +460,10 @@ public class ReconciliationTaskHandler implements TaskHandler {
 		} catch (RuntimeException e) {
 			opResult.recordFatalError(e);
 			throw e;
+		} finally {
+			if (bulkCorrelation) {
+				correlationIndexManager.finishBulkCorrelation(task);
+			}
 		}
         return !interrupted;
 	}
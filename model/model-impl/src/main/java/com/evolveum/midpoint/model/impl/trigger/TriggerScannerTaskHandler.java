@@ -127,7 +127,7 @@ public class TriggerScannerTaskHandler extends AbstractScannerTaskHandler<Object
 				task, TriggerScannerTaskHandler.class.getName(), "trigger", "trigger task") {
 			@Override
 			protected boolean handleObject(PrismObject<ObjectType> object, OperationResult result) throws CommonException {
-				fireTriggers(this, object, task, result);
+				fireTriggers(this, object, getTask(), result);
 				return true;
 			}
 		};
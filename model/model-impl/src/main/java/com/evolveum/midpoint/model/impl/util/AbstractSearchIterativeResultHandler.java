@@ -15,18 +15,45 @@
  */
 package com.evolveum.midpoint.model.impl.util;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.lang.StringUtils;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 /**
+ * Processes objects found by the search. By default objects are processed in the thread that executes
+ * the search. If worker threads are started, the search thread only puts objects into a bounded queue
+ * and the workers process them, each with its own operation result and repository cache. Workers run
+ * with the authentication of the thread that started them.
+ * <p>
+ * Task is not thread-safe, therefore every worker of a persistent task gets its own (transient) subtask.
+ * Subclasses have to use {@link #getTask()} in {@link #handleObject(PrismObject, OperationResult)} instead
+ * of the task they were created with, it returns the subtask of the current worker.
+ * Subclasses used with worker threads must have thread-safe {@link #handleObject(PrismObject, OperationResult)}.
+ * 
  * @author semancik
  *
  */
@@ -36,10 +63,30 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 	private String taskOperationPrefix;
 	private String processShortName;
 	private String contextDesc;
-	private long progress;
-	private long errors;
+	private final AtomicLong progress = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
 	private boolean stopOnError;
 	private boolean logObjectProgress;
+	private int positionSaveInterval;
+	private volatile boolean stopped;
+	private String upperBoundOid;
+	private boolean upperBoundReached;
+
+	// objects that were started in search order, position is moved only after all preceding objects were finished
+	private final Deque<String> startedOids = new ArrayDeque<String>();
+	private final Set<String> finishedOids = new HashSet<String>();
+	private String lastProcessedOid;
+	private long positionUpdates;
+
+	private BlockingQueue<PrismObject<O>> requestQueue;
+	private List<WorkerThread> workers;
+	private volatile boolean allObjectsQueued;
+	private final ThreadLocal<Task> workerTask = new ThreadLocal<Task>();
+	private long lastProgressUpdate;
+
+	private static final int QUEUE_SIZE_PER_WORKER = 10;
+	private static final long QUEUE_POLL_TIMEOUT = 100;
+	private static final long PROGRESS_UPDATE_INTERVAL = 1000;
 	
 	private static final transient Trace LOGGER = TraceManager.getTrace(AbstractSearchIterativeResultHandler.class);
 	
@@ -50,8 +97,6 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		this.taskOperationPrefix = taskOperationPrefix;
 		this.processShortName = processShortName;
 		this.contextDesc = contextDesc;
-		progress = 0;
-		errors = 0;
 		stopOnError = true;
 	}
 
@@ -78,8 +123,13 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		this.contextDesc = contextDesc;
 	}
 
+	/**
+	 * Returns task the current object should be processed with. In worker threads it is the subtask
+	 * of the worker.
+	 */
 	public Task getTask() {
-		return task;
+		Task current = workerTask.get();
+		return current != null ? current : task;
 	}
 
 	public String getTaskOperationPrefix() {
@@ -94,6 +144,46 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		this.logObjectProgress = logObjectProgress;
 	}
 
+	public int getPositionSaveInterval() {
+		return positionSaveInterval;
+	}
+
+	/**
+	 * OID of the last processed object is stored in the task after each interval objects.
+	 * Zero means that the position is not stored.
+	 */
+	public void setPositionSaveInterval(int positionSaveInterval) {
+		this.positionSaveInterval = positionSaveInterval;
+	}
+
+	public synchronized String getLastProcessedOid() {
+		return lastProcessedOid;
+	}
+
+	public String getUpperBoundOid() {
+		return upperBoundOid;
+	}
+
+	/**
+	 * Objects are expected in the order of their OIDs. Search is stopped at the first object with OID
+	 * greater than the bound; that object is not processed. Null means no bound.
+	 */
+	public void setUpperBoundOid(String upperBoundOid) {
+		this.upperBoundOid = upperBoundOid;
+		upperBoundReached = false;
+	}
+
+	public boolean isUpperBoundReached() {
+		return upperBoundReached;
+	}
+
+	/**
+	 * Returns true if processing was stopped by the handler (error, interruption).
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.evolveum.midpoint.schema.ResultHandler#handle(com.evolveum.midpoint.prism.PrismObject, com.evolveum.midpoint.schema.result.OperationResult)
 	 */
@@ -102,8 +192,174 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		if (object.getOid() == null) {
 			throw new IllegalArgumentException("Object has null OID");
 		}
-		
-		progress++;
+
+		if (upperBoundOid != null && object.getOid().compareTo(upperBoundOid) > 0) {
+			LOGGER.trace("{}: object {} is after upper bound {}, stopping the search", new Object[]{
+					getProcessShortNameCapitalized(), object, upperBoundOid});
+			upperBoundReached = true;
+			return false;
+		}
+
+		if (workers != null) {
+			return queueObject(object);
+		}
+
+		objectStarted(object.getOid());
+		boolean cont = processObject(object, parentResult);
+		objectFinished(object.getOid(), parentResult);
+
+		if (!cont) {
+			stopped = true;
+		}
+		return cont;
+	}
+
+	/**
+	 * Starts worker threads. From now on objects passed to {@link #handle(PrismObject, OperationResult)}
+	 * are only queued. {@link #completeProcessing(OperationResult)} has to be called after the search.
+	 */
+	public void startWorkers(int threads) {
+		if (threads <= 0 || workers != null) {
+			return;
+		}
+
+		LOGGER.info("{}: starting {} worker threads {}", new Object[]{
+				getProcessShortNameCapitalized(), threads, getContextDesc()});
+		allObjectsQueued = false;
+		requestQueue = new ArrayBlockingQueue<PrismObject<O>>(threads * QUEUE_SIZE_PER_WORKER);
+		workers = new ArrayList<WorkerThread>(threads);
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		for (int i = 0; i < threads; i++) {
+			WorkerThread worker = new WorkerThread(i, authentication, createWorkerTask());
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Waits until worker threads process all queued objects. Results of workers are added to the result.
+	 * Does nothing if there are no workers.
+	 */
+	public void completeProcessing(OperationResult result) {
+		if (workers == null) {
+			return;
+		}
+
+		allObjectsQueued = true;
+		for (WorkerThread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				LOGGER.warn("{}: interrupted while waiting for worker thread {}", getProcessShortNameCapitalized(),
+						worker.getName());
+				Thread.currentThread().interrupt();
+				stopped = true;
+			}
+			worker.result.computeStatusIfUnknown();
+			result.addSubresult(worker.result);
+		}
+		workers = null;
+		requestQueue = null;
+	}
+
+	private Task createWorkerTask() {
+		if (task.isTransient()) {
+			// transient tasks can't have subtasks, there is nobody else who would use them concurrently
+			// (progress and position are stored only for persistent tasks)
+			LOGGER.debug("{}: task {} is transient, workers will share it", getProcessShortNameCapitalized(), task);
+			return task;
+		}
+		Task subtask = task.createSubtask();
+		subtask.setChannel(task.getChannel());
+		return subtask;
+	}
+
+	private boolean queueObject(PrismObject<O> object) {
+		objectStarted(object.getOid());
+		try {
+			while (!requestQueue.offer(object, QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				if (!canContinue()) {
+					objectDiscarded(object.getOid());
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			objectDiscarded(object.getOid());
+			stopped = true;
+			return false;
+		}
+		return canContinue();
+	}
+
+	private boolean canContinue() {
+		return !stopped && task.canRun();
+	}
+
+	private synchronized void objectStarted(String oid) {
+		startedOids.addLast(oid);
+	}
+
+	private synchronized void objectDiscarded(String oid) {
+		startedOids.removeLastOccurrence(oid);
+	}
+
+	private void objectFinished(String oid, OperationResult result) {
+		boolean save = false;
+		synchronized (this) {
+			finishedOids.add(oid);
+			while (!startedOids.isEmpty() && finishedOids.remove(startedOids.peekFirst())) {
+				lastProcessedOid = startedOids.pollFirst();
+				positionUpdates++;
+				if (positionSaveInterval > 0 && positionUpdates % positionSaveInterval == 0) {
+					save = true;
+				}
+			}
+		}
+		if (save) {
+			savePosition(result);
+		}
+	}
+
+	/**
+	 * Stores OID of the last processed object in the task, so the processing can be resumed from it.
+	 * All objects preceding it (in search order) were already processed.
+	 */
+	public void savePosition(OperationResult result) {
+		String oid = getLastProcessedOid();
+		if (oid == null) {
+			return;
+		}
+		try {
+			synchronized (task) {
+				task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_LAST_PROCESSED_OID, oid);
+				task.savePendingModifications(result);
+			}
+		} catch (Exception ex) {
+			// not critical, processing will be resumed from an older position
+			LoggingUtils.logException(LOGGER, "Couldn't store last processed object {} in task {}", ex, oid, task);
+		}
+	}
+
+	private void updateTaskProgress(long value, OperationResult result) throws CommonException {
+		if (workers == null) {
+			task.setProgressImmediate(value, result);
+			return;
+		}
+
+		// with many workers the task object would be updated too often
+		synchronized (task) {
+			long now = System.currentTimeMillis();
+			if (now - lastProgressUpdate < PROGRESS_UPDATE_INTERVAL) {
+				task.setProgress(value);
+				return;
+			}
+			lastProgressUpdate = now;
+			task.setProgressImmediate(value, result);
+		}
+	}
+
+	private boolean processObject(PrismObject<O> object, OperationResult parentResult) {
+		long progress = this.progress.incrementAndGet();
 
 		Long startTime = System.currentTimeMillis();
 
@@ -119,7 +375,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		boolean cont;
 		try {
 
-            task.setProgressImmediate(progress, parentResult);              // this is necessary for the progress to be immediately available in GUI
+            updateTaskProgress(progress, parentResult);              // this is necessary for the progress to be immediately available in GUI
 
             // The meat
 			cont = handleObject(object, result);
@@ -181,7 +437,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 	}
 	
 	private boolean processError(PrismObject<O> object, Exception ex, OperationResult result) {
-		errors++;
+		errors.incrementAndGet();
 		String message;
 		if (ex != null) {
 			message = ex.getMessage();
@@ -203,15 +459,15 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 
 	public long heartbeat() {
 		// If we exist then we run. So just return the progress count.
-		return progress;
+		return progress.get();
 	}
 
 	public long getProgress() {
-		return progress;
+		return progress.get();
 	}
 	
 	public long getErrors() {
-		return errors;
+		return errors.get();
 	}
 	
 	public boolean isStopOnError() {
@@ -225,4 +481,57 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 	protected abstract boolean handleObject(PrismObject<O> object, OperationResult result) throws CommonException;
 
 
+	private class WorkerThread extends Thread {
+
+		private final OperationResult result;
+		private final Authentication authentication;
+		private final Task subtask;
+
+		private WorkerThread(int index, Authentication authentication, Task subtask) {
+			super(processShortName + "-worker-" + index);
+			setDaemon(true);
+			this.authentication = authentication;
+			this.subtask = subtask;
+			result = new OperationResult(taskOperationPrefix + ".worker");
+			result.addContext("thread", getName());
+		}
+
+		@Override
+		public void run() {
+			SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+			securityContext.setAuthentication(authentication);
+			SecurityContextHolder.setContext(securityContext);
+			workerTask.set(subtask);
+			RepositoryCache.enter();
+			try {
+				while (canContinue()) {
+					PrismObject<O> object = requestQueue.poll(QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+					if (object == null) {
+						if (allObjectsQueued) {
+							break;
+						}
+						continue;
+					}
+
+					boolean cont = processObject(object, result);
+					objectFinished(object.getOid(), result);
+					if (!cont) {
+						stopped = true;
+					}
+				}
+			} catch (InterruptedException e) {
+				LOGGER.warn("{}: worker thread {} interrupted", getProcessShortNameCapitalized(), getName());
+				stopped = true;
+			} catch (RuntimeException | Error e) {
+				LoggingUtils.logException(LOGGER, "{}: worker thread {} failed", e, getProcessShortNameCapitalized(), getName());
+				result.recordFatalError("Worker thread failed: " + e.getMessage(), e);
+				stopped = true;
+				throw e;
+			} finally {
+				RepositoryCache.exit();
+				workerTask.remove();
+				SecurityContextHolder.clearContext();
+			}
+		}
+	}
 }
@@ -15,10 +15,20 @@
  */
 package com.evolveum.midpoint.model.impl.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import javax.xml.namespace.QName;
+
+import com.evolveum.midpoint.prism.Item;
+import com.evolveum.midpoint.prism.PrismContainer;
 import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.prism.xml.ns._public.query_3.QueryType;
@@ -26,6 +36,7 @@ import com.evolveum.prism.xml.ns._public.query_3.QueryType;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.evolveum.midpoint.model.impl.ModelObjectResolver;
+import com.evolveum.midpoint.model.impl.lens.RoleEvaluationCacheManager;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -35,6 +46,7 @@ import com.evolveum.midpoint.task.api.TaskHandler;
 import com.evolveum.midpoint.task.api.TaskManager;
 import com.evolveum.midpoint.task.api.TaskRunResult;
 import com.evolveum.midpoint.task.api.TaskRunResult.TaskRunResultStatus;
+import com.evolveum.midpoint.util.exception.CommonException;
 import com.evolveum.midpoint.util.exception.CommunicationException;
 import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
@@ -59,6 +71,7 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 	private Class<O> type;
 	private boolean logFinishInfo = false;
     private boolean countObjectsOnStart = true;         // todo make configurable per task instance (if necessary)
+    private boolean resumable = false;
 	
 	// If you need to store fields specific to task instance or task run the ResultHandler is a good place to do that.
 	
@@ -73,8 +86,23 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 	
 	@Autowired(required = true)
 	protected PrismContext prismContext;
+
+	@Autowired(required = true)
+	private WorkBucketManager workBucketManager;
+
+	@Autowired(required = true)
+	private RoleEvaluationCacheManager roleEvaluationCacheManager;
 	
 	private static final transient Trace LOGGER = TraceManager.getTrace(AbstractSearchIterativeTaskHandler.class);
+
+	private static final int POSITION_SAVE_INTERVAL = 100;
+
+	private static final int WORKERS_POLL_INTERVAL = 10;
+
+	// extension items that belong to the coordinator only, they are not copied to the worker tasks
+	private static final Collection<QName> COORDINATOR_ITEMS = Arrays.asList(
+			SchemaConstants.MODEL_EXTENSION_WORK_BUCKET_COUNT, SchemaConstants.MODEL_EXTENSION_WORKER_TASKS,
+			SchemaConstants.MODEL_EXTENSION_WORK_BUCKET, SchemaConstants.MODEL_EXTENSION_LAST_PROCESSED_OID);
 	
 	protected AbstractSearchIterativeTaskHandler(Class<O> type, String taskName, String taskOperationPrefix) {
 		super();
@@ -91,8 +119,34 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 		this.logFinishInfo = logFinishInfo;
 	}
 
+	public boolean isResumable() {
+		return resumable;
+	}
+
+	/**
+	 * Resumable handler processes repository objects in the order of their OIDs and stores the last processed
+	 * OID in the task. Next run of interrupted or failed task continues after that object. It should be used
+	 * only by handlers which query doesn't change between runs.
+	 */
+	public void setResumable(boolean resumable) {
+		this.resumable = resumable;
+	}
+
 	@Override
 	public TaskRunResult run(Task task) {
+		boolean roleEvaluationCache = roleEvaluationCacheManager.startCache(task);
+		TaskRunResult runResult = null;
+		try {
+			runResult = runSearch(task);
+			return runResult;
+		} finally {
+			if (roleEvaluationCache) {
+				roleEvaluationCacheManager.finishCache(task, runResult != null ? runResult.getOperationResult() : null);
+			}
+		}
+	}
+
+	private TaskRunResult runSearch(Task task) {
 		LOGGER.trace("{} run starting (task {})", taskName, task);
 		
 		OperationResult opResult = new OperationResult(taskOperationPrefix + ".run");
@@ -129,30 +183,79 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 			// the error should already be in the runResult
 			return runResult;
 		}
+
+		boolean bucketWorker = isWorkBucketWorker(task);
+		if (bucketWorker && !supportsOidOrdering(query)) {
+			LOGGER.error("{}: Query can't be partitioned by OID, it can't be processed by a worker task (task {})", taskName, task);
+			opResult.recordFatalError("Query can't be partitioned by OID, it can't be processed by a worker task");
+			runResult.setRunResultStatus(TaskRunResultStatus.PERMANENT_ERROR);
+			handlers.remove(task);
+			return runResult;
+		}
+
+		int bucketCount = bucketWorker ? 0 : getWorkBucketCount(task);
+		if (bucketCount > 0) {
+			if (supportsOidOrdering(query)) {
+				handlers.remove(task);
+				return runCoordinator(Math.min(bucketCount, WorkBucket.MAX_BUCKETS), query, runResult, task, opResult);
+			}
+			LOGGER.warn("{}: Query can't be partitioned by OID, processing all objects in task {}", taskName, task);
+		}
 		
+		boolean resuming = false;
+		if (!bucketWorker && isResumable(query)) {
+			String lastProcessedOid = getLastProcessedOid(task);
+			if (query.getPaging() == null) {
+				query.setPaging(ObjectPaging.createEmptyPaging());
+			}
+			// empty cookie means "from the beginning, ordered by OID"
+			query.getPaging().setCookie(lastProcessedOid != null ? lastProcessedOid : "");
+			resultHandler.setPositionSaveInterval(POSITION_SAVE_INTERVAL);
+			resuming = lastProcessedOid != null;
+			if (resuming) {
+				LOGGER.info("{}: resuming processing after object {} (task {})", new Object[]{taskName, lastProcessedOid, task});
+			}
+		}
+
 		if (LOGGER.isTraceEnabled()) {
 			LOGGER.trace("{}: searching using query:\n{}", taskName, query.debugDump());
 		}
 
 		try {
 
-            // counting objects can be within try-catch block, because the handling is similar to handling errors within searchIterative
-            Long expectedTotal = null;
-            if (countObjectsOnStart) {
-                expectedTotal = (long) modelObjectResolver.countObjects(type, query, opResult);
-                LOGGER.trace("{}: expecting {} objects to be processed", taskName, expectedTotal);
-            }
+            if (bucketWorker) {
+                processBuckets(resultHandler, query, task, opResult);
+            } else {
+                // counting objects can be within try-catch block, because the handling is similar to handling errors within searchIterative
+                Long expectedTotal = null;
+                if (countObjectsOnStart && !resuming) {
+                    expectedTotal = (long) modelObjectResolver.countObjects(type, query, opResult);
+                    LOGGER.trace("{}: expecting {} objects to be processed", taskName, expectedTotal);
+                }
 
-            runResult.setProgress(0);
-            task.setProgress(0);
-            task.setExpectedTotal(expectedTotal);
-            try {
-                task.savePendingModifications(opResult);
-            } catch (ObjectAlreadyExistsException e) {      // other exceptions are handled in the outer try block
-                throw new IllegalStateException("Unexpected ObjectAlreadyExistsException when updating task progress/expectedTotal", e);
-            }
+                runResult.setProgress(0);
+                task.setProgress(0);
+                task.setExpectedTotal(expectedTotal);
+                try {
+                    task.savePendingModifications(opResult);
+                } catch (ObjectAlreadyExistsException e) {      // other exceptions are handled in the outer try block
+                    throw new IllegalStateException("Unexpected ObjectAlreadyExistsException when updating task progress/expectedTotal", e);
+                }
+
+                resultHandler.startWorkers(getWorkerThreads(task));
 
-            modelObjectResolver.searchIterative(type, query, null, resultHandler, opResult);
+                modelObjectResolver.searchIterative(type, query, null, resultHandler, opResult);
+
+                resultHandler.completeProcessing(opResult);
+
+                if (resultHandler.getPositionSaveInterval() > 0) {
+                    if (task.canRun() && !resultHandler.isStopped()) {
+                        clearLastProcessedOid(task, opResult);
+                    } else {
+                        resultHandler.savePosition(opResult);
+                    }
+                }
+            }
 			
 		} catch (ObjectNotFoundException ex) {
             LOGGER.error("{}: Object not found: {}", new Object[]{taskName, ex.getMessage(), ex});
@@ -198,7 +301,10 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
             runResult.setRunResultStatus(TaskRunResultStatus.PERMANENT_ERROR);
             runResult.setProgress(resultHandler.getProgress());
             return runResult;
-		}
+		} finally {
+            // workers have to be stopped also when the search failed
+            resultHandler.completeProcessing(opResult);
+        }
 
         // TODO: check last handler status
 
@@ -235,6 +341,224 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 	protected void finish(H handler, TaskRunResult runResult, Task task, OperationResult opResult) throws SchemaException {
 	}
 
+	private boolean isResumable(ObjectQuery query) {
+		return resumable && supportsOidOrdering(query);
+	}
+
+	/**
+	 * Repository objects can be searched in the order of their OIDs, starting after given OID
+	 * (paging cookie). This is needed both for resuming and for partitioning the object set.
+	 */
+	private boolean supportsOidOrdering(ObjectQuery query) {
+		if (ObjectTypes.isClassManagedByProvisioning(type)) {
+			return false;
+		}
+		// explicit ordering and offset can't be combined with ordering by OID
+		ObjectPaging paging = query.getPaging();
+		return paging == null || (paging.getOrderBy() == null && (paging.getOffset() == null || paging.getOffset() == 0));
+	}
+
+	/**
+	 * Coordinator of a partitioned task doesn't process any objects itself. It divides the object set
+	 * into buckets, starts worker subtasks (these can run on any node) and waits for them. When all
+	 * the workers are closed, the coordinator is run again to check the buckets and clean up.
+	 */
+	private TaskRunResult runCoordinator(int bucketCount, ObjectQuery query, TaskRunResult runResult, Task task,
+			OperationResult opResult) {
+		try {
+			List<WorkBucket> buckets = workBucketManager.getBuckets(task.getOid(), opResult);
+			if (buckets.isEmpty()) {
+				long expectedTotal = modelObjectResolver.countObjects(type, query, opResult);
+				workBucketManager.createBuckets(task.getOid(), bucketCount, opResult);
+				task.setProgress(0);
+				task.setExpectedTotal(expectedTotal);
+				task.savePendingModifications(opResult);
+				LOGGER.info("{}: divided {} objects into {} buckets (task {})", new Object[]{taskName, expectedTotal, bucketCount, task});
+				return startWorkerTasks(task, getWorkerTaskCount(task, bucketCount), opResult);
+			}
+
+			runResult.setProgress(WorkBucketManager.getProcessed(buckets));
+			if (WorkBucketManager.isComplete(buckets)) {
+				workBucketManager.deleteBuckets(task.getOid(), opResult);
+				LOGGER.info("{}: all {} buckets were processed, {} objects in total (task {})", new Object[]{
+						taskName, buckets.size(), runResult.getProgress(), task});
+				opResult.computeStatus();
+				runResult.setRunResultStatus(TaskRunResultStatus.FINISHED);
+				return runResult;
+			}
+
+			List<Task> workers = getWorkerTasks(task, opResult);
+			for (Task worker : workers) {
+				if (!worker.isClosed()) {
+					LOGGER.debug("{}: worker {} is still running, waiting for it (task {})", new Object[]{taskName, worker, task});
+					return waitForWorkerTasks(task, opResult);
+				}
+			}
+
+			int released = workBucketManager.releaseDelegatedBuckets(task.getOid(), opResult);
+			if (!workers.isEmpty()) {
+				// workers are closed and there is still some work left - they have probably failed,
+				// so it makes no sense to start them again; the rest is processed when the task is run again
+				for (Task worker : workers) {
+					taskManager.deleteTask(worker.getOid(), opResult);
+				}
+				LOGGER.error("{}: worker tasks finished without processing all buckets ({} released), task {} has to be run again",
+						new Object[]{taskName, released, task});
+				opResult.recordFatalError("Worker tasks finished without processing all buckets, the task has to be run again");
+				runResult.setRunResultStatus(TaskRunResultStatus.PERMANENT_ERROR);
+				return runResult;
+			}
+
+			LOGGER.info("{}: continuing with buckets that were not processed yet (task {})", taskName, task);
+			return startWorkerTasks(task, getWorkerTaskCount(task, bucketCount), opResult);
+
+		} catch (CommunicationException ex) {
+			LOGGER.error("{}: Communication error: {}", new Object[]{taskName, ex.getMessage(), ex});
+			opResult.recordPartialError("Communication error: " + ex.getMessage(), ex);
+			runResult.setRunResultStatus(TaskRunResultStatus.TEMPORARY_ERROR);
+			return runResult;
+		} catch (CommonException | RuntimeException ex) {
+			LOGGER.error("{}: Couldn't coordinate worker tasks: {}", new Object[]{taskName, ex.getMessage(), ex});
+			opResult.recordFatalError("Couldn't coordinate worker tasks: " + ex.getMessage(), ex);
+			runResult.setRunResultStatus(TaskRunResultStatus.PERMANENT_ERROR);
+			return runResult;
+		}
+	}
+
+	private TaskRunResult startWorkerTasks(Task coordinator, int count, OperationResult opResult)
+			throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+		String name = coordinator.getName() != null ? coordinator.getName().getOrig() : taskName;
+		for (int i = 1; i <= count; i++) {
+			Task worker = coordinator.createSubtask();
+			worker.setName(name + " (worker " + i + ")");
+			worker.setHandlerUri(coordinator.getHandlerUri());
+			if (coordinator.getObjectRef() != null) {
+				worker.setObjectRef(coordinator.getObjectRef());
+			}
+			PrismContainer<?> extension = coordinator.getExtension();
+			if (extension != null && !extension.isEmpty()) {
+				for (Item<?> item : extension.getValue().getItems()) {
+					if (!COORDINATOR_ITEMS.contains(item.getElementName())) {
+						worker.setExtensionItem(item.clone());
+					}
+				}
+			}
+			worker.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_WORK_BUCKET_WORKER, true);
+			taskManager.switchToBackground(worker, opResult);
+		}
+		LOGGER.info("{}: started {} worker tasks (task {})", new Object[]{taskName, count, coordinator});
+		return waitForWorkerTasks(coordinator, opResult);
+	}
+
+	private TaskRunResult waitForWorkerTasks(Task coordinator, OperationResult opResult)
+			throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+		TaskRunResult runResult = coordinator.waitForSubtasks(WORKERS_POLL_INTERVAL, opResult);
+		runResult.setOperationResult(opResult);
+		return runResult;
+	}
+
+	private List<Task> getWorkerTasks(Task coordinator, OperationResult opResult) throws SchemaException {
+		List<Task> workers = new ArrayList<Task>();
+		for (Task subtask : coordinator.listSubtasks(opResult)) {
+			if (isWorkBucketWorker(subtask)) {
+				workers.add(subtask);
+			}
+		}
+		return workers;
+	}
+
+	/**
+	 * Worker claims buckets from its coordinator and processes them until there's no bucket left.
+	 * Bucket that was not processed completely (e.g. the worker was suspended) stays delegated to the
+	 * worker, so it is processed again when the worker is resumed.
+	 */
+	private void processBuckets(H resultHandler, ObjectQuery query, Task task, OperationResult opResult)
+			throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException,
+			SecurityViolationException {
+		Task coordinator = task.getParentTask(opResult);
+		if (coordinator == null) {
+			throw new IllegalStateException("Worker task " + task + " has no coordinator");
+		}
+		int bucketCount = Math.min(getWorkBucketCount(coordinator), WorkBucket.MAX_BUCKETS);
+		if (query.getPaging() == null) {
+			query.setPaging(ObjectPaging.createEmptyPaging());
+		}
+
+		while (task.canRun() && !resultHandler.isStopped()) {
+			WorkBucket bucket = workBucketManager.claimBucket(coordinator.getOid(), task.getOid(), opResult);
+			if (bucket == null) {
+				LOGGER.debug("{}: no more buckets to process (task {})", taskName, task);
+				break;
+			}
+
+			long progressBefore = resultHandler.getProgress();
+			query.getPaging().setCookie(bucket.getLowerBound(bucketCount));
+			resultHandler.setUpperBoundOid(bucket.getUpperBound(bucketCount));
+			LOGGER.debug("{}: processing {} (objects after '{}' up to '{}') in task {}", new Object[]{taskName, bucket,
+					bucket.getLowerBound(bucketCount), bucket.getUpperBound(bucketCount), task});
+
+			resultHandler.startWorkers(getWorkerThreads(task));
+			try {
+				modelObjectResolver.searchIterative(type, query, null, resultHandler, opResult);
+			} finally {
+				resultHandler.completeProcessing(opResult);
+			}
+
+			if (!task.canRun() || resultHandler.isStopped()) {
+				LOGGER.info("{}: processing of {} was not finished, it stays delegated to task {}", new Object[]{taskName, bucket, task});
+				break;
+			}
+			workBucketManager.completeBucket(coordinator.getOid(), bucket, resultHandler.getProgress() - progressBefore, opResult);
+		}
+	}
+
+	private boolean isWorkBucketWorker(Task task) {
+		PrismProperty<Boolean> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORK_BUCKET_WORKER);
+		return property != null && Boolean.TRUE.equals(property.getRealValue());
+	}
+
+	private int getWorkBucketCount(Task task) {
+		PrismProperty<Integer> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORK_BUCKET_COUNT);
+		if (property == null || property.getRealValue() == null) {
+			return 0;
+		}
+		return property.getRealValue();
+	}
+
+	private int getWorkerTaskCount(Task task, int bucketCount) {
+		PrismProperty<Integer> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_TASKS);
+		if (property == null || property.getRealValue() == null || property.getRealValue() <= 0) {
+			return bucketCount;
+		}
+		return Math.min(property.getRealValue(), bucketCount);
+	}
+
+	private int getWorkerThreads(Task task) {
+		PrismProperty<Integer> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS);
+		if (property == null || property.getRealValue() == null) {
+			return 0;
+		}
+		return property.getRealValue();
+	}
+
+	private String getLastProcessedOid(Task task) {
+		PrismProperty<String> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_LAST_PROCESSED_OID);
+		return property != null ? property.getRealValue() : null;
+	}
+
+	private void clearLastProcessedOid(Task task, OperationResult opResult) throws SchemaException, ObjectNotFoundException {
+		PrismProperty<String> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_LAST_PROCESSED_OID);
+		if (property == null || property.isEmpty()) {
+			return;
+		}
+		task.deleteExtensionProperty(property.clone());
+		try {
+			task.savePendingModifications(opResult);
+		} catch (ObjectAlreadyExistsException e) {
+			throw new IllegalStateException("Unexpected ObjectAlreadyExistsException when removing last processed object from task", e);
+		}
+	}
+
 	private H getHandler(Task task) {
         return handlers.get(task);
     }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.util;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * One part (OID range) of the object set processed by a partitioned search-iterative task.
+ * Buckets are stored in the extension of the coordinator task as strings "number:state[:detail]",
+ * where detail is OID of the worker task for DELEGATED buckets and number of processed objects
+ * for COMPLETE buckets.
+ * 
+ * Object set is divided by the first four hexadecimal digits of the OID. Bucket with number i
+ * contains objects with OID greater than {@link #getLowerBound(int)} and not greater than
+ * {@link #getUpperBound(int)}. As the ranges follow each other, every OID falls into exactly one
+ * bucket, regardless of its format. Generated OIDs (lowercase UUIDs) are distributed evenly.
+ * 
+ * @author semancik
+ */
+public class WorkBucket {
+
+	public enum State {
+		READY, DELEGATED, COMPLETE
+	}
+
+	public static final int MAX_BUCKETS = 0x10000;
+
+	private static final String SEPARATOR = ":";
+
+	private final int number;
+	private final State state;
+	private final String workerOid;
+	private final long processed;
+
+	private WorkBucket(int number, State state, String workerOid, long processed) {
+		this.number = number;
+		this.state = state;
+		this.workerOid = workerOid;
+		this.processed = processed;
+	}
+
+	public static WorkBucket createReady(int number) {
+		return new WorkBucket(number, State.READY, null, 0);
+	}
+
+	public WorkBucket delegate(String workerOid) {
+		return new WorkBucket(number, State.DELEGATED, workerOid, 0);
+	}
+
+	public WorkBucket complete(long processed) {
+		return new WorkBucket(number, State.COMPLETE, null, processed);
+	}
+
+	public WorkBucket release() {
+		return createReady(number);
+	}
+
+	public static WorkBucket parse(String value) {
+		String[] parts = StringUtils.split(value, SEPARATOR);
+		if (parts == null || parts.length < 2) {
+			throw new IllegalArgumentException("Wrong format of work bucket '" + value + "'");
+		}
+		int number = Integer.parseInt(parts[0]);
+		State state = State.valueOf(parts[1]);
+		String detail = parts.length > 2 ? parts[2] : null;
+		switch (state) {
+			case DELEGATED:
+				return new WorkBucket(number, state, detail, 0);
+			case COMPLETE:
+				return new WorkBucket(number, state, null, detail != null ? Long.parseLong(detail) : 0);
+			default:
+				return new WorkBucket(number, state, null, 0);
+		}
+	}
+
+	public String format() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(number).append(SEPARATOR).append(state);
+		if (state == State.DELEGATED) {
+			sb.append(SEPARATOR).append(workerOid);
+		} else if (state == State.COMPLETE) {
+			sb.append(SEPARATOR).append(processed);
+		}
+		return sb.toString();
+	}
+
+	public int getNumber() {
+		return number;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public String getWorkerOid() {
+		return workerOid;
+	}
+
+	public long getProcessed() {
+		return processed;
+	}
+
+	public boolean isDelegatedTo(String oid) {
+		return state == State.DELEGATED && StringUtils.equals(workerOid, oid);
+	}
+
+	/**
+	 * Returns OID after which the bucket starts (exclusive). Empty string for the first bucket.
+	 */
+	public String getLowerBound(int bucketCount) {
+		return getBoundary(number, bucketCount);
+	}
+
+	/**
+	 * Returns the last OID that belongs to the bucket (inclusive). Null for the last bucket.
+	 */
+	public String getUpperBound(int bucketCount) {
+		if (number >= bucketCount - 1) {
+			return null;
+		}
+		return getBoundary(number + 1, bucketCount);
+	}
+
+	private static String getBoundary(int number, int bucketCount) {
+		if (number == 0) {
+			return "";
+		}
+		return String.format("%04x", (int) ((long) number * MAX_BUCKETS / bucketCount));
+	}
+
+	@Override
+	public String toString() {
+		return "WorkBucket(" + format() + ")";
+	}
+}
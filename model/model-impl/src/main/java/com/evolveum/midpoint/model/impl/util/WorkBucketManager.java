@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismObjectDefinition;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismPropertyDefinition;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.PropertyDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.repo.api.ModificationPrecondition;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.PreconditionViolationException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+
+/**
+ * Maintains work buckets of partitioned search-iterative tasks. Buckets are stored in the extension
+ * of the coordinator task. Worker tasks (possibly running on different nodes) claim and complete
+ * them using conditional repository modifications, so each bucket is processed by one worker only.
+ * 
+ * Number of processed objects is kept in the completed buckets and the progress of the coordinator
+ * is recomputed from them on each completion. Therefore it is not a problem if the progress is
+ * overwritten by the task manager (e.g. when the coordinator finishes its run).
+ * 
+ * @author semancik
+ */
+@Component
+public class WorkBucketManager {
+
+	private static final transient Trace LOGGER = TraceManager.getTrace(WorkBucketManager.class);
+
+	private static final ItemPath BUCKET_PATH = new ItemPath(TaskType.F_EXTENSION, SchemaConstants.MODEL_EXTENSION_WORK_BUCKET);
+
+	private static final int MAX_ATTEMPTS = 100;
+	private static final long CONFLICT_DELAY = 50;
+
+	@Autowired(required = true)
+	@Qualifier("cacheRepositoryService")
+	private RepositoryService repositoryService;
+
+	@Autowired(required = true)
+	private PrismContext prismContext;
+
+	public List<WorkBucket> getBuckets(String coordinatorOid, OperationResult result)
+			throws ObjectNotFoundException, SchemaException {
+		return getBuckets(repositoryService.getObject(TaskType.class, coordinatorOid, null, result));
+	}
+
+	private List<WorkBucket> getBuckets(PrismObject<TaskType> coordinator) {
+		List<WorkBucket> buckets = new ArrayList<WorkBucket>();
+		for (String value : getBucketValues(coordinator)) {
+			buckets.add(WorkBucket.parse(value));
+		}
+		return buckets;
+	}
+
+	private static Collection<String> getBucketValues(PrismObject<TaskType> coordinator) {
+		PrismProperty<String> property = coordinator.findProperty(BUCKET_PATH);
+		if (property == null) {
+			return new ArrayList<String>();
+		}
+		return property.getRealValues(String.class);
+	}
+
+	/**
+	 * Replaces any existing buckets of the coordinator by the specified number of READY buckets.
+	 */
+	public void createBuckets(String coordinatorOid, int count, OperationResult result)
+			throws ObjectNotFoundException, SchemaException {
+		List<String> values = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			values.add(WorkBucket.createReady(i).format());
+		}
+		replaceBuckets(coordinatorOid, values, result);
+	}
+
+	public void deleteBuckets(String coordinatorOid, OperationResult result)
+			throws ObjectNotFoundException, SchemaException {
+		replaceBuckets(coordinatorOid, new ArrayList<String>(), result);
+	}
+
+	private void replaceBuckets(String coordinatorOid, List<String> values, OperationResult result)
+			throws ObjectNotFoundException, SchemaException {
+		PropertyDelta<String> delta = new PropertyDelta<String>(BUCKET_PATH, getBucketDefinition());
+		List<PrismPropertyValue<String>> pvalues = new ArrayList<PrismPropertyValue<String>>(values.size());
+		for (String value : values) {
+			pvalues.add(new PrismPropertyValue<String>(value));
+		}
+		delta.setValuesToReplace(pvalues);
+		modifyCoordinator(coordinatorOid, delta, result);
+	}
+
+	/**
+	 * Returns a bucket for the worker. Bucket that is already delegated to the worker (e.g. the worker
+	 * was interrupted while processing it) is returned first, otherwise a READY bucket is claimed.
+	 * Returns null if there's no bucket left.
+	 */
+	public WorkBucket claimBucket(String coordinatorOid, String workerOid, OperationResult result)
+			throws ObjectNotFoundException, SchemaException {
+		for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+			List<WorkBucket> buckets = getBuckets(coordinatorOid, result);
+			WorkBucket ready = null;
+			for (WorkBucket bucket : buckets) {
+				if (bucket.isDelegatedTo(workerOid)) {
+					LOGGER.debug("Continuing with {} already delegated to worker {}", bucket, workerOid);
+					return bucket;
+				}
+				if (ready == null && bucket.getState() == WorkBucket.State.READY) {
+					ready = bucket;
+				}
+			}
+			if (ready == null) {
+				return null;
+			}
+
+			WorkBucket delegated = ready.delegate(workerOid);
+			try {
+				changeBucket(coordinatorOid, ready, delegated, null, result);
+				LOGGER.debug("Claimed {} for worker {}", delegated, workerOid);
+				return delegated;
+			} catch (PreconditionViolationException e) {
+				// other worker was faster
+				LOGGER.trace("Couldn't claim {} for worker {} (attempt {}), trying again", new Object[]{ready, workerOid, attempt});
+				sleepAfterConflict();
+			}
+		}
+		throw new SystemException("Couldn't claim a work bucket for worker " + workerOid + " after " + MAX_ATTEMPTS + " attempts");
+	}
+
+	/**
+	 * Marks the bucket as COMPLETE and recomputes progress of the coordinator. Does nothing if the bucket
+	 * is no longer delegated to the worker (e.g. it was released by the coordinator).
+	 */
+	public void completeBucket(String coordinatorOid, WorkBucket bucket, long processed, OperationResult result)
+			throws ObjectNotFoundException, SchemaException {
+		for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+			long total = processed;
+			boolean found = false;
+			for (WorkBucket existing : getBuckets(coordinatorOid, result)) {
+				if (existing.getState() == WorkBucket.State.COMPLETE) {
+					total += existing.getProcessed();
+				} else if (existing.isDelegatedTo(bucket.getWorkerOid()) && existing.getNumber() == bucket.getNumber()) {
+					found = true;
+				}
+			}
+			if (!found) {
+				LOGGER.warn("{} is no longer delegated to worker {}, not marking it as complete", bucket, bucket.getWorkerOid());
+				return;
+			}
+
+			PropertyDelta<Long> progressDelta = PropertyDelta.createModificationReplaceProperty(
+					TaskType.F_PROGRESS, getTaskDefinition(), total);
+			try {
+				changeBucket(coordinatorOid, bucket, bucket.complete(processed), progressDelta, result);
+				LOGGER.debug("Completed {} with {} objects, coordinator progress is {}", new Object[]{bucket, processed, total});
+				return;
+			} catch (PreconditionViolationException e) {
+				// the bucket was released meanwhile (will be found out in the next attempt)
+				sleepAfterConflict();
+			}
+		}
+		throw new SystemException("Couldn't complete " + bucket + " after " + MAX_ATTEMPTS + " attempts");
+	}
+
+	/**
+	 * Returns buckets delegated to workers that are not running any more back to READY state.
+	 * Should be called by the coordinator only when no worker is running.
+	 */
+	public int releaseDelegatedBuckets(String coordinatorOid, OperationResult result)
+			throws ObjectNotFoundException, SchemaException {
+		int released = 0;
+		for (WorkBucket bucket : getBuckets(coordinatorOid, result)) {
+			if (bucket.getState() != WorkBucket.State.DELEGATED) {
+				continue;
+			}
+			try {
+				changeBucket(coordinatorOid, bucket, bucket.release(), null, result);
+				released++;
+			} catch (PreconditionViolationException e) {
+				// the bucket was completed or released meanwhile, nothing to do
+				LOGGER.trace("{} was changed meanwhile, not releasing it", bucket);
+			}
+		}
+		return released;
+	}
+
+	public static long getProcessed(List<WorkBucket> buckets) {
+		long processed = 0;
+		for (WorkBucket bucket : buckets) {
+			processed += bucket.getProcessed();
+		}
+		return processed;
+	}
+
+	public static boolean isComplete(List<WorkBucket> buckets) {
+		for (WorkBucket bucket : buckets) {
+			if (bucket.getState() != WorkBucket.State.COMPLETE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the old bucket value by the new one, provided the old value is still present.
+	 */
+	private void changeBucket(String coordinatorOid, WorkBucket oldBucket, WorkBucket newBucket,
+			ItemDelta<?> additionalDelta, OperationResult result)
+			throws ObjectNotFoundException, SchemaException, PreconditionViolationException {
+		final String oldValue = oldBucket.format();
+		PropertyDelta<String> delta = new PropertyDelta<String>(BUCKET_PATH, getBucketDefinition());
+		delta.addValueToDelete(new PrismPropertyValue<String>(oldValue));
+		delta.addValueToAdd(new PrismPropertyValue<String>(newBucket.format()));
+
+		ModificationPrecondition<TaskType> precondition = new ModificationPrecondition<TaskType>() {
+
+			@Override
+			public boolean holds(PrismObject<TaskType> object) {
+				return getBucketValues(object).contains(oldValue);
+			}
+
+			@Override
+			public String toString() {
+				return "bucket " + oldValue + " exists";
+			}
+		};
+
+		List<ItemDelta> modifications = new ArrayList<ItemDelta>(2);
+		modifications.add(delta);
+		if (additionalDelta != null) {
+			modifications.add(additionalDelta);
+		}
+		try {
+			repositoryService.modifyObject(TaskType.class, coordinatorOid, modifications, precondition, result);
+		} catch (ObjectAlreadyExistsException e) {
+			throw new SystemException("Unexpected ObjectAlreadyExistsException when modifying work buckets: " + e.getMessage(), e);
+		}
+	}
+
+	private void modifyCoordinator(String coordinatorOid, ItemDelta<?> delta, OperationResult result)
+			throws ObjectNotFoundException, SchemaException {
+		List<ItemDelta> modifications = new ArrayList<ItemDelta>(1);
+		modifications.add(delta);
+		try {
+			repositoryService.modifyObject(TaskType.class, coordinatorOid, modifications, result);
+		} catch (ObjectAlreadyExistsException e) {
+			throw new SystemException("Unexpected ObjectAlreadyExistsException when modifying work buckets: " + e.getMessage(), e);
+		}
+	}
+
+	private void sleepAfterConflict() {
+		try {
+			Thread.sleep((long) (Math.random() * CONFLICT_DELAY));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private PrismPropertyDefinition getBucketDefinition() {
+		PrismPropertyDefinition definition = prismContext.getSchemaRegistry()
+				.findPropertyDefinitionByElementName(SchemaConstants.MODEL_EXTENSION_WORK_BUCKET);
+		if (definition == null) {
+			throw new SystemException("No definition of " + SchemaConstants.MODEL_EXTENSION_WORK_BUCKET);
+		}
+		return definition;
+	}
+
+	private PrismObjectDefinition<TaskType> getTaskDefinition() {
+		return prismContext.getSchemaRegistry().findObjectDefinitionByCompileTimeClass(TaskType.class);
+	}
+}
@@ -16,9 +16,14 @@
 package com.evolveum.midpoint.model.impl.lens;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
 import static com.evolveum.midpoint.test.IntegrationTestTools.*;
 
+import java.io.File;
+
 import javax.xml.bind.JAXBException;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -45,6 +50,9 @@ import com.evolveum.midpoint.test.util.TestUtil;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 
 /**
@@ -67,6 +75,12 @@ public class TestAssignmentEvaluator extends AbstractLensTest {
 	@Autowired(required=true)
 	private ActivationComputer activationComputer;
 	
+	@Autowired(required=true)
+	private RoleEvaluationCacheManager roleEvaluationCacheManager;
+	
+	private static final File TASK_ROLE_EVALUATION_CACHE_FILE = new File(TEST_DIR, "task-role-evaluation-cache.xml");
+	private static final String TASK_ROLE_EVALUATION_CACHE_OID = "91919191-76e0-59e2-86d6-3d4f02d30019";
+	
 	public TestAssignmentEvaluator() throws JAXBException {
 		super();
 	}
@@ -99,6 +113,107 @@ public class TestAssignmentEvaluator extends AbstractLensTest {
 		PrismAsserts.assertParentConsistency(userTypeJack.asPrismObject());
 	}
 	
+	@Test
+	public void testCachedRoleTarget() throws Exception {
+		final String TEST_NAME = "testCachedRoleTarget";
+		TestUtil.displayTestTile(this, TEST_NAME);
+		
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestAssignmentEvaluator.class.getName() + "." + TEST_NAME);
+		OperationResult result = task.getResult();
+		RoleEvaluationCache cache = new RoleEvaluationCache();
+		AssignmentEvaluator assignmentEvaluator = createAssignmentEvaluator();
+		assignmentEvaluator.setRoleEvaluationCache(cache);
+		
+		AssignmentType assignmentType = new AssignmentType();
+		ObjectReferenceType targetRef = new ObjectReferenceType();
+		targetRef.setOid(ROLE_SUPERUSER_OID);
+		targetRef.setType(RoleType.COMPLEX_TYPE);
+		assignmentType.setTargetRef(targetRef);
+		
+		// WHEN
+		EvaluatedAssignment first = assignmentEvaluator.evaluate(assignmentType, userTypeJack, TEST_NAME, task, result);
+		EvaluatedAssignment second = assignmentEvaluator.evaluate(assignmentType, userTypeJack, TEST_NAME, task, result);
+		
+		// THEN
+		display("Role evaluation cache", cache);
+		assertEquals("Wrong number of authorizations (first)", 1, first.getAuthorizations().size());
+		assertEquals("Wrong number of authorizations (second)", 1, second.getAuthorizations().size());
+		assertEquals("Wrong number of cache misses", 1, cache.getMisses());
+		assertEquals("Wrong number of cache hits", 1, cache.getHits());
+		assertFalse("Cached target shared between evaluations", first.getTarget() == second.getTarget());
+		
+		// WHEN
+		cache.invalidate(ROLE_SUPERUSER_OID);
+		assignmentEvaluator.evaluate(assignmentType, userTypeJack, TEST_NAME, task, result);
+		
+		// THEN
+		assertEquals("Wrong number of cache misses after invalidation", 2, cache.getMisses());
+		assertEquals("Wrong number of invalidations", 1, cache.getInvalidations());
+		assertEquals("Wrong number of cached targets", 1, cache.size());
+	}
+	
+	/**
+	 * Target invalidated while it was read from the repository must not be put back to the cache.
+	 */
+	@Test
+	public void testCachedRoleTargetInvalidatedWhileReading() throws Exception {
+		final String TEST_NAME = "testCachedRoleTargetInvalidatedWhileReading";
+		TestUtil.displayTestTile(this, TEST_NAME);
+		
+		// GIVEN
+		OperationResult result = new OperationResult(TestAssignmentEvaluator.class.getName() + "." + TEST_NAME);
+		RoleEvaluationCache cache = new RoleEvaluationCache();
+		long invalidationCount = cache.getInvalidationCount();
+		PrismObject<RoleType> role = repositoryService.getObject(RoleType.class, ROLE_SUPERUSER_OID, null, result);
+		
+		// WHEN (the role is modified by someone else and the hook invalidates it)
+		cache.invalidate(ROLE_SUPERUSER_OID);
+		cache.put(role, invalidationCount);
+		
+		// THEN
+		display("Role evaluation cache", cache);
+		assertEquals("Stale target was cached", 0, cache.size());
+		assertNull("Stale target returned", cache.get(RoleType.class, ROLE_SUPERUSER_OID));
+		
+		// WHEN (nothing invalidated meanwhile)
+		cache.put(role, cache.getInvalidationCount());
+		
+		// THEN
+		assertEquals("Target was not cached", 1, cache.size());
+		assertNotNull("Cached target not returned", cache.get(RoleType.class, ROLE_SUPERUSER_OID));
+	}
+	
+	/**
+	 * Workers of the task evaluate assignments under their own subtasks, they have to get the cache of the task.
+	 */
+	@Test
+	public void testCacheOfWorkerSubtask() throws Exception {
+		final String TEST_NAME = "testCacheOfWorkerSubtask";
+		TestUtil.displayTestTile(this, TEST_NAME);
+		
+		// GIVEN
+		OperationResult result = new OperationResult(TestAssignmentEvaluator.class.getName() + "." + TEST_NAME);
+		repoAddObjectFromFile(TASK_ROLE_EVALUATION_CACHE_FILE, TaskType.class, result);
+		Task task = taskManager.getTask(TASK_ROLE_EVALUATION_CACHE_OID, result);
+		Task worker = task.createSubtask();
+		
+		// WHEN
+		assertTrue("Cache was not started", roleEvaluationCacheManager.startCache(task));
+		try {
+			RoleEvaluationCache cache = roleEvaluationCacheManager.getCache(task);
+			
+			// THEN
+			assertNotNull("No cache for the task", cache);
+			assertTrue("Worker subtask got different cache", cache == roleEvaluationCacheManager.getCache(worker));
+			assertNull("Unrelated task got the cache", roleEvaluationCacheManager.getCache(
+					taskManager.createTaskInstance(TestAssignmentEvaluator.class.getName() + "." + TEST_NAME)));
+		} finally {
+			roleEvaluationCacheManager.finishCache(task, result);
+		}
+		assertNull("Cache of worker subtask was not finished", roleEvaluationCacheManager.getCache(worker));
+	}
+	
 	private AssignmentEvaluator createAssignmentEvaluator() throws ObjectNotFoundException, SchemaException {
 		AssignmentEvaluator assignmentEvaluator = new AssignmentEvaluator();
 		assignmentEvaluator.setRepository(repositoryService);
@@ -22,7 +22,12 @@ import static org.testng.AssertJUnit.assertNotNull;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
@@ -39,6 +44,7 @@ import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.test.IntegrationTestTools;
@@ -47,6 +53,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ConditionalSearchFil
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectSynchronizationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 
@@ -62,6 +69,9 @@ public class TestCorrelationConfiramtionEvaluator extends AbstractInternalModelI
 	private static final String CORRELATION_SECOND_FILTER = TEST_DIR + "/correlation-second-filter.xml";
 	private static final String CORRELATION_WITH_CONDITION = TEST_DIR + "/correlation-with-condition.xml";
 	private static final String CORRELATION_WITH_CONDITION_EMPL_NUMBER = TEST_DIR + "/correlation-with-condition-emplNumber.xml";
+	private static final File TASK_BULK_CORRELATION_FILE = new File(TEST_DIR, "task-bulk-correlation.xml");
+	private static final String TASK_BULK_CORRELATION_OID = "91919191-76e0-59e2-86d6-3d4f02d30018";
+	private static final int WORKER_THREADS = 4;
 	
 	@Autowired(required=true)
 	private RepositoryService repositoryService;
@@ -69,6 +79,9 @@ public class TestCorrelationConfiramtionEvaluator extends AbstractInternalModelI
 	@Autowired(required = true)
 	private CorrelationConfirmationEvaluator evaluator;
 	
+	@Autowired(required = true)
+	private CorrelationIndexManager correlationIndexManager;
+	
 	
 
 	@Override
@@ -312,4 +325,122 @@ public class TestCorrelationConfiramtionEvaluator extends AbstractInternalModelI
 		assertUser(jack, "c0c010c0-d34d-b33f-f00d-111111111111", "JACK", "Jack Sparrow", "Jack", "Sparrow");
 		
 	}
+	
+	@Test
+	public void test007CorrelationIndex() throws Exception{
+		String TEST_NAME = "test007CorrelationIndex";
+		TestUtil.displayTestTile(this, TEST_NAME);
+		
+		Task task = taskManager.createTaskInstance(TEST_NAME);
+		task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_BULK_CORRELATION, true);
+		OperationResult result = task.getResult();
+		
+		ShadowType shadow = parseObjectType(ACCOUNT_SHADOW_JACK_DUMMY_FILE, ShadowType.class);
+		ConditionalSearchFilterType query = PrismTestUtil.parseAtomicValue(new File(CORRELATION_CASE_INSENSITIVE), ConditionalSearchFilterType.COMPLEX_TYPE);
+		List<ConditionalSearchFilterType> queries = new ArrayList<>();
+		queries.add(query);
+		ResourceType resourceType = parseObjectType(new File(RESOURCE_DUMMY_FILENAME), ResourceType.class);
+		
+		AssertJUnit.assertTrue("Bulk correlation not started", correlationIndexManager.startBulkCorrelation(task));
+		try {
+			// WHEN
+			List<PrismObject<UserType>> matchedUsers = evaluator.findFocusesByCorrelationRule(UserType.class,
+					shadow, queries, resourceType, getSystemConfiguration(), task, result);
+			
+			// THEN
+			assertNotNull("Correlation evaluator returned null collection of matched users.", matchedUsers);
+			assertEquals("Found more than one user.", 1, matchedUsers.size());
+			assertEquals("Wrong correlated user", USER_JACK_OID, matchedUsers.get(0).getOid());
+			
+			// Changes made directly in the repository are not seen by the index, it is updated only
+			// by the changes made by the task. The user is still found, so the index answered the query.
+			Collection<? extends ItemDelta> modifications = PropertyDelta.createModificationReplacePropertyCollection(UserType.F_NAME, 
+					getUserDefinition(), new PolyString("jack-renamed", "jackrenamed"));
+			repositoryService.modifyObject(UserType.class, USER_JACK_OID, modifications, result);
+			
+			matchedUsers = evaluator.findFocusesByCorrelationRule(UserType.class,
+					shadow, queries, resourceType, getSystemConfiguration(), task, result);
+			assertEquals("User not found in the index", 1, matchedUsers.size());
+		} finally {
+			correlationIndexManager.finishBulkCorrelation(task);
+		}
+		
+		// Without the index the repository is searched again
+		List<PrismObject<UserType>> matchedUsers = evaluator.findFocusesByCorrelationRule(UserType.class,
+				shadow, queries, resourceType, getSystemConfiguration(), task, result);
+		assertEquals("Renamed user found", 0, matchedUsers.size());
+	}
+	
+	/**
+	 * Worker threads correlate with subtasks of the task that started the bulk correlation. They have to use
+	 * the index of the parent task.
+	 */
+	@Test
+	public void test008CorrelationIndexWorkerThreads() throws Exception{
+		String TEST_NAME = "test008CorrelationIndexWorkerThreads";
+		TestUtil.displayTestTile(this, TEST_NAME);
+		
+		OperationResult result = new OperationResult(TestCorrelationConfiramtionEvaluator.class.getName() + "." + TEST_NAME);
+		repoAddObjectFromFile(TASK_BULK_CORRELATION_FILE, TaskType.class, result);
+		Task task = taskManager.getTask(TASK_BULK_CORRELATION_OID, result);
+		
+		final ShadowType shadow = parseObjectType(ACCOUNT_SHADOW_JACK_DUMMY_FILE, ShadowType.class);
+		ConditionalSearchFilterType query = PrismTestUtil.parseAtomicValue(new File(CORRELATION_CASE_INSENSITIVE), ConditionalSearchFilterType.COMPLEX_TYPE);
+		final List<ConditionalSearchFilterType> queries = new ArrayList<>();
+		queries.add(query);
+		final ResourceType resourceType = parseObjectType(new File(RESOURCE_DUMMY_FILENAME), ResourceType.class);
+		
+		// previous test renamed jack
+		Collection<? extends ItemDelta> modifications = PropertyDelta.createModificationReplacePropertyCollection(UserType.F_NAME, 
+				getUserDefinition(), new PolyString("jack", "jack"));
+		repositoryService.modifyObject(UserType.class, USER_JACK_OID, modifications, result);
+		
+		AssertJUnit.assertTrue("Bulk correlation not started", correlationIndexManager.startBulkCorrelation(task));
+		ExecutorService executor = Executors.newFixedThreadPool(WORKER_THREADS);
+		try {
+			// WHEN
+			List<String> matched = correlateInWorkers(executor, task, shadow, queries, resourceType);
+			
+			// THEN
+			assertEquals("Wrong correlated users", Collections.nCopies(WORKER_THREADS, USER_JACK_OID), matched);
+			
+			// Changes made directly in the repository are not seen by the index. The user is still found,
+			// so the workers used the index of the parent task.
+			modifications = PropertyDelta.createModificationReplacePropertyCollection(UserType.F_NAME, 
+					getUserDefinition(), new PolyString("jack-renamed", "jackrenamed"));
+			repositoryService.modifyObject(UserType.class, USER_JACK_OID, modifications, result);
+			
+			matched = correlateInWorkers(executor, task, shadow, queries, resourceType);
+			assertEquals("Workers didn't use the index", Collections.nCopies(WORKER_THREADS, USER_JACK_OID), matched);
+		} finally {
+			executor.shutdown();
+			correlationIndexManager.finishBulkCorrelation(task);
+		}
+	}
+	
+	/**
+	 * @return OIDs of users correlated by each worker (null if a worker found no user)
+	 */
+	private List<String> correlateInWorkers(ExecutorService executor, Task task, final ShadowType shadow,
+			final List<ConditionalSearchFilterType> queries, final ResourceType resourceType) throws Exception {
+		List<Future<String>> futures = new ArrayList<>();
+		for (int i = 0; i < WORKER_THREADS; i++) {
+			final Task subtask = task.createSubtask();
+			futures.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					OperationResult result = new OperationResult(TestCorrelationConfiramtionEvaluator.class.getName() + ".worker");
+					List<PrismObject<UserType>> users = evaluator.findFocusesByCorrelationRule(UserType.class,
+							shadow, queries, resourceType, getSystemConfiguration(), subtask, result);
+					assertEquals("Wrong number of correlated users", 1, users.size());
+					return users.get(0).getOid();
+				}
+			}));
+		}
+		List<String> oids = new ArrayList<>();
+		for (Future<String> future : futures) {
+			oids.add(future.get());
+		}
+		return oids;
+	}
 }
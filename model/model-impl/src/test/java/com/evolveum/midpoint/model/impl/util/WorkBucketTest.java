@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.util;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Bucket boundaries: the buckets must follow each other without gaps and overlaps, so every OID
+ * falls into exactly one bucket.
+ *
+ * @author semancik
+ */
+public class WorkBucketTest {
+
+	private static final String OID_MIN = "00000000-0000-0000-0000-000000000000";
+	private static final String OID_MAX = "ffffffff-ffff-ffff-ffff-ffffffffffff";
+
+	@Test
+	public void testSingleBucket() {
+		WorkBucket bucket = WorkBucket.createReady(0);
+
+		assertEquals("Wrong lower bound", "", bucket.getLowerBound(1));
+		assertNull("Upper bound of the only bucket", bucket.getUpperBound(1));
+		assertTrue(OID_MIN + " is not in the only bucket", contains(bucket, 1, OID_MIN));
+		assertTrue(OID_MAX + " is not in the only bucket", contains(bucket, 1, OID_MAX));
+	}
+
+	@Test
+	public void testBoundariesSixteenBuckets() {
+		WorkBucket first = WorkBucket.createReady(0);
+		WorkBucket second = WorkBucket.createReady(1);
+		WorkBucket last = WorkBucket.createReady(15);
+
+		assertEquals("Wrong lower bound of the first bucket", "", first.getLowerBound(16));
+		assertEquals("Wrong upper bound of the first bucket", "1000", first.getUpperBound(16));
+		assertEquals("Wrong lower bound of the second bucket", "1000", second.getLowerBound(16));
+		assertEquals("Wrong upper bound of the second bucket", "2000", second.getUpperBound(16));
+		assertEquals("Wrong lower bound of the last bucket", "f000", last.getLowerBound(16));
+		assertNull("Upper bound of the last bucket", last.getUpperBound(16));
+	}
+
+	/**
+	 * Upper bound is inclusive, lower bound is exclusive. OID equal to the boundary belongs to the lower
+	 * bucket, OIDs starting with the boundary are greater than it and belong to the upper bucket.
+	 */
+	@Test
+	public void testOidsAtBoundaries() {
+		assertBucket(16, OID_MIN, 0);
+		assertBucket(16, "0fffffff-ffff-ffff-ffff-ffffffffffff", 0);
+		assertBucket(16, "1000", 0);
+		assertBucket(16, "10000000-0000-0000-0000-000000000000", 1);
+		assertBucket(16, "1fffffff-ffff-ffff-ffff-ffffffffffff", 1);
+		assertBucket(16, "2000", 1);
+		assertBucket(16, "20000000-0000-0000-0000-000000000000", 2);
+		assertBucket(16, "f000", 14);
+		assertBucket(16, "f0000000-0000-0000-0000-000000000000", 15);
+		assertBucket(16, OID_MAX, 15);
+		// OIDs that are not UUIDs
+		assertBucket(16, "0", 0);
+		assertBucket(16, "Z", 9);
+	}
+
+	@Test
+	public void testMaxBuckets() {
+		int count = WorkBucket.MAX_BUCKETS;
+		WorkBucket beforeLast = WorkBucket.createReady(count - 2);
+		WorkBucket last = WorkBucket.createReady(count - 1);
+
+		assertEquals("Wrong upper bound of the first bucket", "0001", WorkBucket.createReady(0).getUpperBound(count));
+		assertEquals("Wrong upper bound of the bucket before last", "ffff", beforeLast.getUpperBound(count));
+		assertEquals("Wrong lower bound of the last bucket", "ffff", last.getLowerBound(count));
+		assertNull("Upper bound of the last bucket", last.getUpperBound(count));
+
+		assertBucket(count, "ffff", count - 2);
+		assertBucket(count, "ffff0000-0000-0000-0000-000000000000", count - 1);
+		assertBucket(count, OID_MAX, count - 1);
+	}
+
+	/**
+	 * Upper bound of each bucket is the lower bound of the next one and the ranges are never empty,
+	 * also for bucket counts that do not divide the OID space evenly.
+	 */
+	@Test
+	public void testBucketsFollowEachOther() {
+		int[] counts = { 1, 2, 3, 7, 16, 100, 1000, 4097, WorkBucket.MAX_BUCKETS - 1, WorkBucket.MAX_BUCKETS };
+		for (int count : counts) {
+			assertEquals("Wrong lower bound of the first bucket (count " + count + ")", "",
+					WorkBucket.createReady(0).getLowerBound(count));
+			for (int i = 0; i < count - 1; i++) {
+				String upper = WorkBucket.createReady(i).getUpperBound(count);
+				String nextLower = WorkBucket.createReady(i + 1).getLowerBound(count);
+				assertEquals("Gap between buckets " + i + " and " + (i + 1) + " (count " + count + ")", upper, nextLower);
+				assertTrue("Empty bucket " + i + " (count " + count + ")",
+						upper.compareTo(WorkBucket.createReady(i).getLowerBound(count)) > 0);
+			}
+			assertNull("Upper bound of the last bucket (count " + count + ")",
+					WorkBucket.createReady(count - 1).getUpperBound(count));
+		}
+	}
+
+	@Test
+	public void testEachOidInOneBucket() {
+		String[] oids = { OID_MIN, "0", "0000", "00000001-0000-0000-0000-000000000000", "5555",
+				"55555555-5555-5555-5555-555555555555", "aaaa", "c0ffee00-0000-0000-0000-000000000000",
+				"fffe", "ffff", OID_MAX, "Z" };
+		int[] counts = { 1, 3, 7, 16, 1000, WorkBucket.MAX_BUCKETS };
+		for (int count : counts) {
+			for (String oid : oids) {
+				int found = 0;
+				for (int i = 0; i < count; i++) {
+					if (contains(WorkBucket.createReady(i), count, oid)) {
+						found++;
+					}
+				}
+				assertEquals("OID " + oid + " is in wrong number of buckets (count " + count + ")", 1, found);
+			}
+		}
+	}
+
+	@Test
+	public void testFormatAndParse() {
+		WorkBucket ready = WorkBucket.createReady(5);
+		WorkBucket delegated = ready.delegate("worker-oid");
+		WorkBucket complete = delegated.complete(42);
+		WorkBucket empty = delegated.complete(0);
+
+		assertEquals("5:READY", ready.format());
+		assertEquals("5:DELEGATED:worker-oid", delegated.format());
+		assertEquals("5:COMPLETE:42", complete.format());
+		assertEquals("5:COMPLETE:0", empty.format());
+
+		WorkBucket parsed = WorkBucket.parse(delegated.format());
+		assertEquals(WorkBucket.State.DELEGATED, parsed.getState());
+		assertTrue("Not delegated to the worker", parsed.isDelegatedTo("worker-oid"));
+		assertFalse("Delegated to other worker", parsed.isDelegatedTo("other-oid"));
+
+		parsed = WorkBucket.parse(empty.format());
+		assertEquals(WorkBucket.State.COMPLETE, parsed.getState());
+		assertEquals(0, parsed.getProcessed());
+		assertEquals(5, parsed.getNumber());
+
+		assertEquals(WorkBucket.State.READY, WorkBucket.parse(delegated.release().format()).getState());
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testParseWrongFormat() {
+		WorkBucket.parse("5");
+	}
+
+	/**
+	 * Buckets without objects are completed with zero processed objects and count as complete.
+	 */
+	@Test
+	public void testEmptyBucketsComplete() {
+		List<WorkBucket> buckets = new ArrayList<WorkBucket>();
+		assertTrue("No buckets are not complete", WorkBucketManager.isComplete(buckets));
+		assertEquals(0, WorkBucketManager.getProcessed(buckets));
+
+		buckets.add(WorkBucket.createReady(0).delegate("w1").complete(0));
+		buckets.add(WorkBucket.createReady(1).delegate("w2").complete(10));
+		buckets.add(WorkBucket.createReady(2).delegate("w1"));
+		assertFalse("Buckets with delegated bucket are complete", WorkBucketManager.isComplete(buckets));
+		assertEquals(10, WorkBucketManager.getProcessed(buckets));
+
+		buckets.set(2, buckets.get(2).complete(0));
+		assertTrue("Completed buckets are not complete", WorkBucketManager.isComplete(buckets));
+		assertEquals(10, WorkBucketManager.getProcessed(buckets));
+	}
+
+	private void assertBucket(int count, String oid, int expectedNumber) {
+		for (int i = 0; i < count; i++) {
+			boolean expected = i == expectedNumber;
+			assertEquals("OID " + oid + " in bucket " + i + " (count " + count + ")", expected,
+					contains(WorkBucket.createReady(i), count, oid));
+		}
+	}
+
+	/**
+	 * The same conditions as used by the worker: search starts after the lower bound (paging cookie)
+	 * and stops at the first object after the upper bound.
+	 */
+	private boolean contains(WorkBucket bucket, int count, String oid) {
+		String upper = bucket.getUpperBound(count);
+		return oid.compareTo(bucket.getLowerBound(count)) > 0 && (upper == null || oid.compareTo(upper) <= 0);
+	}
+}
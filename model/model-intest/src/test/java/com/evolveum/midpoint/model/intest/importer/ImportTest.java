@@ -95,6 +95,11 @@ public class ImportTest extends AbstractConfiguredModelIntegrationTest {
 	private static final String TASK1_OID = "00000000-0000-0000-0000-123450000001";
 	private static final String TASK1_OWNER_OID = "c0c010c0-d34d-b33f-f00d-111111111111";
 	
+	private static final File IMPORT_USERS_PARALLEL_FILE = new File(TEST_FILE_DIRECTORY, "import-users-parallel.xml");
+	private static final String ROLE_SWASHBUCKLER_OID = "a2a40d4c-1e7e-11e4-9c5d-001e8c717e5b";
+	private static final File IMPORT_USERS_PARALLEL_OID_FILE = new File(TEST_FILE_DIRECTORY, "import-users-parallel-oid.xml");
+	private static final String ROLE_BUCCANEER_OID = "f3d1e4a6-3bc4-11e4-a8e4-001e8c717e5b";
+	
 	private static final File RESOURCE_DUMMY_CHANGED_FILE = new File(TEST_FILE_DIRECTORY, "resource-dummy-changed.xml");;
 	
 	private DummyResource dummyResource;
@@ -639,6 +644,86 @@ public class ImportTest extends AbstractConfiguredModelIntegrationTest {
         dummyAuditService.assertExecutionSuccess();
 	}
 	
+	/**
+	 * Imports users with worker threads. Some of the users refer to a role defined earlier in the same file
+	 * by filter, so they must not be resolved before the role is stored.
+	 */
+	@Test
+	public void test050ImportUsersInParallel() throws Exception {
+		final String TEST_NAME = "test050ImportUsersInParallel";
+		TestUtil.displayTestTile(this,TEST_NAME);
+		// GIVEN
+		Task task = taskManager.createTaskInstance();
+		OperationResult result = new OperationResult(ImportTest.class.getName() + "." + TEST_NAME);
+		FileInputStream stream = new FileInputStream(IMPORT_USERS_PARALLEL_FILE);
+		
+		ImportOptionsType importOptions = getDefaultImportOptions();
+		importOptions.setWorkerThreads(2);
+
+		// WHEN
+		modelService.importObjectsFromStream(stream, importOptions, task, result);
+
+		// THEN
+		result.computeStatus();
+		display("Result after parallel import", result);
+		TestUtil.assertSuccess("Import has failed (result)", result);
+
+		getObject(RoleType.class, ROLE_SWASHBUCKLER_OID);
+		
+		for (String username : new String[] { "parallel1", "parallel2", "parallel5" }) {
+			PrismObject<UserType> user = findUserByUsername(username);
+			assertNotNull("User "+username+" was not imported", user);
+			display("Imported user", user);
+			List<AssignmentType> assignments = user.asObjectable().getAssignment();
+			assertEquals("Wrong number of assignments in "+username, 1, assignments.size());
+			assertEquals("Wrong role reference in "+username, ROLE_SWASHBUCKLER_OID,
+					assignments.get(0).getTargetRef().getOid());
+		}
+		assertNotNull("User parallel3 was not imported", findUserByUsername("parallel3"));
+		assertNotNull("User parallel4 was not imported", findUserByUsername("parallel4"));
+
+		assertUsers(11);
+	}
+	
+	/**
+	 * Imports users with worker threads and referential integrity check. The users refer to a role defined
+	 * earlier in the same file by OID, so they must wait until the role is stored.
+	 */
+	@Test
+	public void test051ImportUsersInParallelReferentialIntegrity() throws Exception {
+		final String TEST_NAME = "test051ImportUsersInParallelReferentialIntegrity";
+		TestUtil.displayTestTile(this,TEST_NAME);
+		// GIVEN
+		Task task = taskManager.createTaskInstance();
+		OperationResult result = new OperationResult(ImportTest.class.getName() + "." + TEST_NAME);
+		FileInputStream stream = new FileInputStream(IMPORT_USERS_PARALLEL_OID_FILE);
+		
+		ImportOptionsType importOptions = getDefaultImportOptions();
+		importOptions.setWorkerThreads(4);
+		importOptions.setReferentialIntegrity(true);
+
+		// WHEN
+		modelService.importObjectsFromStream(stream, importOptions, task, result);
+
+		// THEN
+		result.computeStatus();
+		display("Result after parallel import", result);
+		TestUtil.assertSuccess("Import has failed (result)", result);
+
+		getObject(RoleType.class, ROLE_BUCCANEER_OID);
+		
+		for (String username : new String[] { "parallel6", "parallel7", "parallel8", "parallel9" }) {
+			PrismObject<UserType> user = findUserByUsername(username);
+			assertNotNull("User "+username+" was not imported", user);
+			List<AssignmentType> assignments = user.asObjectable().getAssignment();
+			assertEquals("Wrong number of assignments in "+username, 1, assignments.size());
+			assertEquals("Wrong role reference in "+username, ROLE_BUCCANEER_OID,
+					assignments.get(0).getTargetRef().getOid());
+		}
+
+		assertUsers(15);
+	}
+	
 	private void assertDummyResource(PrismObject<ResourceType> resource, boolean fromRepo) {
 		PrismContainer<Containerable> configurationPropertiesContainer = assertResource(resource, "Dummy Resource", RESOURCE_DUMMY_NAMESPACE, 
 				dummyConnector.getOid(), fromRepo);
@@ -98,6 +98,9 @@ public class TestRecomputeTask extends AbstractInitializedModelIntegrationTest {
 	
 	private static final File TASK_USER_RECOMPUTE_CAPTAIN_FILE = new File(TEST_DIR, "task-user-recompute-captain.xml");
 	private static final String TASK_USER_RECOMPUTE_CAPTAIN_OID = "91919191-76e0-59e2-86d6-3d4f02d3aaac";
+	
+	private static final File TASK_USER_RECOMPUTE_WORKERS_FILE = new File(TEST_DIR, "task-user-recompute-workers.xml");
+	private static final String TASK_USER_RECOMPUTE_WORKERS_OID = "91919191-76e0-59e2-86d6-3d4f02d3aaad";
 		
 	@Override
 	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
@@ -322,4 +325,57 @@ public class TestRecomputeTask extends AbstractInitializedModelIntegrationTest {
         
 	}
 	
+	/**
+	 * Recompute with worker threads. Workers have to run with task owner's authorization,
+	 * otherwise every user would fail.
+	 */
+	@Test
+    public void test120RecomputeAllWithWorkers() throws Exception {
+		final String TEST_NAME = "test120RecomputeAllWithWorkers";
+        TestUtil.displayTestTile(this, TEST_NAME);
+
+        // GIVEN
+        Task task = createTask(TestRecomputeTask.class.getName() + "." + TEST_NAME);
+        OperationResult result = task.getResult();
+        
+        // Preconditions
+        assertUsers(6);
+        assertDummyAccount(RESOURCE_DUMMY_RED_NAME, ACCOUNT_JACK_DUMMY_USERNAME, "Jack Sparrow", false);
+        
+        // Put "red" construction back to judge role, only recompute can enable jack's account again
+        modifyRoleAddConstruction(ROLE_JUDGE_OID, 1112L, RESOURCE_DUMMY_RED_OID);
+        
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+        
+		// WHEN
+        TestUtil.displayWhen(TEST_NAME);
+        addObject(TASK_USER_RECOMPUTE_WORKERS_FILE);
+        
+        dummyAuditService.clear();
+        
+        waitForTaskStart(TASK_USER_RECOMPUTE_WORKERS_OID, false);
+        waitForTaskFinish(TASK_USER_RECOMPUTE_WORKERS_OID, true, 40000);
+        
+        // THEN
+        TestUtil.displayThen(TEST_NAME);
+        
+        PrismObject<TaskType> recomputeTask = getTask(TASK_USER_RECOMPUTE_WORKERS_OID);
+        display("Recompute task", recomputeTask);
+        TestUtil.assertSuccess(recomputeTask.asObjectable().getResult());
+        assertEquals("Wrong progress", 6L, (long) recomputeTask.asObjectable().getProgress());
+        
+        assertDummyAccount(RESOURCE_DUMMY_RED_NAME, ACCOUNT_JACK_DUMMY_USERNAME, "Jack Sparrow", true);
+        assertDummyAccount(RESOURCE_DUMMY_RED_NAME, USER_HERMAN_USERNAME, "Herman Toothrot", true);
+        assertDummyAccountAttribute(null, ACCOUNT_GUYBRUSH_DUMMY_USERNAME, 
+        		DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_WEAPON_NAME, "cutlass", "dagger");
+        
+        display("Audit", dummyAuditService);
+        assertTrue("No changes were executed by workers", dummyAuditService.getRecords().size() > 0);
+        
+        assertUsers(6);
+        
+        deleteObject(TaskType.class, TASK_USER_RECOMPUTE_WORKERS_OID, task, result);
+	}
+	
 }
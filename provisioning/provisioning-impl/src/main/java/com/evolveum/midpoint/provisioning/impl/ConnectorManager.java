@@ -23,6 +23,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -42,6 +45,8 @@ import com.evolveum.midpoint.prism.schema.PrismSchema;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorFactory;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheInvalidationListener;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.processor.ResourceSchema;
@@ -61,6 +66,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ConnectorHostType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ConnectorType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 
 /**
@@ -73,7 +79,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
  * 
  */
 @Component
-public class ConnectorManager {
+public class ConnectorManager implements CacheInvalidationListener {
 	
 	private static final String USER_DATA_KEY_PARSED_CONNECTOR_SCHEMA = ConnectorManager.class.getName()+".parsedSchema";
 	
@@ -84,12 +90,50 @@ public class ConnectorManager {
 	private ConnectorFactory connectorFactory;
 	@Autowired(required = true)
 	private PrismContext prismContext;
+	@Autowired(required = false)
+	private CacheDispatcher cacheDispatcher;
 
 	private static final Trace LOGGER = TraceManager.getTrace(ConnectorManager.class);
 
 	private Map<String, ConfiguredConnectorInstanceEntry> connectorInstanceCache = new ConcurrentHashMap<String, ConnectorManager.ConfiguredConnectorInstanceEntry>();
 	private Map<String, ConnectorType> connectorTypeCache = new ConcurrentHashMap<String, ConnectorType>();
 
+	@PostConstruct
+	public void registerCacheListener() {
+		if (cacheDispatcher != null) {
+			cacheDispatcher.registerCacheListener(this);
+		}
+	}
+
+	@PreDestroy
+	public void unregisterCacheListener() {
+		if (cacheDispatcher != null) {
+			cacheDispatcher.unregisterCacheListener(this);
+		}
+	}
+
+	/**
+	 * Called when connector, connector host or resource was changed (possibly by other node).
+	 * Changed resource may have different connector configuration, therefore configured
+	 * connector instance is dropped.
+	 */
+	@Override
+	public <T extends ObjectType> void invalidate(Class<T> type, String oid) {
+		if (ConnectorType.class.equals(type)) {
+			connectorTypeCache.remove(oid);
+		} else if (ConnectorHostType.class.equals(type)) {
+			connectorTypeCache.clear();
+		} else if (ResourceType.class.equals(type)) {
+			connectorInstanceCache.remove(oid);
+		}
+	}
+
+	@Override
+	public void invalidateAll() {
+		connectorTypeCache.clear();
+		connectorInstanceCache.clear();
+	}
+
 	public ConnectorInstance getConfiguredConnectorInstance(PrismObject<ResourceType> resource, boolean forceFresh, OperationResult result)
 			throws ObjectNotFoundException, SchemaException, CommunicationException, ConfigurationException {
 		String resourceOid = resource.getOid();
@@ -199,7 +243,8 @@ public class ConnectorManager {
 				PrismObject<ConnectorType> repoConnector = repositoryService.getObject(ConnectorType.class, connOid, null, result);
 				connectorType = repoConnector.asObjectable();
 				connectorTypeCache.put(connOid, connectorType);
-			} else {
+			} else if (cacheDispatcher == null || !cacheDispatcher.isCoherent()) {
+				// changes of connector are not reported by dispatcher, we have to check version
 				String currentConnectorVersion = repositoryService.getVersion(ConnectorType.class, connOid, result);
 				if (!currentConnectorVersion.equals(connectorType.getVersion())) {
 					PrismObject<ConnectorType> repoConnector = repositoryService.getObject(ConnectorType.class, connOid, null, result);
@@ -47,6 +47,7 @@ import com.evolveum.midpoint.provisioning.api.ProvisioningService;
 import com.evolveum.midpoint.provisioning.api.ResourceObjectShadowChangeDescription;
 import com.evolveum.midpoint.provisioning.impl.ShadowCacheFactory.Mode;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
@@ -72,6 +73,7 @@ import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SecurityViolationException;
 import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.exception.TunnelException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ConnectorHostType;
@@ -114,6 +116,9 @@ public class ProvisioningServiceImpl implements ProvisioningService {
 	
 	private static final Trace LOGGER = TraceManager.getTrace(ProvisioningServiceImpl.class);
 
+	private static final int DEFAULT_LIVE_SYNC_CHECKPOINT_CHANGES = 100;
+	private static final int DEFAULT_LIVE_SYNC_CHECKPOINT_INTERVAL = 60;
+
 
 	public ShadowCache getShadowCache(ShadowCacheFactory.Mode mode){
 		return shadowCacheFactory.getShadowCache(mode);
@@ -404,15 +409,29 @@ public class ProvisioningServiceImpl implements ProvisioningService {
 						SchemaDebugUtil.prettyPrint(tokenProperty));
 			}
 
-			LOGGER.trace("Calling shadow cache to fetch changes.");
-			List<Change<ShadowType>> changes = getShadowCache(Mode.STANDARD).fetchChanges(
-					resourceType, objectClass, tokenProperty, result);
-			LOGGER.trace("Changes returned to ProvisioningServiceImpl:\n{}", changes);
+			// changes are synchronized one by one as they are fetched, the token is stored regularly
+			LOGGER.trace("Calling shadow cache to fetch and synchronize changes.");
+			LiveSyncChangeHandler handler = new LiveSyncChangeHandler(task, resourceType, result);
+			boolean fetched = false;
+			try {
+				getShadowCache(Mode.STANDARD).fetchChanges(resourceType, objectClass, tokenProperty, handler, result);
+				fetched = true;
+			} finally {
+				if (!fetched) {
+					// keep the progress made so far, the next run will continue from the last processed change
+					handler.checkpointAfterFailure();
+				}
+			}
+			LOGGER.trace("End synchronizing fetched changes ({} fetched, {} processed).", 
+					handler.getFetchedChanges(), handler.getProcessedChanges());
 
-			// synchronize changes
-			LOGGER.trace("Start synchronizing fetched changes.");
-			processedChanges = processSynchronization(changes, task, resourceType, tokenProperty, result);
-			LOGGER.trace("End synchronizing fetched changes.");
+			// also if no changes was detected, update token
+			if (handler.getFetchedChanges() == 0 && tokenProperty != null) {
+				LOGGER.trace("No changes to synchronize on " + ObjectTypeUtil.toShortString(resourceType));
+				task.setExtensionProperty(tokenProperty);
+			}
+			task.savePendingModifications(result);
+			processedChanges = handler.getProcessedChanges();
 			// This happens in the (scheduled async) task. Recording of results
 			// in the task is still not
 			// ideal, therefore also log the errors with a full stack trace.
@@ -481,73 +500,112 @@ public class ProvisioningServiceImpl implements ProvisioningService {
 		return tokenProperty;
 	}
 
-	@SuppressWarnings("rawtypes")
-	private int processSynchronization(List<Change<ShadowType>> changes, Task task, ResourceType resourceType,
-			PrismProperty tokenProperty, OperationResult result) throws SchemaException, ObjectNotFoundException,
-			ObjectAlreadyExistsException {
-		int processedChanges = 0;
-		// for each change from the connector create change description
-		for (Change<ShadowType> change : changes) {
-
-			// this is the case,when we want to skip processing of change,
-			// because the shadow was not created or found to the resource
-			// object
-			// it may be caused with the fact, that the object which was
-			// created in the resource was deleted before the sync run
-			// such a change should be skipped to process consistent changes
-			if (change.getOldShadow() == null) {
-				PrismProperty<?> newToken = change.getToken();
-				task.setExtensionProperty(newToken);
-				processedChanges++;
-				LOGGER.debug("Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
-				continue;
+	/**
+	 * Synchronizes changes one by one as they are fetched from the resource. The token of the last processed
+	 * change is stored in the task after every {@link #DEFAULT_LIVE_SYNC_CHECKPOINT_CHANGES} changes or
+	 * {@link #DEFAULT_LIVE_SYNC_CHECKPOINT_INTERVAL} seconds (both can be changed in the task extension),
+	 * so an interrupted or failed run does not have to start from the beginning.
+	 */
+	private class LiveSyncChangeHandler implements ChangeHandler<ShadowType> {
+
+		private final Task task;
+		private final ResourceType resourceType;
+		private final OperationResult result;
+		private final int checkpointChanges;
+		private final long checkpointInterval;
+
+		private int fetchedChanges = 0;
+		private int processedChanges = 0;
+		private int uncommittedChanges = 0;
+		private long lastCheckpoint = System.currentTimeMillis();
+
+		LiveSyncChangeHandler(Task task, ResourceType resourceType, OperationResult result) {
+			this.task = task;
+			this.resourceType = resourceType;
+			this.result = result;
+			this.checkpointChanges = getIntExtensionProperty(task,
+					SchemaConstants.MODEL_EXTENSION_LIVE_SYNC_CHECKPOINT_CHANGES, DEFAULT_LIVE_SYNC_CHECKPOINT_CHANGES);
+			this.checkpointInterval = 1000L * getIntExtensionProperty(task,
+					SchemaConstants.MODEL_EXTENSION_LIVE_SYNC_CHECKPOINT_INTERVAL, DEFAULT_LIVE_SYNC_CHECKPOINT_INTERVAL);
+		}
+
+		@Override
+		public boolean handle(Change<ShadowType> change) {
+			fetchedChanges++;
+			try {
+				// this is the case,when we want to skip processing of change,
+				// because the shadow was not created or found to the resource
+				// object
+				// it may be caused with the fact, that the object which was
+				// created in the resource was deleted before the sync run
+				// such a change should be skipped to process consistent changes
+				if (change.getOldShadow() == null) {
+					LOGGER.debug("Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
+					processed(change);
+				} else if (getShadowCache(Mode.STANDARD).processSynchronization(change, task, resourceType, null, result)) {
+					processed(change);
+				}
+			} catch (SchemaException | ObjectNotFoundException | ObjectAlreadyExistsException e) {
+				throw new TunnelException(e);
 			}
-			boolean isSuccess = getShadowCache(Mode.STANDARD).processSynchronization(change, task, resourceType, null, result);
-//
-//			ResourceObjectShadowChangeDescription shadowChangeDescription = createResourceShadowChangeDescription(
-//					change, resourceType);
-//
-//			if (LOGGER.isTraceEnabled()) {
-//				LOGGER.trace("**PROVISIONING: Created resource object shadow change description {}",
-//						SchemaDebugUtil.prettyPrint(shadowChangeDescription));
-//			}
-//			OperationResult notifyChangeResult = new OperationResult(ProvisioningService.class.getName()
-//					+ "notifyChange");
-//			notifyChangeResult.addParam("resourceObjectShadowChangeDescription", shadowChangeDescription);
-//
-//			try {
-//				notifyResourceObjectChangeListeners(shadowChangeDescription, task, notifyChangeResult);
-//				notifyChangeResult.recordSuccess();
-//			} catch (RuntimeException ex) {
-//				recordFatalError(LOGGER, notifyChangeResult, "Synchronization error: " + ex.getMessage(), ex);
-//				saveAccountResult(shadowChangeDescription, change, notifyChangeResult, result);
-//				throw new SystemException("Synchronization error: " + ex.getMessage(), ex);
-//			}
-//
-//			notifyChangeResult.computeStatus("Error by notify change operation.");
-//
-			if (isSuccess) {
-//				deleteShadowFromRepo(change, result);
-//
-//				// get updated token from change,
-//				// create property modification from new token
-//				// and replace old token with the new one
-				PrismProperty<?> newToken = change.getToken();
-				task.setExtensionProperty(newToken);
-				processedChanges++;
+			if (!task.canRun()) {
+				LOGGER.info("Live synchronization of {} was interrupted, {} changes were processed",
+						ObjectTypeUtil.toShortString(resourceType), processedChanges);
+				return false;
 			}
-//			} else {
-//				saveAccountResult(shadowChangeDescription, change, notifyChangeResult, result);
-//			}
+			return true;
+		}
 
+		private void processed(Change<ShadowType> change) throws SchemaException, ObjectNotFoundException,
+				ObjectAlreadyExistsException {
+			// get updated token from change,
+			// create property modification from new token
+			// and replace old token with the new one
+			PrismProperty<?> newToken = change.getToken();
+			task.setExtensionProperty(newToken);
+			processedChanges++;
+			uncommittedChanges++;
+			if (uncommittedChanges >= checkpointChanges 
+					|| System.currentTimeMillis() - lastCheckpoint >= checkpointInterval) {
+				checkpoint();
+			}
 		}
-		// also if no changes was detected, update token
-		if (changes.isEmpty() && tokenProperty != null) {
-			LOGGER.trace("No changes to synchronize on " + ObjectTypeUtil.toShortString(resourceType));
-			task.setExtensionProperty(tokenProperty);
+
+		private void checkpoint() throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
+			LOGGER.trace("Storing sync token after {} changes: {}", uncommittedChanges, 
+					task.getExtensionProperty(SchemaConstants.SYNC_TOKEN));
+			task.savePendingModifications(result);
+			uncommittedChanges = 0;
+			lastCheckpoint = System.currentTimeMillis();
 		}
-		task.savePendingModifications(result);
-		return processedChanges;
+
+		void checkpointAfterFailure() {
+			if (uncommittedChanges == 0) {
+				return;
+			}
+			try {
+				checkpoint();
+			} catch (ObjectNotFoundException | SchemaException | ObjectAlreadyExistsException | RuntimeException e) {
+				LoggingUtils.logException(LOGGER, "Couldn't store sync token after failed synchronization of {}", e,
+						ObjectTypeUtil.toShortString(resourceType));
+			}
+		}
+
+		int getFetchedChanges() {
+			return fetchedChanges;
+		}
+
+		int getProcessedChanges() {
+			return processedChanges;
+		}
+	}
+
+	private int getIntExtensionProperty(Task task, QName propertyName, int defaultValue) {
+		PrismProperty<Integer> property = task.getExtensionProperty(propertyName);
+		if (property == null || property.getRealValue() == null || property.getRealValue() <= 0) {
+			return defaultValue;
+		}
+		return property.getRealValue();
 	}
 	
 	@Override
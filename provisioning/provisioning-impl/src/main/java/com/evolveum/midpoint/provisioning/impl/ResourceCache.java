@@ -18,6 +18,9 @@ package com.evolveum.midpoint.provisioning.impl;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.w3c.dom.Element;
@@ -26,30 +29,52 @@ import com.evolveum.midpoint.common.refinery.RefinedResourceSchema;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.schema.PrismSchema;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheInvalidationListener;
 import com.evolveum.midpoint.schema.processor.ResourceSchema;
 import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
 import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CachingMetadataType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.XmlSchemaType;
 
 /**
  * Class for caching ResourceType instances with a parsed schemas.
  * 
+ * Entries of resources changed by other cluster nodes are removed when change is reported
+ * by {@link CacheDispatcher}.
+ * 
  * @author Radovan Semancik
  *
  */
 @Component
-public class ResourceCache {
+public class ResourceCache implements CacheInvalidationListener {
 
 	private Map<String,PrismObject<ResourceType>> cache;
     @Autowired(required = true)
 	private PrismContext prismContext;
+    @Autowired(required = false)
+    private CacheDispatcher cacheDispatcher;
 
     ResourceCache() {
         cache = new HashMap<String, PrismObject<ResourceType>>();
     }
+
+    @PostConstruct
+    public void registerCacheListener() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.registerCacheListener(this);
+        }
+    }
+
+    @PreDestroy
+    public void unregisterCacheListener() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.unregisterCacheListener(this);
+        }
+    }
 	
 	public synchronized void put(PrismObject<ResourceType> resource) throws SchemaException {
 		String oid = resource.getOid();
@@ -120,8 +145,20 @@ public class ResourceCache {
 		return cachedResource.getVersion();
 	}
 
-	public void remove(String oid) {
+	public synchronized void remove(String oid) {
 		cache.remove(oid);
 	}
 
+	@Override
+	public <T extends ObjectType> void invalidate(Class<T> type, String oid) {
+		if (ResourceType.class.equals(type)) {
+			remove(oid);
+		}
+	}
+
+	@Override
+	public synchronized void invalidateAll() {
+		cache.clear();
+	}
+
 }
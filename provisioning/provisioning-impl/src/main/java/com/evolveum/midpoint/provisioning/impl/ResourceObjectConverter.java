@@ -54,6 +54,7 @@ import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.provisioning.api.GenericConnectorException;
 import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteProvisioningScriptOperation;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
@@ -953,53 +954,80 @@ public class ResourceObjectConverter {
 		}
 	}
 		
-	public List<Change<ShadowType>> fetchChanges(ConnectorInstance connector, ResourceType resource,
-			RefinedObjectClassDefinition objectClass, PrismProperty<?> lastToken,
-			OperationResult parentResult) throws SchemaException,
+	/**
+	 * Fetches changes from the connector and passes them to the handler one by one, after the current
+	 * state of the changed object is completed. Checked exceptions thrown while completing the change
+	 * are passed through the connector as TunnelException.
+	 */
+	public void fetchChanges(final ConnectorInstance connector, final ResourceType resource,
+			final RefinedObjectClassDefinition objectClass, PrismProperty<?> lastToken,
+			final ChangeHandler<ShadowType> handler, final OperationResult parentResult) throws SchemaException,
 			CommunicationException, ConfigurationException, SecurityViolationException, GenericFrameworkException {
 		Validate.notNull(resource, "Resource must not be null.");
+		Validate.notNull(handler, "Handler must not be null.");
 		Validate.notNull(parentResult, "Operation result must not be null.");
 
 		LOGGER.trace("START fetch changes");
 
-		AttributesToReturn attrsToReturn = ProvisioningUtil.createAttributesToReturn(objectClass, resource);
-		
-		// get changes from the connector
-		List<Change<ShadowType>> changes = connector.fetchChanges(objectClass, lastToken, attrsToReturn, parentResult);
-
-		Iterator<Change<ShadowType>> iterator = changes.iterator();
-		while (iterator.hasNext()) {
-			Change<ShadowType> change = iterator.next();
-			if (change.getCurrentShadow() == null) {
-				// There is no current shadow in a change. Add it by fetching it explicitly.
-				if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {						
-					// but not if it is a delete event
-					try {
-						
-						PrismObject<ShadowType> currentShadow = fetchResourceObject(connector, resource, objectClass, 
-								change.getIdentifiers(), attrsToReturn, parentResult);
-						change.setCurrentShadow(currentShadow);
-						
-					} catch (ObjectNotFoundException ex) {
-						parentResult.recordHandledError(
-								"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
-						LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
-								+ ex.getMessage());
-						// TODO: Maybe change to DELETE instead of this?
-						iterator.remove();
-						continue;
+		final AttributesToReturn attrsToReturn = ProvisioningUtil.createAttributesToReturn(objectClass, resource);
+		final int[] count = new int[] { 0 };
+
+		ChangeHandler<ShadowType> completingHandler = new ChangeHandler<ShadowType>() {
+			@Override
+			public boolean handle(Change<ShadowType> change) {
+				try {
+					if (!completeChange(connector, resource, objectClass, change, attrsToReturn, parentResult)) {
+						// skipped, continue with the next change
+						return true;
 					}
+				} catch (SchemaException | CommunicationException | ConfigurationException
+						| SecurityViolationException | GenericFrameworkException e) {
+					throw new TunnelException(e);
 				}
-			} else {
-				PrismObject<ShadowType> currentShadow = postProcessResourceObjectRead(connector, resource, change.getCurrentShadow(), 
-						objectClass, parentResult);
-				change.setCurrentShadow(currentShadow);
+				count[0]++;
+				return handler.handle(change);
 			}
-		}
+		};
+
+		// get changes from the connector
+		connector.fetchChanges(objectClass, lastToken, attrsToReturn, completingHandler, parentResult);
 
 		parentResult.recordSuccess();
-		LOGGER.trace("END fetch changes ({} changes)", changes == null ? "null" : changes.size());
-		return changes;
+		LOGGER.trace("END fetch changes ({} changes)", count[0]);
+	}
+
+	/**
+	 * @return false if the change should be skipped
+	 */
+	private boolean completeChange(ConnectorInstance connector, ResourceType resource,
+			RefinedObjectClassDefinition objectClass, Change<ShadowType> change, AttributesToReturn attrsToReturn,
+			OperationResult parentResult) throws SchemaException, CommunicationException, ConfigurationException,
+			SecurityViolationException, GenericFrameworkException {
+		if (change.getCurrentShadow() == null) {
+			// There is no current shadow in a change. Add it by fetching it explicitly.
+			if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {						
+				// but not if it is a delete event
+				try {
+					
+					PrismObject<ShadowType> currentShadow = fetchResourceObject(connector, resource, objectClass, 
+							change.getIdentifiers(), attrsToReturn, parentResult);
+					change.setCurrentShadow(currentShadow);
+					
+				} catch (ObjectNotFoundException ex) {
+					parentResult.recordHandledError(
+							"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
+					LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
+							+ ex.getMessage());
+					// TODO: Maybe change to DELETE instead of this?
+					return false;
+				}
+			}
+		} else {
+			PrismObject<ShadowType> currentShadow = postProcessResourceObjectRead(connector, resource, change.getCurrentShadow(), 
+					objectClass, parentResult);
+			change.setCurrentShadow(currentShadow);
+		}
+		return true;
 	}
 	
 	/**
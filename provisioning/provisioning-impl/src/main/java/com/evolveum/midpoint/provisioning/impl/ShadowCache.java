@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.namespace.QName;
 
@@ -57,6 +58,7 @@ import com.evolveum.midpoint.prism.query.AndFilter;
 import com.evolveum.midpoint.prism.query.EqualFilter;
 import com.evolveum.midpoint.prism.query.NaryLogicalFilter;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.SubstringFilter;
 import com.evolveum.midpoint.prism.query.ValueFilter;
@@ -69,6 +71,7 @@ import com.evolveum.midpoint.provisioning.consistency.api.ErrorHandler;
 import com.evolveum.midpoint.provisioning.consistency.api.ErrorHandler.FailedOperation;
 import com.evolveum.midpoint.provisioning.consistency.impl.ErrorHandlerFactory;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
 import com.evolveum.midpoint.provisioning.ucf.api.PropertyModificationOperation;
@@ -174,6 +177,11 @@ public abstract class ShadowCache {
 
 	private static final Trace LOGGER = TraceManager.getTrace(ShadowCache.class);
 
+	/**
+	 * Number of resource objects found by a search whose shadows are looked up in the repository at once.
+	 */
+	private static final int SHADOW_LOOKUP_BATCH_SIZE = 500;
+
 	public ShadowCache() {
 		repositoryService = null;
 	}
@@ -828,78 +836,175 @@ public abstract class ShadowCache {
 			if (attributeQuery == null){
 				attributeQuery = new ObjectQuery();
 			}
-			attributeQuery.setPaging(query.getPaging());
+			// the cookie is a repository position (OID), it must not get to the connector
+			ObjectPaging resourcePaging = query.getPaging().clone();
+			if (resourcePaging.getCookie() != null) {
+				LOGGER.trace("Ignoring repository paging cookie {} in search on {}", resourcePaging.getCookie(), resourceType);
+				resourcePaging.setCookie(null);
+			}
+			attributeQuery.setPaging(resourcePaging);
 		}
 
 		final ConnectorInstance connector = getConnectorInstance(resourceType, parentResult);
 
-		ResultHandler<ShadowType> resultHandler = new ResultHandler<ShadowType>() {
-
-			@Override
-			public boolean handle(PrismObject<ShadowType> resourceShadow) {
-				LOGGER.trace("Found resource object {}", SchemaDebugUtil.prettyPrint(resourceShadow));
-				PrismObject<ShadowType> resultShadow;
-				try {
-					// Try to find shadow that corresponds to the resource object
-					if (readFromRepository) {
-						PrismObject<ShadowType> repoShadow = lookupOrCreateShadowInRepository(connector, resourceShadow, objectClassDef, resourceType, parentResult); 
-						
-						applyAttributesDefinition(repoShadow, resourceType);
-						
-						forceRenameIfNeeded(resourceShadow.asObjectable(), repoShadow.asObjectable(), objectClassDef, parentResult);
-						
-						resultShadow = completeShadow(connector, resourceShadow, repoShadow,
-								resourceType, objectClassDef, parentResult);
-
-					} else {
-						resultShadow = resourceShadow;
-					}
+		if (!readFromRepository) {
+			ResultHandler<ShadowType> resultHandler = new ResultHandler<ShadowType>() {
 
-				} catch (SchemaException e) {
-					// TODO: better error handling
-					parentResult.recordFatalError("Schema error: " + e.getMessage(), e);
-					LOGGER.error("Schema error: {}", e.getMessage(), e);
-					return false;
-				} catch (ConfigurationException e) {
-					// TODO: better error handling
-					parentResult.recordFatalError("Configuration error: " + e.getMessage(), e);
-					LOGGER.error("Configuration error: {}", e.getMessage(), e);
-					return false;
-				} catch (ObjectNotFoundException e) {
-					// TODO: better error handling
-					parentResult.recordFatalError(e.getMessage(), e);
-					LOGGER.error("{}", e.getMessage(), e);
-					return false;
-				} catch (ObjectAlreadyExistsException e) {
-					// TODO: better error handling
-					parentResult.recordFatalError(e.getMessage(), e);
-					LOGGER.error("{}", e.getMessage(), e);
-					return false;
-				} catch (CommunicationException e) {
-					// TODO: better error handling
-					parentResult.recordFatalError(e.getMessage(), e);
-					LOGGER.error("{}", e.getMessage(), e);
-					return false;
-				} catch (SecurityViolationException e) {
-					// TODO: better error handling
-					parentResult.recordFatalError(e.getMessage(), e);
-					LOGGER.error("{}", e.getMessage(), e);
-					return false;
-				} catch (GenericConnectorException e) {
-					// TODO: better error handling
-					parentResult.recordFatalError(e.getMessage(), e);
-					LOGGER.error("{}", e.getMessage(), e);
-					return false;
+				@Override
+				public boolean handle(PrismObject<ShadowType> resourceShadow) {
+					LOGGER.trace("Found resource object {}", SchemaDebugUtil.prettyPrint(resourceShadow));
+					return handler.handle(resourceShadow.asObjectable());
 				}
 
-				return handler.handle(resultShadow.asObjectable());
-			}
+			};
+			resouceObjectConverter.searchResourceObjects(connector, resourceType, objectClassDef, resultHandler, attributeQuery, parentResult);
+			return;
+		}
 
-		};
-		
+		// shadows are looked up in the repository in batches, not one by one
+		ShadowLookupBatchHandler resultHandler = new ShadowLookupBatchHandler(connector, objectClassDef, resourceType,
+				handler, parentResult);
 		resouceObjectConverter.searchResourceObjects(connector, resourceType, objectClassDef, resultHandler, attributeQuery, parentResult);
+		resultHandler.processBatch();
 		
 	}
+
+	/**
+	 * Collects resource objects found by the search. When the batch is full, shadows of all the objects are looked up
+	 * by one repository search, missing shadows are created and the objects are passed to the handler in the original
+	 * order. Processing stops at the first object the handler (or shadow processing) refuses.
+	 */
+	private class ShadowLookupBatchHandler implements ResultHandler<ShadowType> {
+
+		private final ConnectorInstance connector;
+		private final RefinedObjectClassDefinition objectClassDef;
+		private final ResourceType resourceType;
+		private final ShadowHandler<ShadowType> handler;
+		private final OperationResult parentResult;
+		private final List<PrismObject<ShadowType>> batch = new ArrayList<PrismObject<ShadowType>>(SHADOW_LOOKUP_BATCH_SIZE);
+		private boolean stopped;
+
+		private ShadowLookupBatchHandler(ConnectorInstance connector, RefinedObjectClassDefinition objectClassDef,
+				ResourceType resourceType, ShadowHandler<ShadowType> handler, OperationResult parentResult) {
+			this.connector = connector;
+			this.objectClassDef = objectClassDef;
+			this.resourceType = resourceType;
+			this.handler = handler;
+			this.parentResult = parentResult;
+		}
+
+		@Override
+		public boolean handle(PrismObject<ShadowType> resourceShadow) {
+			LOGGER.trace("Found resource object {}", SchemaDebugUtil.prettyPrint(resourceShadow));
+			batch.add(resourceShadow);
+			if (batch.size() < SHADOW_LOOKUP_BATCH_SIZE) {
+				return true;
+			}
+			return processBatch();
+		}
+
+		private boolean processBatch() {
+			if (stopped || batch.isEmpty()) {
+				batch.clear();
+				return !stopped;
+			}
+
+			Map<String, PrismObject<ShadowType>> repoShadows;
+			try {
+				repoShadows = shadowManager.lookupShadowsInRepository(batch, objectClassDef, resourceType, parentResult);
+			} catch (SchemaException e) {
+				// TODO: better error handling
+				parentResult.recordFatalError("Schema error: " + e.getMessage(), e);
+				LOGGER.error("Schema error: {}", e.getMessage(), e);
+				return stop();
+			} catch (ConfigurationException e) {
+				// TODO: better error handling
+				parentResult.recordFatalError("Configuration error: " + e.getMessage(), e);
+				LOGGER.error("Configuration error: {}", e.getMessage(), e);
+				return stop();
+			}
+			LOGGER.trace("Found {} shadows for batch of {} resource objects", repoShadows.size(), batch.size());
+
+			for (PrismObject<ShadowType> resourceShadow : batch) {
+				if (!processResourceObject(resourceShadow, repoShadows)) {
+					return stop();
+				}
+			}
+			batch.clear();
+			return true;
+		}
+
+		private boolean stop() {
+			stopped = true;
+			batch.clear();
+			return false;
+		}
+
+		private boolean processResourceObject(PrismObject<ShadowType> resourceShadow, Map<String, PrismObject<ShadowType>> repoShadows) {
+			PrismObject<ShadowType> resultShadow;
+			try {
+				// Try to find shadow that corresponds to the resource object
+				PrismObject<ShadowType> repoShadow;
+				String key = shadowManager.getShadowLookupKey(resourceShadow, objectClassDef);
+				if (key == null || (repoShadows.containsKey(key) && repoShadows.get(key) == null)) {
+					// not found by the batch lookup (no key or ambiguous), the object is looked up individually
+					repoShadow = lookupOrCreateShadowInRepository(connector, resourceShadow, objectClassDef, resourceType, parentResult);
+				} else if (repoShadows.containsKey(key)) {
+					repoShadow = repoShadows.get(key);
+					LOGGER.trace("Found shadow object in the repository {}", SchemaDebugUtil.prettyPrint(repoShadow));
+				} else {
+					repoShadow = createShadowInRepository(connector, resourceShadow, objectClassDef, resourceType, parentResult);
+					// the same object can be returned more than once, it must not get two shadows
+					repoShadows.put(key, repoShadow);
+				}
+				
+				applyAttributesDefinition(repoShadow, resourceType);
+				
+				forceRenameIfNeeded(resourceShadow.asObjectable(), repoShadow.asObjectable(), objectClassDef, parentResult);
+				
+				resultShadow = completeShadow(connector, resourceShadow, repoShadow,
+						resourceType, objectClassDef, parentResult);
+
+			} catch (SchemaException e) {
+				// TODO: better error handling
+				parentResult.recordFatalError("Schema error: " + e.getMessage(), e);
+				LOGGER.error("Schema error: {}", e.getMessage(), e);
+				return false;
+			} catch (ConfigurationException e) {
+				// TODO: better error handling
+				parentResult.recordFatalError("Configuration error: " + e.getMessage(), e);
+				LOGGER.error("Configuration error: {}", e.getMessage(), e);
+				return false;
+			} catch (ObjectNotFoundException e) {
+				// TODO: better error handling
+				parentResult.recordFatalError(e.getMessage(), e);
+				LOGGER.error("{}", e.getMessage(), e);
+				return false;
+			} catch (ObjectAlreadyExistsException e) {
+				// TODO: better error handling
+				parentResult.recordFatalError(e.getMessage(), e);
+				LOGGER.error("{}", e.getMessage(), e);
+				return false;
+			} catch (CommunicationException e) {
+				// TODO: better error handling
+				parentResult.recordFatalError(e.getMessage(), e);
+				LOGGER.error("{}", e.getMessage(), e);
+				return false;
+			} catch (SecurityViolationException e) {
+				// TODO: better error handling
+				parentResult.recordFatalError(e.getMessage(), e);
+				LOGGER.error("{}", e.getMessage(), e);
+				return false;
+			} catch (GenericConnectorException e) {
+				// TODO: better error handling
+				parentResult.recordFatalError(e.getMessage(), e);
+				LOGGER.error("{}", e.getMessage(), e);
+				return false;
+			}
+
+			return handler.handle(resultShadow.asObjectable());
+		}
+	}
 	
 	private void searchObjectsIterativeRepository(
 			RefinedObjectClassDefinition objectClassDef,
@@ -940,38 +1045,7 @@ public abstract class ShadowCache {
 				parentResult);
 
 		if (repoShadow == null) {
-			LOGGER.trace(
-					"Shadow object (in repo) corresponding to the resource object (on the resource) was not found. The repo shadow will be created. The resource object:\n{}",
-					SchemaDebugUtil.prettyPrint(resourceShadow));
-
-			
-			PrismObject<ShadowType> conflictingShadow = shadowManager.lookupShadowByName(resourceShadow, objectClassDef, resourceType, parentResult);
-			if (conflictingShadow != null){
-				applyAttributesDefinition(conflictingShadow, resourceType);
-				conflictingShadow = completeShadow(connector, resourceShadow, conflictingShadow, resourceType, objectClassDef, parentResult);
-				Task task = taskManager.createTaskInstance();
-				ResourceOperationDescription failureDescription = shadowManager.createResourceFailureDescription(conflictingShadow, resourceType, parentResult);
-				changeNotificationDispatcher.notifyFailure(failureDescription, task, parentResult);
-				shadowManager.deleteConflictedShadowFromRepo(conflictingShadow, parentResult);
-			}
-			// TODO: make sure that the resource object has appropriate definition (use objectClass and schema)
-			// The resource object obviously exists on the resource, but appropriate shadow does not exist in the
-			// repository we need to create the shadow to align repo state to the reality (resource)
-
-			try {
-
-				repoShadow = shadowManager.createRepositoryShadow(
-						resourceShadow, resourceType, objectClassDef);
-				String oid = repositoryService.addObject(repoShadow, null,
-						parentResult);
-				repoShadow.setOid(oid);
-				
-			} catch (ObjectAlreadyExistsException e) {
-				// This should not happen. We haven't supplied an OID so is should not conflict
-				LOGGER.error("Unexpected repository behavior: Object already exists: {}", e.getMessage(), e);
-				throw new SystemException("Unexpected repository behavior: Object already exists: "+e.getMessage(),e);
-			}
-
+			repoShadow = createShadowInRepository(connector, resourceShadow, objectClassDef, resourceType, parentResult);
 		} else {
 			LOGGER.trace("Found shadow object in the repository {}",
 					SchemaDebugUtil.prettyPrint(repoShadow));
@@ -979,6 +1053,48 @@ public abstract class ShadowCache {
 		
 		return repoShadow;
 	}
+
+	/**
+	 * Creates shadow for the resource object that has no shadow in the repository yet. Shadow with the same name
+	 * (secondary identifier) is considered to be a leftover of a conflict; it is reported and deleted.
+	 */
+	private PrismObject<ShadowType> createShadowInRepository(ConnectorInstance connector, PrismObject<ShadowType> resourceShadow,
+			RefinedObjectClassDefinition objectClassDef, ResourceType resourceType, OperationResult parentResult) 
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, SecurityViolationException, GenericConnectorException {
+		LOGGER.trace(
+				"Shadow object (in repo) corresponding to the resource object (on the resource) was not found. The repo shadow will be created. The resource object:\n{}",
+				SchemaDebugUtil.prettyPrint(resourceShadow));
+
+		PrismObject<ShadowType> repoShadow;
+		PrismObject<ShadowType> conflictingShadow = shadowManager.lookupShadowByName(resourceShadow, objectClassDef, resourceType, parentResult);
+		if (conflictingShadow != null){
+			applyAttributesDefinition(conflictingShadow, resourceType);
+			conflictingShadow = completeShadow(connector, resourceShadow, conflictingShadow, resourceType, objectClassDef, parentResult);
+			Task task = taskManager.createTaskInstance();
+			ResourceOperationDescription failureDescription = shadowManager.createResourceFailureDescription(conflictingShadow, resourceType, parentResult);
+			changeNotificationDispatcher.notifyFailure(failureDescription, task, parentResult);
+			shadowManager.deleteConflictedShadowFromRepo(conflictingShadow, parentResult);
+		}
+		// TODO: make sure that the resource object has appropriate definition (use objectClass and schema)
+		// The resource object obviously exists on the resource, but appropriate shadow does not exist in the
+		// repository we need to create the shadow to align repo state to the reality (resource)
+
+		try {
+
+			repoShadow = shadowManager.createRepositoryShadow(
+					resourceShadow, resourceType, objectClassDef);
+			String oid = repositoryService.addObject(repoShadow, null,
+					parentResult);
+			repoShadow.setOid(oid);
+			
+		} catch (ObjectAlreadyExistsException e) {
+			// This should not happen. We haven't supplied an OID so is should not conflict
+			LOGGER.error("Unexpected repository behavior: Object already exists: {}", e.getMessage(), e);
+			throw new SystemException("Unexpected repository behavior: Object already exists: "+e.getMessage(),e);
+		}
+
+		return repoShadow;
+	}
 	
 	private List<ObjectFilter> getAttributeQuery(List<? extends ObjectFilter> conditions, List<ObjectFilter> attributeFilter) throws SchemaException{
 		
@@ -1017,29 +1133,63 @@ public abstract class ShadowCache {
 	// TODO: maybe split this to a separate class
 	///////////////////////////////////////////////////////////////////////////
 	
-	public List<Change<ShadowType>> fetchChanges(ResourceType resourceType, 
-			QName objectClass, PrismProperty<?> lastToken,  OperationResult parentResult)
+	/**
+	 * Fetches changes from the resource and passes them to the handler one by one, as soon as each
+	 * of them is processed (i.e. its shadow is looked up in the repository). The changes are not
+	 * collected in memory. Checked exceptions thrown by the handler are expected to be wrapped
+	 * in TunnelException, they are unwrapped here.
+	 */
+	public void fetchChanges(final ResourceType resourceType, 
+			final QName objectClass, PrismProperty<?> lastToken, final ChangeHandler<ShadowType> handler,
+			final OperationResult parentResult)
 			throws ObjectNotFoundException, CommunicationException, GenericFrameworkException, SchemaException,
 			ConfigurationException, SecurityViolationException, ObjectAlreadyExistsException {
 
 		InternalMonitor.recordShadowOtherOperation();
 		
-		RefinedObjectClassDefinition refinedObjectClassDefinition = determineObjectClassDefinition(objectClass, resourceType);
-		ConnectorInstance connector = getConnectorInstance(resourceType, parentResult);
+		final RefinedObjectClassDefinition refinedObjectClassDefinition = determineObjectClassDefinition(objectClass, resourceType);
+		final ConnectorInstance connector = getConnectorInstance(resourceType, parentResult);
 		
-		List<Change<ShadowType>> changes = null;
-		try {
-
-			changes = resouceObjectConverter.fetchChanges(connector, resourceType, refinedObjectClassDefinition, lastToken, parentResult);
-
-			LOGGER.trace("Found {} change(s). Start processing it (them).", changes.size());
-
-			for (Iterator<Change<ShadowType>> i = changes.iterator(); i.hasNext();) {
+		ChangeHandler<ShadowType> processingHandler = new ChangeHandler<ShadowType>() {
+			@Override
+			public boolean handle(Change<ShadowType> change) {
 				// search objects in repository
-				Change<ShadowType> change = i.next();
-				
-				processChange(resourceType, refinedObjectClassDefinition, objectClass, parentResult, change, connector);
+				try {
+					processChange(resourceType, refinedObjectClassDefinition, objectClass, parentResult, change, connector);
+				} catch (SchemaException | CommunicationException | ConfigurationException | SecurityViolationException
+						| ObjectNotFoundException | ObjectAlreadyExistsException e) {
+					throw new TunnelException(e);
+				}
+				return handler.handle(change);
+			}
+		};
 
+		try {
+
+			try {
+				resouceObjectConverter.fetchChanges(connector, resourceType, refinedObjectClassDefinition, lastToken,
+						processingHandler, parentResult);
+			} catch (TunnelException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof SchemaException) {
+					throw (SchemaException) cause;
+				} else if (cause instanceof CommunicationException) {
+					throw (CommunicationException) cause;
+				} else if (cause instanceof GenericFrameworkException) {
+					throw (GenericFrameworkException) cause;
+				} else if (cause instanceof ConfigurationException) {
+					throw (ConfigurationException) cause;
+				} else if (cause instanceof SecurityViolationException) {
+					throw (SecurityViolationException) cause;
+				} else if (cause instanceof ObjectNotFoundException) {
+					throw (ObjectNotFoundException) cause;
+				} else if (cause instanceof ObjectAlreadyExistsException) {
+					throw (ObjectAlreadyExistsException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else {
+					throw new SystemException("Unexpected exception: " + cause, cause);
+				}
 			}
 
 		} catch (SchemaException ex) {
@@ -1062,7 +1212,6 @@ public abstract class ShadowCache {
 			throw ex;
 		}
 		parentResult.recordSuccess();
-		return changes;
 	}
 	
 	@SuppressWarnings("rawtypes")
@@ -19,7 +19,11 @@ package com.evolveum.midpoint.provisioning.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.xml.namespace.QName;
 
@@ -47,6 +51,7 @@ import com.evolveum.midpoint.prism.query.AndFilter;
 import com.evolveum.midpoint.prism.query.EqualFilter;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrFilter;
 import com.evolveum.midpoint.prism.query.RefFilter;
 import com.evolveum.midpoint.prism.query.Visitor;
 import com.evolveum.midpoint.provisioning.api.ResourceOperationDescription;
@@ -194,6 +199,100 @@ public class ShadowManager {
 		return results.get(0);
 	}
 	
+	/**
+	 * Looks up repository shadows for a batch of resource objects using a single repository search
+	 * (primary identifiers are combined in one disjunction). The result is indexed by the lookup key
+	 * (see {@link #getShadowLookupKey(PrismObject, RefinedObjectClassDefinition)}), identifiers of both resource objects
+	 * and repository shadows are normalized by the matching rule of the identifier attribute. Keys of resource objects
+	 * without a shadow are not present in the map, keys with more than one shadow are mapped to null.
+	 * Resource objects without a lookup key are skipped.
+	 */
+	public Map<String, PrismObject<ShadowType>> lookupShadowsInRepository(Collection<PrismObject<ShadowType>> resourceShadows,
+			RefinedObjectClassDefinition rObjClassDef, ResourceType resource, OperationResult parentResult) 
+					throws SchemaException, ConfigurationException {
+
+		Map<String, PrismObject<ShadowType>> shadows = new HashMap<String, PrismObject<ShadowType>>();
+		Set<String> keys = new LinkedHashSet<String>();
+		List<ObjectFilter> identifierFilters = new ArrayList<ObjectFilter>();
+		QName identifierName = null;
+		for (PrismObject<ShadowType> resourceShadow : resourceShadows) {
+			String key = getShadowLookupKey(resourceShadow, rObjClassDef);
+			if (key == null || !keys.add(key)) {
+				continue;
+			}
+			PrismProperty identifier = ShadowUtil.getAttributesContainer(resourceShadow).getIdentifier();
+			PrismPropertyDefinition def = identifier.getDefinition();
+			identifierName = def.getName();
+			identifierFilters.add(EqualFilter.createEqual(new ItemPath(ShadowType.F_ATTRIBUTES, def.getName()), def,
+					getNormalizedValue(identifier, rObjClassDef)));
+		}
+		if (identifierFilters.isEmpty()) {
+			return shadows;
+		}
+
+		ObjectFilter identifierFilter = identifierFilters.size() > 1 ? OrFilter.createOr(identifierFilters) : identifierFilters.get(0);
+		ObjectQuery query = ObjectQuery.createObjectQuery(AndFilter.createAnd(
+				RefFilter.createReferenceEqual(ShadowType.F_RESOURCE_REF, ShadowType.class, resource),
+				identifierFilter));
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("Searching for shadows of {} resource objects using filter:\n{}", keys.size(), query.debugDump());
+		}
+
+		List<PrismObject<ShadowType>> results = repositoryService.searchObjects(ShadowType.class, query, null, parentResult);
+		LOGGER.trace("lookupShadows found {} objects for {} identifiers", results.size(), keys.size());
+
+		for (PrismObject<ShadowType> shadow : results) {
+			PrismProperty<?> identifier = shadow.findProperty(new ItemPath(ShadowType.F_ATTRIBUTES, identifierName));
+			if (identifier == null || identifier.getRealValue() == null) {
+				LOGGER.warn("Shadow {} has no value of identifier {}, ignoring it", shadow, identifierName);
+				continue;
+			}
+			// repository value has to be normalized the same way as the value of resource object
+			String key = getLookupKey(identifier.getRealValue(), identifierName, rObjClassDef);
+			if (shadows.containsKey(key)) {
+				// more than one shadow, the caller has to deal with it
+				shadows.put(key, null);
+			} else {
+				shadows.put(key, shadow);
+			}
+		}
+		return shadows;
+	}
+
+	/**
+	 * Returns normalized value of the primary identifier that is used to pair the resource object with its shadow
+	 * in {@link #lookupShadowsInRepository(Collection, RefinedObjectClassDefinition, ResourceType, OperationResult)}.
+	 * Returns null if the resource object can't be looked up this way (e.g. it doesn't have exactly one identifier value).
+	 */
+	public String getShadowLookupKey(PrismObject<ShadowType> resourceShadow, RefinedObjectClassDefinition rObjClassDef)
+			throws SchemaException {
+		ResourceAttributeContainer attributesContainer = ShadowUtil.getAttributesContainer(resourceShadow);
+		if (attributesContainer == null) {
+			return null;
+		}
+		PrismProperty identifier = attributesContainer.getIdentifier();
+		if (identifier == null || identifier.getValues().size() != 1 || identifier.getDefinition() == null) {
+			return null;
+		}
+		if (identifier.getRealValue() == null) {
+			return null;
+		}
+		return getLookupKey(identifier.getRealValue(), identifier.getElementName(), rObjClassDef);
+	}
+
+	private <T> String getLookupKey(T value, QName attributeName, RefinedObjectClassDefinition rObjClassDef)
+			throws SchemaException {
+		RefinedAttributeDefinition refinedAttributeDefinition = rObjClassDef.findAttributeDefinition(attributeName);
+		if (refinedAttributeDefinition != null) {
+			MatchingRule<T> matchingRule = matchingRuleRegistry.getMatchingRule(
+					refinedAttributeDefinition.getMatchingRuleQName(), refinedAttributeDefinition.getTypeName());
+			if (matchingRule != null) {
+				value = matchingRule.normalize(value);
+			}
+		}
+		return String.valueOf(value);
+	}
+	
 	public PrismObject<ShadowType> lookupShadowByName( 
 			PrismObject<ShadowType> resourceShadow, RefinedObjectClassDefinition rObjClassDef, 
 			ResourceType resource, OperationResult parentResult) 
@@ -168,7 +168,13 @@ public interface ConnectorInstance {
 	 * 
 	 * The call to this method will return only after all the callbacks were
 	 * called, therefore it is not asynchronous in a strict sense.
-	 *  
+	 *
+	 * Paging specified in the query (offset, maximum size and paged results cookie)
+	 * is passed to the resource if the connector has paged search capability.
+	 * In that case the results are read from the resource page by page and all
+	 * the pages are streamed to the same handler. If the connector does not
+	 * support paging, offset and maximum size are emulated on the client side.
+	 *
 	 * @param objectClass
 	 * @param handler
 	 * @throws CommunicationException 
@@ -266,6 +272,17 @@ public interface ConnectorInstance {
 	 */
 	public <T extends ShadowType> List<Change<T>> fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, 
 			AttributesToReturn attrsToReturn, OperationResult parentResult) throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
+
+	/**
+	 * Fetches changes in a streaming fashion. Each change is passed to the handler as soon as it
+	 * is received from the connector, the changes are not collected in memory. Fetching stops
+	 * when the handler returns false.
+	 * 
+	 * Token may be null. That means "from the beginning of history".
+	 */
+	public <T extends ShadowType> void fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, 
+			AttributesToReturn attrsToReturn, ChangeHandler<T> handler, OperationResult parentResult) 
+			throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
 	
 	//public ValidationResult validateConfiguration(ResourceConfiguration newConfiguration);
 	
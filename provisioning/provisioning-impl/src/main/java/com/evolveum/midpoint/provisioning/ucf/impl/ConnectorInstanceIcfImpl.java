@@ -64,10 +64,12 @@ import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.ObjectClassInfo;
 import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionInfo;
 import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
 import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.ScriptContext;
+import org.identityconnectors.framework.common.objects.SearchResult;
 import org.identityconnectors.framework.common.objects.SyncDelta;
 import org.identityconnectors.framework.common.objects.SyncDeltaType;
 import org.identityconnectors.framework.common.objects.SyncResultsHandler;
@@ -93,12 +95,14 @@ import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.schema.PrismSchema;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
 import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteProvisioningScriptOperation;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteScriptArgument;
@@ -134,6 +138,7 @@ import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SecurityViolationException;
 import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.exception.TunnelException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType;
@@ -153,6 +158,7 @@ import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.CreateCapabi
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.CredentialsCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.DeleteCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.LiveSyncCapabilityType;
+import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.PagedSearchCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.PasswordCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.ReadCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.ScriptCapabilityType;
@@ -180,6 +186,12 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 
 	private static final Trace LOGGER = TraceManager.getTrace(ConnectorInstanceIcfImpl.class);
 
+	/**
+	 * Page size used to walk the search results of connectors that support paged search
+	 * but do not specify any preferred page size.
+	 */
+	private static final int DEFAULT_SEARCH_PAGE_SIZE = 100;
+
 	ConnectorInfo cinfo;
 	ConnectorType connectorType;
 	ConnectorFacade icfConnectorFacade;
@@ -799,6 +811,13 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			ReadCapabilityType capRead = new ReadCapabilityType();
 			capabilities.add(capabilityObjectFactory.createRead(capRead));
 		}
+
+		if (supportedOperations.contains(SearchApiOp.class)) {
+			PagedSearchCapabilityType capPaged = createPagedSearchCapability(icfSchema);
+			if (capPaged != null) {
+				capabilities.add(capabilityObjectFactory.createPagedSearch(capPaged));
+			}
+		}
 		
 		if (supportedOperations.contains(UpdateApiOp.class)){
 			UpdateCapabilityType capUpdate = new UpdateCapabilityType();
@@ -830,6 +849,32 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 
 	}
 
+	/**
+	 * Connector supports paged search if it declares page size option for the search operation.
+	 * The offset is supported only if the connector declares also paged results offset option.
+	 */
+	private PagedSearchCapabilityType createPagedSearchCapability(org.identityconnectors.framework.common.objects.Schema icfSchema) {
+		Set<OperationOptionInfo> searchOptions = icfSchema.getSupportedOptionsByOperation(SearchApiOp.class);
+		if (searchOptions == null) {
+			return null;
+		}
+		boolean pageSizeSupported = false;
+		boolean offsetSupported = false;
+		for (OperationOptionInfo optionInfo : searchOptions) {
+			if (OperationOptions.OP_PAGE_SIZE.equals(optionInfo.getName())) {
+				pageSizeSupported = true;
+			} else if (OperationOptions.OP_PAGED_RESULTS_OFFSET.equals(optionInfo.getName())) {
+				offsetSupported = true;
+			}
+		}
+		if (!pageSizeSupported) {
+			return null;
+		}
+		PagedSearchCapabilityType capPaged = new PagedSearchCapabilityType();
+		capPaged.setOffsetSupported(offsetSupported);
+		return capPaged;
+	}
+
 	private boolean shouldBeGenerated(List<QName> generateObjectClasses,
 			QName objectClassXsdName) {
 		if (generateObjectClasses == null || generateObjectClasses.isEmpty()){
@@ -1661,7 +1706,23 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			AttributesToReturn attrsToReturn, OperationResult parentResult) throws CommunicationException, GenericFrameworkException,
 			SchemaException, ConfigurationException {
 
-		OperationResult result = parentResult.createSubresult(ConnectorInstance.class.getName()
+		final List<Change<T>> changeList = new ArrayList<Change<T>>();
+		ChangeHandler<T> handler = new ChangeHandler<T>() {
+			@Override
+			public boolean handle(Change<T> change) {
+				return changeList.add(change);
+			}
+		};
+		fetchChanges(objectClass, lastToken, attrsToReturn, handler, parentResult);
+		return changeList;
+	}
+
+	@Override
+	public <T extends ShadowType> void fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken,
+			AttributesToReturn attrsToReturn, final ChangeHandler<T> handler, OperationResult parentResult)
+			throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException {
+
+		final OperationResult result = parentResult.createSubresult(ConnectorInstance.class.getName()
 				+ ".fetchChanges");
 		result.addContext("objectClass", objectClass);
 		result.addParam("lastToken", lastToken);
@@ -1676,9 +1737,8 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			throw new SchemaException(ex.getMessage(), ex);
 		}
 
-		final List<SyncDelta> syncDeltas = new ArrayList<SyncDelta>();
 		// get icf object class
-		ObjectClass icfObjectClass = icfNameMapper.objectClassToIcf(objectClass, getSchemaNamespace(), connectorType);
+		final ObjectClass icfObjectClass = icfNameMapper.objectClassToIcf(objectClass, getSchemaNamespace(), connectorType);
 
 		OperationOptionsBuilder optionsBuilder = new OperationOptionsBuilder();
 		String[] attributesToGet = convertToIcfAttrsToGet(objectClass, attrsToReturn);
@@ -1686,14 +1746,22 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			optionsBuilder.setAttributesToGet(attributesToGet);
 		}
 		OperationOptions options = optionsBuilder.build();
-		
+
+		final int[] count = new int[] { 0 };
 		SyncResultsHandler syncHandler = new SyncResultsHandler() {
 
 			@Override
 			public boolean handle(SyncDelta delta) {
 				LOGGER.trace("Detected sync delta: {}", delta);
-				return syncDeltas.add(delta);
-
+				// convert change from icf to midpoint Change and pass it on immediately
+				Change<T> change;
+				try {
+					change = getChangeFromSyncDelta(icfObjectClass, delta, resourceSchema, result);
+				} catch (SchemaException | GenericFrameworkException e) {
+					throw new IntermediateException(e);
+				}
+				count[0]++;
+				return handler.handle(change);
 			}
 		};
 
@@ -1707,7 +1775,21 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			icfConnectorFacade.sync(icfObjectClass, syncToken, syncHandler,
 					options);
 			icfResult.recordSuccess();
-			icfResult.addReturn(OperationResult.RETURN_COUNT, syncDeltas.size());
+			icfResult.addReturn(OperationResult.RETURN_COUNT, count[0]);
+		} catch (IntermediateException inex) {
+			Throwable ex = inex.getCause();
+			icfResult.recordFatalError(ex);
+			result.recordFatalError(ex.getMessage(), ex);
+			if (ex instanceof SchemaException) {
+				throw new SchemaException(ex.getMessage(), ex);
+			} else {
+				throw (GenericFrameworkException) ex;
+			}
+		} catch (TunnelException ex) {
+			// exception from the handler, let the caller deal with it
+			icfResult.recordFatalError(ex.getCause());
+			result.computeStatus();
+			throw ex;
 		} catch (Throwable ex) {
 			Throwable midpointEx = processIcfException(ex, this, icfResult);
 			result.computeStatus();
@@ -1727,18 +1809,9 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 				throw new SystemException("Got unexpected exception: " + ex.getClass().getName(), ex);
 			}
 		}
-		// convert changes from icf to midpoint Change
-		List<Change<T>> changeList = null;
-		try {
-			changeList = getChangesFromSyncDeltas(icfObjectClass, syncDeltas, resourceSchema, result);
-		} catch (SchemaException ex) {
-			result.recordFatalError(ex.getMessage(), ex);
-			throw new SchemaException(ex.getMessage(), ex);
-		}
 
 		result.recordSuccess();
-		result.addReturn(OperationResult.RETURN_COUNT, changeList == null ? 0 : changeList.size());
-		return changeList;
+		result.addReturn(OperationResult.RETURN_COUNT, count[0]);
 	}
 
 	@Override
@@ -1792,24 +1865,47 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 		final PrismObjectDefinition<T> objectDefinition = toShadowDefinition(objectClassDefinition);
 
 
-		ResultsHandler icfHandler = new ResultsHandler() {
-			int count = 0;
+		final ObjectPaging paging = query != null ? query.getPaging() : null;
+		final int offset = (paging != null && paging.getOffset() != null) ? paging.getOffset() : 0;
+		final Integer maxSize = paging != null ? paging.getMaxSize() : null;
+
+		final PagedSearchCapabilityType pagedSearchCapability = CapabilityUtil.getCapability(capabilities,
+				PagedSearchCapabilityType.class);
+		// offset cannot be passed to connectors that do not support it, paging is emulated in that case
+		final boolean nativePaging = pagedSearchCapability != null
+				&& (offset == 0 || Boolean.TRUE.equals(pagedSearchCapability.isOffsetSupported()));
+
+		// counts objects seen by the handler (all of them if paging is emulated, otherwise only returned ones)
+		final int[] count = new int[] { 0 };
+		final boolean[] stopped = new boolean[] { false };
+		// UIDs of the objects in the first page are remembered if the connector does not support offsets,
+		// they are needed if the rest of the objects has to be read without paging (see below)
+		final Set<String> firstPageUids = new HashSet<String>();
+		final int[] firstPageSize = new int[] { 0 };
+
+		final ResultsHandler icfHandler = new ResultsHandler() {
 			@Override
 			public boolean handle(ConnectorObject connectorObject) {
-				// Convert ICF-specific connector object to a generic
-				// ResourceObject
-				if (query != null && query.getPaging() != null && query.getPaging().getOffset() != null
-						&& query.getPaging().getMaxSize() != null) {
-					if (count < query.getPaging().getOffset()){
-						count++;
+				if (!nativePaging && paging != null && paging.getOffset() != null
+						&& paging.getMaxSize() != null) {
+					// connector does not support paging, emulate it on our side
+					if (count[0] < offset){
+						count[0]++;
 						return true;
 					}
-					
-					if (count == (query.getPaging().getOffset() + query.getPaging().getMaxSize())) {
+
+					if (count[0] == (offset + maxSize)) {
+						stopped[0] = true;
 						return false;
+					}
 				}
-
+				if (nativePaging && maxSize != null && count[0] >= maxSize) {
+					stopped[0] = true;
+					return false;
 				}
+
+				// Convert ICF-specific connector object to a generic
+				// ResourceObject
 				PrismObject<T> resourceObject;
 				try {
 					resourceObject = convertToResourceObject(connectorObject, objectDefinition, false);
@@ -1821,19 +1917,17 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 				boolean cont = handler.handle(resourceObject);
 				if (!cont) {
 					result.recordPartialError("Stopped on request from the handler");
-
+					stopped[0] = true;
 				}
-				count++;
+				if (count[0] < firstPageSize[0] && connectorObject.getUid() != null) {
+					firstPageUids.add(connectorObject.getUid().getUidValue());
+				}
+				count[0]++;
 				return cont;
 			}
 		};
-		
-		OperationOptionsBuilder optionsBuilder = new OperationOptionsBuilder();
+
 		String[] attributesToGet = convertToIcfAttrsToGet(objectClassDefinition, attributesToReturn);
-		if (attributesToGet != null) {
-			optionsBuilder.setAttributesToGet(attributesToGet);
-		}
-		OperationOptions options = optionsBuilder.build();
 
 		// Connector operation cannot create result for itself, so we need to
 		// create result for it
@@ -1854,7 +1948,93 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 				LOGGER.trace("ICF filter: {}", filter);
 			}
 			
-			icfConnectorFacade.search(icfObjectClass, filter, icfHandler, options);
+			if (!nativePaging) {
+				OperationOptionsBuilder optionsBuilder = new OperationOptionsBuilder();
+				if (attributesToGet != null) {
+					optionsBuilder.setAttributesToGet(attributesToGet);
+				}
+				icfConnectorFacade.search(icfObjectClass, filter, icfHandler, optionsBuilder.build());
+			} else {
+				// Walk the result pages on the resource. All the pages are streamed to the same handler,
+				// the caller does not see the page boundaries.
+				int pageSize = pagedSearchCapability.getDefaultPageSize() != null
+						&& pagedSearchCapability.getDefaultPageSize() > 0 ?
+						pagedSearchCapability.getDefaultPageSize() : DEFAULT_SEARCH_PAGE_SIZE;
+				boolean offsetSupported = Boolean.TRUE.equals(pagedSearchCapability.isOffsetSupported());
+				// Paged results cookie of the connector. It is valid only within this page walk, it is
+				// never taken from (or returned in) ObjectPaging as that cookie belongs to the repository.
+				String cookie = null;
+				int pageOffset = offset;
+				int pages = 0;
+				while (true) {
+					int currentPageSize = pageSize;
+					if (maxSize != null) {
+						currentPageSize = Math.min(pageSize, maxSize - count[0]);
+						if (currentPageSize <= 0) {
+							break;
+						}
+					}
+					OperationOptionsBuilder optionsBuilder = new OperationOptionsBuilder();
+					if (attributesToGet != null) {
+						optionsBuilder.setAttributesToGet(attributesToGet);
+					}
+					optionsBuilder.setPageSize(currentPageSize);
+					if (pages == 0 && !offsetSupported) {
+						firstPageSize[0] = currentPageSize;
+					}
+					if (cookie != null) {
+						optionsBuilder.setPagedResultsCookie(cookie);
+					} else if (offsetSupported && pageOffset > 0) {
+						// ICF offsets are 1-based
+						optionsBuilder.setPagedResultsOffset(pageOffset + 1);
+					}
+
+					int countBefore = count[0];
+					SearchResult searchResult = icfConnectorFacade.search(icfObjectClass, filter, icfHandler,
+							optionsBuilder.build());
+					int returned = count[0] - countBefore;
+					pages++;
+					LOGGER.trace("Paged search of {} returned page {} with {} objects: {}",
+							new Object[]{icfObjectClass, pages, returned, searchResult});
+
+					if (stopped[0] || (searchResult != null && searchResult.getRemainingPagedResults() == 0)) {
+						break;
+					}
+					String nextCookie = searchResult != null ? searchResult.getPagedResultsCookie() : null;
+					if (nextCookie != null) {
+						// cookie is authoritative, the page may be shorter e.g. because of filtering
+						cookie = nextCookie;
+					} else if (cookie == null && offsetSupported && returned == currentPageSize) {
+						pageOffset += returned;
+					} else if (cookie == null && pages == 1 && returned == currentPageSize) {
+						// Full first page without cookie and the connector cannot continue from an offset. The rest
+						// is read without paging, objects from the first page are skipped.
+						LOGGER.warn("Connector {} returned the first page of {} without paged results cookie and it does "
+								+ "not support offsets, reading the rest of the objects without paging",
+								connectorType, icfObjectClass);
+						OperationOptionsBuilder restOptionsBuilder = new OperationOptionsBuilder();
+						if (attributesToGet != null) {
+							restOptionsBuilder.setAttributesToGet(attributesToGet);
+						}
+						icfConnectorFacade.search(icfObjectClass, filter, new ResultsHandler() {
+							@Override
+							public boolean handle(ConnectorObject connectorObject) {
+								if (connectorObject.getUid() != null
+										&& firstPageUids.remove(connectorObject.getUid().getUidValue())) {
+									return true;
+								}
+								return icfHandler.handle(connectorObject);
+							}
+						}, restOptionsBuilder.build());
+						icfResult.addReturn("unpagedRest", true);
+						break;
+					} else {
+						// last page
+						break;
+					}
+				}
+				icfResult.addReturn("pages", pages);
+			}
 
 			icfResult.recordSuccess();
 		} catch (IntermediateException inex) {
@@ -2183,60 +2363,55 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 
 	}
 
-	private <T extends ShadowType> List<Change<T>> getChangesFromSyncDeltas(ObjectClass objClass, Collection<SyncDelta> icfDeltas, PrismSchema schema,
+	private <T extends ShadowType> Change<T> getChangeFromSyncDelta(ObjectClass objClass, SyncDelta icfDelta, PrismSchema schema,
 			OperationResult parentResult) throws SchemaException, GenericFrameworkException {
-		List<Change<T>> changeList = new ArrayList<Change<T>>();
 
-		Validate.notNull(icfDeltas, "Sync result must not be null.");
-		for (SyncDelta icfDelta : icfDeltas) {
+		Validate.notNull(icfDelta, "Sync delta must not be null.");
 
-			if (icfDelta.getObject() != null){
-				objClass = icfDelta.getObject().getObjectClass();
-			}
-				QName objectClass = icfNameMapper.objectClassToQname(objClass.getObjectClassValue(), getSchemaNamespace());
-				ObjectClassComplexTypeDefinition objClassDefinition = (ObjectClassComplexTypeDefinition) schema
+		if (icfDelta.getObject() != null){
+			objClass = icfDelta.getObject().getObjectClass();
+		}
+		QName objectClass = icfNameMapper.objectClassToQname(objClass.getObjectClassValue(), getSchemaNamespace());
+		ObjectClassComplexTypeDefinition objClassDefinition = (ObjectClassComplexTypeDefinition) schema
 				.findComplexTypeDefinition(objectClass);
 
-			if (SyncDeltaType.DELETE.equals(icfDelta.getDeltaType())) {
-				LOGGER.trace("START creating delta of type DELETE");
-				ObjectDelta<ShadowType> objectDelta = new ObjectDelta<ShadowType>(
-						ShadowType.class, ChangeType.DELETE, prismContext);
-				ResourceAttribute<String> uidAttribute = createUidAttribute(
-						icfDelta.getUid(),
-						getUidDefinition(objClassDefinition
-								.toResourceAttributeContainerDefinition(ShadowType.F_ATTRIBUTES)));
-				Collection<ResourceAttribute<?>> identifiers = new ArrayList<ResourceAttribute<?>>(1);
-				identifiers.add(uidAttribute);
-				Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(objClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type DELETE");
-
-			} else if (SyncDeltaType.CREATE_OR_UPDATE.equals(icfDelta.getDeltaType())) {
-				PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(objClassDefinition);
-				LOGGER.trace("Object definition: {}", objectDefinition);
-				
-				LOGGER.trace("START creating delta of type CREATE_OR_UPDATE");
-				PrismObject<ShadowType> currentShadow = convertToResourceObject(icfDelta.getObject(),
-						objectDefinition, false);
-
-				if (LOGGER.isTraceEnabled()) {
-					LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
-				}
+		if (SyncDeltaType.DELETE.equals(icfDelta.getDeltaType())) {
+			LOGGER.trace("START creating delta of type DELETE");
+			ObjectDelta<ShadowType> objectDelta = new ObjectDelta<ShadowType>(
+					ShadowType.class, ChangeType.DELETE, prismContext);
+			ResourceAttribute<String> uidAttribute = createUidAttribute(
+					icfDelta.getUid(),
+					getUidDefinition(objClassDefinition
+							.toResourceAttributeContainerDefinition(ShadowType.F_ATTRIBUTES)));
+			Collection<ResourceAttribute<?>> identifiers = new ArrayList<ResourceAttribute<?>>(1);
+			identifiers.add(uidAttribute);
+			Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(objClassDefinition);
+			LOGGER.trace("END creating delta of type DELETE");
+			return change;
+
+		} else if (SyncDeltaType.CREATE_OR_UPDATE.equals(icfDelta.getDeltaType())) {
+			PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(objClassDefinition);
+			LOGGER.trace("Object definition: {}", objectDefinition);
+			
+			LOGGER.trace("START creating delta of type CREATE_OR_UPDATE");
+			PrismObject<ShadowType> currentShadow = convertToResourceObject(icfDelta.getObject(),
+					objectDefinition, false);
 
-				Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getIdentifiers(currentShadow);
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
+			}
 
-				Change change = new Change(identifiers, currentShadow, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(objClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type CREATE_OR_UPDATE");
+			Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getIdentifiers(currentShadow);
 
-			} else {
-				throw new GenericFrameworkException("Unexpected sync delta type " + icfDelta.getDeltaType());
-			}
+			Change change = new Change(identifiers, currentShadow, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(objClassDefinition);
+			LOGGER.trace("END creating delta of type CREATE_OR_UPDATE");
+			return change;
 
+		} else {
+			throw new GenericFrameworkException("Unexpected sync delta type " + icfDelta.getDeltaType());
 		}
-		return changeList;
 	}
 
 	private SyncToken getSyncToken(PrismProperty tokenProperty) throws SchemaException {
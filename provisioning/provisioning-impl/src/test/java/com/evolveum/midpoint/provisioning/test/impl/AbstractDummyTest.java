@@ -64,6 +64,7 @@ import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.provisioning.ProvisioningTestUtil;
 import com.evolveum.midpoint.provisioning.api.ProvisioningService;
 import com.evolveum.midpoint.provisioning.impl.ConnectorManager;
+import com.evolveum.midpoint.provisioning.impl.ShadowManager;
 import com.evolveum.midpoint.provisioning.test.mock.SynchornizationServiceMock;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.impl.ConnectorFactoryIcfImpl;
@@ -172,6 +173,9 @@ public abstract class AbstractDummyTest extends AbstractIntegrationTest {
 	
 	@Autowired(required = true)
 	protected MatchingRuleRegistry matchingRuleRegistry;
+
+	@Autowired(required = true)
+	protected ShadowManager shadowManager;
 	
 	// Values used to check if something is unchanged or changed properly
 	private Long lastResourceVersion = null;
@@ -34,9 +34,11 @@ import static org.testng.AssertJUnit.assertTrue;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.bind.JAXBException;
@@ -104,6 +106,7 @@ import com.evolveum.midpoint.schema.util.ShadowUtil;
 import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
 import com.evolveum.midpoint.schema.util.SchemaTestConstants;
 import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.quartzimpl.TaskQuartzImpl;
 import com.evolveum.midpoint.test.DummyResourceContoller;
 import com.evolveum.midpoint.test.IntegrationTestTools;
 import com.evolveum.midpoint.test.ObjectChecker;
@@ -134,6 +137,8 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationSituationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.XmlSchemaType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.ActivationCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.CredentialsCapabilityType;
@@ -156,6 +161,11 @@ public class TestDummy extends AbstractDummyTest {
 	// Make this ugly by design. it check for some caseExact/caseIgnore cases
 	protected static final String ACCOUNT_MURRAY_USERNAME = "muRRay";
 
+	protected static final File TASK_LIVE_SYNC_FILE = new File(TEST_DIR, "task-live-sync.xml");
+	protected static final String TASK_LIVE_SYNC_OID = "91919191-76e0-59e2-86d6-9999dddd0820";
+	protected static final File USER_ADMINISTRATOR_FILE = new File("src/test/resources/impl/admin.xml");
+	private static final String[] LIVE_SYNC_CHECKPOINT_USERNAMES = { "carla", "otis", "stan", "herman" };
+
 	private static final Trace LOGGER = TraceManager.getTrace(TestDummy.class);
 	protected static final long VALID_FROM_MILLIS = 12322342345435L;
 	protected static final long VALID_TO_MILLIS = 3454564324423L;
@@ -1313,6 +1323,61 @@ public class TestDummy extends AbstractDummyTest {
 		assertSteadyResource();
 	}
 
+	/**
+	 * Looks up shadows of several resource objects by one repository search. Identifier of one of the objects
+	 * differs from the identifier stored in the repository only in case, the shadow should be found only if
+	 * the identifier has case-insensitive matching rule.
+	 */
+	@Test
+	public void test112LookupShadowsInRepositoryBatch() throws Exception {
+		final String TEST_NAME = "test112LookupShadowsInRepositoryBatch";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+		RefinedObjectClassDefinition accountDef = RefinedResourceSchema.getRefinedSchema(resourceType, prismContext)
+				.getDefaultRefinedDefinition(ShadowKindType.ACCOUNT);
+
+		PrismObject<ShadowType> will = provisioningService.getObject(ShadowType.class, ACCOUNT_WILL_OID, null, null, result);
+		will.setOid(null);
+		String willUid = (String) ShadowUtil.getAttributesContainer(will).getIdentifier().getRealValue();
+		PrismObject<ShadowType> willOtherCase = createResourceObjectWithIdentifier(will, StringUtils.swapCase(willUid));
+		PrismObject<ShadowType> unknown = createResourceObjectWithIdentifier(will, "nobody-knows-me");
+
+		// WHEN
+		Map<String, PrismObject<ShadowType>> shadows = shadowManager.lookupShadowsInRepository(
+				Arrays.asList(will, willOtherCase, unknown), accountDef, resourceType, result);
+
+		// THEN
+		result.computeStatus();
+		display("lookupShadowsInRepository result", result);
+		TestUtil.assertSuccess(result);
+		display("Found shadows", shadows.values());
+
+		assertEquals("Unexpected number of found shadows", 1, shadows.size());
+		String willKey = shadowManager.getShadowLookupKey(will, accountDef);
+		assertNotNull("No shadow for will", shadows.get(willKey));
+		assertEquals("Wrong shadow for will", ACCOUNT_WILL_OID, shadows.get(willKey).getOid());
+
+		String otherCaseKey = shadowManager.getShadowLookupKey(willOtherCase, accountDef);
+		if (getUidMatchingRule() == null) {
+			assertFalse("Shadow found for identifier in different case", shadows.containsKey(otherCaseKey));
+		} else {
+			assertEquals("Identifier in different case has different lookup key", willKey, otherCaseKey);
+		}
+		assertFalse("Shadow found for unknown identifier",
+				shadows.containsKey(shadowManager.getShadowLookupKey(unknown, accountDef)));
+
+		assertSteadyResource();
+	}
+
+	private PrismObject<ShadowType> createResourceObjectWithIdentifier(PrismObject<ShadowType> resourceObject,
+			String identifierValue) {
+		PrismObject<ShadowType> clone = resourceObject.clone();
+		ShadowUtil.getAttributesContainer(clone).getIdentifier().setRealValue(identifierValue);
+		return clone;
+	}
+
 	private <T extends ShadowType> void assertProtected(List<PrismObject<T>> shadows, int expectedNumberOfProtectedShadows) {
 		int actual = countProtected(shadows);
 		assertEquals("Unexpected number of protected shadows", expectedNumberOfProtectedShadows, actual);
@@ -3673,6 +3738,96 @@ public class TestDummy extends AbstractDummyTest {
 		assertSteadyResource();
 	}
 
+	/**
+	 * The task stores the sync token after every two changes. The first run is interrupted
+	 * while the third change is processed. The token stored at that time must already be
+	 * the token of the second change. The next run must continue with the fourth change,
+	 * no change may be lost or processed twice.
+	 */
+	@Test
+	public void test820LiveSyncCheckpoint() throws Exception {
+		final String TEST_NAME = "test820LiveSyncCheckpoint";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		final OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+		repoAddObjectFromFile(USER_ADMINISTRATOR_FILE, UserType.class, result);
+		repoAddObjectFromFile(TASK_LIVE_SYNC_FILE, TaskType.class, result);
+
+		dummyResource.setSyncStyle(DummySyncStyle.DUMB);
+		syncServiceMock.reset();
+
+		// Dry run to remember the current sync token
+		Task syncTask = taskManager.getTask(TASK_LIVE_SYNC_OID, result);
+		provisioningService.synchronize(RESOURCE_DUMMY_OID, ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType),
+				syncTask, result);
+		syncServiceMock.assertNoNotifyChange();
+		final Integer initialToken = getStoredSyncToken(result);
+		assertNotNull("No initial sync token", initialToken);
+
+		for (String username : LIVE_SYNC_CHECKPOINT_USERNAMES) {
+			DummyAccount newAccount = new DummyAccount(username);
+			newAccount.setEnabled(true);
+			dummyResource.addAccount(newAccount);
+		}
+
+		final List<String> seenUsernames = new ArrayList<String>();
+		final Holder<Integer> tokenAtThirdChange = new Holder<Integer>();
+		final Task interruptedTask = taskManager.getTask(TASK_LIVE_SYNC_OID, result);
+		syncServiceMock.setChangeChecker(new ObjectChecker<ResourceObjectShadowChangeDescription>() {
+			@Override
+			public void check(ResourceObjectShadowChangeDescription change) {
+				seenUsernames.add(change.getCurrentShadow().asObjectable().getName().getOrig().toLowerCase());
+				if (seenUsernames.size() == 3) {
+					try {
+						tokenAtThirdChange.setValue(getStoredSyncToken(result));
+					} catch (ObjectNotFoundException | SchemaException e) {
+						throw new SystemException(e.getMessage(), e);
+					}
+					// simulates suspending the task
+					((TaskQuartzImpl) interruptedTask).signalShutdown();
+				}
+			}
+		});
+
+		try {
+			// WHEN
+			provisioningService.synchronize(RESOURCE_DUMMY_OID, ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType),
+					interruptedTask, result);
+
+			// THEN
+			display("Usernames synchronized by interrupted run", seenUsernames);
+			assertEquals("Wrong number of changes in interrupted run", 3, seenUsernames.size());
+			assertEquals("Sync token was not stored after two changes", (Integer) (initialToken + 2), tokenAtThirdChange.getValue());
+			assertEquals("Wrong sync token after interrupted run", (Integer) (initialToken + 3), getStoredSyncToken(result));
+
+			// WHEN
+			provisioningService.synchronize(RESOURCE_DUMMY_OID, ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType),
+					taskManager.getTask(TASK_LIVE_SYNC_OID, result), result);
+
+		} finally {
+			syncServiceMock.setChangeChecker(null);
+		}
+
+		// THEN
+		result.computeStatus();
+		display("Synchronization result", result);
+		TestUtil.assertSuccess("Synchronization result is not OK", result);
+
+		display("Usernames synchronized", seenUsernames);
+		assertEquals("Changes were lost or replayed", Arrays.asList(LIVE_SYNC_CHECKPOINT_USERNAMES), seenUsernames);
+		assertEquals("Wrong sync token after resumed run", (Integer) (initialToken + 4), getStoredSyncToken(result));
+
+		assertSteadyResource();
+	}
+
+	private Integer getStoredSyncToken(OperationResult result) throws ObjectNotFoundException, SchemaException {
+		// read the task again, we need to see what is stored in the repository
+		Task task = taskManager.getTask(TASK_LIVE_SYNC_OID, result);
+		PrismProperty<Integer> tokenProperty = task.getExtensionProperty(SchemaConstants.SYNC_TOKEN);
+		return tokenProperty == null ? null : tokenProperty.getRealValue();
+	}
+
 	@Test
 	public void test901FailResourceNotFound() throws FileNotFoundException, JAXBException,
 			ObjectAlreadyExistsException, SchemaException, CommunicationException, ObjectNotFoundException,
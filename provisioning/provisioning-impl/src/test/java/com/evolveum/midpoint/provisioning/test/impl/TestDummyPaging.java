@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.test.impl;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.schema.CapabilityUtil;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.SchemaTestConstants;
+import com.evolveum.midpoint.test.IntegrationTestTools;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.PagedSearchCapabilityType;
+
+/**
+ * Almost the same as TestDummy but the dummy connector supports paged search. The resource
+ * returns at most two objects in one page, therefore all the searches in TestDummy need
+ * several pages to get all the accounts.
+ *
+ * @author Radovan Semancik
+ *
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+public class TestDummyPaging extends TestDummy {
+
+	public static final String TEST_DIR = "src/test/resources/impl/dummy-paging/";
+	public static final String RESOURCE_DUMMY_FILENAME = TEST_DIR + "resource-dummy.xml";
+
+	@Override
+	protected String getResourceDummyFilename() {
+		return RESOURCE_DUMMY_FILENAME;
+	}
+
+	@Test
+	public void test009PagedSearchCapability() throws Exception {
+		final String TEST_NAME = "test009PagedSearchCapability";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummyPaging.class.getName()
+				+ "." + TEST_NAME);
+
+		// WHEN
+		PrismObject<ResourceType> resource = provisioningService.getObject(ResourceType.class, RESOURCE_DUMMY_OID, null, null, result);
+
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		List<Object> nativeCapabilities = resource.asObjectable().getCapabilities().getNative().getAny();
+		PagedSearchCapabilityType capPaged = CapabilityUtil.getCapability(nativeCapabilities,
+				PagedSearchCapabilityType.class);
+		assertNotNull("No native paged search capability", capPaged);
+		assertTrue("Offset not supported", Boolean.TRUE.equals(capPaged.isOffsetSupported()));
+
+		assertSteadyResource();
+	}
+
+	/**
+	 * Offset and max size are passed to the connector. The requested window spans two pages
+	 * of the resource (page size is 2).
+	 */
+	@Test
+	public void test118SearchPagedOffsetAndMaxSize() throws Exception {
+		final String TEST_NAME = "test118SearchPagedOffsetAndMaxSize";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummyPaging.class.getName()
+				+ "." + TEST_NAME);
+		ObjectQuery query = IntegrationTestTools.createAllShadowsQuery(resourceType,
+				SchemaTestConstants.ICF_ACCOUNT_OBJECT_CLASS_LOCAL_NAME, prismContext);
+		List<String> allNames = getNames(provisioningService.searchObjects(ShadowType.class, query, null, result));
+		display("All accounts", allNames);
+		assertEquals("Wrong number of all accounts", 4, allNames.size());
+
+		query.setPaging(ObjectPaging.createPaging(1, 2));
+
+		// WHEN
+		List<PrismObject<ShadowType>> shadows = provisioningService.searchObjects(ShadowType.class,
+				query, null, result);
+
+		// THEN
+		result.computeStatus();
+		display("searchObjects result", result);
+		TestUtil.assertSuccess(result);
+
+		List<String> names = getNames(shadows);
+		display("Paged accounts", names);
+		assertEquals("Wrong paged accounts", allNames.subList(1, 3), names);
+		checkConsistency(shadows);
+
+		// WHEN (max size only, the last page is cut)
+		query.setPaging(ObjectPaging.createPaging(0, 3));
+		shadows = provisioningService.searchObjects(ShadowType.class, query, null, result);
+
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong accounts with max size", allNames.subList(0, 3), getNames(shadows));
+
+		// WHEN (offset at the last object)
+		query.setPaging(ObjectPaging.createPaging(3, 10));
+		shadows = provisioningService.searchObjects(ShadowType.class, query, null, result);
+
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong accounts at the end", allNames.subList(3, 4), getNames(shadows));
+
+		assertSteadyResource();
+	}
+
+	/**
+	 * Paging cookie belongs to the repository (OID of the last object). It must not be passed
+	 * to the connector as a paged results cookie.
+	 */
+	@Test
+	public void test119SearchPagedRepositoryCookieIgnored() throws Exception {
+		final String TEST_NAME = "test119SearchPagedRepositoryCookieIgnored";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummyPaging.class.getName()
+				+ "." + TEST_NAME);
+		ObjectQuery query = IntegrationTestTools.createAllShadowsQuery(resourceType,
+				SchemaTestConstants.ICF_ACCOUNT_OBJECT_CLASS_LOCAL_NAME, prismContext);
+		ObjectPaging paging = ObjectPaging.createEmptyPaging();
+		paging.setCookie(ACCOUNT_WILL_OID);
+		query.setPaging(paging);
+
+		// WHEN
+		List<PrismObject<ShadowType>> shadows = provisioningService.searchObjects(ShadowType.class,
+				query, null, result);
+
+		// THEN
+		result.computeStatus();
+		display("searchObjects result", result);
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong number of results", 4, shadows.size());
+		assertEquals("Paging cookie was changed", ACCOUNT_WILL_OID, paging.getCookie());
+
+		assertSteadyResource();
+	}
+
+	private List<String> getNames(List<PrismObject<ShadowType>> shadows) {
+		List<String> names = new ArrayList<String>();
+		for (PrismObject<ShadowType> shadow : shadows) {
+			names.add(shadow.asObjectable().getName().getOrig());
+		}
+		return names;
+	}
+}
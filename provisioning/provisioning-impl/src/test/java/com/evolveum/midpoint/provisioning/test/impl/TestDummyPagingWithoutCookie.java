@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.test.impl;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.schema.CapabilityUtil;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.SchemaTestConstants;
+import com.evolveum.midpoint.test.IntegrationTestTools;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.PagedSearchCapabilityType;
+
+/**
+ * Almost the same as TestDummyPaging but the dummy connector supports only the page size. It returns
+ * the first page without paged results cookie and it does not support offsets, so the rest of the
+ * objects has to be read without paging.
+ *
+ * @author Radovan Semancik
+ *
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+public class TestDummyPagingWithoutCookie extends TestDummy {
+
+	public static final String TEST_DIR = "src/test/resources/impl/dummy-paging-no-cookie/";
+	public static final String RESOURCE_DUMMY_FILENAME = TEST_DIR + "resource-dummy.xml";
+
+	@Override
+	protected String getResourceDummyFilename() {
+		return RESOURCE_DUMMY_FILENAME;
+	}
+
+	@Test
+	public void test009PagedSearchCapability() throws Exception {
+		final String TEST_NAME = "test009PagedSearchCapability";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummyPagingWithoutCookie.class.getName()
+				+ "." + TEST_NAME);
+
+		// WHEN
+		PrismObject<ResourceType> resource = provisioningService.getObject(ResourceType.class, RESOURCE_DUMMY_OID, null, null, result);
+
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		List<Object> nativeCapabilities = resource.asObjectable().getCapabilities().getNative().getAny();
+		PagedSearchCapabilityType capPaged = CapabilityUtil.getCapability(nativeCapabilities,
+				PagedSearchCapabilityType.class);
+		assertNotNull("No native paged search capability", capPaged);
+		assertFalse("Offset supported", Boolean.TRUE.equals(capPaged.isOffsetSupported()));
+
+		assertSteadyResource();
+	}
+
+	/**
+	 * The first page is full (page size is 2) but there is no cookie to continue. All the accounts
+	 * must be returned anyway, each of them just once.
+	 */
+	@Test
+	public void test118SearchAllWithoutCookie() throws Exception {
+		final String TEST_NAME = "test118SearchAllWithoutCookie";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummyPagingWithoutCookie.class.getName()
+				+ "." + TEST_NAME);
+		ObjectQuery query = IntegrationTestTools.createAllShadowsQuery(resourceType,
+				SchemaTestConstants.ICF_ACCOUNT_OBJECT_CLASS_LOCAL_NAME, prismContext);
+
+		// WHEN
+		List<PrismObject<ShadowType>> shadows = provisioningService.searchObjects(ShadowType.class,
+				query, null, result);
+
+		// THEN
+		result.computeStatus();
+		display("searchObjects result", result);
+		TestUtil.assertSuccess(result);
+
+		Set<String> names = new HashSet<String>();
+		for (PrismObject<ShadowType> shadow : shadows) {
+			names.add(shadow.asObjectable().getName().getOrig());
+		}
+		display("Accounts", names);
+		assertEquals("Wrong number of accounts", 4, shadows.size());
+		assertEquals("Duplicate accounts", 4, names.size());
+		checkConsistency(shadows);
+
+		assertSteadyResource();
+	}
+}
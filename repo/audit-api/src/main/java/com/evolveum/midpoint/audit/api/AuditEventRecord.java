@@ -35,6 +35,11 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
  *
  */
 public class AuditEventRecord implements DebugDumpable {
+
+	/**
+	 * Identifier assigned by the audit storage, filled only in records read back by {@link AuditService}.
+	 */
+	private Long repoId;
 	
 	/**
 	 * Timestamp in millis.
@@ -108,6 +113,14 @@ public class AuditEventRecord implements DebugDumpable {
 		this.eventStage = eventStage;
 	}
 
+	public Long getRepoId() {
+		return repoId;
+	}
+
+	public void setRepoId(Long repoId) {
+		this.repoId = repoId;
+	}
+
 	public Long getTimestamp() {
 		return timestamp;
 	}
@@ -279,6 +292,7 @@ public class AuditEventRecord implements DebugDumpable {
 	
 	public AuditEventRecord clone() {
 		AuditEventRecord clone = new AuditEventRecord();
+		clone.repoId = this.repoId;
 		clone.channel = this.channel;
 		clone.deltas = MiscSchemaUtil.cloneObjectDeltaOperationCollection(this.deltas);
 		clone.eventIdentifier = this.eventIdentifier;
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.audit.api;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.apache.commons.lang.Validate;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Writes audit records to CSV or JSON as they are passed by
+ * {@link AuditService#searchAuditIterative(AuditQuery, AuditResultHandler, OperationResult)}. Nothing is
+ * buffered except in the writer itself, therefore export of any number of records runs in constant memory.
+ * Deltas are not exported.
+ *
+ * @author lazyman
+ */
+public class AuditExporter implements AuditResultHandler {
+
+    private static final String[] COLUMNS = {"id", "timestamp", "eventIdentifier", "eventType", "eventStage",
+            "sessionIdentifier", "taskIdentifier", "taskOID", "hostIdentifier", "initiatorOid", "initiatorName",
+            "targetOid", "targetName", "targetType", "targetOwnerOid", "targetOwnerName", "channel", "outcome",
+            "parameter", "message", "result"};
+
+    private final Writer writer;
+    private final AuditExportFormat format;
+    private final SimpleDateFormat dateFormat;
+
+    private long count;
+
+    public AuditExporter(Writer writer, AuditExportFormat format) {
+        Validate.notNull(writer, "Writer must not be null.");
+        Validate.notNull(format, "Export format must not be null.");
+
+        this.writer = writer;
+        this.format = format;
+
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Exports all records matching the query.
+     *
+     * @return number of exported records
+     */
+    public static long export(AuditService auditService, AuditQuery query, Writer writer, AuditExportFormat format,
+                              OperationResult parentResult) throws IOException {
+        AuditExporter exporter = new AuditExporter(writer, format);
+        exporter.start();
+        auditService.searchAuditIterative(query, exporter, parentResult);
+        exporter.finish();
+
+        return exporter.getCount();
+    }
+
+    /**
+     * Writes header, has to be called before first record is handled.
+     */
+    public void start() throws IOException {
+        if (AuditExportFormat.JSON.equals(format)) {
+            writer.write('[');
+            return;
+        }
+
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Writes footer and flushes writer, has to be called after last record was handled.
+     */
+    public void finish() throws IOException {
+        if (AuditExportFormat.JSON.equals(format)) {
+            writer.write(count > 0 ? "\n]\n" : "]\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return number of exported records
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public boolean handle(AuditEventRecord record, OperationResult parentResult) {
+        try {
+            String[] values = createValues(record);
+            if (AuditExportFormat.JSON.equals(format)) {
+                writeJson(values);
+            } else {
+                writeCsv(values);
+            }
+            count++;
+        } catch (IOException ex) {
+            throw new SystemException("Couldn't export audit record " + record.getRepoId() + ": "
+                    + ex.getMessage(), ex);
+        }
+
+        return true;
+    }
+
+    private String[] createValues(AuditEventRecord record) {
+        PrismObject<? extends ObjectType> target = record.getTarget();
+
+        return new String[]{
+                toString(record.getRepoId()),
+                record.getTimestamp() != null ? dateFormat.format(new Date(record.getTimestamp())) : null,
+                record.getEventIdentifier(),
+                toString(record.getEventType()),
+                toString(record.getEventStage()),
+                record.getSessionIdentifier(),
+                record.getTaskIdentifier(),
+                record.getTaskOID(),
+                record.getHostIdentifier(),
+                getOid(record.getInitiator()),
+                getName(record.getInitiator()),
+                getOid(target),
+                getName(target),
+                target != null && target.getCompileTimeClass() != null ?
+                        ObjectTypes.getObjectType(target.getCompileTimeClass()).getTypeQName().getLocalPart() : null,
+                getOid(record.getTargetOwner()),
+                getName(record.getTargetOwner()),
+                record.getChannel(),
+                toString(record.getOutcome()),
+                record.getParameter(),
+                record.getMessage(),
+                record.getResult()
+        };
+    }
+
+    private void writeCsv(String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+
+            String value = values[i];
+            if (value == null) {
+                continue;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0) {
+                writer.write(value);
+                continue;
+            }
+
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+        writer.write('\n');
+    }
+
+    private void writeJson(String[] values) throws IOException {
+        writer.write(count > 0 ? ",\n{" : "\n{");
+
+        boolean first = true;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+
+            writer.write('"');
+            writer.write(COLUMNS[i]);
+            writer.write("\":");
+            writeJsonString(values[i]);
+        }
+        writer.write('}');
+    }
+
+    private void writeJsonString(String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+    private static String getOid(PrismObject<?> object) {
+        return object != null ? object.getOid() : null;
+    }
+
+    private static String getName(PrismObject<?> object) {
+        if (object == null) {
+            return null;
+        }
+
+        PolyString name = object.getPropertyRealValue(ObjectType.F_NAME, PolyString.class);
+        return name != null ? name.getOrig() : null;
+    }
+
+    private static String toString(Object object) {
+        return object != null ? object.toString() : null;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.audit.api;
+
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+
+import java.io.Serializable;
+
+/**
+ * Filter for audit records read by {@link AuditService}. All conditions which are set must match (they're
+ * joined by "and"), unset conditions match everything. Matching records are always ordered by timestamp and
+ * repository identifier, which makes keyset pagination possible: next page is requested by
+ * {@link #setAfter(AuditEventRecord)} with the last record of previous page, so the storage doesn't have to
+ * skip over records which were already read.
+ *
+ * @author lazyman
+ */
+public class AuditQuery implements Serializable, Cloneable {
+
+    /**
+     * Timestamp in millis (inclusive).
+     */
+    private Long from;
+    /**
+     * Timestamp in millis (exclusive).
+     */
+    private Long to;
+
+    private String initiatorOid;
+    private String targetOid;
+    private String targetOwnerOid;
+    private AuditEventType eventType;
+    private AuditEventStage eventStage;
+    private OperationResultStatus outcome;
+
+    //keyset of the last record of previous page
+    private Long afterTimestamp;
+    private Long afterRepoId;
+
+    private Integer maxSize;
+
+    public Long getFrom() {
+        return from;
+    }
+
+    public void setFrom(Long from) {
+        this.from = from;
+    }
+
+    public Long getTo() {
+        return to;
+    }
+
+    public void setTo(Long to) {
+        this.to = to;
+    }
+
+    public String getInitiatorOid() {
+        return initiatorOid;
+    }
+
+    public void setInitiatorOid(String initiatorOid) {
+        this.initiatorOid = initiatorOid;
+    }
+
+    public String getTargetOid() {
+        return targetOid;
+    }
+
+    public void setTargetOid(String targetOid) {
+        this.targetOid = targetOid;
+    }
+
+    public String getTargetOwnerOid() {
+        return targetOwnerOid;
+    }
+
+    public void setTargetOwnerOid(String targetOwnerOid) {
+        this.targetOwnerOid = targetOwnerOid;
+    }
+
+    public AuditEventType getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(AuditEventType eventType) {
+        this.eventType = eventType;
+    }
+
+    public AuditEventStage getEventStage() {
+        return eventStage;
+    }
+
+    public void setEventStage(AuditEventStage eventStage) {
+        this.eventStage = eventStage;
+    }
+
+    public OperationResultStatus getOutcome() {
+        return outcome;
+    }
+
+    public void setOutcome(OperationResultStatus outcome) {
+        this.outcome = outcome;
+    }
+
+    public Long getAfterTimestamp() {
+        return afterTimestamp;
+    }
+
+    public Long getAfterRepoId() {
+        return afterRepoId;
+    }
+
+    /**
+     * Only records ordered after the specified position are returned.
+     *
+     * @param timestamp timestamp of the last record which was already read
+     * @param repoId    repository identifier of the last record which was already read, may be null
+     */
+    public void setAfter(Long timestamp, Long repoId) {
+        this.afterTimestamp = timestamp;
+        this.afterRepoId = repoId;
+    }
+
+    /**
+     * Only records ordered after the specified record are returned.
+     *
+     * @param record last record which was already read (returned by {@link AuditService})
+     */
+    public void setAfter(AuditEventRecord record) {
+        if (record == null) {
+            setAfter(null, null);
+            return;
+        }
+
+        setAfter(record.getTimestamp(), record.getRepoId());
+    }
+
+    /**
+     * @return max. number of returned records, null means no limit
+     */
+    public Integer getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(Integer maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return true if record matches all conditions of this query (including keyset position)
+     */
+    public boolean matches(AuditEventRecord record) {
+        Long timestamp = record.getTimestamp();
+        if (from != null && (timestamp == null || timestamp < from)) {
+            return false;
+        }
+        if (to != null && (timestamp == null || timestamp >= to)) {
+            return false;
+        }
+        if (initiatorOid != null && (record.getInitiator() == null
+                || !initiatorOid.equals(record.getInitiator().getOid()))) {
+            return false;
+        }
+        if (targetOid != null && (record.getTarget() == null || !targetOid.equals(record.getTarget().getOid()))) {
+            return false;
+        }
+        if (targetOwnerOid != null && (record.getTargetOwner() == null
+                || !targetOwnerOid.equals(record.getTargetOwner().getOid()))) {
+            return false;
+        }
+        if (eventType != null && eventType != record.getEventType()) {
+            return false;
+        }
+        if (eventStage != null && eventStage != record.getEventStage()) {
+            return false;
+        }
+        if (outcome != null && outcome != record.getOutcome()) {
+            return false;
+        }
+
+        if (afterTimestamp == null) {
+            return true;
+        }
+        if (timestamp == null || timestamp < afterTimestamp) {
+            return false;
+        }
+        if (timestamp > afterTimestamp) {
+            return true;
+        }
+        return afterRepoId != null && record.getRepoId() != null && record.getRepoId() > afterRepoId;
+    }
+
+    @Override
+    public AuditQuery clone() {
+        AuditQuery clone = new AuditQuery();
+        clone.from = from;
+        clone.to = to;
+        clone.initiatorOid = initiatorOid;
+        clone.targetOid = targetOid;
+        clone.targetOwnerOid = targetOwnerOid;
+        clone.eventType = eventType;
+        clone.eventStage = eventStage;
+        clone.outcome = outcome;
+        clone.afterTimestamp = afterTimestamp;
+        clone.afterRepoId = afterRepoId;
+        clone.maxSize = maxSize;
+
+        return clone;
+    }
+
+    @Override
+    public String toString() {
+        return "AuditQuery[from=" + from + ", to=" + to + ", initiator=" + initiatorOid + ", target=" + targetOid
+                + ", targetOwner=" + targetOwnerOid + ", eventType=" + eventType + ", eventStage=" + eventStage
+                + ", outcome=" + outcome + ", after=" + afterTimestamp + "/" + afterRepoId
+                + ", maxSize=" + maxSize + "]";
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.audit.api;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+
+/**
+ * Handles audit records returned by {@link AuditService#searchAuditIterative(AuditQuery, AuditResultHandler,
+ * OperationResult)} one by one.
+ *
+ * @author lazyman
+ */
+public interface AuditResultHandler {
+
+    /**
+     * Handle a single record.
+     *
+     * @param record audit record to process
+     * @return true if the operation should proceed, false if it should stop
+     */
+    public boolean handle(AuditEventRecord record, OperationResult parentResult);
+}
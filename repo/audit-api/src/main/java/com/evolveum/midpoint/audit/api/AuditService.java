@@ -19,11 +19,17 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CleanupPolicyType;
 
+import java.util.List;
+
 /**
  * @author semancik
  */
 public interface AuditService {
 
+    public static final String CLASS_NAME_WITH_DOT = AuditService.class.getName() + ".";
+    public static final String SEARCH_AUDIT = CLASS_NAME_WITH_DOT + "searchAudit";
+    public static final String SEARCH_AUDIT_ITERATIVE = CLASS_NAME_WITH_DOT + "searchAuditIterative";
+
     public static final int MAX_MESSAGE_SIZE = 1024;
 
 	public void audit(AuditEventRecord record, Task task);
@@ -32,7 +38,34 @@ public interface AuditService {
      * Clean up audit records that are older than specified.
      *
      * @param policy Records will be deleted base on this policy.
+     * @param task   Task in which the cleanup runs, may be null. If present, long running cleanup stops
+     *               when the task is suspended and progress is reported to the task.
+     */
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult);
+
+    /**
+     * @return true if this service stores audit records and is able to search them
+     */
+    public boolean supportsRetrieval();
+
+    /**
+     * Returns audit records matching the query, ordered by timestamp and repository identifier. Deltas are
+     * not read, initiator, target and target owner contain only OID and name. Next page can be requested
+     * by setting {@link AuditQuery#setAfter(AuditEventRecord)} to the last returned record.
+     *
+     * @param query query with filters and paging, must not be null
+     * @return matching records, empty list if this service doesn't support retrieval
+     */
+    public List<AuditEventRecord> searchAudit(AuditQuery query, OperationResult parentResult);
+
+    /**
+     * Passes all audit records matching the query to the handler, in the same order and form as
+     * {@link #searchAudit(AuditQuery, OperationResult)}. Records are read in pages, so memory used by the
+     * search doesn't depend on the number of matching records.
+     *
+     * @param query   query with filters, must not be null
+     * @param handler handler for returned records, if it returns false the search stops
      */
-    public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult);
+    public void searchAuditIterative(AuditQuery query, AuditResultHandler handler, OperationResult parentResult);
 
 }
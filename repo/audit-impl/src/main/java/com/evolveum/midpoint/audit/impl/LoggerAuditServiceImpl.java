@@ -16,8 +16,10 @@
 package com.evolveum.midpoint.audit.impl;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import com.evolveum.midpoint.schema.result.OperationResult;
 
@@ -25,6 +27,8 @@ import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditQuery;
+import com.evolveum.midpoint.audit.api.AuditResultHandler;
 import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.common.LoggingConfigurationManager;
 import com.evolveum.midpoint.prism.PrismObject;
@@ -60,10 +64,26 @@ public class LoggerAuditServiceImpl implements AuditService {
 	}
 
     @Override
-    public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult) {
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult) {
         //nothing to cleanup
     }
 
+    @Override
+    public boolean supportsRetrieval() {
+        return false;
+    }
+
+    @Override
+    public List<AuditEventRecord> searchAudit(AuditQuery query, OperationResult parentResult) {
+        //records are only written to log
+        return new ArrayList<>();
+    }
+
+    @Override
+    public void searchAuditIterative(AuditQuery query, AuditResultHandler handler, OperationResult parentResult) {
+        //records are only written to log
+    }
+
     private void recordRecord(AuditEventRecord record) {
 		// FIXME: hardcoded auditing to a system log
 		if (AUDIT_LOGGER.isInfoEnabled()) {
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.api;
+
+/**
+ * Distributes cache invalidation events to registered listeners. Events come from repository change log,
+ * therefore also changes made by other nodes of the cluster are propagated.
+ * 
+ * @author semancik
+ */
+public interface CacheDispatcher {
+
+	void registerCacheListener(CacheInvalidationListener listener);
+
+	void unregisterCacheListener(CacheInvalidationListener listener);
+
+	/**
+	 * Returns true if repository change log was successfully read recently, i.e. cached objects
+	 * can be trusted without checking their version against the repository.
+	 */
+	boolean isCoherent();
+}
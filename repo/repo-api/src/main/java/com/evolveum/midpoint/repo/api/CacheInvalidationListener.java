@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.api;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Component that caches objects and wants to be notified when they are changed (also on other nodes
+ * of the cluster).
+ * 
+ * @author semancik
+ */
+public interface CacheInvalidationListener {
+
+	/**
+	 * Object was added, modified or deleted. Cached data related to the object should be dropped.
+	 */
+	<T extends ObjectType> void invalidate(Class<T> type, String oid);
+
+	/**
+	 * Changes could have been missed (e.g. change log was not readable for some time),
+	 * all cached data should be dropped.
+	 */
+	void invalidateAll();
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Condition that is checked by the repository on the current state of the object before a conditional
+ * modification is applied. The check and the modification are executed in the same transaction, with the
+ * object locked for update, therefore the combination behaves as an atomic "test-and-set" operation.
+ * 
+ * @author semancik
+ */
+public interface ModificationPrecondition<T extends ObjectType> {
+
+	/**
+	 * Returns true if the modification can be applied to the current state of the object.
+	 * The object must not be modified by the implementation.
+	 */
+	boolean holds(PrismObject<T> object);
+}
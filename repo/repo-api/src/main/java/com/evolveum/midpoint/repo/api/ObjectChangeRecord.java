@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.api;
+
+import java.io.Serializable;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Record from repository change log. It says that object was added, modified or deleted,
+ * it doesn't say what was changed.
+ * 
+ * @author semancik
+ */
+public class ObjectChangeRecord implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final long sequence;
+	private final Class<? extends ObjectType> type;
+	private final String oid;
+	private final long timestamp;
+
+	public ObjectChangeRecord(long sequence, Class<? extends ObjectType> type, String oid, long timestamp) {
+		this.sequence = sequence;
+		this.type = type;
+		this.oid = oid;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Sequence number of change, it is increasing (but not necessarily contiguous).
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public Class<? extends ObjectType> getType() {
+		return type;
+	}
+
+	public String getOid() {
+		return oid;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "ObjectChangeRecord(" + sequence + ": " + (type != null ? type.getSimpleName() : null) + " " + oid + ")";
+	}
+}
@@ -31,6 +31,7 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ConcurrencyException;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.PreconditionViolationException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CleanupPolicyType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
@@ -142,6 +143,9 @@ public interface RepositoryService {
     String SEARCH_OBJECTS_ITERATIVE = CLASS_NAME_WITH_DOT + "searchObjectsIterative";
     String CLEANUP_TASKS = CLASS_NAME_WITH_DOT + "cleanupTasks";
     String SEARCH_SHADOW_OWNER = CLASS_NAME_WITH_DOT + "searchShadowOwner";
+    String LIST_OBJECT_CHANGES = CLASS_NAME_WITH_DOT + "listObjectChanges";
+    String GET_LAST_OBJECT_CHANGE_SEQUENCE = CLASS_NAME_WITH_DOT + "getLastObjectChangeSequence";
+    String CLEANUP_OBJECT_CHANGES = CLASS_NAME_WITH_DOT + "cleanupObjectChanges";
 
 	/**
 	 * Returns object for provided OID.
@@ -359,6 +363,34 @@ public interface RepositoryService {
 	public <T extends ObjectType> void modifyObject(Class<T> type, String oid, Collection<? extends ItemDelta> modifications, OperationResult parentResult)
 			throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException;
 
+	/**
+	 * <p>Modifies object using relative change description, but only if the precondition holds.</p>
+	 * <p>
+	 * The precondition is evaluated on the current state of the object in the same transaction in which
+	 * the modifications are applied (the object is locked for update). If the precondition does not hold
+	 * nothing is modified and PreconditionViolationException is thrown. This can be used to implement
+	 * atomic "test-and-set" operations on objects shared by several cluster nodes (e.g. claiming a piece
+	 * of work stored in a task).
+	 * </p>
+	 *
+	 * @param precondition
+	 *            condition checked on the current state of the object; null means no condition
+	 * @param parentResult
+	 *            parent OperationResult (in/out)
+	 *
+	 * @throws ObjectNotFoundException
+	 *             specified object does not exist
+	 * @throws SchemaException
+	 *             resulting object would violate the schema
+	 * @throws ObjectAlreadyExistsException
+	 *             if resulting object would have name which already exists in another object of the same type
+	 * @throws PreconditionViolationException
+	 *             precondition does not hold for the current state of the object, nothing was modified
+	 */
+	public <T extends ObjectType> void modifyObject(Class<T> type, String oid, Collection<? extends ItemDelta> modifications,
+			ModificationPrecondition<T> precondition, OperationResult parentResult)
+			throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException, PreconditionViolationException;
+
 	/**
 	 * <p>Deletes object with specified OID.</p>
 	 * <p>
@@ -473,6 +505,39 @@ public interface RepositoryService {
 			Class<T> resourceObjectShadowType, OperationResult parentResult) throws ObjectNotFoundException,
             SchemaException;
 
+	/**
+	 * <p>Returns records from object change log with sequence number greater than specified one.</p>
+	 * <p>
+	 * Change log contains only changes of objects that are usually cached (roles, orgs, resources,
+	 * connectors, templates, policies, system configuration). It is used to keep caches on all
+	 * nodes of the cluster coherent.
+	 * </p>
+	 *
+	 * @param afterSequence
+	 *            records with sequence number greater than this value are returned
+	 * @param maxSize
+	 *            maximal number of returned records
+	 * @param parentResult
+	 *            parent OperationResult (in/out)
+	 * @return change records ordered by sequence number
+	 */
+	public List<ObjectChangeRecord> listObjectChanges(long afterSequence, int maxSize, OperationResult parentResult);
+
+	/**
+	 * Returns sequence number of the last record in object change log, 0 if the log is empty.
+	 */
+	public long getLastObjectChangeSequence(OperationResult parentResult);
+
+	/**
+	 * Removes object change log records older than specified time.
+	 *
+	 * @param olderThan
+	 *            timestamp in milliseconds
+	 * @param parentResult
+	 *            parent OperationResult (in/out)
+	 */
+	public void cleanupObjectChanges(long olderThan, OperationResult parentResult);
+
     /**
 	 * Provide repository run-time configuration and diagnostic information.
 	 */
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheInvalidationListener;
+import com.evolveum.midpoint.repo.api.ObjectChangeRecord;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Polls repository object change log and distributes invalidation events to registered caches.
+ * Repository itself is used as a transport, so changes made by other nodes of the cluster are
+ * propagated without any external messaging infrastructure.
+ * 
+ * Change log has its own sequence, so numbers of committed changes are contiguous except for
+ * transactions that were rolled back. A change with lower number may become visible later than
+ * a change with higher number (transactions commit in different order). Therefore every missing
+ * number below the last seen one is remembered as a gap and polls re-read the log from the oldest
+ * gap. A gap that is not filled within gap timeout is considered to be a rolled back transaction
+ * and it is forgotten. If there are too many gaps to track, all caches are flushed instead.
+ * 
+ * @author Radovan Semancik
+ */
+@Component
+public class CacheDispatcherImpl implements CacheDispatcher {
+
+	private static final Trace LOGGER = TraceManager.getTrace(CacheDispatcherImpl.class);
+
+	private static final String DOT_CLASS = CacheDispatcherImpl.class.getName() + ".";
+	private static final String OPERATION_POLL = DOT_CLASS + "poll";
+
+	private static final int BATCH_SIZE = 500;
+	private static final int MAX_GAPS = 10000;
+
+	@Autowired(required = false)
+	@Qualifier("repositoryService")
+	private RepositoryService repositoryService;
+
+	private final List<CacheInvalidationListener> listeners = new CopyOnWriteArrayList<CacheInvalidationListener>();
+
+	private long pollInterval;
+	private long retention;
+	private long gapTimeout;
+
+	private long lastSequence = -1;
+	/**
+	 * Sequence numbers that were skipped (not yet committed or rolled back) mapped to the time
+	 * when the gap was noticed.
+	 */
+	private final TreeMap<Long, Long> gaps = new TreeMap<Long, Long>();
+	private volatile long lastSuccessfulPoll = 0;
+	private long lastCleanup = 0;
+
+	private PollingThread thread;
+
+	public void setRepositoryService(RepositoryService repositoryService) {
+		this.repositoryService = repositoryService;
+	}
+
+	@Override
+	public void registerCacheListener(CacheInvalidationListener listener) {
+		if (!listeners.contains(listener)) {
+			listeners.add(listener);
+		}
+	}
+
+	@Override
+	public void unregisterCacheListener(CacheInvalidationListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public boolean isCoherent() {
+		if (thread == null || !thread.isAlive()) {
+			return false;
+		}
+		return System.currentTimeMillis() - lastSuccessfulPoll < 2 * pollInterval;
+	}
+
+	/**
+	 * Starts polling thread.
+	 * 
+	 * @param pollInterval time between two polls in milliseconds
+	 * @param retention how long are records kept in change log (milliseconds)
+	 * @param gapTimeout how long to wait for a change with skipped sequence number to commit (milliseconds),
+	 *                   it should be longer than the longest repository transaction
+	 */
+	public synchronized void start(long pollInterval, long retention, long gapTimeout) {
+		if (repositoryService == null) {
+			LOGGER.warn("Repository service is not available, cache invalidation events won't be distributed.");
+			return;
+		}
+		if (thread != null) {
+			return;
+		}
+
+		this.pollInterval = pollInterval;
+		setTimeouts(retention, gapTimeout);
+
+		thread = new PollingThread();
+		thread.setName("CacheDispatcherThread");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	synchronized void setTimeouts(long retention, long gapTimeout) {
+		this.retention = retention;
+		this.gapTimeout = gapTimeout;
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+
+		thread.canRun = false;
+		thread.interrupt();
+		thread = null;
+	}
+
+	/**
+	 * Reads new records from change log and notifies listeners.
+	 */
+	public synchronized void poll(OperationResult result) {
+		long now = System.currentTimeMillis();
+		if (lastSequence < 0 || (lastSuccessfulPoll != 0 && now - lastSuccessfulPoll > retention)) {
+			// first poll or change log records could have been removed meanwhile, we don't know what was changed
+			lastSequence = repositoryService.getLastObjectChangeSequence(result);
+			gaps.clear();
+			invalidateAll();
+			lastSuccessfulPoll = now;
+			return;
+		}
+
+		long from = gaps.isEmpty() ? lastSequence : gaps.firstKey() - 1;
+		List<ObjectChangeRecord> changes;
+		do {
+			changes = repositoryService.listObjectChanges(from, BATCH_SIZE, result);
+			for (ObjectChangeRecord change : changes) {
+				long sequence = change.getSequence();
+				from = sequence;
+				if (sequence <= lastSequence) {
+					if (gaps.remove(sequence) == null) {
+						// already processed
+						continue;
+					}
+					LOGGER.trace("Change {} committed late, filling the gap", sequence);
+				} else {
+					for (long missing = lastSequence + 1; missing < sequence && gaps.size() <= MAX_GAPS; missing++) {
+						gaps.put(missing, now);
+					}
+					lastSequence = sequence;
+				}
+
+				LOGGER.trace("Distributing {}", change);
+				invalidate(change);
+			}
+		} while (changes.size() == BATCH_SIZE);
+
+		if (gaps.size() > MAX_GAPS) {
+			LOGGER.warn("Too many ({}) missing change log records, invalidating all caches.", gaps.size());
+			gaps.clear();
+			invalidateAll();
+		}
+		expireGaps(now);
+		lastSuccessfulPoll = now;
+
+		if (now - lastCleanup > retention / 10) {
+			repositoryService.cleanupObjectChanges(now - retention, result);
+			lastCleanup = now;
+		}
+	}
+
+	private void expireGaps(long now) {
+		Iterator<Map.Entry<Long, Long>> iterator = gaps.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Long, Long> gap = iterator.next();
+			if (now - gap.getValue() >= gapTimeout) {
+				LOGGER.trace("Change {} didn't appear within {} ms, it was probably rolled back", gap.getKey(), gapTimeout);
+				iterator.remove();
+			}
+		}
+	}
+
+	private void invalidate(ObjectChangeRecord change) {
+		for (CacheInvalidationListener listener : listeners) {
+			try {
+				listener.invalidate(change.getType(), change.getOid());
+			} catch (RuntimeException ex) {
+				LoggingUtils.logException(LOGGER, "Cache listener {} failed to process {}", ex, listener, change);
+			}
+		}
+	}
+
+	private void invalidateAll() {
+		for (CacheInvalidationListener listener : listeners) {
+			try {
+				listener.invalidateAll();
+			} catch (RuntimeException ex) {
+				LoggingUtils.logException(LOGGER, "Cache listener {} failed to invalidate all entries", ex, listener);
+			}
+		}
+	}
+
+	private class PollingThread extends Thread {
+
+		private volatile boolean canRun = true;
+
+		@Override
+		public void run() {
+			LOGGER.info("Cache dispatcher thread starting, poll interval {} ms.", pollInterval);
+			while (canRun) {
+				OperationResult result = new OperationResult(OPERATION_POLL);
+				try {
+					poll(result);
+				} catch (Throwable t) {
+					LoggingUtils.logException(LOGGER, "Couldn't read object change log; continuing execution.", t);
+				}
+
+				try {
+					Thread.sleep(pollInterval);
+				} catch (InterruptedException e) {
+					LOGGER.trace("Cache dispatcher thread interrupted.");
+				}
+			}
+			LOGGER.info("Cache dispatcher thread stopping.");
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
+import com.evolveum.midpoint.common.monitor.InternalMonitor;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectTemplateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ValuePolicyType;
+
+/**
+ * Node-wide object cache shared by all threads. It is used only for read-mostly object types
+ * (roles, orgs, object templates, value policies, system configuration).
+ * 
+ * Cache is bounded, least recently used entries are evicted. Entries older than time to live
+ * are not returned blindly, their version is compared with the version stored in repository
+ * first (this also covers changes made by other nodes). If cache dispatcher is set and it is
+ * coherent (changes made by other nodes are being delivered), entries are trusted without check
+ * for a longer time (coherent time to live). Versions are still checked after that time, as a change
+ * committed by a very long transaction could have been missed by the dispatcher.
+ * 
+ * Cached objects are private copies, they are never returned to the callers directly.
+ * 
+ * @author Radovan Semancik
+ */
+public class GlobalObjectCache {
+
+	private static final Trace LOGGER = TraceManager.getTrace(GlobalObjectCache.class);
+
+	private static final Class<?>[] CACHEABLE_TYPES = {RoleType.class, OrgType.class, ObjectTemplateType.class,
+			ValuePolicyType.class, SystemConfigurationType.class};
+
+	private final int maxSize;
+	private final long timeToLive;
+	private final Map<String, Entry> cache;
+	private volatile CacheDispatcher cacheDispatcher;
+	private volatile long coherentTimeToLive;
+
+	/**
+	 * Incremented on every invalidation. Objects loaded before the last invalidation are not stored,
+	 * they could be older than the invalidated entry.
+	 */
+	private long invalidationCount = 0;
+
+	/**
+	 * @param maxSize maximal number of cached objects
+	 * @param timeToLive time in milliseconds after which entry version has to be checked against repository
+	 */
+	public GlobalObjectCache(int maxSize, long timeToLive) {
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+		this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() <= GlobalObjectCache.this.maxSize) {
+					return false;
+				}
+				LOGGER.trace("Global cache: EVICT {}", eldest.getKey());
+				getStatistics().recordEviction();
+				return true;
+			}
+		};
+	}
+
+	public static boolean isCacheable(Class<?> type) {
+		for (Class<?> cacheable : CACHEABLE_TYPES) {
+			if (cacheable.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if object of specified type can be cacheable, i.e. type is cacheable or it is a supertype
+	 * of cacheable type (e.g. ObjectType used for role).
+	 */
+	public static boolean mayBeCacheable(Class<?> type) {
+		for (Class<?> cacheable : CACHEABLE_TYPES) {
+			if (cacheable.isAssignableFrom(type) || type.isAssignableFrom(cacheable)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	public CacheDispatcher getCacheDispatcher() {
+		return cacheDispatcher;
+	}
+
+	/**
+	 * @param cacheDispatcher dispatcher that delivers changes made by other nodes
+	 * @param coherentTimeToLive time in milliseconds after which entry version has to be checked against
+	 *                           repository while the dispatcher is coherent
+	 */
+	public void setCacheDispatcher(CacheDispatcher cacheDispatcher, long coherentTimeToLive) {
+		this.cacheDispatcher = cacheDispatcher;
+		this.coherentTimeToLive = coherentTimeToLive;
+	}
+
+	public long getCoherentTimeToLive() {
+		return coherentTimeToLive;
+	}
+
+	public synchronized Entry get(String oid) {
+		return cache.get(oid);
+	}
+
+	/**
+	 * @param invalidationCount value of {@link #getInvalidationCount()} read before the object was loaded
+	 */
+	public synchronized <T extends ObjectType> void put(PrismObject<T> object, long invalidationCount) {
+		if (object.getOid() == null || !isCacheable(object.getCompileTimeClass())) {
+			return;
+		}
+		if (invalidationCount != this.invalidationCount) {
+			LOGGER.trace("Global cache: SKIP {}, cache was invalidated meanwhile", object.getOid());
+			return;
+		}
+		cache.put(object.getOid(), new Entry((PrismObject<ObjectType>) object.clone()));
+	}
+
+	public synchronized void remove(String oid) {
+		invalidationCount++;
+		cache.remove(oid);
+	}
+
+	public synchronized void clear() {
+		invalidationCount++;
+		cache.clear();
+	}
+
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	public boolean isFresh(Entry entry) {
+		long age = System.currentTimeMillis() - entry.getTimestamp();
+		CacheDispatcher dispatcher = cacheDispatcher;
+		if (dispatcher != null && dispatcher.isCoherent() && age < coherentTimeToLive) {
+			return true;
+		}
+		return age < timeToLive;
+	}
+
+	public CachingStatistics getStatistics() {
+		return InternalMonitor.getRepositoryCacheStats();
+	}
+
+	public static class Entry {
+
+		private final PrismObject<ObjectType> object;
+		private volatile long timestamp;
+
+		private Entry(PrismObject<ObjectType> object) {
+			this.object = object;
+			this.timestamp = System.currentTimeMillis();
+		}
+
+		/**
+		 * Returns cached object, it must not be modified. Use {@link PrismObject#clone()} before
+		 * returning it to the caller.
+		 */
+		public PrismObject<ObjectType> getObject() {
+			return object;
+		}
+
+		public String getVersion() {
+			return object.getVersion();
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * Marks entry as fresh after its version was checked.
+		 */
+		public void touch() {
+			timestamp = System.currentTimeMillis();
+		}
+	}
+}
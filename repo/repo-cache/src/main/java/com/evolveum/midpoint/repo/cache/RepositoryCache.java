@@ -27,7 +27,9 @@ import org.apache.commons.lang.Validate;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.ModificationPrecondition;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
+import com.evolveum.midpoint.repo.api.ObjectChangeRecord;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.RepositoryDiag;
@@ -37,6 +39,7 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ConcurrencyException;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.PreconditionViolationException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
@@ -62,6 +65,7 @@ public class RepositoryCache implements RepositoryService {
 	private static ThreadLocal<Integer> cacheCount = new ThreadLocal<Integer>();
 	
 	private RepositoryService repository;
+	private GlobalObjectCache globalCache;
 	
 	private static final Trace LOGGER = TraceManager.getTrace(RepositoryCache.class);
     
@@ -76,6 +80,17 @@ public class RepositoryCache implements RepositoryService {
         Validate.notNull(service, "Repository service must not be null.");
         this.repository = service;
     }
+
+    /**
+     * @param globalCache node-wide cache shared by all threads, may be null (global caching is disabled)
+     */
+    public void setGlobalCache(GlobalObjectCache globalCache) {
+        this.globalCache = globalCache;
+    }
+
+    public GlobalObjectCache getGlobalCache() {
+        return globalCache;
+    }
 	
 	private static Map<String,PrismObject<ObjectType>> getCache() {
 		return cacheInstance.get();
@@ -165,11 +180,55 @@ public class RepositoryCache implements RepositoryService {
 			}
 			LOGGER.trace("Cache: MISS {} ({})", oid, type.getSimpleName());
 		}
-		PrismObject<T> object = repository.getObject(type, oid, null, parentResult);
+		if (globalCache == null || !GlobalObjectCache.isCacheable(type)) {
+			PrismObject<T> object = repository.getObject(type, oid, null, parentResult);
+			cacheObject(cache, object);
+			return object;
+		}
+
+		PrismObject<T> object = getObjectFromGlobalCache(type, oid, parentResult);
+		if (object == null) {
+			long invalidationCount = globalCache.getInvalidationCount();
+			object = repository.getObject(type, oid, null, parentResult);
+			globalCache.put(object, invalidationCount);
+		}
 		cacheObject(cache, object);
 		return object;
 	}
 
+	private <T extends ObjectType> PrismObject<T> getObjectFromGlobalCache(Class<T> type, String oid,
+			OperationResult parentResult) throws SchemaException {
+		globalCache.getStatistics().recordRequest();
+
+		GlobalObjectCache.Entry entry = globalCache.get(oid);
+		if (entry == null || !type.isAssignableFrom(entry.getObject().getCompileTimeClass())) {
+			LOGGER.trace("Global cache: MISS {} ({})", oid, type.getSimpleName());
+			globalCache.getStatistics().recordMiss();
+			return null;
+		}
+
+		if (!globalCache.isFresh(entry)) {
+			String version;
+			try {
+				version = repository.getVersion(type, oid, parentResult);
+			} catch (ObjectNotFoundException ex) {
+				version = null;
+			}
+			if (version == null || !version.equals(entry.getVersion())) {
+				LOGGER.trace("Global cache: STALE {} ({}), version {} in repository, {} in cache",
+						new Object[]{oid, type.getSimpleName(), version, entry.getVersion()});
+				globalCache.remove(oid);
+				globalCache.getStatistics().recordMiss();
+				return null;
+			}
+			entry.touch();
+		}
+
+		LOGGER.trace("Global cache: HIT {} ({})", oid, type.getSimpleName());
+		globalCache.getStatistics().recordHit();
+		return (PrismObject<T>) entry.getObject().clone();
+	}
+
 	private boolean isCacheable(Class<?> type) {
 		if (type.equals(TaskType.class)) {
 			return false;
@@ -192,6 +251,7 @@ public class RepositoryCache implements RepositoryService {
 			// Invalidate the cache entry if it happens to be there
 			cache.remove(oid);
 		}
+		invalidateGlobalCache(object.getCompileTimeClass(), oid);
 		return oid;
 	}
 	
@@ -199,6 +259,7 @@ public class RepositoryCache implements RepositoryService {
 	public <T extends ObjectType> List<PrismObject<T>> searchObjects(Class<T> type, ObjectQuery query, 
 			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult) throws SchemaException {
 		// Cannot satisfy from cache, pass down to repository
+		long invalidationCount = globalCache != null ? globalCache.getInvalidationCount() : 0;
 		List<PrismObject<T>> objects = repository.searchObjects(type, query, options, parentResult);
 		Map<String, PrismObject<ObjectType>> cache = getCache();
 		if (cache != null && options == null) {
@@ -206,6 +267,11 @@ public class RepositoryCache implements RepositoryService {
 				cacheObject(cache, object);
 			}
 		}
+		if (globalCache != null && options == null && GlobalObjectCache.isCacheable(type)) {
+			for (PrismObject<T> object : objects) {
+				globalCache.put(object, invalidationCount);
+			}
+		}
 		return objects;
 	}
 	
@@ -242,6 +308,24 @@ public class RepositoryCache implements RepositoryService {
 		if (cache != null) {
 			cache.remove(oid);
 		}
+		invalidateGlobalCache(type, oid);
+	}
+
+	@Override
+	public <T extends ObjectType> void modifyObject(Class<T> type, String oid, Collection<? extends ItemDelta> modifications,
+			ModificationPrecondition<T> precondition, OperationResult parentResult)
+			throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException, PreconditionViolationException {
+		try {
+			repository.modifyObject(type, oid, modifications, precondition, parentResult);
+		} finally {
+			// the precondition was evaluated on the current state of the object, which can differ
+			// from the cached one - so the cached copy is dropped even if nothing was modified
+			Map<String, PrismObject<ObjectType>> cache = getCache();
+			if (cache != null) {
+				cache.remove(oid);
+			}
+			invalidateGlobalCache(type, oid);
+		}
 	}
 
 	@Override
@@ -252,6 +336,7 @@ public class RepositoryCache implements RepositoryService {
 		if (cache != null) {
 			cache.remove(oid);
 		}
+		invalidateGlobalCache(type, oid);
 	}
 	
 	@Override
@@ -305,9 +390,34 @@ public class RepositoryCache implements RepositoryService {
 		}
 	}
 
+	/**
+	 * Only objects which can be in global cache are invalidated, other changes (e.g. users and shadows)
+	 * don't increase invalidation count of global cache.
+	 */
+	private void invalidateGlobalCache(Class<?> type, String oid) {
+		if (globalCache != null && (type == null || GlobalObjectCache.mayBeCacheable(type))) {
+			globalCache.remove(oid);
+		}
+	}
+
 	@Override
 	public boolean isAnySubordinate(String upperOrgOid, Collection<String> lowerObjectOids)
 			throws SchemaException {
 		return repository.isAnySubordinate(upperOrgOid, lowerObjectOids);
 	}
+
+	@Override
+	public List<ObjectChangeRecord> listObjectChanges(long afterSequence, int maxSize, OperationResult parentResult) {
+		return repository.listObjectChanges(afterSequence, maxSize, parentResult);
+	}
+
+	@Override
+	public long getLastObjectChangeSequence(OperationResult parentResult) {
+		return repository.getLastObjectChangeSequence(parentResult);
+	}
+
+	@Override
+	public void cleanupObjectChanges(long olderThan, OperationResult parentResult) {
+		repository.cleanupObjectChanges(olderThan, parentResult);
+	}
 }
@@ -16,22 +16,116 @@
 
 package com.evolveum.midpoint.repo.cache;
 
+import com.evolveum.midpoint.repo.api.CacheInvalidationListener;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactory;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * @author lazyman
  */
 public class RepositoryCacheFactory implements RepositoryServiceFactory {
 
+    public static final String PROPERTY_GLOBAL_CACHE_ENABLED = "globalCacheEnabled";
+    public static final String PROPERTY_GLOBAL_CACHE_MAX_SIZE = "globalCacheMaxSize";
+    public static final String PROPERTY_GLOBAL_CACHE_TIME_TO_LIVE = "globalCacheTimeToLive";
+    public static final String PROPERTY_CACHE_INVALIDATION_ENABLED = "cacheInvalidationEnabled";
+    public static final String PROPERTY_CACHE_INVALIDATION_POLL_INTERVAL = "cacheInvalidationPollInterval";
+    public static final String PROPERTY_OBJECT_CHANGE_RETENTION = "objectChangeRetention";
+    public static final String PROPERTY_CACHE_INVALIDATION_GAP_TIMEOUT = "cacheInvalidationGapTimeout";
+    public static final String PROPERTY_GLOBAL_CACHE_COHERENT_TIME_TO_LIVE = "globalCacheCoherentTimeToLive";
+
+    private static final int DEFAULT_GLOBAL_CACHE_MAX_SIZE = 10000;
+    private static final long DEFAULT_GLOBAL_CACHE_TIME_TO_LIVE = 60 * 1000;
+    private static final long DEFAULT_CACHE_INVALIDATION_POLL_INTERVAL = 1000;
+    private static final long DEFAULT_OBJECT_CHANGE_RETENTION = 24 * 60 * 60 * 1000;
+    private static final long DEFAULT_CACHE_INVALIDATION_GAP_TIMEOUT = 10 * 60 * 1000;
+    private static final long DEFAULT_GLOBAL_CACHE_COHERENT_TIME_TO_LIVE = 10 * 60 * 1000;
+
+    @Autowired(required = false)
+    private CacheDispatcherImpl cacheDispatcher;
+
+    private GlobalObjectCache globalCache;
+    private CacheInvalidationListener globalCacheListener;
+
     @Override
     public void destroy() throws RepositoryServiceFactoryException {
+        if (cacheDispatcher != null) {
+            if (globalCacheListener != null) {
+                cacheDispatcher.unregisterCacheListener(globalCacheListener);
+                globalCacheListener = null;
+            }
+            cacheDispatcher.stop();
+        }
+        if (globalCache != null) {
+            globalCache.clear();
+        }
     }
 
+    /**
+     * Global cache is disabled by default. Without cache invalidation entries changed by other cluster node
+     * can be returned until their time to live expires, so cache invalidation should be enabled together
+     * with global cache in clustered deployment.
+     * <p/>
+     * Global cache is configured by properties from repository configuration. Time to live is in milliseconds
+     * (default one minute); younger global cache hits are returned without repository access, version of older
+     * ones is checked against repository. Value 0 means that version of every hit is checked.
+     * <p/>
+     * If cache invalidation is enabled (it is disabled by default), object change log is polled (interval
+     * in milliseconds) and caches registered in {@link CacheDispatcherImpl} are invalidated also when object
+     * was changed by other node. While the dispatcher is up to date, global cache entries are trusted without
+     * version check for the coherent time to live.
+     */
     @Override
     public void init(Configuration configuration) throws RepositoryServiceFactoryException {
+        if (configuration != null && configuration.getBoolean(PROPERTY_GLOBAL_CACHE_ENABLED, false)) {
+            int maxSize = configuration.getInt(PROPERTY_GLOBAL_CACHE_MAX_SIZE, DEFAULT_GLOBAL_CACHE_MAX_SIZE);
+            long timeToLive = configuration.getLong(PROPERTY_GLOBAL_CACHE_TIME_TO_LIVE,
+                    DEFAULT_GLOBAL_CACHE_TIME_TO_LIVE);
+            globalCache = new GlobalObjectCache(maxSize, timeToLive);
+        } else {
+            globalCache = null;
+        }
+
+        if (cacheDispatcher == null || configuration == null
+                || !configuration.getBoolean(PROPERTY_CACHE_INVALIDATION_ENABLED, false)) {
+            return;
+        }
+
+        if (globalCache != null) {
+            globalCacheListener = createGlobalCacheListener(globalCache);
+            cacheDispatcher.registerCacheListener(globalCacheListener);
+            long coherentTimeToLive = configuration.getLong(PROPERTY_GLOBAL_CACHE_COHERENT_TIME_TO_LIVE,
+                    DEFAULT_GLOBAL_CACHE_COHERENT_TIME_TO_LIVE);
+            globalCache.setCacheDispatcher(cacheDispatcher, coherentTimeToLive);
+        }
+
+        long pollInterval = configuration.getLong(PROPERTY_CACHE_INVALIDATION_POLL_INTERVAL,
+                DEFAULT_CACHE_INVALIDATION_POLL_INTERVAL);
+        long retention = configuration.getLong(PROPERTY_OBJECT_CHANGE_RETENTION, DEFAULT_OBJECT_CHANGE_RETENTION);
+        long gapTimeout = configuration.getLong(PROPERTY_CACHE_INVALIDATION_GAP_TIMEOUT,
+                DEFAULT_CACHE_INVALIDATION_GAP_TIMEOUT);
+        cacheDispatcher.start(pollInterval, retention, gapTimeout);
+    }
+
+    private CacheInvalidationListener createGlobalCacheListener(final GlobalObjectCache cache) {
+        return new CacheInvalidationListener() {
+
+            @Override
+            public <T extends ObjectType> void invalidate(Class<T> type, String oid) {
+                if (GlobalObjectCache.mayBeCacheable(type)) {
+                    cache.remove(oid);
+                }
+            }
+
+            @Override
+            public void invalidateAll() {
+                cache.clear();
+            }
+        };
     }
 
     @Override
@@ -47,6 +141,8 @@ public class RepositoryCacheFactory implements RepositoryServiceFactory {
     @Override
     public RepositoryService getRepositoryService() throws RepositoryServiceFactoryException {
         RepositoryCache.init();
-        return new RepositoryCache();
+        RepositoryCache cache = new RepositoryCache();
+        cache.setGlobalCache(globalCache);
+        return cache;
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.api.CacheInvalidationListener;
+import com.evolveum.midpoint.repo.api.ObjectChangeRecord;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+
+/**
+ * Tests how {@link CacheDispatcherImpl} reads the change log, especially changes that are committed
+ * in different order than their sequence numbers.
+ * 
+ * @author semancik
+ */
+public class CacheDispatcherImplTest {
+
+	private static final long RETENTION = 60000;
+	private static final long GAP_TIMEOUT = 60000;
+
+	/**
+	 * Committed (visible) change log records.
+	 */
+	private TreeMap<Long, ObjectChangeRecord> changeLog;
+	private List<String> invalidated;
+	private int invalidatedAll;
+	private CacheDispatcherImpl dispatcher;
+
+	@BeforeMethod
+	public void setup() {
+		changeLog = new TreeMap<Long, ObjectChangeRecord>();
+		invalidated = new ArrayList<String>();
+		invalidatedAll = 0;
+
+		dispatcher = new CacheDispatcherImpl();
+		dispatcher.setRepositoryService(createRepositoryService());
+		dispatcher.setTimeouts(RETENTION, GAP_TIMEOUT);
+		dispatcher.registerCacheListener(new CacheInvalidationListener() {
+
+			@Override
+			public <T extends ObjectType> void invalidate(Class<T> type, String oid) {
+				invalidated.add(oid);
+			}
+
+			@Override
+			public void invalidateAll() {
+				invalidatedAll++;
+			}
+		});
+	}
+
+	@Test
+	public void test100InitialPoll() throws Exception {
+		commit(1, "role1");
+
+		poll();
+
+		assertEquals("Wrong number of full invalidations", 1, invalidatedAll);
+		assertInvalidated();
+	}
+
+	@Test
+	public void test200LowerSequenceCommittedLate() throws Exception {
+		poll();
+
+		// change 2 is still in progress
+		commit(1, "role1");
+		commit(3, "role3");
+		poll();
+		assertInvalidated("role1", "role3");
+
+		commit(4, "role4");
+		poll();
+		assertInvalidated("role4");
+
+		// change 2 commits after changes with higher numbers were processed
+		commit(2, "role2");
+		poll();
+		assertInvalidated("role2");
+
+		poll();
+		assertInvalidated();
+		assertEquals("Wrong number of full invalidations", 1, invalidatedAll);
+	}
+
+	@Test
+	public void test210LateCommitFarBelowLastSequence() throws Exception {
+		poll();
+
+		// change 2 is in progress while many other changes are committed
+		commit(1, "role1");
+		for (long sequence = 3; sequence <= 20003; sequence++) {
+			commit(sequence, "role" + sequence);
+		}
+		poll();
+		assertEquals("Wrong number of invalidated objects", 20002, invalidated.size());
+		invalidated.clear();
+
+		commit(2, "role2");
+		poll();
+		assertInvalidated("role2");
+		assertEquals("Wrong number of full invalidations", 1, invalidatedAll);
+	}
+
+	@Test
+	public void test300RolledBackChangeForgotten() throws Exception {
+		dispatcher.setTimeouts(RETENTION, 0);
+		poll();
+
+		// change 2 was rolled back
+		commit(1, "role1");
+		commit(3, "role3");
+		poll();
+		assertInvalidated("role1", "role3");
+
+		commit(4, "role4");
+		poll();
+		assertInvalidated("role4");
+		assertEquals("Wrong number of full invalidations", 1, invalidatedAll);
+	}
+
+	private void commit(long sequence, String oid) {
+		changeLog.put(sequence, new ObjectChangeRecord(sequence, RoleType.class, oid, System.currentTimeMillis()));
+	}
+
+	private void poll() {
+		dispatcher.poll(new OperationResult(CacheDispatcherImplTest.class.getName() + ".poll"));
+	}
+
+	private void assertInvalidated(String... oids) {
+		assertEquals("Wrong invalidated objects", Arrays.asList(oids), invalidated);
+		invalidated.clear();
+	}
+
+	private RepositoryService createRepositoryService() {
+		return (RepositoryService) Proxy.newProxyInstance(RepositoryService.class.getClassLoader(),
+				new Class<?>[]{RepositoryService.class}, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if ("getLastObjectChangeSequence".equals(name)) {
+					return changeLog.isEmpty() ? 0L : changeLog.lastKey();
+				} else if ("listObjectChanges".equals(name)) {
+					long afterSequence = (Long) args[0];
+					int maxSize = (Integer) args[1];
+					List<ObjectChangeRecord> records = new ArrayList<ObjectChangeRecord>();
+					for (ObjectChangeRecord record : changeLog.tailMap(afterSequence, false).values()) {
+						if (records.size() >= maxSize) {
+							break;
+						}
+						records.add(record);
+					}
+					return records;
+				} else if ("cleanupObjectChanges".equals(name)) {
+					return null;
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+}
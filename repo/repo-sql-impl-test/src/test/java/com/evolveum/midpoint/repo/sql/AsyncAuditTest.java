@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditEventStage;
+import com.evolveum.midpoint.audit.api.AuditEventType;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.data.audit.RObjectDeltaOperation;
+import com.evolveum.midpoint.repo.sql.util.SimpleTaskAdapter;
+import com.evolveum.midpoint.schema.ObjectDeltaOperation;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.exception.LockAcquisitionException;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author lazyman
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class AsyncAuditTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AsyncAuditTest.class);
+
+    private static final int RECORDS = 250;
+    private static final long WAIT_TIMEOUT = 30000L;
+    private static final File JOURNAL = new File("./target/audit-journal-test.dat");
+    private static final File JOURNAL_REPLAY = new File(JOURNAL.getPath() + ".replay");
+
+    @Test
+    public void test100AsyncAudit() throws Exception {
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        config.setAuditAsync(true);
+        try {
+            long count = countRecords();
+            for (int i = 0; i < RECORDS; i++) {
+                AuditEventRecord record = new AuditEventRecord(AuditEventType.ADD_OBJECT, AuditEventStage.EXECUTION);
+                record.setTimestamp(System.currentTimeMillis());
+                record.setMessage("async " + i);
+                auditService.audit(record, new SimpleTaskAdapter());
+            }
+
+            long start = System.currentTimeMillis();
+            while (countRecords() < count + RECORDS && System.currentTimeMillis() - start < WAIT_TIMEOUT) {
+                Thread.sleep(100);
+            }
+            LOGGER.info("Audit records written in {} ms.", new Object[]{System.currentTimeMillis() - start});
+
+            AssertJUnit.assertEquals(count + RECORDS, countRecords());
+        } finally {
+            config.setAuditAsync(false);
+        }
+    }
+
+    /**
+     * Writer is blocked while writing the first record, so the second one fills the queue and the others
+     * are spilled to the journal. Journal is written when the writer becomes idle and then deleted.
+     */
+    @Test
+    public void test200SpillToJournal() throws Exception {
+        deleteJournal();
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        SqlAuditServiceImpl blockingService = new SqlAuditServiceImpl(repositoryService.getRepositoryFactory()) {
+
+            @Override
+            void auditBatch(List<RAuditEventRecord> records) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                super.auditBatch(records);
+            }
+        };
+
+        AsyncAuditWriter writer = createSpillingWriter(blockingService);
+        writer.start();
+        try {
+            long count = countRecords();
+            AssertJUnit.assertTrue(writer.submit(createRecord("spill 0")));
+            AssertJUnit.assertTrue("Writer didn't start writing", writing.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+
+            for (int i = 1; i < 4; i++) {
+                AssertJUnit.assertTrue(writer.submit(createRecord("spill " + i)));
+            }
+            AssertJUnit.assertEquals("Wrong number of spilled records", 2, writer.getSpilledCount());
+            AssertJUnit.assertTrue("Journal wasn't created", JOURNAL.exists());
+
+            release.countDown();
+            waitForJournal(writer, 4);
+
+            AssertJUnit.assertEquals(4, writer.getWrittenCount());
+            AssertJUnit.assertEquals(0, writer.getDroppedCount());
+            AssertJUnit.assertEquals(count + 4, countRecords());
+            for (int i = 0; i < 4; i++) {
+                AssertJUnit.assertEquals("Wrong number of records 'spill " + i + "'", 1, countRecords("spill " + i));
+            }
+        } finally {
+            release.countDown();
+            writer.stop(WAIT_TIMEOUT);
+            deleteJournal();
+        }
+    }
+
+    /**
+     * Batch which couldn't be written goes to the journal and it's replayed later.
+     */
+    @Test
+    public void test210FailedBatchToJournal() throws Exception {
+        deleteJournal();
+        final AtomicBoolean failed = new AtomicBoolean();
+        SqlAuditServiceImpl failingService = new SqlAuditServiceImpl(repositoryService.getRepositoryFactory()) {
+
+            @Override
+            void auditBatch(List<RAuditEventRecord> records) {
+                if (failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("Simulated audit failure");
+                }
+                super.auditBatch(records);
+            }
+        };
+
+        AsyncAuditWriter writer = createSpillingWriter(failingService);
+        writer.start();
+        try {
+            long count = countRecords();
+            AssertJUnit.assertTrue(writer.submit(createRecord("failed 0")));
+            waitForJournal(writer, 1);
+
+            AssertJUnit.assertTrue("Batch didn't fail", failed.get());
+            AssertJUnit.assertEquals("Failed record wasn't spilled", 1, writer.getSpilledCount());
+            AssertJUnit.assertEquals(1, writer.getWrittenCount());
+            AssertJUnit.assertEquals(count + 1, countRecords());
+            AssertJUnit.assertEquals(1, countRecords("failed 0"));
+        } finally {
+            writer.stop(WAIT_TIMEOUT);
+            deleteJournal();
+        }
+    }
+
+    /**
+     * Transaction fails after the record was saved (record and its deltas got id), the retry must save
+     * deltas with the id of the record from the successful attempt.
+     */
+    @Test
+    public void test220RetryAfterSave() throws Exception {
+        final AtomicBoolean failed = new AtomicBoolean();
+        SqlAuditServiceImpl failingService = new SqlAuditServiceImpl(repositoryService.getRepositoryFactory()) {
+
+            @Override
+            void saveRecord(Session session, RAuditEventRecord record) {
+                super.saveRecord(session, record);
+                session.flush();
+                if (failed.compareAndSet(false, true)) {
+                    throw new LockAcquisitionException("Simulated deadlock", new SQLException("deadlock", "40001"));
+                }
+            }
+        };
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(failingService);
+
+        RAuditEventRecord record = createRecord("retry 0", 2);
+        failingService.auditBatch(Arrays.asList(record));
+
+        AssertJUnit.assertTrue("Transaction didn't fail", failed.get());
+        AssertJUnit.assertEquals(1, countRecords("retry 0"));
+        AssertJUnit.assertEquals("Wrong number of deltas of the record", 2, countDeltas("retry 0"));
+    }
+
+    /**
+     * Journal with incomplete last record (e.g. node crashed while appending it). Complete record is written,
+     * the incomplete one is kept in the journal.
+     */
+    @Test
+    public void test230UnreadableJournal() throws Exception {
+        deleteJournal();
+        SqlAuditServiceImpl service = new SqlAuditServiceImpl(repositoryService.getRepositoryFactory());
+        AsyncAuditWriter writer = createSpillingWriter(service);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(createRecord("journal 0", 0));
+        oos.close();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(JOURNAL))) {
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            // incomplete record
+            out.writeInt(100);
+            out.write(new byte[10]);
+        }
+
+        long count = countRecords();
+        writer.start();
+        try {
+            long start = System.currentTimeMillis();
+            while ((writer.getWrittenCount() < 1 || JOURNAL_REPLAY.length() != 14)
+                    && System.currentTimeMillis() - start < WAIT_TIMEOUT) {
+                Thread.sleep(100);
+            }
+
+            AssertJUnit.assertEquals(1, writer.getWrittenCount());
+            AssertJUnit.assertEquals(count + 1, countRecords());
+            AssertJUnit.assertEquals(1, countRecords("journal 0"));
+            AssertJUnit.assertTrue("Unread part of journal wasn't kept", JOURNAL_REPLAY.exists());
+            AssertJUnit.assertEquals("Wrong size of unread part of journal", 14, JOURNAL_REPLAY.length());
+        } finally {
+            writer.stop(WAIT_TIMEOUT);
+            deleteJournal();
+        }
+    }
+
+    private AsyncAuditWriter createSpillingWriter(SqlAuditServiceImpl service) {
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(service);
+
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int queueSize = config.getAuditQueueSize();
+        int batchSize = config.getAuditBatchSize();
+        AuditOverflowPolicy policy = config.getAuditOverflowPolicy();
+        String journal = config.getAuditJournalFile();
+        try {
+            config.setAuditQueueSize(1);
+            config.setAuditBatchSize(2);
+            config.setAuditOverflowPolicy(AuditOverflowPolicy.SPILL);
+            config.setAuditJournalFile(JOURNAL.getPath());
+            return new AsyncAuditWriter(service, config);
+        } finally {
+            config.setAuditQueueSize(queueSize);
+            config.setAuditBatchSize(batchSize);
+            config.setAuditOverflowPolicy(policy);
+            config.setAuditJournalFile(journal);
+        }
+    }
+
+    private RAuditEventRecord createRecord(String message) throws Exception {
+        return createRecord(message, 0);
+    }
+
+    private RAuditEventRecord createRecord(String message, int deltas) throws Exception {
+        AuditEventRecord record = new AuditEventRecord(AuditEventType.ADD_OBJECT, AuditEventStage.EXECUTION);
+        record.setTimestamp(System.currentTimeMillis());
+        record.setMessage(message);
+        for (int i = 0; i < deltas; i++) {
+            record.addDelta(createObjectDeltaOperation(message + " " + i));
+        }
+        return RAuditEventRecord.toRepo(record, prismContext);
+    }
+
+    private ObjectDeltaOperation createObjectDeltaOperation(String userName) throws Exception {
+        ObjectDeltaOperation delta = new ObjectDeltaOperation();
+        delta.setExecutionResult(new OperationResult("retry"));
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        PolyStringType name = new PolyStringType();
+        name.setOrig(userName);
+        name.setNorm(userName);
+        user.setName(name);
+
+        delta.setObjectDelta(ObjectDelta.createAddDelta(user.asPrismObject()));
+
+        return delta;
+    }
+
+    private void waitForJournal(AsyncAuditWriter writer, long expectedWritten) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while ((writer.getWrittenCount() < expectedWritten || JOURNAL.exists() || JOURNAL_REPLAY.exists())
+                && System.currentTimeMillis() - start < WAIT_TIMEOUT) {
+            Thread.sleep(100);
+        }
+        AssertJUnit.assertFalse("Journal wasn't deleted", JOURNAL.exists());
+        AssertJUnit.assertFalse("Replayed journal wasn't deleted", JOURNAL_REPLAY.exists());
+    }
+
+    private void deleteJournal() {
+        JOURNAL.delete();
+        JOURNAL_REPLAY.delete();
+    }
+
+    private long countRecords(String message) {
+        Session session = open();
+        try {
+            Query query = session.createQuery("select count(*) from " + RAuditEventRecord.class.getSimpleName()
+                    + " r where r.message = :message");
+            query.setParameter("message", message);
+            return (Long) query.uniqueResult();
+        } finally {
+            close(session);
+        }
+    }
+
+    private long countDeltas(String message) {
+        Session session = open();
+        try {
+            Query query = session.createQuery("select count(*) from " + RObjectDeltaOperation.class.getSimpleName()
+                    + " d where d.recordId in (select r.id from " + RAuditEventRecord.class.getSimpleName()
+                    + " r where r.message = :message)");
+            query.setParameter("message", message);
+            return (Long) query.uniqueResult();
+        } finally {
+            close(session);
+        }
+    }
+
+    private long countRecords() {
+        Session session = open();
+        try {
+            Query query = session.createQuery("select count(*) from " + RAuditEventRecord.class.getSimpleName());
+            return (Long) query.uniqueResult();
+        } finally {
+            close(session);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditEventStage;
+import com.evolveum.midpoint.audit.api.AuditEventType;
+import com.evolveum.midpoint.audit.api.AuditExportFormat;
+import com.evolveum.midpoint.audit.api.AuditExporter;
+import com.evolveum.midpoint.audit.api.AuditQuery;
+import com.evolveum.midpoint.audit.api.AuditResultHandler;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.sql.util.SimpleTaskAdapter;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author lazyman
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class AuditSearchTest extends BaseSQLRepoTest {
+
+    private static final long START = 1325419200000L;    //2012-01-01 12:00 UTC
+    private static final long MINUTE = 60000L;
+    private static final int RECORDS = 10;
+
+    private static final String INITIATOR_OID = "00000000-0000-0000-0000-00000000a001";
+    private static final String TARGET_OID = "00000000-0000-0000-0000-00000000a002";
+
+    @BeforeClass
+    public void addRecords() throws Exception {
+        PrismObject<UserType> initiator = createUser(INITIATOR_OID, "administrator");
+        PrismObject<RoleType> target = createRole(TARGET_OID, "superuser, \"main\"");
+
+        for (int i = 0; i < RECORDS; i++) {
+            AuditEventRecord record = new AuditEventRecord(i % 2 == 0 ? AuditEventType.ADD_OBJECT :
+                    AuditEventType.MODIFY_OBJECT, AuditEventStage.EXECUTION);
+            //two records per timestamp, pagination has to use id too
+            record.setTimestamp(START + (i / 2) * MINUTE);
+            record.setOutcome(i < 7 ? OperationResultStatus.SUCCESS : OperationResultStatus.FATAL_ERROR);
+            record.setMessage("record " + i + "\nline");
+            if (i % 3 == 0) {
+                record.setInitiator(initiator);
+            }
+            if (i % 5 == 0) {
+                record.setTarget(target);
+            }
+
+            auditService.audit(record, new SimpleTaskAdapter());
+        }
+    }
+
+    private AuditQuery createQuery() {
+        AuditQuery query = new AuditQuery();
+        query.setFrom(START);
+        query.setTo(START + RECORDS * MINUTE);
+        return query;
+    }
+
+    @Test
+    public void test100SearchFilters() throws Exception {
+        OperationResult result = new OperationResult("search filters");
+
+        List<AuditEventRecord> records = auditService.searchAudit(createQuery(), result);
+        AssertJUnit.assertEquals(RECORDS, records.size());
+        for (int i = 1; i < records.size(); i++) {
+            AuditEventRecord previous = records.get(i - 1);
+            AuditEventRecord record = records.get(i);
+            AssertJUnit.assertTrue(previous.getTimestamp() < record.getTimestamp()
+                    || (previous.getTimestamp().equals(record.getTimestamp())
+                    && previous.getRepoId() < record.getRepoId()));
+        }
+
+        AuditQuery query = createQuery();
+        query.setTo(START + 2 * MINUTE);
+        AssertJUnit.assertEquals(4, auditService.searchAudit(query, result).size());
+
+        query = createQuery();
+        query.setInitiatorOid(INITIATOR_OID);
+        records = auditService.searchAudit(query, result);
+        AssertJUnit.assertEquals(4, records.size());
+        AssertJUnit.assertEquals("administrator", records.get(0).getInitiator().asObjectable().getName().getOrig());
+
+        query = createQuery();
+        query.setTargetOid(TARGET_OID);
+        records = auditService.searchAudit(query, result);
+        AssertJUnit.assertEquals(2, records.size());
+        AssertJUnit.assertEquals(RoleType.class, records.get(0).getTarget().getCompileTimeClass());
+
+        query = createQuery();
+        query.setEventType(AuditEventType.MODIFY_OBJECT);
+        query.setOutcome(OperationResultStatus.FATAL_ERROR);
+        AssertJUnit.assertEquals(2, auditService.searchAudit(query, result).size());
+
+        result.computeStatus();
+        AssertJUnit.assertTrue(result.isSuccess());
+    }
+
+    @Test
+    public void test200KeysetPagination() throws Exception {
+        OperationResult result = new OperationResult("keyset pagination");
+
+        List<AuditEventRecord> all = auditService.searchAudit(createQuery(), result);
+
+        AuditQuery query = createQuery();
+        query.setMaxSize(3);
+        List<AuditEventRecord> paged = new ArrayList<>();
+        while (true) {
+            List<AuditEventRecord> page = auditService.searchAudit(query, result);
+            paged.addAll(page);
+            if (page.size() < 3) {
+                break;
+            }
+            query.setAfter(page.get(page.size() - 1));
+        }
+
+        assertSameRecords(all, paged);
+    }
+
+    @Test
+    public void test300SearchIterative() throws Exception {
+        OperationResult result = new OperationResult("search iterative");
+
+        List<AuditEventRecord> all = auditService.searchAudit(createQuery(), result);
+
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int batchSize = config.getIterativeSearchByPagingBatchSize();
+        config.setIterativeSearchByPagingBatchSize(3);
+        try {
+            final List<AuditEventRecord> iterated = new ArrayList<>();
+            auditService.searchAuditIterative(createQuery(), new AuditResultHandler() {
+
+                @Override
+                public boolean handle(AuditEventRecord record, OperationResult parentResult) {
+                    iterated.add(record);
+                    return true;
+                }
+            }, result);
+            assertSameRecords(all, iterated);
+
+            AuditQuery query = createQuery();
+            query.setMaxSize(5);
+            iterated.clear();
+            auditService.searchAuditIterative(query, new AuditResultHandler() {
+
+                @Override
+                public boolean handle(AuditEventRecord record, OperationResult parentResult) {
+                    iterated.add(record);
+                    return true;
+                }
+            }, result);
+            assertSameRecords(all.subList(0, 5), iterated);
+        } finally {
+            config.setIterativeSearchByPagingBatchSize(batchSize);
+        }
+    }
+
+    @Test
+    public void test400Export() throws Exception {
+        OperationResult result = new OperationResult("export");
+
+        StringWriter csv = new StringWriter();
+        long count = AuditExporter.export(auditService, createQuery(), csv, AuditExportFormat.CSV, result);
+        AssertJUnit.assertEquals(RECORDS, count);
+
+        String text = csv.toString();
+        AssertJUnit.assertTrue(text.startsWith("id,timestamp,eventIdentifier,"));
+        AssertJUnit.assertTrue(text.contains(",2012-01-01T12:00:00.000Z,"));
+        AssertJUnit.assertTrue(text.contains(",\"superuser, \"\"main\"\"\","));
+        AssertJUnit.assertTrue(text.contains(",\"record 0\nline\","));
+
+        StringWriter json = new StringWriter();
+        count = AuditExporter.export(auditService, createQuery(), json, AuditExportFormat.JSON, result);
+        AssertJUnit.assertEquals(RECORDS, count);
+
+        text = json.toString();
+        AssertJUnit.assertTrue(text.startsWith("[\n{\"id\":"));
+        AssertJUnit.assertTrue(text.endsWith("}\n]\n"));
+        AssertJUnit.assertTrue(text.contains("\"targetName\":\"superuser, \\\"main\\\"\""));
+        AssertJUnit.assertTrue(text.contains("\"message\":\"record 0\\nline\""));
+        AssertJUnit.assertTrue(text.contains("\"targetType\":\"RoleType\""));
+    }
+
+    private void assertSameRecords(List<AuditEventRecord> expected, List<AuditEventRecord> real) {
+        AssertJUnit.assertEquals(expected.size(), real.size());
+        for (int i = 0; i < expected.size(); i++) {
+            AssertJUnit.assertEquals(expected.get(i).getRepoId(), real.get(i).getRepoId());
+        }
+    }
+
+    private PrismObject<UserType> createUser(String oid, String name) throws Exception {
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        user.setOid(oid);
+        user.setName(new PolyStringType(name));
+        return user.asPrismObject();
+    }
+
+    private PrismObject<RoleType> createRole(String oid, String name) throws Exception {
+        RoleType role = new RoleType();
+        prismContext.adopt(role);
+        role.setOid(oid);
+        role.setName(new PolyStringType(name));
+        return role.asPrismObject();
+    }
+}
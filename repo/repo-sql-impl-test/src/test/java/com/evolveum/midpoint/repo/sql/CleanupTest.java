@@ -122,7 +122,7 @@ public class CleanupTest extends BaseSQLRepoTest {
         CleanupPolicyType policy = createPolicy(calendar, NOW);
 
         OperationResult result = new OperationResult("Cleanup audit");
-        auditService.cleanupAudit(policy, result);
+        auditService.cleanupAudit(policy, null, result);
         result.recomputeStatus();
 
         //THEN
@@ -152,6 +152,145 @@ public class CleanupTest extends BaseSQLRepoTest {
         }
     }
 
+    @Test
+    public void testAuditCleanupInBatches() throws Exception {
+        //GIVEN
+        Session session = open();
+        try {
+            session.createQuery("delete from RObjectDeltaOperation").executeUpdate();
+            session.createQuery("delete from RAuditEventRecord").executeUpdate();
+        } finally {
+            close(session);
+        }
+
+        Calendar calendar = create_2013_07_12_12_00_Calendar();
+        for (int i = 0; i < 5; i++) {
+            AuditEventRecord record = new AuditEventRecord();
+            record.addDelta(createObjectDeltaOperation(i));
+            record.setTimestamp(calendar.getTimeInMillis());
+
+            auditService.audit(record, new SimpleTaskAdapter());
+            calendar.add(Calendar.HOUR_OF_DAY, 1);
+        }
+        AssertJUnit.assertEquals(5L, countAuditRecords());
+
+        calendar = create_2013_07_12_12_00_Calendar();
+        calendar.add(Calendar.HOUR_OF_DAY, 2);
+        calendar.add(Calendar.MINUTE, 1);
+        CleanupPolicyType policy = createPolicy(calendar, System.currentTimeMillis());
+
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int batchSize = config.getAuditCleanupBatchSize();
+        config.setAuditCleanupBatchSize(2);
+        try {
+            //WHEN
+            CleanupTask suspended = new CleanupTask(false);
+            OperationResult result = new OperationResult("Cleanup audit");
+            auditService.cleanupAudit(policy, suspended, result);
+
+            //THEN
+            AssertJUnit.assertEquals(5L, countAuditRecords());
+            AssertJUnit.assertEquals(0L, suspended.getProgress());
+
+            //WHEN
+            CleanupTask running = new CleanupTask(true);
+            result = new OperationResult("Cleanup audit");
+            auditService.cleanupAudit(policy, running, result);
+            result.recomputeStatus();
+
+            //THEN
+            AssertJUnit.assertTrue(result.isSuccess());
+            AssertJUnit.assertEquals(2L, countAuditRecords());
+            AssertJUnit.assertEquals(3L, running.getProgress());
+        } finally {
+            config.setAuditCleanupBatchSize(batchSize);
+        }
+    }
+
+    /**
+     * Batch is bigger than the number of ids bound to one statement, ids are deleted in more chunks.
+     */
+    @Test
+    public void testAuditCleanupInBigBatch() throws Exception {
+        //GIVEN
+        Session session = open();
+        try {
+            session.createQuery("delete from RObjectDeltaOperation").executeUpdate();
+            session.createQuery("delete from RAuditEventRecord").executeUpdate();
+        } finally {
+            close(session);
+        }
+
+        final int RECORDS = 1201;
+        Calendar calendar = create_2013_07_12_12_00_Calendar();
+        for (int i = 0; i < RECORDS; i++) {
+            AuditEventRecord record = new AuditEventRecord();
+            if (i % 100 == 0) {
+                record.addDelta(createObjectDeltaOperation(i));
+            }
+            record.setTimestamp(calendar.getTimeInMillis());
+
+            auditService.audit(record, new SimpleTaskAdapter());
+        }
+        AssertJUnit.assertEquals((long) RECORDS, countAuditRecords());
+
+        calendar.add(Calendar.MINUTE, 1);
+        CleanupPolicyType policy = createPolicy(calendar, System.currentTimeMillis());
+
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int batchSize = config.getAuditCleanupBatchSize();
+        config.setAuditCleanupBatchSize(2000);
+        try {
+            //WHEN
+            OperationResult result = new OperationResult("Cleanup audit");
+            CleanupTask running = new CleanupTask(true);
+            auditService.cleanupAudit(policy, running, result);
+            result.recomputeStatus();
+
+            //THEN
+            AssertJUnit.assertTrue(result.isSuccess());
+            AssertJUnit.assertEquals(0L, countAuditRecords());
+            AssertJUnit.assertEquals((long) RECORDS, running.getProgress());
+        } finally {
+            config.setAuditCleanupBatchSize(batchSize);
+        }
+    }
+
+    private long countAuditRecords() {
+        Session session = open();
+        try {
+            Query query = session.createQuery("select count(*) from " + RAuditEventRecord.class.getSimpleName());
+            return (Long) query.uniqueResult();
+        } finally {
+            close(session);
+        }
+    }
+
+    private static class CleanupTask extends SimpleTaskAdapter {
+
+        private boolean canRun;
+        private long progress;
+
+        private CleanupTask(boolean canRun) {
+            this.canRun = canRun;
+        }
+
+        @Override
+        public boolean canRun() {
+            return canRun;
+        }
+
+        @Override
+        public long getProgress() {
+            return progress;
+        }
+
+        @Override
+        public void setProgress(long value) {
+            progress = value;
+        }
+    }
+
     private ObjectDeltaOperation createObjectDeltaOperation(int i) throws Exception {
         ObjectDeltaOperation delta = new ObjectDeltaOperation();
         delta.setExecutionResult(new OperationResult("asdf"));
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.repo.sql.util.FullObjectCodec;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author lazyman
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class FullObjectFormatTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(FullObjectFormatTest.class);
+
+    private static final File USER_BIG = new File(FOLDER_BASIC, "user-big.xml");
+
+    @Test
+    public void test100EncodeDecode() throws Exception {
+        FullObjectCodec codec = new FullObjectCodec(prismContext);
+        PrismObject<UserType> user = prismContext.parseObject(USER_BIG);
+
+        for (FullObjectFormat format : FullObjectFormat.values()) {
+            byte[] data = codec.encode(user, format);
+            LOGGER.info("Format {}, size {}", new Object[]{format, data.length});
+            AssertJUnit.assertEquals(format, FullObjectCodec.detectFormat(data));
+
+            PrismObject<UserType> decoded = codec.decode(data);
+            ObjectDelta<UserType> delta = user.diff(decoded);
+            AssertJUnit.assertTrue("Format " + format + " changed object: " + delta.debugDump(), delta.isEmpty());
+        }
+    }
+
+    @Test
+    public void test110PartialDecode() throws Exception {
+        FullObjectCodec codec = new FullObjectCodec(prismContext);
+        PrismObject<UserType> user = prismContext.parseObject(USER_BIG);
+
+        byte[] data = codec.encode(user, FullObjectFormat.ZIP);
+        PrismObject<UserType> decoded = codec.decode(data, Arrays.asList(UserType.F_NAME, UserType.F_DESCRIPTION));
+
+        AssertJUnit.assertEquals(user.getOid(), decoded.getOid());
+        AssertJUnit.assertEquals(user.asObjectable().getName(), decoded.asObjectable().getName());
+        AssertJUnit.assertEquals(user.asObjectable().getDescription(), decoded.asObjectable().getDescription());
+        AssertJUnit.assertNull(decoded.findContainer(UserType.F_EXTENSION));
+        AssertJUnit.assertTrue(decoded.asObjectable().getAssignment().isEmpty());
+        AssertJUnit.assertTrue(decoded.asObjectable().getLinkRef().isEmpty());
+    }
+
+    /**
+     * Objects stored with generic "object" element name can be parsed only if the type of root is kept.
+     */
+    @Test
+    public void test120EncodeDecodeTypedRoot() throws Exception {
+        FullObjectCodec codec = new FullObjectCodec(prismContext);
+        List<PrismObject<? extends Objectable>> objects = prismContext.parseObjects(new File(FOLDER_BASIC, "objects.xml"));
+
+        int typedRoots = 0;
+        for (PrismObject<? extends Objectable> object : objects) {
+            if (!"object".equals(object.getElementName().getLocalPart())) {
+                continue;
+            }
+            typedRoots++;
+
+            for (FullObjectFormat format : FullObjectFormat.values()) {
+                byte[] data = codec.encode(object, format);
+
+                PrismObject decoded = codec.decode(data);
+                AssertJUnit.assertEquals("Format " + format + " changed type", object.getCompileTimeClass(),
+                        decoded.getCompileTimeClass());
+                ObjectDelta delta = object.diff(decoded);
+                AssertJUnit.assertTrue("Format " + format + " changed object: " + delta.debugDump(), delta.isEmpty());
+
+                decoded = codec.decode(data, Arrays.asList(UserType.F_NAME));
+                AssertJUnit.assertEquals("Format " + format + " changed type in partial decoding",
+                        object.getCompileTimeClass(), decoded.getCompileTimeClass());
+                AssertJUnit.assertEquals(object.getOid(), decoded.getOid());
+                AssertJUnit.assertEquals(object.asObjectable().getName(), decoded.asObjectable().getName());
+            }
+        }
+        AssertJUnit.assertTrue("No object with typed root found", typedRoots > 0);
+    }
+
+    @Test
+    public void test200MigrateOldRow() throws Exception {
+        OperationResult result = new OperationResult("migrate old row");
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        FullObjectFormat oldFormat = config.getFullObjectFormat();
+        try {
+            config.setFullObjectFormat(FullObjectFormat.ZIP);
+            PrismObject<UserType> user = prismContext.parseObject(USER_BIG);
+            String oid = repositoryService.addObject(user, null, result);
+            AssertJUnit.assertEquals(FullObjectFormat.ZIP, FullObjectCodec.detectFormat(loadFullObject(oid)));
+
+            config.setFullObjectFormat(FullObjectFormat.XML);
+            PrismObject<UserType> repoUser = repositoryService.getObject(UserType.class, oid, null, result);
+            AssertJUnit.assertEquals(user.asObjectable().getDescription(), repoUser.asObjectable().getDescription());
+
+            ObjectDelta<UserType> delta = ObjectDelta.createModificationReplaceProperty(UserType.class, oid,
+                    UserType.F_DESCRIPTION, prismContext, "migrated");
+            repositoryService.modifyObject(UserType.class, oid, delta.getModifications(), result);
+            AssertJUnit.assertEquals(FullObjectFormat.XML, FullObjectCodec.detectFormat(loadFullObject(oid)));
+
+            repoUser = repositoryService.getObject(UserType.class, oid, null, result);
+            AssertJUnit.assertEquals("migrated", repoUser.asObjectable().getDescription());
+            AssertJUnit.assertEquals(user.asObjectable().getAssignment().size(),
+                    repoUser.asObjectable().getAssignment().size());
+
+            Collection<SelectorOptions<GetOperationOptions>> options =
+                    GetOperationOptions.createRetrieveOnlyOptions(UserType.F_DESCRIPTION);
+            repoUser = repositoryService.getObject(UserType.class, oid, options, result);
+            AssertJUnit.assertEquals("migrated", repoUser.asObjectable().getDescription());
+            AssertJUnit.assertNotNull(repoUser.asObjectable().getName());
+            AssertJUnit.assertTrue(repoUser.asObjectable().getAssignment().isEmpty());
+        } finally {
+            config.setFullObjectFormat(oldFormat);
+        }
+    }
+
+    private byte[] loadFullObject(String oid) {
+        Session session = getFactory().openSession();
+        try {
+            Query query = session.createQuery("select o.fullObject from RObject o where o.oid = :oid");
+            query.setString("oid", oid);
+            return (byte[]) query.uniqueResult();
+        } finally {
+            session.close();
+        }
+    }
+}
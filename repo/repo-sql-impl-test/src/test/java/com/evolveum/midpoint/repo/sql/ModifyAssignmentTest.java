@@ -19,6 +19,7 @@ package com.evolveum.midpoint.repo.sql;
 import static com.evolveum.midpoint.prism.util.PrismTestUtil.*;
 
 import com.evolveum.midpoint.prism.*;
+import com.evolveum.midpoint.prism.delta.ContainerDelta;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.util.PrismAsserts;
@@ -40,6 +41,8 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * @author lazyman
@@ -379,4 +382,52 @@ public class ModifyAssignmentTest extends BaseSQLRepoTest {
         AssertJUnit.assertNotNull(inducement.getValue(2L));
         AssertJUnit.assertNotNull(inducement.getValue(5L));
     }
+
+    /**
+     * Inducement is replaced by the same one with different id. Content of the values is equal,
+     * rows have to be matched by container id.
+     */
+    @Test
+    public void test50ChangeInducementId() throws Exception {
+        //given
+        OperationResult result = new OperationResult("get role");
+        PrismObject repoRole = repositoryService.getObject(RoleType.class, ROLE_OID, null, result);
+        PrismContainerValue oldValue = repoRole.findContainer(new ItemPath(RoleType.F_INDUCEMENT)).getValue(5L);
+        AssertJUnit.assertNotNull(oldValue);
+        PrismContainerValue newValue = oldValue.clone();
+        newValue.setId(6L);
+
+        //when
+        ContainerDelta delta = ContainerDelta.createDelta(RoleType.F_INDUCEMENT, RoleType.class, prismContext);
+        delta.addValueToDelete(oldValue.clone());
+        delta.addValueToAdd(newValue);
+
+        result = new OperationResult("change inducement id");
+        repositoryService.modifyObject(RoleType.class, ROLE_OID, Arrays.asList(delta), result);
+        result.recomputeStatus();
+        result.recordSuccessIfUnknown();
+
+        //then
+        AssertJUnit.assertTrue(result.isSuccess());
+
+        result = new OperationResult("get role");
+        repoRole = repositoryService.getObject(RoleType.class, ROLE_OID, null, result);
+        PrismContainer inducement = repoRole.findContainer(new ItemPath(RoleType.F_INDUCEMENT));
+        AssertJUnit.assertEquals(3, inducement.getValues().size());
+        AssertJUnit.assertNull(inducement.getValue(5L));
+        AssertJUnit.assertNotNull(inducement.getValue(6L));
+
+        Session session = open();
+        try {
+            Query query = session.createSQLQuery("select id from m_assignment where owner_oid=:oid order by id");
+            query.setParameter("oid", ROLE_OID);
+            List<Number> ids = query.list();
+            AssertJUnit.assertEquals(3, ids.size());
+            AssertJUnit.assertEquals(1, ids.get(0).intValue());
+            AssertJUnit.assertEquals(2, ids.get(1).intValue());
+            AssertJUnit.assertEquals(6, ids.get(2).intValue());
+        } finally {
+            close(session);
+        }
+    }
 }
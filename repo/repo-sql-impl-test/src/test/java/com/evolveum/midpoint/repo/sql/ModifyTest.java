@@ -57,6 +57,7 @@ import com.evolveum.midpoint.prism.query.LessFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.ModificationPrecondition;
 import com.evolveum.midpoint.repo.sql.data.common.any.ROExtDate;
 import com.evolveum.midpoint.repo.sql.data.common.any.ROExtLong;
 import com.evolveum.midpoint.repo.sql.data.common.any.ROExtString;
@@ -69,6 +70,7 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.SynchronizationSituationUtil;
 import com.evolveum.midpoint.util.PrettyPrinter;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.PreconditionViolationException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.logging.Trace;
@@ -579,4 +581,47 @@ public class ModifyTest extends BaseSQLRepoTest {
         AssertJUnit.assertNotNull(container.getValue(2L));
         AssertJUnit.assertNotNull(container.getValue(3L));
     }
+
+    @Test
+    public void modifyRoleWithPrecondition() throws Exception {
+        OperationResult result = new OperationResult("MODIFY");
+
+        RoleType role = new RoleType();
+        prismContext.adopt(role);
+        role.setName(new PolyStringType("precondition-role"));
+        role.setDescription("first");
+        String oid = repositoryService.addObject(role.asPrismObject(), null, result);
+
+        PrismObjectDefinition<RoleType> def = role.asPrismObject().getDefinition();
+        Collection<? extends ItemDelta> deltas = PropertyDelta.createModificationReplacePropertyCollection(
+                RoleType.F_DESCRIPTION, def, "second");
+
+        // precondition holds, role is modified
+        repositoryService.modifyObject(RoleType.class, oid, deltas, createDescriptionPrecondition("first"), result);
+        PrismObject<RoleType> afterFirst = repositoryService.getObject(RoleType.class, oid, null, result);
+        AssertJUnit.assertEquals("second", afterFirst.asObjectable().getDescription());
+
+        // precondition doesn't hold any more, nothing is modified
+        deltas = PropertyDelta.createModificationReplacePropertyCollection(RoleType.F_DESCRIPTION, def, "third");
+        try {
+            repositoryService.modifyObject(RoleType.class, oid, deltas, createDescriptionPrecondition("first"), result);
+            AssertJUnit.fail("Precondition violation was expected");
+        } catch (PreconditionViolationException ex) {
+            // this is expected
+        }
+
+        PrismObject<RoleType> afterSecond = repositoryService.getObject(RoleType.class, oid, null, result);
+        AssertJUnit.assertEquals("second", afterSecond.asObjectable().getDescription());
+        AssertJUnit.assertEquals(afterFirst.getVersion(), afterSecond.getVersion());
+    }
+
+    private ModificationPrecondition<RoleType> createDescriptionPrecondition(final String description) {
+        return new ModificationPrecondition<RoleType>() {
+
+            @Override
+            public boolean holds(PrismObject<RoleType> object) {
+                return description.equals(object.asObjectable().getDescription());
+            }
+        };
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.PropertyDelta;
+import com.evolveum.midpoint.repo.api.ObjectChangeRecord;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author lazyman
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class ObjectChangeLogTest extends BaseSQLRepoTest {
+
+    @Test
+    public void test100AddModifyDeleteRole() throws Exception {
+        OperationResult result = new OperationResult("test100AddModifyDeleteRole");
+        long sequence = repositoryService.getLastObjectChangeSequence(result);
+
+        RoleType role = new RoleType();
+        prismContext.adopt(role);
+        role.setName(new PolyStringType("change log role"));
+        String oid = repositoryService.addObject(role.asPrismObject(), null, result);
+
+        Collection<? extends ItemDelta> modifications = PropertyDelta.createModificationReplacePropertyCollection(
+                RoleType.F_DESCRIPTION, role.asPrismObject().getDefinition(), "description");
+        repositoryService.modifyObject(RoleType.class, oid, modifications, result);
+
+        repositoryService.deleteObject(RoleType.class, oid, result);
+
+        List<ObjectChangeRecord> changes = repositoryService.listObjectChanges(sequence, 100, result);
+        AssertJUnit.assertEquals(3, changes.size());
+        long last = sequence;
+        for (ObjectChangeRecord change : changes) {
+            AssertJUnit.assertEquals(oid, change.getOid());
+            AssertJUnit.assertEquals(RoleType.class, change.getType());
+            // dedicated sequence without preallocation, no gaps
+            AssertJUnit.assertEquals(last + 1, change.getSequence());
+            last = change.getSequence();
+        }
+        AssertJUnit.assertEquals(last, repositoryService.getLastObjectChangeSequence(result));
+    }
+
+    @Test
+    public void test200UserNotRecorded() throws Exception {
+        OperationResult result = new OperationResult("test200UserNotRecorded");
+        long sequence = repositoryService.getLastObjectChangeSequence(result);
+
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        user.setName(new PolyStringType("change log user"));
+        repositoryService.addObject(user.asPrismObject(), null, result);
+
+        AssertJUnit.assertTrue(repositoryService.listObjectChanges(sequence, 100, result).isEmpty());
+    }
+
+    @Test
+    public void test300Cleanup() throws Exception {
+        OperationResult result = new OperationResult("test300Cleanup");
+
+        repositoryService.cleanupObjectChanges(System.currentTimeMillis() + 1000, result);
+
+        AssertJUnit.assertTrue(repositoryService.listObjectChanges(0, 100, result).isEmpty());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.sql.data.common.RObjectReference;
+import com.evolveum.midpoint.repo.sql.data.common.container.RAssignmentReference;
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.hibernate.Session;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import javax.xml.namespace.QName;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * References which differ only by relation are different values (relation is part of the primary key).
+ *
+ * @author lazyman
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class ObjectReferenceTest extends BaseSQLRepoTest {
+
+    private static final String ORG_OID = "00000000-8888-6666-0000-200000000000";
+
+    @Test
+    public void test100ObjectReferenceRelation() throws Exception {
+        RObjectReference member = createObjectReference(null);
+        RObjectReference manager = createObjectReference(SchemaConstants.ORG_MANAGER);
+        RObjectReference managerCopy = createObjectReference(SchemaConstants.ORG_MANAGER);
+
+        AssertJUnit.assertFalse(member.equals(manager));
+        AssertJUnit.assertFalse(manager.equals(member));
+        AssertJUnit.assertEquals(manager, managerCopy);
+        AssertJUnit.assertEquals(manager.hashCode(), managerCopy.hashCode());
+
+        Set<RObjectReference> set = new HashSet<>();
+        set.add(member);
+        set.add(manager);
+        set.add(managerCopy);
+        AssertJUnit.assertEquals(2, set.size());
+    }
+
+    @Test
+    public void test110AssignmentReferenceRelation() throws Exception {
+        RAssignmentReference member = createAssignmentReference(null);
+        RAssignmentReference manager = createAssignmentReference(SchemaConstants.ORG_MANAGER);
+        RAssignmentReference managerCopy = createAssignmentReference(SchemaConstants.ORG_MANAGER);
+
+        AssertJUnit.assertFalse(member.equals(manager));
+        AssertJUnit.assertEquals(manager, managerCopy);
+        AssertJUnit.assertEquals(manager.hashCode(), managerCopy.hashCode());
+    }
+
+    @Test
+    public void test200AddGetReferencesDifferentRelation() throws Exception {
+        OperationResult result = new OperationResult("test200AddGetReferencesDifferentRelation");
+
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        user.setName(new PolyStringType("reference relation user"));
+        user.getParentOrgRef().add(createReferenceType(null));
+        user.getParentOrgRef().add(createReferenceType(SchemaConstants.ORG_MANAGER));
+        String oid = repositoryService.addObject(user.asPrismObject(), null, result);
+
+        PrismObject<UserType> userRepo = repositoryService.getObject(UserType.class, oid, null, result);
+        List<ObjectReferenceType> parentOrgRefs = userRepo.asObjectable().getParentOrgRef();
+        AssertJUnit.assertEquals(2, parentOrgRefs.size());
+
+        // both rows are stored, not only in the full object
+        Set<RObjectReference> stored = new HashSet<>();
+        Session session = open();
+        try {
+            stored.addAll(session.createQuery("from RObjectReference r where r.ownerOid = :oid")
+                    .setParameter("oid", oid).list());
+        } finally {
+            close(session);
+        }
+        AssertJUnit.assertEquals(2, stored.size());
+    }
+
+    private RObjectReference createObjectReference(QName relation) {
+        RObjectReference ref = new RObjectReference();
+        ref.setTargetOid(ORG_OID);
+        ref.setType(RObjectType.ORG);
+        ref.setRelation(RUtil.qnameToString(relation));
+        return ref;
+    }
+
+    private RAssignmentReference createAssignmentReference(QName relation) {
+        RAssignmentReference ref = new RAssignmentReference();
+        ref.setTargetOid(ORG_OID);
+        ref.setType(RObjectType.ORG);
+        ref.setRelation(RUtil.qnameToString(relation));
+        return ref;
+    }
+
+    private ObjectReferenceType createReferenceType(QName relation) {
+        ObjectReferenceType ref = new ObjectReferenceType();
+        ref.setOid(ORG_OID);
+        ref.setType(OrgType.COMPLEX_TYPE);
+        ref.setRelation(relation);
+        return ref;
+    }
+}
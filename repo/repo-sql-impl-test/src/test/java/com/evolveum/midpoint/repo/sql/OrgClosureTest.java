@@ -17,7 +17,11 @@
 package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismObjectDefinition;
 import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ReferenceDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.repo.sql.type.XMLGregorianCalendarType;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -31,15 +35,25 @@ import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
+import org.hibernate.Query;
+import org.hibernate.Session;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 
 /**
  * @author lazyman
@@ -66,8 +80,246 @@ public class OrgClosureTest extends BaseSQLRepoTest {
     private static final int[] TREE_LEVELS = {1, 2, 3};
     private static final int[] TREE_LEVELS_USERS = {1, 2, 3};
 
+    //50531 OU, used for subtree move benchmark
+    private static final int[] BENCHMARK_TREE_LEVELS = {1, 5, 5, 20, 20, 4};
+    private static final int BENCHMARK_MOVES = 20;
+
     private int count = 0;
 
+    @Test
+    public void incrementalClosureMatchesRebuild() throws Exception {
+        OperationResult opResult = new OperationResult("incrementalClosureMatchesRebuild");
+
+        // a   b
+        // | \ |
+        // c   d
+        // |   |
+        // e   |
+        //  \  |
+        //    f - user
+        String a = addOrg("a", 0);
+        String b = addOrg("b", 1);
+        String c = addOrg("c", 2, a);
+        String d = addOrg("d", 3, a, b);
+        String e = addOrg("e", 4, c);
+        String f = addOrg("f", 5, e, d);
+
+        PrismObject<UserType> user = createUser(f, 0, 0, "closure");
+        String userOid = repositoryService.addObject(user, null, opResult);
+
+        // paths a-c-e-f and a-d-f
+        assertClosure(a, f, 2, 3);
+        assertClosure(a, userOid, 2, 4);
+        assertClosureConsistent(opResult);
+
+        // move subtree e from c to b, path a-d-f has to stay
+        replaceParents(e, opResult, b);
+        assertClosure(c, f, 0, 0);
+        assertClosure(b, f, 1, 2);
+        assertClosure(a, f, 1, 2);
+        assertClosureConsistent(opResult);
+
+        // delete org in the middle of structure
+        repositoryService.deleteObject(OrgType.class, d, opResult);
+        assertClosure(a, f, 0, 0);
+        assertClosure(b, userOid, 1, 3);
+        assertClosureConsistent(opResult);
+
+        // parent added after its child (incorrect reference)
+        String h = createOid(7, "closure");
+        String g = addOrg("g", 6, h);
+        assertClosure(a, g, 0, 0);
+        String added = addOrg("h", 7, a);
+        AssertJUnit.assertEquals(h, added);
+        assertClosure(a, g, 1, 2);
+        assertClosureConsistent(opResult);
+    }
+
+    /**
+     * Paths of the same length through different parents must not create duplicate closure rows.
+     */
+    @Test
+    public void diamondHierarchy() throws Exception {
+        OperationResult opResult = new OperationResult("diamondHierarchy");
+
+        //   a
+        //  / \
+        // b   c
+        //  \ /
+        //   d
+        //   |
+        //   e
+        String a = addOrg("diamond-a", 0, new String[0], "diamond");
+        String b = addOrg("diamond-b", 1, new String[]{a}, "diamond");
+        String c = addOrg("diamond-c", 2, new String[]{a}, "diamond");
+        String d = addOrg("diamond-d", 3, new String[]{b, c}, "diamond");
+        String e = addOrg("diamond-e", 4, new String[]{d}, "diamond");
+
+        assertClosure(a, d, 1, 2);
+        assertClosure(a, e, 1, 3);
+        assertNoDuplicateClosureRows();
+
+        // diamond created by modification of existing subtree
+        replaceParents(d, opResult);
+        assertClosure(a, e, 0, 0);
+        replaceParents(d, opResult, b, c);
+        assertClosure(a, d, 1, 2);
+        assertClosure(a, e, 1, 3);
+        assertNoDuplicateClosureRows();
+
+        assertClosureConsistent(opResult);
+        assertNoDuplicateClosureRows();
+    }
+
+    @Test(enabled = false)
+    public void benchmarkSubtreeMove() throws Exception {
+        OperationResult opResult = new OperationResult("benchmarkSubtreeMove");
+
+        LOGGER.info("Generating org. structure.");
+        long time = System.currentTimeMillis();
+        List<List<String>> levels = new ArrayList<>();
+        loadOrgStructure(null, BENCHMARK_TREE_LEVELS, "", 0, levels, opResult);
+        LOGGER.info("Org. structure with {} orgs generated ({} ms).",
+                new Object[]{count, System.currentTimeMillis() - time});
+
+        // moving level 3 subtrees (101 orgs each) between level 2 parents
+        Random random = new Random(0);
+        List<String> subtrees = levels.get(3);
+        List<String> parents = levels.get(2);
+        for (int i = 0; i < BENCHMARK_MOVES; i++) {
+            String subtree = subtrees.get(random.nextInt(subtrees.size()));
+            String parent = parents.get(random.nextInt(parents.size()));
+
+            time = System.currentTimeMillis();
+            replaceParents(subtree, opResult, parent);
+            LOGGER.info("Subtree {} moved to {} ({} ms).",
+                    new Object[]{subtree, parent, System.currentTimeMillis() - time});
+        }
+
+        time = System.currentTimeMillis();
+        int closureSize = countClosure();
+        int rebuiltSize = repositoryService.rebuildOrgClosure(opResult);
+        LOGGER.info("Closure rebuilt, {} rows ({} ms).",
+                new Object[]{rebuiltSize, System.currentTimeMillis() - time});
+        AssertJUnit.assertEquals(closureSize, rebuiltSize);
+    }
+
+    private void loadOrgStructure(String parentOid, int[] TREE_SIZE, String oidPrefix, int level,
+                                  List<List<String>> levels, OperationResult result) throws Exception {
+        if (TREE_SIZE.length == 0) {
+            return;
+        }
+
+        if (levels.size() <= level) {
+            levels.add(new ArrayList<String>());
+        }
+
+        for (int i = 0; i < TREE_SIZE[0]; i++) {
+            String newOidPrefix = (TREE_SIZE[0] - i) + "a" + oidPrefix;
+            PrismObject<OrgType> org = createOrg(parentOid, i, newOidPrefix);
+            String oid = repositoryService.addObject(org, null, result);
+            levels.get(level).add(oid);
+            count++;
+
+            loadOrgStructure(oid, ArrayUtils.remove(TREE_SIZE, 0), newOidPrefix + i, level + 1, levels, result);
+        }
+    }
+
+    private String addOrg(String name, int i, String... parentOids) throws Exception {
+        return addOrg(name, i, parentOids, "closure");
+    }
+
+    private String addOrg(String name, int i, String[] parentOids, String oidPrefix) throws Exception {
+        OrgType org = new OrgType();
+        org.setOid(createOid(i, oidPrefix));
+        org.setName(createPolyString(name));
+        for (String parentOid : parentOids) {
+            ObjectReferenceType ref = new ObjectReferenceType();
+            ref.setOid(parentOid);
+            ref.setType(OrgType.COMPLEX_TYPE);
+            org.getParentOrgRef().add(ref);
+        }
+
+        prismContext.adopt(org);
+        return repositoryService.addObject(org.asPrismObject(), null, new OperationResult("addOrg"));
+    }
+
+    private void replaceParents(String oid, OperationResult result, String... parentOids) throws Exception {
+        List<PrismReferenceValue> values = new ArrayList<>();
+        for (String parentOid : parentOids) {
+            values.add(new PrismReferenceValue(parentOid, OrgType.COMPLEX_TYPE));
+        }
+
+        PrismObjectDefinition def = prismContext.getSchemaRegistry().findObjectDefinitionByCompileTimeClass(OrgType.class);
+        ReferenceDelta delta = ReferenceDelta.createModificationReplace(new ItemPath(OrgType.F_PARENT_ORG_REF),
+                def, values);
+
+        Collection<? extends ItemDelta> modifications = Arrays.asList(delta);
+        repositoryService.modifyObject(OrgType.class, oid, modifications, result);
+    }
+
+    private void assertClosure(String ancestorOid, String descendantOid, int expectedCount, int expectedMaxDepth) {
+        Session session = open();
+        try {
+            Query query = session.createQuery("select count(*), max(o.depth) from ROrgClosure as o " +
+                    "where o.ancestorOid = :aOid and o.descendantOid = :dOid");
+            query.setString("aOid", ancestorOid);
+            query.setString("dOid", descendantOid);
+            Object[] row = (Object[]) query.uniqueResult();
+
+            AssertJUnit.assertEquals(expectedCount, ((Number) row[0]).intValue());
+            if (expectedCount != 0) {
+                AssertJUnit.assertEquals(expectedMaxDepth, ((Number) row[1]).intValue());
+            }
+        } finally {
+            close(session);
+        }
+    }
+
+    private void assertNoDuplicateClosureRows() {
+        List<String> closure = listClosure();
+        AssertJUnit.assertEquals("Duplicate closure rows", new HashSet<>(closure).size(), closure.size());
+    }
+
+    /**
+     * Closure table maintained incrementally has to be the same as table rebuilt from parent references.
+     */
+    private void assertClosureConsistent(OperationResult result) {
+        List<String> incremental = listClosure();
+        repositoryService.rebuildOrgClosure(result);
+        List<String> rebuilt = listClosure();
+
+        AssertJUnit.assertEquals(rebuilt, incremental);
+    }
+
+    private List<String> listClosure() {
+        Session session = open();
+        try {
+            Query query = session.createQuery("select o.ancestorOid, o.descendantOid, o.depth from ROrgClosure as o");
+            List<Object[]> rows = query.list();
+
+            List<String> closure = new ArrayList<>();
+            for (Object[] row : rows) {
+                closure.add(row[0] + " " + row[1] + " " + row[2]);
+            }
+            Collections.sort(closure);
+
+            return closure;
+        } finally {
+            close(session);
+        }
+    }
+
+    private int countClosure() {
+        Session session = open();
+        try {
+            Query query = session.createQuery("select count(*) from ROrgClosure");
+            return ((Number) query.uniqueResult()).intValue();
+        } finally {
+            close(session);
+        }
+    }
+
     @Test(enabled = false)
     public void loadOrgStructure() throws Exception {
         OperationResult opResult = new OperationResult("===[ addOrgStruct ]===");
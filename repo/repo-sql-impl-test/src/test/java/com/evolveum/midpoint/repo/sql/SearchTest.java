@@ -26,8 +26,11 @@ import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.OrderDirection;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
 import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.RetrieveOption;
+import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
@@ -42,6 +45,8 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -157,6 +162,53 @@ public class SearchTest extends BaseSQLRepoTest {
         AssertJUnit.assertEquals(size, objects.size());
     }
 
+    @Test
+    public void iterateSetWithCookie() throws Exception {
+        SqlRepositoryConfiguration config = ((SqlRepositoryServiceImpl) repositoryService).getConfiguration();
+        int oldbatch = config.getIterativeSearchByPagingBatchSize();
+        config.setIterativeSearchByPagingBatchSize(2);
+        try {
+            List<String> oids = iterateWithCookie("", Integer.MAX_VALUE);
+            AssertJUnit.assertEquals(3, oids.size());
+            List<String> sorted = new ArrayList<String>(oids);
+            Collections.sort(sorted);
+            AssertJUnit.assertEquals("Objects are not ordered by oid", sorted, oids);
+
+            // handler stops after first object, search is resumed after it
+            List<String> first = iterateWithCookie("", 1);
+            AssertJUnit.assertEquals(oids.subList(0, 1), first);
+
+            List<String> rest = iterateWithCookie(first.get(0), Integer.MAX_VALUE);
+            AssertJUnit.assertEquals(oids.subList(1, 3), rest);
+        } finally {
+            config.setIterativeSearchByPagingBatchSize(oldbatch);
+        }
+    }
+
+    private List<String> iterateWithCookie(String cookie, final int limit) throws Exception {
+        OperationResult result = new OperationResult("search with cookie");
+
+        final List<String> oids = new ArrayList<String>();
+        ResultHandler handler = new ResultHandler() {
+
+            @Override
+            public boolean handle(PrismObject object, OperationResult parentResult) {
+                oids.add(object.getOid());
+                return oids.size() < limit;
+            }
+        };
+
+        ObjectQuery query = new ObjectQuery();
+        ObjectPaging paging = ObjectPaging.createEmptyPaging();
+        paging.setCookie(cookie);
+        query.setPaging(paging);
+        repositoryService.searchObjectsIterative(UserType.class, query, handler, null, result);
+        result.recomputeStatus();
+
+        AssertJUnit.assertTrue(result.isSuccess());
+        return oids;
+    }
+
     @Test
     public void caseSensitiveSearchTest() throws Exception {
         final String existingNameOrig = "Test UserX00003";
@@ -183,4 +235,35 @@ public class SearchTest extends BaseSQLRepoTest {
         AssertJUnit.assertEquals("Found user (shouldn't) because case insensitive search was used", 0, users.size());
     }
 
+    @Test
+    public void summarySearchTest() throws Exception {
+        ObjectQuery query = ObjectQuery.createObjectQuery(ObjectPaging.createPaging(0, 10, ObjectType.F_NAME,
+                OrderDirection.ASCENDING));
+
+        OperationResult result = new OperationResult("search");
+        List<PrismObject<UserType>> users = repositoryService.searchObjects(UserType.class, query, null, result);
+
+        Collection<SelectorOptions<GetOperationOptions>> options = new ArrayList<>();
+        options.add(new SelectorOptions<>(GetOperationOptions.createSummary()));
+        options.add(SelectorOptions.create(UserType.F_LINK_REF, GetOperationOptions.createRetrieve(RetrieveOption.INCLUDE)));
+        List<PrismObject<UserType>> summaries = repositoryService.searchObjects(UserType.class, query, options, result);
+        result.recomputeStatus();
+        AssertJUnit.assertTrue(result.isSuccess());
+        AssertJUnit.assertEquals("Wrong number of summaries", users.size(), summaries.size());
+
+        for (int i = 0; i < users.size(); i++) {
+            UserType user = users.get(i).asObjectable();
+            UserType summary = summaries.get(i).asObjectable();
+
+            AssertJUnit.assertEquals(user.getOid(), summary.getOid());
+            AssertJUnit.assertEquals(user.getVersion(), summary.getVersion());
+            AssertJUnit.assertEquals(user.getName(), summary.getName());
+            AssertJUnit.assertEquals(user.getFullName(), summary.getFullName());
+            AssertJUnit.assertEquals(user.getEmailAddress(), summary.getEmailAddress());
+            AssertJUnit.assertEquals(user.getLinkRef().size(), summary.getLinkRef().size());
+            AssertJUnit.assertTrue("Summary contains assignments", summary.getAssignment().isEmpty());
+            AssertJUnit.assertNull("Summary contains description", summary.getDescription());
+        }
+    }
+
 }
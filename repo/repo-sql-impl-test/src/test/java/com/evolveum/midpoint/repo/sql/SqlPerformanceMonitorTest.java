@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * @author lazyman
+ */
+public class SqlPerformanceMonitorTest {
+
+    @Test
+    public void test100BucketBounds() {
+        long previous = -1;
+        for (int i = 0; i < OperationStatistics.BUCKETS - 1; i++) {
+            long upper = OperationStatistics.getBucketUpperBound(i);
+            AssertJUnit.assertTrue("Bucket bounds are not increasing", upper > previous);
+            AssertJUnit.assertEquals(i, OperationStatistics.getBucket(upper));
+            AssertJUnit.assertEquals(i, OperationStatistics.getBucket(previous + 1));
+            previous = upper;
+        }
+    }
+
+    @Test
+    public void test200Percentiles() {
+        OperationStatistics stats = new OperationStatistics("test");
+        for (int i = 1; i <= 10000; i++) {
+            stats.record(i, 0, 1);
+        }
+
+        OperationStatistics.Snapshot snapshot = stats.getSnapshot();
+        AssertJUnit.assertEquals(10000, snapshot.getCount());
+        AssertJUnit.assertEquals(10000, snapshot.getMax());
+        assertApproximately(5000, snapshot.getP50());
+        assertApproximately(9500, snapshot.getP95());
+        assertApproximately(9900, snapshot.getP99());
+    }
+
+    @Test
+    public void test300RecordOperations() {
+        SqlPerformanceMonitor pm = new SqlPerformanceMonitor();
+        pm.initialize(SqlPerformanceMonitor.LEVEL_DETAILS);
+        try {
+            for (int i = 0; i < 10; i++) {
+                long handle = pm.registerOperationStart("getObject");
+                pm.registerOperationFinish(handle, 1);
+            }
+            long handle = pm.registerOperationStart("modifyObject");
+            pm.registerOperationNewTrial(handle, 2);
+            pm.registerOperationFinish(handle, 2);
+
+            List<OperationStatistics.Snapshot> list = pm.getStatistics();
+            AssertJUnit.assertEquals(2, list.size());
+            AssertJUnit.assertEquals("getObject", list.get(0).getKind());
+            AssertJUnit.assertEquals(10, list.get(0).getCount());
+            AssertJUnit.assertEquals(0, list.get(0).getRetried());
+            AssertJUnit.assertEquals(1, list.get(1).getRetried());
+            AssertJUnit.assertEquals(2, list.get(1).getAttempts());
+
+            pm.resetStatistics();
+            AssertJUnit.assertEquals(0, pm.getOperationKinds().length);
+        } finally {
+            pm.shutdown();
+        }
+    }
+
+    private void assertApproximately(long expected, long real) {
+        AssertJUnit.assertTrue("Expected ~" + expected + ", got " + real,
+                real >= expected && real <= expected + expected / 8);
+    }
+}
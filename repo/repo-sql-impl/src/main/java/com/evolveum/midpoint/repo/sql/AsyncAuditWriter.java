@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes audit records to database in background thread. Records are put to bounded queue by callers, writer
+ * thread takes them in batches and stores every batch in one transaction.
+ * <p/>
+ * When queue is full, {@link AuditOverflowPolicy} decides whether caller waits, record is appended to local
+ * journal file (written to database later when writer is idle) or record is dropped. Queue is flushed when
+ * writer is stopped.
+ *
+ * @author lazyman
+ */
+public class AsyncAuditWriter implements Runnable {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AsyncAuditWriter.class);
+
+    private static final long POLL_TIMEOUT = 1000L;
+    private static final long JOURNAL_RETRY_INTERVAL = 60000L;
+    private static final long DROPPED_LOG_INTERVAL = 1000L;
+    private static final String REPLAY_SUFFIX = ".replay";
+
+    private final SqlAuditServiceImpl auditService;
+    private final BlockingQueue<RAuditEventRecord> queue;
+    private final int batchSize;
+    private final AuditOverflowPolicy overflowPolicy;
+    private final File journal;
+    private final Object journalLock = new Object();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread thread;
+    private long nextJournalReplay;
+
+    public AsyncAuditWriter(SqlAuditServiceImpl auditService, SqlRepositoryConfiguration config) {
+        this.auditService = auditService;
+        this.queue = new ArrayBlockingQueue<>(config.getAuditQueueSize());
+        this.batchSize = config.getAuditBatchSize();
+        this.overflowPolicy = config.getAuditOverflowPolicy();
+        this.journal = config.getAuditJournalFile() != null ? new File(config.getAuditJournalFile()) : null;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        LOGGER.info("Starting asynchronous audit writer (queue size {}, batch size {}, overflow policy {}).",
+                new Object[]{queue.remainingCapacity() + queue.size(), batchSize, overflowPolicy});
+        running = true;
+        thread = new Thread(this, "midpoint-audit-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops writer thread, records which are still in queue (or journal) are written before it ends.
+     */
+    public synchronized void stop(long timeout) {
+        if (!running) {
+            return;
+        }
+
+        LOGGER.info("Stopping asynchronous audit writer, {} records in queue.", new Object[]{queue.size()});
+        running = false;
+        try {
+            thread.join(timeout);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            LOGGER.warn("Audit writer didn't finish in {} ms, {} records in queue weren't written.",
+                    new Object[]{timeout, queue.size()});
+        } else if (!queue.isEmpty()) {
+            // records submitted while writer thread was finishing
+            List<RAuditEventRecord> batch = new ArrayList<>();
+            queue.drainTo(batch);
+            writeBatch(batch);
+        }
+
+        LOGGER.info("Asynchronous audit writer stopped; records written: {}, spilled to journal: {}, dropped: {}.",
+                new Object[]{written.get(), spilled.get(), dropped.get()});
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return false if writer isn't running and record has to be written by caller
+     */
+    public boolean submit(RAuditEventRecord record) {
+        if (!running) {
+            return false;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(record);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                break;
+            case SPILL:
+                if (!queue.offer(record)) {
+                    appendToJournal(record);
+                }
+                break;
+            case DROP:
+                if (!queue.offer(record)) {
+                    long count = dropped.incrementAndGet();
+                    if (count % DROPPED_LOG_INTERVAL == 1) {
+                        LOGGER.warn("Audit queue is full, {} audit records were dropped so far.", count);
+                    }
+                }
+        }
+        return true;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void run() {
+        replayJournal();
+
+        List<RAuditEventRecord> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                RAuditEventRecord record = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (record == null) {
+                    // writer is idle
+                    replayJournal();
+                    continue;
+                }
+
+                batch.add(record);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+            } catch (InterruptedException ex) {
+                LOGGER.debug("Audit writer was interrupted.");
+            } catch (RuntimeException ex) {
+                LoggingUtils.logException(LOGGER, "Unexpected problem in audit writer", ex);
+            } finally {
+                batch.clear();
+            }
+        }
+
+        replayJournal();
+    }
+
+    private boolean writeBatch(List<RAuditEventRecord> batch) {
+        try {
+            auditService.auditBatch(batch);
+            written.addAndGet(batch.size());
+            return true;
+        } catch (RuntimeException ex) {
+            if (journal != null) {
+                LoggingUtils.logException(LOGGER, "Couldn't write {} audit records, appending them to journal",
+                        ex, batch.size());
+                for (RAuditEventRecord record : batch) {
+                    appendToJournal(record);
+                }
+            } else {
+                LoggingUtils.logException(LOGGER, "Couldn't write {} audit records, records were dropped",
+                        ex, batch.size());
+                dropped.addAndGet(batch.size());
+            }
+            return false;
+        }
+    }
+
+    private void appendToJournal(RAuditEventRecord record) {
+        synchronized (journalLock) {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(journal, true)))) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(bytes);
+                oos.writeObject(record);
+                oos.close();
+
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+                spilled.incrementAndGet();
+            } catch (IOException ex) {
+                LoggingUtils.logException(LOGGER, "Couldn't append audit record to journal {}, record was dropped",
+                        ex, journal);
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Journal is renamed first, so callers can append new records while it's being written. Records which
+     * can't be written are appended back to journal and replay is postponed. If the journal can't be read
+     * to the end, the unread part is kept for the next replay. Record which can't be deserialized is dropped.
+     */
+    private void replayJournal() {
+        if (journal == null || System.currentTimeMillis() < nextJournalReplay) {
+            return;
+        }
+
+        File replay = new File(journal.getPath() + REPLAY_SUFFIX);
+        synchronized (journalLock) {
+            if (!replay.exists()) {
+                if (!journal.exists()) {
+                    return;
+                }
+                if (!journal.renameTo(replay)) {
+                    LOGGER.error("Couldn't rename audit journal {} to {}.", new Object[]{journal, replay});
+                    nextJournalReplay = System.currentTimeMillis() + JOURNAL_RETRY_INTERVAL;
+                    return;
+                }
+            }
+        }
+
+        LOGGER.info("Writing audit records from journal {}.", new Object[]{replay});
+        int count = 0;
+        boolean failed = false;
+        // position after the last record that was read completely
+        long position = 0;
+        boolean readFailed = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(replay)))) {
+            List<RAuditEventRecord> batch = new ArrayList<>(batchSize);
+            byte[] data;
+            while ((data = readRecordData(in)) != null) {
+                position += 4 + data.length;
+                RAuditEventRecord record = deserializeRecord(data);
+                if (record == null) {
+                    continue;
+                }
+                batch.add(record);
+                if (batch.size() < batchSize) {
+                    continue;
+                }
+                failed |= !writeBatch(batch);
+                count += batch.size();
+                batch.clear();
+            }
+            if (!batch.isEmpty()) {
+                failed |= !writeBatch(batch);
+                count += batch.size();
+            }
+        } catch (IOException ex) {
+            LoggingUtils.logException(LOGGER, "Couldn't read audit journal {}, {} records were processed",
+                    ex, replay, count);
+            failed = true;
+            readFailed = true;
+        }
+
+        if (readFailed) {
+            keepUnread(replay, position);
+        } else if (!replay.delete()) {
+            LOGGER.error("Couldn't delete audit journal {}.", new Object[]{replay});
+        }
+        if (failed) {
+            nextJournalReplay = System.currentTimeMillis() + JOURNAL_RETRY_INTERVAL;
+        }
+        LOGGER.info("{} audit records from journal processed.", new Object[]{count});
+    }
+
+    /**
+     * Replaces the replayed journal by its part after the given position. If it can't be done, the whole
+     * journal is kept and records before the position will be written again.
+     */
+    private void keepUnread(File replay, long position) {
+        File rest = new File(replay.getPath() + ".rest");
+        try (RandomAccessFile in = new RandomAccessFile(replay, "r");
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(rest))) {
+            in.seek(position);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException ex) {
+            LoggingUtils.logException(LOGGER, "Couldn't copy unread part of audit journal {}, keeping the whole "
+                    + "journal", ex, replay);
+            rest.delete();
+            return;
+        }
+
+        if (!replay.delete() || !rest.renameTo(replay)) {
+            LOGGER.error("Couldn't replace audit journal {} by its unread part {}.", new Object[]{replay, rest});
+        }
+    }
+
+    private byte[] readRecordData(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException ex) {
+            return null;
+        }
+
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    private RAuditEventRecord deserializeRecord(byte[] data) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (RAuditEventRecord) ois.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            LoggingUtils.logException(LOGGER, "Couldn't read audit record from journal, record was dropped", ex);
+            dropped.incrementAndGet();
+            return null;
+        }
+    }
+}
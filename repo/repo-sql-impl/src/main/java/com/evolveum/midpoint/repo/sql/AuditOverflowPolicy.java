@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+/**
+ * What happens with audit record when queue of asynchronous audit writer is full.
+ *
+ * @author lazyman
+ */
+public enum AuditOverflowPolicy {
+
+    /**
+     * Caller waits until there is a free place in queue.
+     */
+    BLOCK("block"),
+
+    /**
+     * Record is appended to local journal file, journal is written to database when writer is idle
+     * (or after restart).
+     */
+    SPILL("spill"),
+
+    /**
+     * Record is thrown away, number of dropped records is counted and logged.
+     */
+    DROP("drop");
+
+    private final String value;
+
+    AuditOverflowPolicy(String value) {
+        this.value = value;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    public static AuditOverflowPolicy fromValue(String v) {
+        for (AuditOverflowPolicy c : AuditOverflowPolicy.values()) {
+            if (c.value.equals(v)) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException(v);
+    }
+}
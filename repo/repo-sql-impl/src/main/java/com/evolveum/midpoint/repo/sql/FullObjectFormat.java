@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+/**
+ * Format of data stored in full object column.
+ *
+ * @author lazyman
+ */
+public enum FullObjectFormat {
+
+    /**
+     * Plain XML (UTF-8).
+     */
+    XML("xml"),
+
+    /**
+     * XML compressed using GZIP.
+     */
+    ZIP("zip");
+
+    private final String value;
+
+    FullObjectFormat(String value) {
+        this.value = value;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    public static FullObjectFormat fromValue(String v) {
+        for (FullObjectFormat c : FullObjectFormat.values()) {
+            if (c.value.equals(v)) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException(v);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.repo.api.ObjectChangeRecord;
+import com.evolveum.midpoint.repo.sql.data.common.RObject;
+import com.evolveum.midpoint.repo.sql.data.common.RObjectChange;
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.repo.sql.util.ClassMapper;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Hibernate;
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes and reads object change log (m_object_change table). Changes are recorded in the same transaction
+ * as the change itself, only for object types which are usually cached.
+ *
+ * @author lazyman
+ */
+public class ObjectChangeLog {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ObjectChangeLog.class);
+
+    private static final Set<RObjectType> RECORDED_TYPES = EnumSet.of(RObjectType.ROLE, RObjectType.ORG,
+            RObjectType.ABSTRACT_ROLE, RObjectType.OBJECT_TEMPLATE, RObjectType.VALUE_POLICY,
+            RObjectType.SECURITY_POLICY, RObjectType.SYSTEM_CONFIGURATION, RObjectType.RESOURCE,
+            RObjectType.CONNECTOR, RObjectType.CONNECTOR_HOST);
+
+    public void recordChange(RObject object, String oid, Session session) {
+        RObjectType type = RObjectType.getType(Hibernate.getClass(object));
+        if (!RECORDED_TYPES.contains(type)) {
+            return;
+        }
+
+        LOGGER.trace("Recording change of {} {}", new Object[]{type, oid});
+        session.save(new RObjectChange(oid, type));
+    }
+
+    public List<ObjectChangeRecord> listChanges(long afterSequence, int maxSize, Session session) {
+        Query query = session.createQuery("from RObjectChange c where c.id > :sequence order by c.id");
+        query.setLong("sequence", afterSequence);
+        query.setMaxResults(maxSize);
+
+        List<RObjectChange> changes = query.list();
+        List<ObjectChangeRecord> records = new ArrayList<>(changes.size());
+        for (RObjectChange change : changes) {
+            records.add(new ObjectChangeRecord(change.getId(),
+                    ClassMapper.getObjectTypeForHQLType(change.getObjectType()).getClassDefinition(),
+                    change.getOid(), change.getTimestamp().getTime()));
+        }
+
+        return records;
+    }
+
+    public long getLastSequence(Session session) {
+        Query query = session.createQuery("select max(c.id) from RObjectChange c");
+        Number number = (Number) query.uniqueResult();
+        return number != null ? number.longValue() : 0L;
+    }
+
+    public int cleanup(long olderThan, Session session) {
+        Query query = session.createQuery("delete from RObjectChange c where c.timestamp < :timestamp");
+        query.setTimestamp("timestamp", new Timestamp(olderThan));
+        return query.executeUpdate();
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.path.ItemPathSegment;
+import com.evolveum.midpoint.prism.path.NameItemPathSegment;
+import com.evolveum.midpoint.repo.sql.data.common.RObject;
+import com.evolveum.midpoint.repo.sql.data.common.RObjectReference;
+import com.evolveum.midpoint.repo.sql.data.common.RUser;
+import com.evolveum.midpoint.repo.sql.data.common.RUserPhoto;
+import com.evolveum.midpoint.repo.sql.data.common.any.ROExtValue;
+import com.evolveum.midpoint.repo.sql.data.common.container.Container;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Applies changes computed from object modifications to already persistent {@link RObject} instead of merging
+ * whole transient entity graph created from modified prism object.
+ * <p/>
+ * Object after modifications is translated to (transient) data object. Properties (columns) which differ
+ * from persistent entity are copied to it. Collections (references, assignments, extension values, ...)
+ * are compared only if some modification changes an item they are created from, other collections
+ * are not touched, therefore hibernate doesn't have to load them or check them during flush.
+ * <p/>
+ * Collection items which are containers (assignments, triggers, ...) are matched by container id, other
+ * items (references, extension values, ...) by their value.
+ *
+ * @author lazyman
+ */
+public class ObjectDeltaUpdater {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ObjectDeltaUpdater.class);
+
+    /**
+     * Full object column is always updated separately, version is computed from persistent entity.
+     */
+    private static final Set<String> SKIPPED_PROPERTIES = new HashSet<>();
+
+    /**
+     * Items from which collections are created, if they differ from collection name.
+     */
+    private static final Map<String, Set<String>> COLLECTION_SOURCES = new HashMap<>();
+
+    static {
+        SKIPPED_PROPERTIES.add("fullObject");
+        SKIPPED_PROPERTIES.add("version");
+        SKIPPED_PROPERTIES.add("descendants");
+        SKIPPED_PROPERTIES.add("ancestors");
+
+        addCollectionSources("assignments", "assignment", "inducement");
+        addCollectionSources("createApproverRef", "metadata");
+        addCollectionSources("modifyApproverRef", "metadata");
+        for (String extension : Arrays.asList("strings", "longs", "dates", "references", "polys")) {
+            addCollectionSources(extension, "extension", "attributes");
+        }
+    }
+
+    private static void addCollectionSources(String collection, String... items) {
+        COLLECTION_SOURCES.put(collection, new HashSet<>(Arrays.asList(items)));
+    }
+
+    /**
+     * @param persistent    object loaded in session (state before modification)
+     * @param newObject     transient data object created from object after modifications were applied
+     * @param modifications modifications which were applied to the object
+     * @return number of changed properties (columns or collections)
+     */
+    public int update(RObject persistent, RObject newObject, Collection<? extends ItemDelta> modifications,
+                      Session session) {
+        ClassMetadata metadata = session.getSessionFactory().getClassMetadata(Hibernate.getClass(persistent));
+
+        String[] names = metadata.getPropertyNames();
+        Type[] types = metadata.getPropertyTypes();
+        Set<String> modifiedItems = getModifiedItems(modifications);
+
+        List<String> changedCollections = new ArrayList<>();
+        int changed = 0;
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            if (SKIPPED_PROPERTIES.contains(name)) {
+                continue;
+            }
+
+            if (types[i].isCollectionType()) {
+                if (isCollectionModified(name, modifiedItems)) {
+                    changedCollections.add(name);
+                }
+                continue;
+            }
+
+            Object oldValue = metadata.getPropertyValue(persistent, name);
+            Object newValue = metadata.getPropertyValue(newObject, name);
+            if (Objects.deepEquals(oldValue, newValue)) {
+                continue;
+            }
+
+            changed++;
+            LOGGER.trace("Updating property {}.", name);
+            metadata.setPropertyValue(persistent, name, newValue);
+        }
+
+        if (changedCollections.isEmpty()) {
+            return changed;
+        }
+
+        // first we remove old collection items and flush, otherwise hibernate would try to insert new rows
+        // before deleting old ones with the same primary key (e.g. modified assignment with the same id)
+        List<Collection> toBeAdded = new ArrayList<>();
+        for (String name : changedCollections) {
+            Collection persistentValue = (Collection) metadata.getPropertyValue(persistent, name);
+            Collection newValue = (Collection) metadata.getPropertyValue(newObject, name);
+            if (persistentValue == null) {
+                persistentValue = new HashSet();
+                metadata.setPropertyValue(persistent, name, persistentValue);
+            }
+
+            int size = persistentValue.size();
+            Collection added = removeChangedItems(persistentValue, newValue);
+            if (!added.isEmpty() || persistentValue.size() != size) {
+                LOGGER.trace("Updating collection {}.", name);
+                changed++;
+            }
+            toBeAdded.add(added);
+        }
+        session.flush();
+
+        for (int i = 0; i < changedCollections.size(); i++) {
+            Collection persistentValue = (Collection) metadata.getPropertyValue(persistent, changedCollections.get(i));
+            for (Object item : toBeAdded.get(i)) {
+                replaceOwner(item, persistent);
+                persistentValue.add(item);
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return names of top-level items changed by modifications, null if they can't be determined
+     */
+    private Set<String> getModifiedItems(Collection<? extends ItemDelta> modifications) {
+        Set<String> items = new HashSet<>();
+        if (modifications == null) {
+            return items;
+        }
+
+        for (ItemDelta delta : modifications) {
+            ItemPathSegment first = delta.getPath() != null ? delta.getPath().first() : null;
+            if (!(first instanceof NameItemPathSegment)) {
+                return null;
+            }
+            items.add(ItemPath.getName(first).getLocalPart());
+        }
+        return items;
+    }
+
+    private boolean isCollectionModified(String collection, Set<String> modifiedItems) {
+        if (modifiedItems == null) {
+            return true;
+        }
+
+        Set<String> sources = COLLECTION_SOURCES.get(collection);
+        if (sources == null) {
+            return modifiedItems.contains(collection);
+        }
+        for (String source : sources) {
+            if (modifiedItems.contains(source)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes items which are not present in new state from persistent collection. Containers are matched
+     * by id, container with the same id but different content is replaced.
+     *
+     * @return items from new state which are not present in persistent collection
+     */
+    private Collection removeChangedItems(Collection persistentValue, Collection newValue) {
+        Collection toBeAdded = new ArrayList();
+        if (newValue == null || newValue.isEmpty()) {
+            persistentValue.clear();
+            return toBeAdded;
+        }
+
+        Map<Short, Container> newContainers = new HashMap<>();
+        for (Object item : newValue) {
+            if (item instanceof Container && ((Container) item).getId() != null) {
+                newContainers.put(((Container) item).getId(), (Container) item);
+            }
+        }
+
+        Set<Short> keptContainers = new HashSet<>();
+        Iterator iterator = persistentValue.iterator();
+        while (iterator.hasNext()) {
+            Object item = iterator.next();
+            if (item instanceof Container && ((Container) item).getId() != null) {
+                Short id = ((Container) item).getId();
+                Container newItem = newContainers.get(id);
+                if (newItem != null && newItem.equals(item)) {
+                    keptContainers.add(id);
+                    continue;
+                }
+                iterator.remove();
+            } else if (!newValue.contains(item)) {
+                iterator.remove();
+            }
+        }
+
+        for (Object item : newValue) {
+            if (item instanceof Container && ((Container) item).getId() != null) {
+                if (!keptContainers.contains(((Container) item).getId())) {
+                    toBeAdded.add(item);
+                }
+            } else if (!persistentValue.contains(item)) {
+                toBeAdded.add(item);
+            }
+        }
+
+        return toBeAdded;
+    }
+
+    /**
+     * New collection items were created for transient owner, they have to point to persistent one.
+     */
+    private void replaceOwner(Object item, RObject persistentOwner) {
+        if (item instanceof RObjectReference) {
+            ((RObjectReference) item).setOwner(persistentOwner);
+        } else if (item instanceof ROExtValue) {
+            ((ROExtValue) item).setOwner(persistentOwner);
+        } else if (item instanceof Container) {
+            ((Container) item).setOwner(persistentOwner);
+        } else if (item instanceof RUserPhoto) {
+            ((RUserPhoto) item).setOwner((RUser) persistentOwner);
+        }
+        // otherwise it's element collection value (e.g. embedded poly string) without owner reference
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Constant-size latency statistics for one kind of repository operation.
+ * <p/>
+ * Latencies (in microseconds) are counted in log-linear histogram buckets (8 buckets per power of two,
+ * relative error of percentiles is at most 12.5%). Counters are striped by thread, every update is a single
+ * atomic increment, therefore recording doesn't lock and memory doesn't grow with number of operations.
+ *
+ * @author lazyman
+ */
+public class OperationStatistics {
+
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;         // ~ 12 days in microseconds
+    static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+    private static final int STRIPES = stripeCount();
+
+    private static final int COUNT = 0;
+    private static final int ATTEMPTS = 1;
+    private static final int RETRIED = 2;
+    private static final int UNFINISHED = 3;
+    private static final int TOTAL_TIME = 4;
+    private static final int WASTED_TIME = 5;
+    private static final int COUNTERS = 6;
+
+    private final String kind;
+    private final AtomicLongArray[] histograms = new AtomicLongArray[STRIPES];
+    private final AtomicLongArray[] counters = new AtomicLongArray[STRIPES];
+    private final AtomicLong maxTime = new AtomicLong();
+
+    public OperationStatistics(String kind) {
+        this.kind = kind;
+        for (int i = 0; i < STRIPES; i++) {
+            histograms[i] = new AtomicLongArray(BUCKETS);
+            counters[i] = new AtomicLongArray(COUNTERS);
+        }
+    }
+
+    private static int stripeCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors && stripes < 16) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * @param time       total operation time in microseconds
+     * @param wastedTime time spent in failed attempts in microseconds
+     * @param attempts   number of attempts, negative value if operation wasn't finished correctly
+     */
+    public void record(long time, long wastedTime, int attempts) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        AtomicLongArray c = counters[stripe];
+
+        c.incrementAndGet(COUNT);
+        c.addAndGet(TOTAL_TIME, time);
+        c.addAndGet(WASTED_TIME, wastedTime);
+        if (attempts < 0) {
+            c.incrementAndGet(UNFINISHED);
+        } else {
+            c.addAndGet(ATTEMPTS, attempts);
+            if (attempts > 1) {
+                c.incrementAndGet(RETRIED);
+            }
+        }
+
+        histograms[stripe].incrementAndGet(getBucket(time));
+
+        long max = maxTime.get();
+        while (time > max && !maxTime.compareAndSet(max, time)) {
+            max = maxTime.get();
+        }
+    }
+
+    static int getBucket(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return highest value which belongs to bucket
+     */
+    static long getBucketUpperBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * Snapshot is not atomic, concurrently recorded operations may be counted only partially.
+     */
+    public Snapshot getSnapshot() {
+        long[] sums = new long[COUNTERS];
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < STRIPES; i++) {
+            for (int j = 0; j < COUNTERS; j++) {
+                sums[j] += counters[i].get(j);
+            }
+            for (int j = 0; j < BUCKETS; j++) {
+                buckets[j] += histograms[i].get(j);
+            }
+        }
+
+        long max = maxTime.get();
+        return new Snapshot(kind, sums[COUNT], sums[ATTEMPTS], sums[RETRIED], sums[UNFINISHED], sums[TOTAL_TIME],
+                sums[WASTED_TIME], getPercentile(buckets, 0.50, max), getPercentile(buckets, 0.95, max),
+                getPercentile(buckets, 0.99, max), max);
+    }
+
+    private static long getPercentile(long[] buckets, double percentile, long max) {
+        long count = 0;
+        for (long bucket : buckets) {
+            count += bucket;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Immutable statistics of one operation kind, times are in microseconds.
+     */
+    public static class Snapshot {
+
+        private final String kind;
+        private final long count;
+        private final long attempts;
+        private final long retried;
+        private final long unfinished;
+        private final long totalTime;
+        private final long wastedTime;
+        private final long p50;
+        private final long p95;
+        private final long p99;
+        private final long max;
+
+        Snapshot(String kind, long count, long attempts, long retried, long unfinished, long totalTime,
+                 long wastedTime, long p50, long p95, long p99, long max) {
+            this.kind = kind;
+            this.count = count;
+            this.attempts = attempts;
+            this.retried = retried;
+            this.unfinished = unfinished;
+            this.totalTime = totalTime;
+            this.wastedTime = wastedTime;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getAttempts() {
+            return attempts;
+        }
+
+        public long getRetried() {
+            return retried;
+        }
+
+        public long getUnfinished() {
+            return unfinished;
+        }
+
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        public long getWastedTime() {
+            return wastedTime;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP95() {
+            return p95;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            if (count == 0) {
+                return "no records";
+            }
+            return "Records: " + count + ", " +
+                    "Time ms (avg/p50/p95/p99/max): " + millis(totalTime / count) + "/" + millis(p50) + "/"
+                    + millis(p95) + "/" + millis(p99) + "/" + millis(max) + ", " +
+                    "Wasted time ms (sum): " + millis(wastedTime) + ", " +
+                    "Attempts (sum): " + attempts + ", " +
+                    "Retried: " + retried + ", " +
+                    "Unfinished: " + unfinished;
+        }
+
+        private static String millis(long micros) {
+            return Float.toString((float) micros / 1000);
+        }
+    }
+}
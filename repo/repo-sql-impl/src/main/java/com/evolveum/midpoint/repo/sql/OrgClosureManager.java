@@ -15,21 +15,42 @@
  */
 package com.evolveum.midpoint.repo.sql;
 
+import com.evolveum.midpoint.prism.PrismReferenceValue;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
+import com.evolveum.midpoint.repo.sql.data.common.ROrgIncorrect;
+import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
 
 import org.hibernate.Query;
 import org.hibernate.Session;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
- * This class and its subclasses provides org. closure table handling.
+ * This class provides org. closure table handling.
+ * <p/>
+ * Closure table contains one row for each ancestor, descendant and length of a path between them
+ * (including row with depth 0 for the object itself). Org. structure can be a DAG, therefore there can be
+ * more rows for one ancestor-descendant pair. Changes are computed as products of ancestors and descendants
+ * and executed as set-based HQL statements, rows are never loaded to the session.
+ * <p/>
+ * <ul>
+ * <li>Adding parent P to object O inserts rows (A, D, a + 1 + d) for all ancestors (A, P, a) of P and all
+ * descendants (O, D, d) of O.</li>
+ * <li>Removing parent from O (or deleting O) removes all rows between proper ancestors of O and descendants
+ * of O and inserts them back from the parent references which enter the subtree of O from outside.
+ * Other paths to the subtree are therefore preserved.</li>
+ * </ul>
+ * References to parents which don't exist (yet) are stored in org. incorrect table. They are resolved when
+ * the parent is added.
  *
  * @author lazyman
  */
@@ -39,113 +60,346 @@ public class OrgClosureManager {
 
     private static final Trace LOGGER = TraceManager.getTrace(OrgClosureManager.class);
 
+    /**
+     * Maximal number of oids used in one "in" restriction (some databases limit the number of parameters).
+     */
+    private static final int OID_BATCH_SIZE = 500;
+
+    /**
+     * Protection against endless rebuild if the org. structure contains a cycle.
+     */
+    private static final int MAX_DEPTH = 1000;
+
+    /*
+     * Inserted rows are distinct, paths of the same length through different parents (diamond) would
+     * produce the same row more times. "Not exists" conditions check only rows already in the table.
+     */
+    private static final String INSERT_EDGE = "insert into ROrgClosure (ancestor, descendant, depth) " +
+            "select distinct a.ancestor, d.descendant, a.depth + d.depth + 1 from ROrgClosure as a, ROrgClosure as d " +
+            "where a.descendantOid = :parentOid and d.ancestorOid = :childOid " +
+            "and not exists (select c.id from ROrgClosure as c where c.ancestorOid = a.ancestorOid " +
+            "and c.descendantOid = d.descendantOid and c.depth = a.depth + d.depth + 1)";
+
+    private static final String INSERT_ENTERING_EDGES = "insert into ROrgClosure (ancestor, descendant, depth) " +
+            "select distinct a.ancestor, d.descendant, a.depth + d.depth + 1 " +
+            "from RParentOrgRef as e, ROrgClosure as a, ROrgClosure as d " +
+            "where e.ownerOid in (:owners) and e.ownerOid <> :excludedOid " +
+            "and a.descendantOid = e.targetOid and d.ancestorOid = e.ownerOid " +
+            "and not exists (select x.id from ROrgClosure as x where x.ancestorOid = :rootOid " +
+            "and x.descendantOid = a.ancestorOid) " +
+            "and not exists (select c.id from ROrgClosure as c where c.ancestorOid = a.ancestorOid " +
+            "and c.descendantOid = d.descendantOid and c.depth = a.depth + d.depth + 1)";
+
+    private static final String INSERT_NEXT_LEVEL = "insert into ROrgClosure (ancestor, descendant, depth) " +
+            "select distinct a.ancestor, d.descendant, a.depth + 1 " +
+            "from ROrgClosure as a, RParentOrgRef as e, ROrgClosure as d " +
+            "where a.depth = :depth and a.descendantOid = e.targetOid " +
+            "and d.ancestorOid = e.ownerOid and d.descendantOid = e.ownerOid and d.depth = 0 " +
+            "and not exists (select c.id from ROrgClosure as c where c.ancestorOid = a.ancestorOid " +
+            "and c.descendantOid = d.descendantOid and c.depth = a.depth + 1)";
+
     private SqlRepositoryConfiguration repoConfiguration;
 
     public OrgClosureManager(SqlRepositoryConfiguration repoConfiguration) {
         this.repoConfiguration = repoConfiguration;
     }
 
+    /**
+     * Updates closure table after object was added, modified or before it's deleted. Object state (including
+     * its parent references) must be already saved in the session, session is flushed here.
+     *
+     * @param modifications for {@link Operation#ADD} deltas adding all parent references of the new object,
+     *                      for {@link Operation#MODIFY} object modifications, ignored for {@link Operation#DELETE}
+     */
     public <T extends ObjectType> void updateOrgClosure(Collection<? extends ItemDelta> modifications, Session session,
                                                         String oid, Class<T> type, Operation operation) {
-        LOGGER.debug("Starting update for org. closure for {} {}.", oid, type);
         List<ReferenceDelta> deltas = filterParentRefDeltas(modifications);
-        if (deltas.isEmpty()) {
+        boolean isOrg = OrgType.class.isAssignableFrom(type);
+        if (deltas.isEmpty() && operation != Operation.DELETE && !(operation == Operation.ADD && isOrg)) {
             return;
         }
 
+        LOGGER.debug("Starting update for org. closure for {} {}.", oid, type.getSimpleName());
+        long time = System.currentTimeMillis();
+
+        session.flush();
         switch (operation) {
             case DELETE:
-                handleDelete(modifications, session, oid, type);
+                handleDelete(session, oid);
                 break;
             case ADD:
-                handleAdd(modifications, session, oid, type);
+                handleAdd(deltas, session, oid, isOrg);
                 break;
             case MODIFY:
-                handleModify(modifications, session, oid, type);
+                handleModify(deltas, session, oid, isOrg);
         }
 
-        LOGGER.debug("Org. closure update finished.");
+        LOGGER.debug("Org. closure update finished ({} ms).", new Object[]{(System.currentTimeMillis() - time)});
     }
 
     /**
-     * 1->2
-     * 1->3
-     * 2->4
-     * 3->4
-     * 3->5
-     * <p/>
-     * a d
-     * 1 1 0
-     * 1 2 1
-     * 1 3 1  -
-     * 1 4 2
-     * 1 5 2  *****
-     * 2 2 0
-     * 2 4 1
-     * 3 3 0  -
-     * 3 4 1  -
-     * 3 5 1  -
-     * 4 4 0
-     * 5 5 0
-     * <p/>
-     * deleting 3
-     * <p/>
-     * 1->2
-     * 2->4
-     * 5
-     * <p/>
-     * a d
-     * 1 1 0
-     * 1 2 1
-     * 1 4 2
-     * 2 2 0
-     * 2 4 1
-     * 4 4 0
-     * 5 5 0
-     * <p/>
-     * <p/>
-     * remove all with ancestor = 3
-     * remove all with descendant = 3
-     * <p/>
-     * deleting 5
-     * remove all with ancestor = 5
-     * remove all with descendant = 5
-     * <p/>
-     * deleting ref 1->3 (parentRef = 1 in object 3)
-     * update depth all children of 3 and new depth = depth - (1->3 depth which is 1 based on 1 3 1)
-     * remove 1 3 1
+     * Recomputes whole closure table (and org. incorrect table) from parent references, level by level.
+     * It can be used to repair the closure table or to fill it after bulk import done without closure updates.
+     *
+     * @return number of closure rows
      */
-    private <T extends ObjectType> void handleDelete(Collection<? extends ItemDelta> modifications, Session session,
-                                                     String oid, Class<T> type) {
+    public int rebuild(Session session) {
+        LOGGER.info("Rebuilding org. closure table.");
+        long time = System.currentTimeMillis();
+
+        session.flush();
+        session.createQuery("delete from ROrgClosure").executeUpdate();
+        session.createQuery("delete from ROrgIncorrect").executeUpdate();
+
+        int count = session.createQuery("insert into ROrgClosure (ancestor, descendant, depth) " +
+                "select o, o, 0 from RObject as o where o.oid in (select g.oid from ROrg as g) " +
+                "or o.oid in (select r.ownerOid from RParentOrgRef as r)").executeUpdate();
 
-//        "select distinct o.descendantOid from ROrgClosure as o where o.ancestorId=0 and o.ancestorOid=:oid";
-//        "select distinct o.ancestorOid from ROrgClosure as o " +
-//                "where o.descendantId=0 and o.descendantOid=:oid and and o.ancestorId=0 o.ancestorOid != :oid";
+        int depth = 0;
+        int inserted;
+        do {
+            if (depth >= MAX_DEPTH) {
+                throw new SystemException("Org. structure is deeper than " + MAX_DEPTH
+                        + " levels, it probably contains a cycle.");
+            }
+            Query query = session.createQuery(INSERT_NEXT_LEVEL);
+            query.setInteger("depth", depth);
+            inserted = query.executeUpdate();
+            LOGGER.trace("Inserted {} closure rows with depth {}.", new Object[]{inserted, depth + 1});
+
+            count += inserted;
+            depth++;
+        } while (inserted > 0);
 
+        Query query = session.createQuery("select distinct r.targetOid, r.ownerOid from RParentOrgRef as r " +
+                "where not exists (select c.id from ROrgClosure as c where c.descendantOid = r.targetOid)");
+        List<Object[]> incorrect = query.list();
+        for (Object[] row : incorrect) {
+            session.save(new ROrgIncorrect((String) row[0], (String) row[1]));
+        }
 
-        LOGGER.trace("Deleting org. closure for object {} {}", oid, type.getSimpleName());
-        Query query = session.createQuery("select distinct o.ancestorOid from ROrgClosure as o where o.descendantId=0 and o.descendantOid=:dOid");
+        LOGGER.info("Org. closure table rebuilt, {} rows, {} incorrect references ({} ms).",
+                new Object[]{count, incorrect.size(), (System.currentTimeMillis() - time)});
+        return count;
+    }
+
+    /**
+     * Object O with descendants D and proper ancestors A is being deleted. Rows A x D are removed and the
+     * paths which don't lead through O are inserted back. After that all rows of O are removed.
+     */
+    private void handleDelete(Session session, String oid) {
+        LOGGER.trace("Deleting org. closure for object {}", oid);
+        List<String> descendants = getDescendants(session, oid);
+        if (descendants.size() > 1) {
+            recomputeSubtreeAncestors(session, oid, descendants, false);
+        }
 
-        query = session.createQuery("delete from ROrgClosure as o where (o.ancestorId=0 and " +
-                "o.ancestorOid=:aOid) or (o.descendantId=0 and o.descendantOid=:dOid)");
-        query.setString("aOid", oid);
-        query.setString("dOid", oid);
+        Query query = session.getNamedQuery("sqlDeleteOrgClosure");
+        query.setString("oid", oid);
         int count = query.executeUpdate();
         LOGGER.trace("Deleted {} records.", count);
+
+        query = session.getNamedQuery("sqlDeleteOrgIncorrect");
+        query.setString("oid", oid);
+        query.executeUpdate();
     }
 
-    private <T extends ObjectType> void handleAdd(Collection<? extends ItemDelta> modifications, Session session,
-                                                  String oid, Class<T> type) {
+    private void handleAdd(List<ReferenceDelta> deltas, Session session, String oid, boolean isOrg) {
+        Set<String> parentOids = getAddedParentOids(deltas);
+        if (!isOrg && parentOids.isEmpty()) {
+            return;
+        }
+
+        ensureSelfRow(session, oid);
+        for (String parentOid : parentOids) {
+            addEdge(session, parentOid, oid);
+        }
 
+        // objects which were added before this one and reference it as parent
+        Query query = session.getNamedQuery("fillHierarchy");
+        query.setString("oid", oid);
+        List<ROrgIncorrect> incorrectList = query.list();
+        for (ROrgIncorrect incorrect : incorrectList) {
+            if (existsInClosure(session, incorrect.getDescendantOid())) {
+                LOGGER.trace("Resolving incorrect {}\t{}", new Object[]{oid, incorrect.getDescendantOid()});
+                addEdge(session, oid, incorrect.getDescendantOid());
+            }
+            session.delete(incorrect);
+        }
     }
 
-    private <T extends ObjectType> void handleModify(Collection<? extends ItemDelta> modifications, Session session,
-                                                     String oid, Class<T> type) {
+    private void handleModify(List<ReferenceDelta> deltas, Session session, String oid, boolean isOrg) {
+        ensureSelfRow(session, oid);
+
+        boolean onlyAdd = true;
+        for (ReferenceDelta delta : deltas) {
+            if (delta.isReplace() || delta.isDelete()) {
+                onlyAdd = false;
+            }
+        }
+
+        if (onlyAdd) {
+            for (String parentOid : getAddedParentOids(deltas)) {
+                addEdge(session, parentOid, oid);
+            }
+            return;
+        }
+
+        // some parent was removed, paths through object have to be recomputed from its current parent refs
+        List<String> descendants = getDescendants(session, oid);
+        recomputeSubtreeAncestors(session, oid, descendants, true);
+
+        Set<String> currentParents = getCurrentParentOids(session, oid);
+        if (!isOrg && currentParents.isEmpty() && descendants.size() <= 1) {
+            // object is not in org. structure anymore
+            Query query = session.getNamedQuery("sqlDeleteOrgClosure");
+            query.setString("oid", oid);
+            query.executeUpdate();
+        }
 
+        // pending references to missing parents are recreated from current parent refs
+        Query query = session.createQuery("delete from ROrgIncorrect as o where o.descendantOid = :oid");
+        query.setString("oid", oid);
+        query.executeUpdate();
+        for (String parentOid : currentParents) {
+            if (!existsInClosure(session, parentOid)) {
+                addIncorrect(session, parentOid, oid);
+            }
+        }
+    }
+
+    /**
+     * Inserts rows for all paths going through the new edge parent -> child.
+     */
+    private void addEdge(Session session, String parentOid, String childOid) {
+        if (!existsInClosure(session, parentOid)) {
+            addIncorrect(session, parentOid, childOid);
+            return;
+        }
+
+        Query query = session.createQuery(INSERT_EDGE);
+        query.setString("parentOid", parentOid);
+        query.setString("childOid", childOid);
+        int count = query.executeUpdate();
+        LOGGER.trace("Added edge {} -> {}, inserted {} closure rows.", new Object[]{parentOid, childOid, count});
+    }
+
+    /**
+     * Removes rows between proper ancestors of the root and its descendants and inserts back rows
+     * for the paths entering the subtree through parent references (the root's own references
+     * are skipped if the root is being deleted).
+     */
+    private void recomputeSubtreeAncestors(Session session, String rootOid, List<String> descendants,
+                                           boolean includeRootParents) {
+        Query query = session.createQuery("select distinct o.ancestorOid from ROrgClosure as o " +
+                "where o.descendantOid = :oid and o.ancestorOid <> :oid");
+        query.setString("oid", rootOid);
+        List<String> ancestors = query.list();
+
+        LOGGER.trace("Recomputing paths from {} ancestors to {} descendants of {}.",
+                new Object[]{ancestors.size(), descendants.size(), rootOid});
+
+        int deleted = 0;
+        for (List<String> ancestorBatch : partition(ancestors)) {
+            for (List<String> descendantBatch : partition(descendants)) {
+                query = session.createQuery("delete from ROrgClosure as o " +
+                        "where o.ancestorOid in (:ancestors) and o.descendantOid in (:descendants)");
+                query.setParameterList("ancestors", ancestorBatch);
+                query.setParameterList("descendants", descendantBatch);
+                deleted += query.executeUpdate();
+            }
+        }
+
+        int inserted = 0;
+        for (List<String> descendantBatch : partition(descendants)) {
+            query = session.createQuery(INSERT_ENTERING_EDGES);
+            query.setParameterList("owners", descendantBatch);
+            // oid can't be empty string, so nothing is excluded if root parents are included
+            query.setString("excludedOid", includeRootParents ? "" : rootOid);
+            query.setString("rootOid", rootOid);
+            inserted += query.executeUpdate();
+        }
+
+        LOGGER.trace("Deleted {}, inserted {} closure rows.", new Object[]{deleted, inserted});
+    }
+
+    private void ensureSelfRow(Session session, String oid) {
+        if (existsInClosure(session, oid)) {
+            return;
+        }
+
+        Query query = session.createQuery("insert into ROrgClosure (ancestor, descendant, depth) " +
+                "select o, o, 0 from RObject as o where o.oid = :oid");
+        query.setString("oid", oid);
+        query.executeUpdate();
+    }
+
+    private boolean existsInClosure(Session session, String oid) {
+        Query query = session.createQuery("select count(*) from ROrgClosure as o " +
+                "where o.ancestorOid = :oid and o.descendantOid = :oid and o.depth = 0");
+        query.setString("oid", oid);
+        return ((Number) query.uniqueResult()).longValue() != 0;
+    }
+
+    private void addIncorrect(Session session, String ancestorOid, String descendantOid) {
+        Query query = session.getNamedQuery("existIncorrect");
+        query.setString("ancestorOid", ancestorOid);
+        query.setString("descendantOid", descendantOid);
+        if (((Number) query.uniqueResult()).longValue() != 0) {
+            return;
+        }
+
+        LOGGER.trace("adding incorrect {}\t{}", new Object[]{ancestorOid, descendantOid});
+        session.save(new ROrgIncorrect(ancestorOid, descendantOid));
+    }
+
+    private List<String> getDescendants(Session session, String oid) {
+        Query query = session.createQuery("select distinct o.descendantOid from ROrgClosure as o " +
+                "where o.ancestorOid = :oid");
+        query.setString("oid", oid);
+        return query.list();
+    }
+
+    private Set<String> getCurrentParentOids(Session session, String oid) {
+        Query query = session.createQuery("select distinct r.targetOid from RParentOrgRef as r " +
+                "where r.ownerOid = :oid");
+        query.setString("oid", oid);
+        return new HashSet<String>(query.list());
+    }
+
+    /**
+     * @return oids of parents added (or replaced) by deltas
+     */
+    private Set<String> getAddedParentOids(List<ReferenceDelta> deltas) {
+        Set<String> oids = new HashSet<>();
+        for (ReferenceDelta delta : deltas) {
+            Collection<PrismReferenceValue> values = delta.isReplace() ?
+                    delta.getValuesToReplace() : delta.getValuesToAdd();
+            if (values == null) {
+                continue;
+            }
+            for (PrismReferenceValue value : values) {
+                if (value.getOid() != null) {
+                    oids.add(value.getOid());
+                }
+            }
+        }
+        return oids;
+    }
+
+    private static <T> List<List<T>> partition(List<T> list) {
+        List<List<T>> batches = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += OID_BATCH_SIZE) {
+            batches.add(list.subList(i, Math.min(i + OID_BATCH_SIZE, list.size())));
+        }
+        return batches;
     }
 
     private List<ReferenceDelta> filterParentRefDeltas(Collection<? extends ItemDelta> modifications) {
         List<ReferenceDelta> deltas = new ArrayList<>();
+        if (modifications == null) {
+            return deltas;
+        }
 
         for (ItemDelta delta : modifications) {
             if (!ObjectType.F_PARENT_ORG_REF.equals(delta.getElementName())) {
@@ -17,10 +17,16 @@
 package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditQuery;
+import com.evolveum.midpoint.audit.api.AuditResultHandler;
 import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventStage;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventType;
 import com.evolveum.midpoint.repo.sql.data.audit.RObjectDeltaOperation;
+import com.evolveum.midpoint.repo.sql.data.common.enums.ROperationResultStatus;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.exception.SystemException;
@@ -29,15 +35,22 @@ import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CleanupPolicyType;
 
 import org.apache.commons.lang.Validate;
+import org.hibernate.Criteria;
+import org.hibernate.Query;
 import org.hibernate.SQLQuery;
 import org.hibernate.Session;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
 import org.hibernate.dialect.Dialect;
 import org.hibernate.jdbc.Work;
 
 import javax.xml.datatype.Duration;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 /**
  * @author lazyman
@@ -46,6 +59,9 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 
     private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceImpl.class);
 
+    // maximal number of ids bound to one "in" condition
+    private static final int ID_BATCH_SIZE = 500;
+
     public SqlAuditServiceImpl(SqlRepositoryFactory repositoryFactory) {
         super(repositoryFactory);
     }
@@ -55,6 +71,11 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         Validate.notNull(record, "Audit event record must not be null.");
         Validate.notNull(task, "Task must not be null.");
 
+        if (getConfiguration().isAuditAsync()) {
+            auditAsync(record);
+            return;
+        }
+
         final String operation = "audit";
         int attempt = 1;
 
@@ -86,24 +107,151 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         }
     }
 
+    /**
+     * Record is translated in caller thread (caller may change it later), written by {@link AsyncAuditWriter}.
+     */
+    private void auditAsync(AuditEventRecord record) {
+        RAuditEventRecord newRecord;
+        try {
+            newRecord = RAuditEventRecord.toRepo(record, getPrismContext());
+        } catch (DtoTranslationException ex) {
+            throw new SystemException("Couldn't translate audit record: " + ex.getMessage(), ex);
+        }
+
+        AsyncAuditWriter writer = getRepositoryFactory().getAuditWriter(this);
+        if (!writer.submit(newRecord)) {
+            LOGGER.debug("Audit writer is not running, writing audit record synchronously.");
+            auditBatch(Arrays.asList(newRecord));
+        }
+    }
+
+    /**
+     * Writes audit records in one transaction. Records may come from a failed attempt (retry here or journal
+     * replay in {@link AsyncAuditWriter}), identifiers generated by the rolled back transaction are therefore
+     * cleared before each attempt.
+     */
+    void auditBatch(List<RAuditEventRecord> records) {
+        final String operation = "audit";
+        int attempt = 1;
+
+        while (true) {
+            try {
+                auditBatchAttempt(records);
+                return;
+            } catch (RuntimeException ex) {
+                attempt = logOperationAttempt(null, operation, attempt, ex, null);
+            }
+        }
+    }
+
+    private void auditBatchAttempt(List<RAuditEventRecord> records) {
+        Session session = null;
+        try {
+            session = beginTransaction();
+
+            for (RAuditEventRecord record : records) {
+                resetIdentifiers(record);
+                saveRecord(session, record);
+            }
+
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            handleGeneralRuntimeException(ex, session, null);
+        } finally {
+            cleanupSessionAndResult(session, null);
+        }
+    }
+
+    void saveRecord(Session session, RAuditEventRecord record) {
+        session.save(record);
+    }
+
+    /**
+     * Delta operations remember record id when they are saved, it's stale after rollback.
+     */
+    private void resetIdentifiers(RAuditEventRecord record) {
+        record.setId(0);
+        for (RObjectDeltaOperation delta : record.getDeltas()) {
+            delta.setRecordId(null);
+        }
+    }
+
     @Override
-    public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult) {
-        Validate.notNull(policy, "Cleanup policy must not be null.");
+    public boolean supportsRetrieval() {
+        return true;
+    }
+
+    @Override
+    public List<AuditEventRecord> searchAudit(AuditQuery query, OperationResult parentResult) {
+        Validate.notNull(query, "Audit query must not be null.");
         Validate.notNull(parentResult, "Operation result must not be null.");
 
-        final String operation = "deleting";
-        int attempt = 1;
+        LOGGER.debug("Searching audit records, query {}.", new Object[]{query});
 
+        OperationResult subResult = parentResult.createSubresult(SEARCH_AUDIT);
+        subResult.addParam("query", query);
+
+        return searchAudit(query, subResult, "searchAudit");
+    }
+
+    /**
+     * Records are read in batches ordered by timestamp and id, every batch in separate transaction. Every batch
+     * continues after the last record of the previous one (keyset pagination), therefore no batch has to skip
+     * already processed records and memory used doesn't depend on number of matching records.
+     */
+    @Override
+    public void searchAuditIterative(AuditQuery query, AuditResultHandler handler, OperationResult parentResult) {
+        Validate.notNull(query, "Audit query must not be null.");
+        Validate.notNull(handler, "Result handler must not be null.");
+        Validate.notNull(parentResult, "Operation result must not be null.");
+
+        LOGGER.debug("Searching audit records iterative, query {}.", new Object[]{query});
+
+        OperationResult subResult = parentResult.createSubresult(SEARCH_AUDIT_ITERATIVE);
+        subResult.addParam("query", query);
+
+        try {
+            AuditQuery batchQuery = query.clone();
+            final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+            int remaining = query.getMaxSize() != null ? query.getMaxSize() : Integer.MAX_VALUE;
+
+            while (remaining > 0) {
+                int size = remaining < batchSize ? remaining : batchSize;
+                batchQuery.setMaxSize(size);
+
+                OperationResult batchResult = subResult.createMinorSubresult(SEARCH_AUDIT);
+                List<AuditEventRecord> records = searchAudit(batchQuery, batchResult, "searchAuditIterative");
+                for (AuditEventRecord record : records) {
+                    batchQuery.setAfter(record);
+                    if (!handler.handle(record, subResult)) {
+                        return;
+                    }
+                }
+
+                if (records.size() < size) {
+                    break;
+                }
+                remaining -= records.size();
+            }
+        } finally {
+            if (subResult.isUnknown()) {
+                subResult.computeStatus();
+            }
+        }
+    }
+
+    private List<AuditEventRecord> searchAudit(AuditQuery query, OperationResult subResult, String monitorKind) {
         SqlPerformanceMonitor pm = getPerformanceMonitor();
-        long opHandle = pm.registerOperationStart("deleteObject");
+        long opHandle = pm.registerOperationStart(monitorKind);
 
+        final String operation = "searching";
+        int attempt = 1;
         try {
             while (true) {
                 try {
-                    cleanupAuditAttempt(policy, parentResult);
-                    return;
+                    return searchAuditAttempt(query, subResult);
                 } catch (RuntimeException ex) {
-                    attempt = logOperationAttempt(null, operation, attempt, ex, parentResult);
+                    attempt = logOperationAttempt(null, operation, attempt, ex, subResult);
                     pm.registerOperationNewTrial(opHandle, attempt);
                 }
             }
@@ -112,7 +260,83 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         }
     }
 
-    private void cleanupAuditAttempt(CleanupPolicyType policy, OperationResult subResult) {
+    private List<AuditEventRecord> searchAuditAttempt(AuditQuery query, OperationResult result) {
+        List<AuditEventRecord> list = new ArrayList<>();
+        Session session = null;
+        try {
+            session = beginTransaction(getConfiguration().isUseReadOnlyTransactions());
+
+            List<RAuditEventRecord> records = createAuditCriteria(query, session).list();
+            LOGGER.trace("Found {} audit records, translating.", new Object[]{records.size()});
+            for (RAuditEventRecord record : records) {
+                list.add(RAuditEventRecord.fromRepo(record, getPrismContext()));
+            }
+
+            session.getTransaction().commit();
+        } catch (DtoTranslationException ex) {
+            handleGeneralCheckedException(ex, session, result);
+        } catch (RuntimeException ex) {
+            handleGeneralRuntimeException(ex, session, result);
+        } finally {
+            cleanupSessionAndResult(session, result);
+        }
+
+        return list;
+    }
+
+    private Criteria createAuditCriteria(AuditQuery query, Session session) {
+        Criteria criteria = session.createCriteria(RAuditEventRecord.class);
+        if (query.getFrom() != null) {
+            criteria.add(Restrictions.ge("timestamp", new Timestamp(query.getFrom())));
+        }
+        if (query.getTo() != null) {
+            criteria.add(Restrictions.lt("timestamp", new Timestamp(query.getTo())));
+        }
+        if (query.getInitiatorOid() != null) {
+            criteria.add(Restrictions.eq("initiatorOid", query.getInitiatorOid()));
+        }
+        if (query.getTargetOid() != null) {
+            criteria.add(Restrictions.eq("targetOid", query.getTargetOid()));
+        }
+        if (query.getTargetOwnerOid() != null) {
+            criteria.add(Restrictions.eq("targetOwnerOid", query.getTargetOwnerOid()));
+        }
+        if (query.getEventType() != null) {
+            criteria.add(Restrictions.eq("eventType", RAuditEventType.toRepo(query.getEventType())));
+        }
+        if (query.getEventStage() != null) {
+            criteria.add(Restrictions.eq("eventStage", RAuditEventStage.toRepo(query.getEventStage())));
+        }
+        if (query.getOutcome() != null) {
+            criteria.add(Restrictions.eq("outcome", RUtil.getRepoEnumValue(query.getOutcome().createStatusType(),
+                    ROperationResultStatus.class)));
+        }
+
+        if (query.getAfterTimestamp() != null) {
+            Timestamp after = new Timestamp(query.getAfterTimestamp());
+            if (query.getAfterRepoId() != null) {
+                criteria.add(Restrictions.or(Restrictions.gt("timestamp", after),
+                        Restrictions.and(Restrictions.eq("timestamp", after),
+                                Restrictions.gt("id", query.getAfterRepoId()))));
+            } else {
+                criteria.add(Restrictions.gt("timestamp", after));
+            }
+        }
+
+        criteria.addOrder(Order.asc("timestamp"));
+        criteria.addOrder(Order.asc("id"));
+        if (query.getMaxSize() != null) {
+            criteria.setMaxResults(query.getMaxSize());
+        }
+
+        return criteria;
+    }
+
+    @Override
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult) {
+        Validate.notNull(policy, "Cleanup policy must not be null.");
+        Validate.notNull(parentResult, "Operation result must not be null.");
+
         if (policy.getMaxAge() == null) {
             return;
         }
@@ -125,13 +349,75 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         duration.addTo(minValue);
         LOGGER.info("Starting audit cleanup, deleting up to {} (duration '{}').", new Object[]{minValue, duration});
 
+        int batchSize = getConfiguration().getAuditCleanupBatchSize();
+        if (batchSize <= 0) {
+            int count = cleanupAudit(minValue, 0, parentResult);
+            LOGGER.info("Cleanup in performed, {} records deleted up to {} (duration '{}').",
+                    new Object[]{count, minValue, duration});
+            return;
+        }
+
+        // Records are deleted in batches ordered by timestamp, every batch in its own transaction. Batches
+        // already committed stay deleted, so interrupted cleanup continues where it stopped on the next run.
+        long deleted = 0;
+        while (true) {
+            if (task != null && !task.canRun()) {
+                LOGGER.info("Audit cleanup was interrupted, {} records deleted up to {}, rest will be deleted "
+                        + "in the next run.", new Object[]{deleted, minValue});
+                return;
+            }
+
+            int count = cleanupAudit(minValue, batchSize, parentResult);
+            deleted += count;
+            if (task != null) {
+                task.setProgress(task.getProgress() + count);
+            }
+            LOGGER.debug("Deleted {} audit records in batch, {} records deleted so far.", new Object[]{count, deleted});
+
+            if (count < batchSize) {
+                break;
+            }
+        }
+
+        LOGGER.info("Cleanup in performed, {} records deleted up to {} (duration '{}') in batches of {}.",
+                new Object[]{deleted, minValue, duration, batchSize});
+    }
+
+    /**
+     * @param batchSize max. number of records deleted in one transaction, zero means no limit
+     * @return number of deleted records
+     */
+    private int cleanupAudit(Date minValue, int batchSize, OperationResult result) {
+        final String operation = "deleting";
+        int attempt = 1;
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("cleanupAudit");
+
+        try {
+            while (true) {
+                try {
+                    if (batchSize > 0) {
+                        return cleanupAuditBatchAttempt(minValue, batchSize, result);
+                    }
+                    return cleanupAuditAttempt(minValue, result);
+                } catch (RuntimeException ex) {
+                    attempt = logOperationAttempt(null, operation, attempt, ex, result);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
+        }
+    }
+
+    private int cleanupAuditAttempt(Date minValue, OperationResult subResult) {
+        int count = 0;
         Session session = null;
         try {
             session = beginTransaction();
 
-            int count = cleanupAuditAttempt(minValue, session);
-            LOGGER.info("Cleanup in performed, {} records deleted up to {} (duration '{}').",
-                    new Object[]{count, minValue, duration});
+            count = cleanupAuditAttempt(minValue, session);
 
             session.getTransaction().commit();
         } catch (RuntimeException ex) {
@@ -139,6 +425,60 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         } finally {
             cleanupSessionAndResult(session, subResult);
         }
+
+        return count;
+    }
+
+    private int cleanupAuditBatchAttempt(Date minValue, int batchSize, OperationResult subResult) {
+        int count = 0;
+        Session session = null;
+        try {
+            session = beginTransaction();
+
+            count = cleanupAuditBatchAttempt(minValue, batchSize, session);
+
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            handleGeneralRuntimeException(ex, session, subResult);
+        } finally {
+            cleanupSessionAndResult(session, subResult);
+        }
+
+        return count;
+    }
+
+    /**
+     * Deletes oldest audit records (and their deltas) created before minValue. Uses index on timestamp
+     * column, therefore every batch touches only rows which are deleted. Ids are deleted in chunks
+     * of {@link #ID_BATCH_SIZE}, databases limit number of parameters in one statement.
+     *
+     * @return number of deleted records
+     */
+    protected int cleanupAuditBatchAttempt(Date minValue, int batchSize, Session session) {
+        Query query = session.createQuery("select a.id from RAuditEventRecord a where a.timestamp < :minValue "
+                + "order by a.timestamp, a.id");
+        query.setParameter("minValue", new Timestamp(minValue.getTime()));
+        query.setMaxResults(batchSize);
+        List<Long> ids = query.list();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+        for (int i = 0; i < ids.size(); i += ID_BATCH_SIZE) {
+            List<Long> chunk = ids.subList(i, Math.min(i + ID_BATCH_SIZE, ids.size()));
+
+            query = session.createQuery("delete from RObjectDeltaOperation d where d.recordId in (:ids)");
+            query.setParameterList("ids", chunk);
+            query.executeUpdate();
+
+            query = session.createQuery("delete from RAuditEventRecord a where a.id in (:ids)");
+            query.setParameterList("ids", chunk);
+            count += query.executeUpdate();
+        }
+        LOGGER.trace("Deleted {} audit records.", new Object[]{count});
+
+        return count;
     }
 
     protected int cleanupAuditAttempt(Date minValue, Session session) {
@@ -74,6 +74,10 @@ public class SqlBaseService {
         return repositoryFactory.getPerformanceMonitor();
     }
 
+    protected SqlRepositoryFactory getRepositoryFactory() {
+        return repositoryFactory;
+    }
+
     protected LocalSessionFactoryBean getSessionFactoryBean() {
         return sessionFactoryBean;
     }
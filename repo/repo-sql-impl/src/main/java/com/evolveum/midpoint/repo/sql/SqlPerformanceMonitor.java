@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2010-2013 Evolveum
+ * Copyright (c) 2010-2014 Evolveum
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,52 +20,61 @@ import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Created with IntelliJ IDEA.
- * User: Pavol
- * Date: 31.1.2013
- * Time: 18:43
- * To change this template use File | Settings | File Templates.
+ * Collects statistics of repository operations (latency percentiles, attempts, time wasted by retries)
+ * per operation kind.
+ * <p/>
+ * Memory used by monitor is constant - finished operations are only counted in {@link OperationStatistics}
+ * histograms, outstanding operation is kept in thread local variable. Statistics are available while node
+ * is running via {@link SqlRepositoryServiceImpl#getRepositoryDiag()} and JMX
+ * ({@link SqlPerformanceMonitorMXBean}) and can be reset to start new window.
+ *
+ * @author Pavol
+ * @author lazyman
  */
-public class SqlPerformanceMonitor {
+public class SqlPerformanceMonitor implements SqlPerformanceMonitorMXBean {
 
     private static final Trace LOGGER = TraceManager.getTrace(SqlPerformanceMonitor.class);
 
     public static final int LEVEL_NONE = 0;
     public static final int LEVEL_DETAILS = 10;
 
+    public static final String JMX_OBJECT_NAME = "com.evolveum.midpoint.repo.sql:type=SqlPerformanceMonitor";
+
     private int level = 0;
 
     private AtomicLong currentHandle = new AtomicLong();
 
-    private ConcurrentMap<Long,OperationRecord> outstandingOperations = new ConcurrentHashMap<Long, OperationRecord>();
-    private List<OperationRecord> finishedOperations = Collections.synchronizedList(new ArrayList<OperationRecord>());
+    private ThreadLocal<OperationRecord> outstandingOperation = new ThreadLocal<>();
+    private AtomicReference<Window> window = new AtomicReference<>(new Window());
 
     private SqlRepositoryFactory sqlRepositoryFactory;
+    private ObjectName jmxName;
 
-    class OperationRecord {
+    private static class OperationRecord {
         String kind;
         long handle;
         int attempts;
         long startTime;
-        long startCpuTime;
-        long totalTime;
-        long totalCpuTime;
         long wastedTime;
-        long wastedCpuTime;
 
         public OperationRecord(String kind, long handle) {
             this.kind = kind;
             this.handle = handle;
-            this.startTime = System.currentTimeMillis();
+            this.startTime = System.nanoTime();
         }
 
         @Override
@@ -74,110 +83,160 @@ public class SqlPerformanceMonitor {
                     "kind='" + kind + '\'' +
                     ", handle=" + handle +
                     ", attempts=" + attempts +
-                    ", startTime=" + new Date(startTime) +
-                    ", totalTime=" + totalTime +
-//                    ", totalCpuTime=" + totalCpuTime +
                     ", wastedTime=" + wastedTime +
-//                    ", wastedCpuTime=" + wastedCpuTime +
                     '}';
         }
     }
 
+    private static class Window {
+
+        final long startTime = System.currentTimeMillis();
+        final ConcurrentMap<String, OperationStatistics> statistics = new ConcurrentHashMap<>();
+
+        OperationStatistics getStatistics(String kind) {
+            OperationStatistics stats = statistics.get(kind);
+            if (stats == null) {
+                OperationStatistics newStats = new OperationStatistics(kind);
+                stats = statistics.putIfAbsent(kind, newStats);
+                if (stats == null) {
+                    stats = newStats;
+                }
+            }
+            return stats;
+        }
+    }
+
     public void initialize(SqlRepositoryFactory sqlRepositoryFactory) {
-        outstandingOperations.clear();
-        finishedOperations.clear();
         this.sqlRepositoryFactory = sqlRepositoryFactory;
-        this.level = sqlRepositoryFactory.getSqlConfiguration().getPerformanceStatisticsLevel();
+        initialize(sqlRepositoryFactory.getSqlConfiguration().getPerformanceStatisticsLevel());
+    }
+
+    void initialize(int level) {
+        this.level = level;
+        window.set(new Window());
+        if (level > LEVEL_NONE) {
+            registerMBean();
+        }
         if (level >= LEVEL_NONE) {
             LOGGER.info("SQL Performance Monitor initialized (level = " + level + ").");
         }
     }
 
     public void shutdown() {
+        unregisterMBean();
         if (level > LEVEL_NONE) {
             LOGGER.info("SQL Performance Monitor shutting down.");
             LOGGER.info("Statistics:\n" + getFormattedStatistics());
-            String file = sqlRepositoryFactory.getSqlConfiguration().getPerformanceStatisticsFile();
+            String file = sqlRepositoryFactory != null ?
+                    sqlRepositoryFactory.getSqlConfiguration().getPerformanceStatisticsFile() : null;
             if (file != null) {
                 writeStatisticsToFile(file);
             }
         }
     }
 
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                // repository factory was reinitialized (e.g. new spring context in tests)
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            jmxName = name;
+        } catch (JMException ex) {
+            LoggingUtils.logException(LOGGER, "Couldn't register SQL performance monitor in JMX", ex);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (jmxName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(jmxName)) {
+                server.unregisterMBean(jmxName);
+            }
+        } catch (JMException ex) {
+            LoggingUtils.logException(LOGGER, "Couldn't unregister SQL performance monitor from JMX", ex);
+        }
+        jmxName = null;
+    }
+
     private void writeStatisticsToFile(String file) {
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(file, true));
-            for (OperationRecord or : finishedOperations) {
-                pw.println(new Date(or.startTime) + "\t" + or.kind + "\t" + or.attempts + "\t" + or.totalTime + "\t" + or.wastedTime);
-            }
-            for (OperationRecord or : outstandingOperations.values()) {
-                pw.println(new Date(or.startTime) + "\t" + or.kind + "\t" + "?" + "\t" + "?" + "\t" + or.wastedTime);
+            Date now = new Date();
+            for (OperationStatistics.Snapshot stats : getStatistics()) {
+                pw.println(now + "\t" + stats.getKind() + "\t" + stats.getCount() + "\t" + stats.getAttempts()
+                        + "\t" + stats.getTotalTime() + "\t" + stats.getWastedTime() + "\t" + stats.getP50()
+                        + "\t" + stats.getP95() + "\t" + stats.getP99() + "\t" + stats.getMax());
             }
             pw.close();
-            LOGGER.trace("" + (finishedOperations.size() + outstandingOperations.size()) + " record(s) written to file " + file);
+            LOGGER.trace("Statistics written to file " + file);
         } catch (IOException e) {
             LoggingUtils.logException(LOGGER, "Couldn't write repository performance statistics to file " + file, e);
         }
-
     }
 
-    class StatEntry {
-        long totalTime, wastedTime;
-        int attempts;
-        int records;
-
-        public void process(OperationRecord operation) {
-            totalTime += operation.totalTime;
-            wastedTime += operation.wastedTime;
-            attempts += operation.attempts;
-            records++;
+    /**
+     * @return statistics of all operation kinds recorded in current window, sorted by kind
+     */
+    public List<OperationStatistics.Snapshot> getStatistics() {
+        List<OperationStatistics.Snapshot> list = new ArrayList<>();
+        for (OperationStatistics stats : window.get().statistics.values()) {
+            list.add(stats.getSnapshot());
         }
 
-        public String dump() {
-            if (records == 0) {
-                return "no records";
+        Collections.sort(list, new Comparator<OperationStatistics.Snapshot>() {
+
+            @Override
+            public int compare(OperationStatistics.Snapshot o1, OperationStatistics.Snapshot o2) {
+                return o1.getKind().compareTo(o2.getKind());
             }
-            return "Records: " + records + ", " +
-                   "Total time (avg/sum): " + ((float) totalTime/records) + "/" + totalTime + ", " +
-                   "Wasted time (avg/sum): " + ((float) wastedTime/records) + "/" + wastedTime + ", " +
-                   "Attempts (avg): " + ((float) attempts/records);
-        }
+        });
+        return list;
     }
 
-    private String getFormattedStatistics() {
-        StatEntry all = new StatEntry();
-        StatEntry unfinished = new StatEntry();
-        StatEntry[] perAttempts = new StatEntry[SqlBaseService.LOCKING_MAX_ATTEMPTS+1];         // "+1" is a safety margin
+    @Override
+    public int getLevel() {
+        return level;
+    }
 
-        for (int i = 0; i < SqlBaseService.LOCKING_MAX_ATTEMPTS+1; i++) {
-            perAttempts[i] = new StatEntry();
-        }
+    @Override
+    public long getWindowStartTime() {
+        return window.get().startTime;
+    }
 
-        synchronized (finishedOperations) {
-            for (OperationRecord operation : finishedOperations) {
-                all.process(operation);
-                if (operation.attempts >= 1 && operation.attempts <= SqlBaseService.LOCKING_MAX_ATTEMPTS+1) {
-                    perAttempts[operation.attempts-1].process(operation);
-                } else if (operation.attempts < 0) {
-                    unfinished.process(operation);
-                }
-            }
-        }
+    @Override
+    public String[] getOperationKinds() {
+        Set<String> kinds = new TreeSet<>(window.get().statistics.keySet());
+        return kinds.toArray(new String[kinds.size()]);
+    }
 
-        StringBuilder retval = new StringBuilder();
-        retval.append("Overall: " + all.dump() + "\n");
-        for (int i = 0; i < SqlBaseService.LOCKING_MAX_ATTEMPTS+1; i++) {
-            retval.append((i+1) + " attempt(s): " + perAttempts[i].dump() + "\n");
-        }
-        retval.append("Unfinished: " + unfinished.dump() + "\n");
-        retval.append("Outstanding: " + outstandingOperations.toString());
-        return retval.toString();
+    @Override
+    public String getOperationStatistics(String kind) {
+        OperationStatistics stats = window.get().statistics.get(kind);
+        return stats != null ? stats.getSnapshot().toString() : null;
     }
 
-    private String dump() {
-        return "Finished operations: " + finishedOperations + "\nOutstanding operations: " + outstandingOperations;
+    @Override
+    public String getFormattedStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Window started: ").append(new Date(getWindowStartTime()));
+        for (OperationStatistics.Snapshot stats : getStatistics()) {
+            sb.append('\n').append(stats.getKind()).append(": ").append(stats);
+        }
+        return sb.toString();
     }
 
+    @Override
+    public void resetStatistics() {
+        Window old = window.getAndSet(new Window());
+        LOGGER.debug("Performance statistics window started at {} was reset.", new Object[]{new Date(old.startTime)});
+    }
 
     public long registerOperationStart(String kind) {
 
@@ -186,13 +245,12 @@ public class SqlPerformanceMonitor {
         }
 
         long handle = currentHandle.getAndIncrement();
-        Long threadId = Thread.currentThread().getId();
-        if (outstandingOperations.containsKey(threadId)) {
-            OperationRecord unfinishedOperation = outstandingOperations.get(threadId);
+        OperationRecord unfinishedOperation = outstandingOperation.get();
+        if (unfinishedOperation != null) {
             LOGGER.warn("Unfinished operation: " + unfinishedOperation);
-            registerOperationFinishRaw(threadId, unfinishedOperation, -1);
+            registerOperationFinishRaw(unfinishedOperation, -1);
         }
-        outstandingOperations.put(threadId, new OperationRecord(kind, handle));
+        outstandingOperation.set(new OperationRecord(kind, handle));
         return handle;
     }
 
@@ -202,8 +260,7 @@ public class SqlPerformanceMonitor {
             return;
         }
 
-        Long threadId = Thread.currentThread().getId();
-        OperationRecord operation = outstandingOperations.get(threadId);
+        OperationRecord operation = outstandingOperation.get();
 
         if (operation == null) {
             LOGGER.warn("Attempted to record finish event for unregistered operation: handle = " + opHandle + ", attempt = " + attempt + ", ignoring the request.");
@@ -211,17 +268,16 @@ public class SqlPerformanceMonitor {
         }
         if (operation.handle != opHandle) {
             LOGGER.error("Attempted to record finish event with unexpected operation handle: handle = " + opHandle + ", stored outstanding operation for this thread = " + operation);
-            outstandingOperations.remove(threadId);
+            outstandingOperation.remove();
             return;
         }
-        registerOperationFinishRaw(threadId, operation, attempt);
+        registerOperationFinishRaw(operation, attempt);
     }
 
-    private void registerOperationFinishRaw(Long threadId, OperationRecord operation, int attempt) {
-        operation.totalTime = System.currentTimeMillis() - operation.startTime;
-        operation.attempts = attempt;
-        finishedOperations.add(operation);
-        outstandingOperations.remove(threadId);
+    private void registerOperationFinishRaw(OperationRecord operation, int attempt) {
+        long totalTime = (System.nanoTime() - operation.startTime) / 1000;
+        window.get().getStatistics(operation.kind).record(totalTime, operation.wastedTime, attempt);
+        outstandingOperation.remove();
     }
 
     public void registerOperationNewTrial(long opHandle, int attempt) {
@@ -230,8 +286,7 @@ public class SqlPerformanceMonitor {
             return;
         }
 
-        Long threadId = Thread.currentThread().getId();
-        OperationRecord operation = outstandingOperations.get(threadId);
+        OperationRecord operation = outstandingOperation.get();
 
         if (operation == null) {
             LOGGER.warn("Attempted to record new trial event for unregistered operation: handle = " + opHandle + ", attempt = " + attempt + ", ignoring the request.");
@@ -239,11 +294,10 @@ public class SqlPerformanceMonitor {
         }
         if (operation.handle != opHandle) {
             LOGGER.error("Attempted to record new trial event with unexpected operation handle: handle = " + opHandle + ", stored outstanding operation for this thread = " + operation);
-            outstandingOperations.remove(threadId);
+            outstandingOperation.remove();
             return;
         }
-        operation.wastedTime = System.currentTimeMillis() - operation.startTime;
+        operation.wastedTime = (System.nanoTime() - operation.startTime) / 1000;
         operation.attempts = attempt;
     }
-
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+/**
+ * JMX view of {@link SqlPerformanceMonitor}. Statistics are computed for current window, i.e. since repository
+ * initialization or since last reset.
+ *
+ * @author lazyman
+ */
+public interface SqlPerformanceMonitorMXBean {
+
+    /**
+     * @return performance statistics level configured for repository
+     */
+    int getLevel();
+
+    /**
+     * @return time (in millis) when current statistics window started
+     */
+    long getWindowStartTime();
+
+    /**
+     * @return names of repository operations which were recorded in current window
+     */
+    String[] getOperationKinds();
+
+    /**
+     * @return statistics for one operation kind (count, attempts, latency percentiles), null if not recorded
+     */
+    String getOperationStatistics(String kind);
+
+    /**
+     * @return statistics for all operation kinds, one line per kind
+     */
+    String getFormattedStatistics();
+
+    /**
+     * Starts new statistics window, recorded values are discarded.
+     */
+    void resetStatistics();
+}
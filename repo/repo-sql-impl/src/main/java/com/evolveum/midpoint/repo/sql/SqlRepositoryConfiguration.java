@@ -50,6 +50,7 @@ public class SqlRepositoryConfiguration {
     public static final String PROPERTY_JDBC_URL = "jdbcUrl";
     public static final String PROPERTY_DATASOURCE = "dataSource";
     public static final String PROPERTY_USE_ZIP = "useZip";
+    public static final String PROPERTY_FULL_OBJECT_FORMAT = "fullObjectFormat";
     public static final String PROPERTY_MIN_POOL_SIZE = "minPoolSize";
     public static final String PROPERTY_MAX_POOL_SIZE = "maxPoolSize";
 
@@ -64,6 +65,16 @@ public class SqlRepositoryConfiguration {
     //other
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING = "iterativeSearchByPaging";
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE = "iterativeSearchByPagingBatchSize";
+    public static final String PROPERTY_USE_DELTA_UPDATE = "useDeltaUpdate";
+    public static final String PROPERTY_JDBC_BATCH_SIZE = "jdbcBatchSize";
+
+    //audit
+    public static final String PROPERTY_AUDIT_ASYNC = "auditAsync";
+    public static final String PROPERTY_AUDIT_QUEUE_SIZE = "auditQueueSize";
+    public static final String PROPERTY_AUDIT_BATCH_SIZE = "auditBatchSize";
+    public static final String PROPERTY_AUDIT_OVERFLOW_POLICY = "auditOverflowPolicy";
+    public static final String PROPERTY_AUDIT_JOURNAL_FILE = "auditJournalFile";
+    public static final String PROPERTY_AUDIT_CLEANUP_BATCH_SIZE = "auditCleanupBatchSize";
 
     //embedded configuration
     private boolean embedded;
@@ -84,6 +95,7 @@ public class SqlRepositoryConfiguration {
     private int minPoolSize;
     private int maxPoolSize;
     private boolean useZip;
+    private FullObjectFormat fullObjectFormat;
 
     private TransactionIsolation transactionIsolation;
     private boolean lockForUpdateViaHibernate;
@@ -95,6 +107,16 @@ public class SqlRepositoryConfiguration {
     private boolean iterativeSearchByPaging;
     private int iterativeSearchByPagingBatchSize;
 
+    private boolean useDeltaUpdate;
+    private int jdbcBatchSize;
+
+    private boolean auditAsync;
+    private int auditQueueSize;
+    private int auditBatchSize;
+    private AuditOverflowPolicy auditOverflowPolicy;
+    private String auditJournalFile;
+    private int auditCleanupBatchSize;
+
     public SqlRepositoryConfiguration(Configuration configuration) {
         setAsServer(configuration.getBoolean(PROPERTY_AS_SERVER, false));
         setBaseDir(configuration.getString(PROPERTY_BASE_DIR, baseDir));
@@ -113,6 +135,8 @@ public class SqlRepositoryConfiguration {
         setMinPoolSize(configuration.getInt(PROPERTY_MIN_POOL_SIZE, 8));
         setMaxPoolSize(configuration.getInt(PROPERTY_MAX_POOL_SIZE, 20));
         setUseZip(configuration.getBoolean(PROPERTY_USE_ZIP, false));
+        setFullObjectFormat(configuration.getString(PROPERTY_FULL_OBJECT_FORMAT,
+                useZip ? FullObjectFormat.ZIP.value() : FullObjectFormat.XML.value()));
 
         computeDefaultConcurrencyParameters();
 
@@ -127,6 +151,17 @@ public class SqlRepositoryConfiguration {
 
         setIterativeSearchByPaging(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_PAGING, iterativeSearchByPaging));
         setIterativeSearchByPagingBatchSize(configuration.getInt(PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, iterativeSearchByPagingBatchSize));
+
+        setUseDeltaUpdate(configuration.getBoolean(PROPERTY_USE_DELTA_UPDATE, false));
+        setJdbcBatchSize(configuration.getInt(PROPERTY_JDBC_BATCH_SIZE, 0));
+
+        setAuditAsync(configuration.getBoolean(PROPERTY_AUDIT_ASYNC, false));
+        setAuditQueueSize(configuration.getInt(PROPERTY_AUDIT_QUEUE_SIZE, 10000));
+        setAuditBatchSize(configuration.getInt(PROPERTY_AUDIT_BATCH_SIZE, 100));
+        setAuditOverflowPolicy(configuration.getString(PROPERTY_AUDIT_OVERFLOW_POLICY,
+                AuditOverflowPolicy.BLOCK.value()));
+        setAuditJournalFile(configuration.getString(PROPERTY_AUDIT_JOURNAL_FILE, null));
+        setAuditCleanupBatchSize(configuration.getInt(PROPERTY_AUDIT_CLEANUP_BATCH_SIZE, 10000));
     }
 
     private void computeDefaultConcurrencyParameters() {
@@ -178,6 +213,8 @@ public class SqlRepositoryConfiguration {
             iterativeSearchByPagingBatchSize = 50;
         } else {
             iterativeSearchByPaging = false;
+            // batch size is still used when iterative search is resumed from a position (paging cookie)
+            iterativeSearchByPagingBatchSize = 50;
         }
     }
 
@@ -217,6 +254,23 @@ public class SqlRepositoryConfiguration {
         if (getMinPoolSize() > getMaxPoolSize()) {
             throw new RepositoryServiceFactoryException("Max. pool size must be greater than min. pool size.");
         }
+
+        if (isAuditAsync()) {
+            if (getAuditQueueSize() <= 0) {
+                throw new RepositoryServiceFactoryException("Audit queue size must be greater than zero.");
+            }
+            if (getAuditBatchSize() <= 0) {
+                throw new RepositoryServiceFactoryException("Audit batch size must be greater than zero.");
+            }
+            if (AuditOverflowPolicy.SPILL.equals(getAuditOverflowPolicy())) {
+                notEmpty(getAuditJournalFile(), "Audit journal file must be defined for overflow policy '"
+                        + AuditOverflowPolicy.SPILL.value() + "'.");
+            }
+        }
+
+        if (getAuditCleanupBatchSize() < 0) {
+            throw new RepositoryServiceFactoryException("Audit cleanup batch size must not be negative.");
+        }
     }
 
     private void notNull(String value, String message) throws RepositoryServiceFactoryException {
@@ -439,6 +493,92 @@ public class SqlRepositoryConfiguration {
         this.iterativeSearchByPagingBatchSize = iterativeSearchByPagingBatchSize;
     }
 
+    /**
+     * @return true if modifyObject should update only changed columns and collections of persistent object
+     * instead of merging whole object graph. Default is false.
+     */
+    public boolean isUseDeltaUpdate() {
+        return useDeltaUpdate;
+    }
+
+    public void setUseDeltaUpdate(boolean useDeltaUpdate) {
+        this.useDeltaUpdate = useDeltaUpdate;
+    }
+
+    /**
+     * @return value of hibernate.jdbc.batch_size, 0 (default) disables JDBC batching
+     */
+    public int getJdbcBatchSize() {
+        return jdbcBatchSize;
+    }
+
+    public void setJdbcBatchSize(int jdbcBatchSize) {
+        this.jdbcBatchSize = jdbcBatchSize;
+    }
+
+    /**
+     * @return true if audit records should be written to database by background writer thread.
+     * Default is false (records are written synchronously).
+     */
+    public boolean isAuditAsync() {
+        return auditAsync;
+    }
+
+    public void setAuditAsync(boolean auditAsync) {
+        this.auditAsync = auditAsync;
+    }
+
+    public int getAuditQueueSize() {
+        return auditQueueSize;
+    }
+
+    public void setAuditQueueSize(int auditQueueSize) {
+        this.auditQueueSize = auditQueueSize;
+    }
+
+    /**
+     * @return max. number of audit records written by asynchronous writer in one transaction
+     */
+    public int getAuditBatchSize() {
+        return auditBatchSize;
+    }
+
+    public void setAuditBatchSize(int auditBatchSize) {
+        this.auditBatchSize = auditBatchSize;
+    }
+
+    public AuditOverflowPolicy getAuditOverflowPolicy() {
+        return auditOverflowPolicy;
+    }
+
+    public void setAuditOverflowPolicy(AuditOverflowPolicy auditOverflowPolicy) {
+        this.auditOverflowPolicy = auditOverflowPolicy;
+    }
+
+    public void setAuditOverflowPolicy(String auditOverflowPolicy) {
+        this.auditOverflowPolicy = AuditOverflowPolicy.fromValue(auditOverflowPolicy);
+    }
+
+    public String getAuditJournalFile() {
+        return auditJournalFile;
+    }
+
+    public void setAuditJournalFile(String auditJournalFile) {
+        this.auditJournalFile = auditJournalFile;
+    }
+
+    /**
+     * @return max. number of audit records deleted in one transaction during audit cleanup, zero means
+     * that all expired records are deleted in one transaction
+     */
+    public int getAuditCleanupBatchSize() {
+        return auditCleanupBatchSize;
+    }
+
+    public void setAuditCleanupBatchSize(int auditCleanupBatchSize) {
+        this.auditCleanupBatchSize = auditCleanupBatchSize;
+    }
+
     public String getDataSource() {
         return dataSource;
     }
@@ -471,6 +611,22 @@ public class SqlRepositoryConfiguration {
         this.useZip = useZip;
     }
 
+    /**
+     * @return format used when full object column is written. Reading detects format from stored data,
+     * therefore format can be changed for existing repository. Default is "zip" if useZip is set, "xml" otherwise.
+     */
+    public FullObjectFormat getFullObjectFormat() {
+        return fullObjectFormat;
+    }
+
+    public void setFullObjectFormat(FullObjectFormat fullObjectFormat) {
+        this.fullObjectFormat = fullObjectFormat;
+    }
+
+    public void setFullObjectFormat(String fullObjectFormat) {
+        this.fullObjectFormat = FullObjectFormat.fromValue(fullObjectFormat);
+    }
+
     public boolean isUsingH2() {
         if (hibernateDialect == null) {
             return true;
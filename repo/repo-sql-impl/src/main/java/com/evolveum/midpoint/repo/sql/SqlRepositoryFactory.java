@@ -47,11 +47,13 @@ public class SqlRepositoryFactory implements RepositoryServiceFactory {
     private static final String MIDPOINT_HOME_VARIABLE = "midpoint.home";
     private static final long C3P0_CLOSE_WAIT = 500L;
     private static final long H2_CLOSE_WAIT = 2000L;
+    private static final long AUDIT_WRITER_STOP_WAIT = 30000L;
     private boolean initialized;
     private SqlRepositoryConfiguration sqlConfiguration;
     private Server server;
 
     private SqlPerformanceMonitor performanceMonitor;
+    private AsyncAuditWriter auditWriter;
 
     public SqlRepositoryConfiguration getSqlConfiguration() {
         Validate.notNull(sqlConfiguration, "Sql repository configuration not available (null).");
@@ -65,6 +67,11 @@ public class SqlRepositoryFactory implements RepositoryServiceFactory {
             return;
         }
 
+        if (auditWriter != null) {
+            auditWriter.stop(AUDIT_WRITER_STOP_WAIT);
+            auditWriter = null;
+        }
+
         if (performanceMonitor != null) {
             performanceMonitor.shutdown();
         }
@@ -391,4 +398,16 @@ public class SqlRepositoryFactory implements RepositoryServiceFactory {
     public SqlPerformanceMonitor getPerformanceMonitor() {
         return performanceMonitor;
     }
+
+    /**
+     * Asynchronous audit writer is shared by all audit service instances, it's started with the first
+     * audit record and stopped (flushed) when repository is destroyed.
+     */
+    synchronized AsyncAuditWriter getAuditWriter(SqlAuditServiceImpl auditService) {
+        if (auditWriter == null) {
+            auditWriter = new AsyncAuditWriter(auditService, getSqlConfiguration());
+            auditWriter.start();
+        }
+        return auditWriter;
+    }
 }
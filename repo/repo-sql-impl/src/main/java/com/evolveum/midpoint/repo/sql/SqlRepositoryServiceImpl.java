@@ -24,8 +24,11 @@ import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.path.NameItemPathSegment;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.*;
+import com.evolveum.midpoint.repo.api.ModificationPrecondition;
+import com.evolveum.midpoint.repo.api.ObjectChangeRecord;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sql.data.common.*;
@@ -34,6 +37,7 @@ import com.evolveum.midpoint.repo.sql.data.common.any.RValueType;
 import com.evolveum.midpoint.repo.sql.data.common.type.RObjectExtensionType;
 import com.evolveum.midpoint.repo.sql.query.QueryEngine;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
+import com.evolveum.midpoint.repo.sql.query.QueryInterpreter;
 import com.evolveum.midpoint.repo.sql.query.RQuery;
 import com.evolveum.midpoint.repo.sql.type.XMLGregorianCalendarType;
 import com.evolveum.midpoint.repo.sql.util.*;
@@ -41,9 +45,9 @@ import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.util.DebugUtil;
-import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.PreconditionViolationException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.logging.Trace;
@@ -56,7 +60,7 @@ import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.hibernate.*;
-import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.exception.ConstraintViolationException;
 import org.hibernate.internal.SessionFactoryImpl;
@@ -88,8 +92,14 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     private static final String DETAILS_DATA_SOURCE = "dataSource";
     private static final String DETAILS_HIBERNATE_DIALECT = "hibernateDialect";
     private static final String DETAILS_HIBERNATE_HBM_2_DDL = "hibernateHbm2ddl";
+    private static final String DETAILS_PERFORMANCE = "performance.";
+
+    public static final String REBUILD_ORG_CLOSURE = CLASS_NAME_WITH_DOT + "rebuildOrgClosure";
 
     private OrgClosureManager orgClosureManager;
+    private ObjectDeltaUpdater objectDeltaUpdater;
+    private FullObjectCodec fullObjectCodec;
+    private ObjectChangeLog objectChangeLog;
 
     public SqlRepositoryServiceImpl(SqlRepositoryFactory repositoryFactory) {
         super(repositoryFactory);
@@ -102,6 +112,27 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         return orgClosureManager;
     }
 
+    private ObjectDeltaUpdater getObjectDeltaUpdater() {
+        if (objectDeltaUpdater == null) {
+            objectDeltaUpdater = new ObjectDeltaUpdater();
+        }
+        return objectDeltaUpdater;
+    }
+
+    private FullObjectCodec getFullObjectCodec() {
+        if (fullObjectCodec == null) {
+            fullObjectCodec = new FullObjectCodec(getPrismContext());
+        }
+        return fullObjectCodec;
+    }
+
+    private ObjectChangeLog getObjectChangeLog() {
+        if (objectChangeLog == null) {
+            objectChangeLog = new ObjectChangeLog();
+        }
+        return objectChangeLog;
+    }
+
     private <T extends ObjectType> PrismObject<T> getObject(Session session, Class<T> type, String oid,
                                                             Collection<SelectorOptions<GetOperationOptions>> options,
                                                             boolean lockForUpdate)
@@ -470,6 +501,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             } else {
                 oid = nonOverwriteAddObjectAttempt(object, objectType, rObject, originalOid, session);
             }
+            getObjectChangeLog().recordChange(rObject, oid, session);
             session.getTransaction().commit();
 
             LOGGER.trace("Saved object '{}' with oid '{}'", new Object[]{
@@ -535,24 +567,17 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 
         updateFullObject(rObject, object);
         RObject merged = (RObject) session.merge(rObject);
-        //todo finish orgClosureManager
-//        orgClosureManager.updateOrgClosure(modifications, session, merged.getOid(), object.getCompileTimeClass(),
-//                OrgClosureManager.Operation.ADD);
 
         //update org. unit hierarchy based on modifications
         if (modifications == null || modifications.isEmpty()) {
             //we're not overwriting object - we fill new hierarchy
-            if (objectType instanceof OrgType || !objectType.getParentOrgRef().isEmpty()) {
-                long time = System.currentTimeMillis();
-                LOGGER.trace("Org. structure closure table update started.");
-                objectType.setOid(merged.getOid());
-                fillHierarchy(merged, session, true);
-                LOGGER.trace("Org. structure closure table update finished ({} ms).",
-                        new Object[]{(System.currentTimeMillis() - time)});
-            }
+            objectType.setOid(merged.getOid());
+            getOrgClosureManager().updateOrgClosure(createAddParentRefDelta(object), session, merged.getOid(),
+                    object.getCompileTimeClass(), OrgClosureManager.Operation.ADD);
         } else {
             //we have to recompute actual hierarchy because we've changed object
-            recomputeHierarchy(merged, session, modifications);
+            getOrgClosureManager().updateOrgClosure(modifications, session, merged.getOid(),
+                    object.getCompileTimeClass(), OrgClosureManager.Operation.MODIFY);
         }
 
         return merged.getOid();
@@ -567,10 +592,12 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             savedObject.removeProperty(UserType.F_JPEG_PHOTO);
         }
 
-        String xml = getPrismContext().serializeObjectToString(savedObject, PrismContext.LANG_XML);
-        byte[] fullObject = RUtil.getByteArrayFromXml(xml, getConfiguration().isUseZip());
+        FullObjectFormat format = getConfiguration().getFullObjectFormat();
+        byte[] fullObject = getFullObjectCodec().encode(savedObject, format);
 
-        if (LOGGER.isTraceEnabled()) LOGGER.trace("Storing full object\n{}", xml);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Storing full object ({})\n{}", new Object[]{format, savedObject.debugDump()});
+        }
 
         object.setFullObject(fullObject);
 
@@ -603,109 +630,13 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         LOGGER.trace("Saving object (non overwrite).");
         String oid = (String) session.save(rObject);
 
-        //todo finish orgClosureManager
-        //Collection<ReferenceDelta> modifications = createAddParentRefDelta(object);
-        //orgClosureManager.updateOrgClosure(modifications, session, oid, object.getCompileTimeClass(),
-        //        OrgClosureManager.Operation.ADD);
-
-
-        if (objectType instanceof OrgType || !objectType.getParentOrgRef().isEmpty()) {
-            long time = System.currentTimeMillis();
-            LOGGER.trace("Org. structure closure table update started.");
-            objectType.setOid(oid);
-            fillHierarchy(rObject, session, true);
-            LOGGER.trace("Org. structure closure table update finished ({} ms).",
-                    new Object[]{(System.currentTimeMillis() - time)});
-        }
+        objectType.setOid(oid);
+        getOrgClosureManager().updateOrgClosure(createAddParentRefDelta(object), session, oid,
+                object.getCompileTimeClass(), OrgClosureManager.Operation.ADD);
 
         return oid;
     }
 
-    private boolean existOrgCLosure(Session session, String ancestorOid, String descendantOid, int depth) {
-        // if not exist pair with same depth, then create else nothing do
-        Query qExistClosure = session.getNamedQuery("existOrgClosure");
-        qExistClosure.setParameter("ancestorOid", ancestorOid);
-        qExistClosure.setParameter("descendantOid", descendantOid);
-        qExistClosure.setParameter("depth", depth);
-
-        return (Long) qExistClosure.uniqueResult() != 0;
-
-    }
-
-    private boolean existIncorrect(Session session, String ancestorOid, String descendantOid) {
-        // if not exist pair with same depth, then create else nothing do
-        Query qExistIncorrect = session.getNamedQuery("existIncorrect");
-        qExistIncorrect.setParameter("ancestorOid", ancestorOid);
-        qExistIncorrect.setParameter("descendantOid", descendantOid);
-
-        return (Long) qExistIncorrect.uniqueResult() != 0;
-    }
-
-    private <T extends ObjectType> void fillHierarchy(RObject<T> rOrg, Session session, boolean withIncorrect)
-            throws SchemaException {
-
-        if (!existOrgCLosure(session, rOrg.getOid(), rOrg.getOid(), 0)) {
-            ROrgClosure closure = new ROrgClosure(rOrg, rOrg, 0);
-            session.save(closure);
-        }
-
-        for (RObjectReference orgRef : rOrg.getParentOrgRef()) {
-            fillTransitiveHierarchy(rOrg, orgRef.getTargetOid(), session, withIncorrect);
-        }
-
-        if (withIncorrect) {
-            Query qIncorrect = session.getNamedQuery("fillHierarchy");
-            qIncorrect.setString("oid", rOrg.getOid());
-
-            List<ROrgIncorrect> orgIncorrect = qIncorrect.list();
-            for (ROrgIncorrect orgInc : orgIncorrect) {
-                Query qObject = session.createQuery("from RObject where oid = :oid");
-                qObject.setString("oid", orgInc.getDescendantOid());
-                RObject rObjectI = (RObject) qObject.uniqueResult();
-                if (rObjectI != null) {
-                    fillTransitiveHierarchy(rObjectI, rOrg.getOid(), session, !withIncorrect);
-                    session.delete(orgInc);
-                }
-            }
-        }
-    }
-
-    private <T extends ObjectType> void fillTransitiveHierarchy(
-            RObject descendant, String ancestorOid, Session session,
-            boolean withIncorrect) throws SchemaException {
-
-        Criteria cOrgClosure = session.createCriteria(ROrgClosure.class)
-                .createCriteria("descendant", "desc")
-                .setFetchMode("descendant", FetchMode.JOIN)
-                .add(Restrictions.eq("oid", ancestorOid));
-
-        List<ROrgClosure> orgClosure = cOrgClosure.list();
-
-        if (orgClosure.size() > 0) {
-            for (ROrgClosure o : orgClosure) {
-                String anc = "null";
-                if (o != null && o.getAncestor() != null) {
-                    anc = o.getAncestor().getOid();
-                }
-                LOGGER.trace(
-                        "adding {}\t{}\t{}",
-                        new Object[]{anc, descendant == null ? null : descendant.getOid(), o.getDepth() + 1});
-
-                boolean existClosure = existOrgCLosure(session, o.getAncestor().getOid(),
-                        descendant.getOid(), o.getDepth() + 1);
-                if (!existClosure)
-                    session.save(new ROrgClosure(o.getAncestor(), descendant, o.getDepth() + 1));
-            }
-        } else if (withIncorrect) {
-            boolean existIncorrect = existIncorrect(session, ancestorOid, descendant.getOid());
-            if (!existIncorrect) {
-                LOGGER.trace("adding incorrect {}\t{}", new Object[]{ancestorOid,
-                        descendant.getOid()});
-                session.save(new ROrgIncorrect(ancestorOid, descendant.getOid()));
-            }
-        }
-    }
-
     @Override
     public <T extends ObjectType> void deleteObject(Class<T> type, String oid, OperationResult result)
             throws ObjectNotFoundException {
@@ -753,31 +684,6 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         return Arrays.asList(delta);
     }
 
-    private <T extends ObjectType> List<ReferenceDelta> createDeleteParentRefDelta(Class<T> type, String oid,
-                                                                                   Session session) {
-        Query query = session.createQuery("from RParentOrgRef as r where r.ownerOid = :oid");
-        query.setString("oid", oid);
-
-        List<RObjectReference> references = query.list();
-        if (references == null || references.isEmpty()) {
-            return new ArrayList<>();
-        }
-
-        List<PrismReferenceValue> values = new ArrayList<>();
-        for (RObjectReference ref : references) {
-            ObjectReferenceType refType = new ObjectReferenceType();
-            RObjectReference.copyToJAXB(ref, refType, getPrismContext());
-
-            values.add(refType.asReferenceValue());
-        }
-
-        PrismObjectDefinition def = getPrismContext().getSchemaRegistry().findObjectDefinitionByCompileTimeClass(type);
-        ReferenceDelta delta = ReferenceDelta.createModificationDelete(new ItemPath(ObjectType.F_PARENT_ORG_REF),
-                def, values);
-
-        return Arrays.asList(delta);
-    }
-
     private <T extends ObjectType> void deleteObjectAttempt(Class<T> type, String oid, OperationResult result)
             throws ObjectNotFoundException {
         Session session = null;
@@ -792,16 +698,11 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                         + "' was not found.", null, oid);
             }
 
-            List<RObject> objectsToRecompute = null;
-            if (type.isAssignableFrom(OrgType.class)) {
-                objectsToRecompute = deleteTransitiveHierarchy(object, session);
-            }
+            getOrgClosureManager().updateOrgClosure(null, session, oid, type, OrgClosureManager.Operation.DELETE);
 
             session.delete(object);
 
-            if (objectsToRecompute != null) {
-                recompute(objectsToRecompute, session);
-            }
+            getObjectChangeLog().recordChange(object, oid, session);
 
             session.getTransaction().commit();
         } catch (ObjectNotFoundException ex) {
@@ -815,48 +716,6 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     }
 
 
-    private void recompute(List<RObject> objectsToRecompute, Session session)
-            throws SchemaException, DtoTranslationException {
-
-        LOGGER.trace("Recomputing organization structure closure table after delete.");
-
-        for (RObject object : objectsToRecompute) {
-            Criteria query = session.createCriteria(ClassMapper
-                    .getHQLTypeClass(object.toJAXB(getPrismContext(), null)
-                            .getClass()));
-
-            // RObject.toJAXB will be deprecated and this query can't be replaced by:
-            // Criteria query = session.createCriteria(object.getClass());
-            // Because this will cause deadlock. It's the same query without unnecessary object loading, fuck. [lazyman]
-
-            query.add(Restrictions.eq("oid", object.getOid()));
-            RObject obj = (RObject) query.uniqueResult();
-            if (obj == null) {
-                // object not found..probably it was just deleted.
-                continue;
-            }
-            deleteAncestors(object, session);
-            fillHierarchy(object, session, false);
-        }
-        LOGGER.trace("Closure table for organization structure recomputed.");
-    }
-
-
-    private void deleteAncestors(RObject object, Session session) {
-        Criteria criteria = session.createCriteria(ROrgClosure.class);
-        criteria.add(Restrictions.eq("descendant", object));
-        List<ROrgClosure> objectsToDelete = criteria.list();
-
-        for (ROrgClosure objectToDelete : objectsToDelete) {
-            session.delete(objectToDelete);
-        }
-
-//        Query query = session.createQuery("delete from ROrgClosure as c where c.descendantOid = :dOid");
-//        query.setParameter("dOid", object.getOid());
-//
-//        query.executeUpdate();
-    }
-
     @Override
     public <T extends ObjectType> int countObjects(Class<T> type, ObjectQuery query, OperationResult result) {
         Validate.notNull(type, "Object type must not be null.");
@@ -977,14 +836,27 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         try {
             session = beginReadOnlyTransaction();
             QueryEngine engine = new QueryEngine(getConfiguration(), getPrismContext());
-            RQuery rQuery = engine.interpret(query, type, options, false, session);
+            RQuery summaryQuery = null;
+            if (SummaryProjection.isSummary(options)) {
+                summaryQuery = engine.interpretSummary(query, type, options, session);
+            }
 
-            List<GetObjectResult> objects = rQuery.list();
-            LOGGER.trace("Found {} objects, translating to JAXB.", new Object[]{(objects != null ? objects.size() : 0)});
+            if (summaryQuery != null) {
+                List<Object[]> rows = summaryQuery.list();
+                LOGGER.trace("Found {} object summaries.", new Object[]{rows.size()});
 
-            for (GetObjectResult object : objects) {
-                PrismObject<T> prismObject = updateLoadedObject(object, type, options, session);
-                list.add(prismObject);
+                SummaryProjection projection = new SummaryProjection(getPrismContext());
+                list.addAll(projection.createObjects(type, rows, options, session));
+            } else {
+                RQuery rQuery = engine.interpret(query, type, options, false, session);
+
+                List<GetObjectResult> objects = rQuery.list();
+                LOGGER.trace("Found {} objects, translating to JAXB.", new Object[]{(objects != null ? objects.size() : 0)});
+
+                for (GetObjectResult object : objects) {
+                    PrismObject<T> prismObject = updateLoadedObject(object, type, options, session);
+                    list.add(prismObject);
+                }
             }
 
             session.getTransaction().commit();
@@ -1004,12 +876,12 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                                                                      Collection<SelectorOptions<GetOperationOptions>> options,
                                                                      Session session) throws SchemaException {
 
-        String xml = RUtil.getXmlFromByteArray(result.getFullObject(), getConfiguration().isUseZip());
         PrismObject<T> prismObject;
         try {
-            prismObject = getPrismContext().parseObject(xml);
+            prismObject = getFullObjectCodec().decode(result.getFullObject(), getItemsToDecode(options));
         } catch (SchemaException e) {
-            LOGGER.debug("Couldn't parse object because of schema exception ({}):\nObject: {}", e, xml);
+            LOGGER.debug("Couldn't parse object because of schema exception ({}):\nObject: {}",
+                    e, getFullObjectCodec().toXml(result.getFullObject()));
             throw e;
         }
 
@@ -1049,10 +921,42 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         return prismObject;
     }
 
+    /**
+     * Top-level items are decoded selectively only if root options exclude everything (retrieve=EXCLUDE),
+     * then object name and items explicitly included by options are decoded. Otherwise null is returned,
+     * which means whole object.
+     */
+    private Collection<QName> getItemsToDecode(Collection<SelectorOptions<GetOperationOptions>> options) {
+        GetOperationOptions rootOptions = SelectorOptions.findRootOptions(options);
+        if (rootOptions == null || rootOptions.getRetrieve() != RetrieveOption.EXCLUDE) {
+            return null;
+        }
+
+        Set<QName> items = new HashSet<>();
+        items.add(ObjectType.F_NAME);
+        for (SelectorOptions<GetOperationOptions> option : SelectorOptions.filterRetrieveOptions(options)) {
+            if (option.getSelector() == null || option.getOptions().getRetrieve() != RetrieveOption.INCLUDE) {
+                continue;
+            }
+
+            ItemPath path = option.getSelector().getPath();
+            if (path == null || path.isEmpty() || !(path.first() instanceof NameItemPathSegment)) {
+                continue;
+            }
+            items.add(((NameItemPathSegment) path.first()).getName());
+        }
+
+        return items;
+    }
+
     private void applyShadowAttributeDefinitions(Class<? extends RAnyValue> anyValueType,
                                                  PrismObject object, Session session) throws SchemaException {
 
         PrismContainer attributes = object.findContainer(ShadowType.F_ATTRIBUTES);
+        if (attributes == null) {
+            //attributes were not decoded (not requested in options)
+            return;
+        }
 
         Query query = session.getNamedQuery("getDefinition." + anyValueType.getSimpleName());
         query.setParameter("oid", object.getOid());
@@ -1091,6 +995,21 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                                                     Collection<? extends ItemDelta> modifications,
                                                     OperationResult result)
             throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
+        try {
+            modifyObject(type, oid, modifications, null, result);
+        } catch (PreconditionViolationException ex) {
+            // can't happen without precondition
+            throw new SystemException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public <T extends ObjectType> void modifyObject(Class<T> type, String oid,
+                                                    Collection<? extends ItemDelta> modifications,
+                                                    ModificationPrecondition<T> precondition,
+                                                    OperationResult result)
+            throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException,
+            PreconditionViolationException {
 
         Validate.notNull(modifications, "Modifications must not be null.");
         Validate.notNull(type, "Object class in delta must not be null.");
@@ -1142,7 +1061,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         try {
             while (true) {
                 try {
-                    modifyObjectAttempt(type, oid, modifications, subResult);
+                    modifyObjectAttempt(type, oid, modifications, precondition, subResult);
                     return;
                 } catch (RuntimeException ex) {
                     attempt = logOperationAttempt(oid, operation, attempt, ex, subResult);
@@ -1157,8 +1076,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 
     private <T extends ObjectType> void modifyObjectAttempt(Class<T> type, String oid,
                                                             Collection<? extends ItemDelta> modifications,
+                                                            ModificationPrecondition<T> precondition,
                                                             OperationResult result) throws ObjectNotFoundException,
-            SchemaException, ObjectAlreadyExistsException {
+            SchemaException, ObjectAlreadyExistsException, PreconditionViolationException {
         LOGGER.debug("Modifying object '{}' with oid '{}'.", new Object[]{type.getSimpleName(), oid});
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("Modifications:\n{}", new Object[]{DebugUtil.debugDump(modifications)});
@@ -1168,12 +1088,22 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         try {
             session = beginTransaction();
 
+            if (getConfiguration().isUseDeltaUpdate()) {
+                modifyObjectByDelta(type, oid, modifications, precondition, session);
+
+                LOGGER.trace("Before commit...");
+                session.getTransaction().commit();
+                LOGGER.trace("Committed!");
+                return;
+            }
+
             // get user
             PrismObject<T> prismObject = getObject(session, type, oid, null, true);
             // apply diff
             if (LOGGER.isTraceEnabled()) {
                 LOGGER.trace("OBJECT before:\n{}", new Object[]{prismObject.debugDump()});
             }
+            checkPrecondition(precondition, prismObject);
             ItemDelta.applyTo(modifications, prismObject);
             if (LOGGER.isTraceEnabled()) {
                 LOGGER.trace("OBJECT after:\n{}", prismObject.debugDump());
@@ -1186,10 +1116,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             updateFullObject(rObject, prismObject);
             session.merge(rObject);
 
-            //todo finish orgClosureManager
-            //orgClosureManager.updateOrgClosure(modifications, session, oid, type, OrgClosureManager.Operation.MODIFY);
-
-            recomputeHierarchy(rObject, session, modifications);
+            getOrgClosureManager().updateOrgClosure(modifications, session, oid, type,
+                    OrgClosureManager.Operation.MODIFY);
+            getObjectChangeLog().recordChange(rObject, oid, session);
 
             LOGGER.trace("Before commit...");
             session.getTransaction().commit();
@@ -1197,6 +1126,10 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         } catch (ObjectNotFoundException ex) {
             rollbackTransaction(session, ex, result, true);
             throw ex;
+        } catch (PreconditionViolationException ex) {
+            rollbackTransaction(session, ex, result, false);
+            result.recordStatus(OperationResultStatus.HANDLED_ERROR, ex.getMessage());
+            throw ex;
         } catch (ConstraintViolationException ex) {
             rollbackTransaction(session, ex, result, true);
 
@@ -1217,122 +1150,88 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
     }
 
-    private <T extends ObjectType> void recomputeHierarchy(
-            RObject<T> rObjectToModify, Session session,
-            Collection<? extends ItemDelta> modifications)
-            throws SchemaException, DtoTranslationException {
-
-        for (ItemDelta delta : modifications) {
-            if (!QNameUtil.match(delta.getElementName(), OrgType.F_PARENT_ORG_REF)) continue;
-
-            // if modification is one of the modify or delete, delete old
-            // record in org closure table and in the next step fill the
-            // closure table with the new records
-            if (delta.isReplace() || delta.isDelete()) {
-                for (Object orgRefDValue : delta.getValuesToDelete()) {
-                    if (!(orgRefDValue instanceof PrismReferenceValue))
-                        throw new SchemaException("Couldn't modify organization structure hierarchy (adding new " +
-                                "records). Expected instance of prism reference value but got " + orgRefDValue);
-
-                    if (rObjectToModify.getClass().isAssignableFrom(ROrg.class)) {
-                        List<RObject> objectsToRecompute = deleteTransitiveHierarchy(rObjectToModify, session);
-                        refillHierarchy(rObjectToModify, objectsToRecompute, session);
-                    } else {
-                        deleteHierarchy(rObjectToModify, session);
-                        if (rObjectToModify.getParentOrgRef() != null
-                                && !rObjectToModify.getParentOrgRef().isEmpty()) {
-                            for (RObjectReference orgRef : rObjectToModify.getParentOrgRef()) {
-                                fillTransitiveHierarchy(rObjectToModify, orgRef.getTargetOid(), session, true);
-                            }
-                        }
-                    }
-                }
-            } else if (delta.isAdd()) {
-                // fill closure table with new transitive relations
-                for (Object orgRefDValue : delta.getValuesToAdd()) {
-                    if (!(orgRefDValue instanceof PrismReferenceValue)) {
-                        throw new SchemaException(
-                                "Couldn't modify organization structure hierarchy (adding new records). Expected " +
-                                        "instance of prism reference value but got " + orgRefDValue
-                        );
-                    }
-
-                    PrismReferenceValue value = (PrismReferenceValue) orgRefDValue;
+    /**
+     * Precondition is checked on the object loaded (and locked) in the modify transaction, so there's
+     * no window in which other node could change the object between the check and the update.
+     */
+    private <T extends ObjectType> void checkPrecondition(ModificationPrecondition<T> precondition,
+                                                          PrismObject<T> object) throws PreconditionViolationException {
+        if (precondition == null) {
+            return;
+        }
 
-                    LOGGER.trace("filling transitive hierarchy for descendant {}, ref {}",
-                            new Object[]{rObjectToModify.getOid(), value.getOid()});
-                    // todo remove
-                    fillTransitiveHierarchy(rObjectToModify, value.getOid(), session, true);
-                }
-            }
+        if (!precondition.holds(object)) {
+            LOGGER.debug("Precondition {} doesn't hold for {}, object was not modified.", precondition, object);
+            throw new PreconditionViolationException("Modification precondition doesn't hold for " + object);
         }
     }
 
+    /**
+     * Modifies object without merging whole object graph. Persistent object is loaded (without its collections),
+     * modifications are applied to the prism object parsed from full object column and only changed columns
+     * and collections created from modified items are written back.
+     */
+    private <T extends ObjectType> void modifyObjectByDelta(Class<T> type, String oid,
+                                                            Collection<? extends ItemDelta> modifications,
+                                                            ModificationPrecondition<T> precondition,
+                                                            Session session)
+            throws ObjectNotFoundException, SchemaException, DtoTranslationException,
+            PreconditionViolationException {
 
-    private List<RObject> deleteTransitiveHierarchy(RObject rObjectToModify,
-                                                    Session session) throws SchemaException, DtoTranslationException {
-
-        Criteria cDescendant = session.createCriteria(ROrgClosure.class)
-                .setProjection(Projections.property("descendant"))
-                .add(Restrictions.eq("ancestor", rObjectToModify));
-
-        Criteria cAncestor = session.createCriteria(ROrgClosure.class)
-                .setProjection(Projections.property("ancestor"))
-                .createCriteria("ancestor", "anc")
-                .add(Restrictions.and(Restrictions.eq("this.descendant",
-                        rObjectToModify), Restrictions.not(Restrictions.eq(
-                        "anc.oid", rObjectToModify.getOid()))));
-
-        Criteria cOrgClosure = session.createCriteria(ROrgClosure.class);
-
-        List<RObject> ocAncestor = cAncestor.list();
-        List<RObject> ocDescendant = cDescendant.list();
+        RObject persistent = getObjectForUpdate(session, type, oid);
 
-        if (ocAncestor != null && !ocAncestor.isEmpty()) {
-            cOrgClosure.add(Restrictions.in("ancestor", ocAncestor));
-        } else {
-            LOGGER.trace("No ancestors for object: {}", rObjectToModify.getOid());
+        GetObjectResult fullObject = new GetObjectResult(persistent.getFullObject(), persistent.getStringsCount(),
+                persistent.getLongsCount(), persistent.getDatesCount(), persistent.getReferencesCount(),
+                persistent.getPolysCount());
+        PrismObject<T> prismObject = updateLoadedObject(fullObject, type, null, session);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("OBJECT before:\n{}", new Object[]{prismObject.debugDump()});
         }
 
-        if (ocDescendant != null && !ocDescendant.isEmpty()) {
-            cOrgClosure.add(Restrictions.in("descendant", ocDescendant));
-        } else {
-            LOGGER.trace("No descendants for object: {}", rObjectToModify.getOid());
+        checkPrecondition(precondition, prismObject);
+
+        ItemDelta.applyTo(modifications, prismObject);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("OBJECT after:\n{}", prismObject.debugDump());
         }
 
-        List<ROrgClosure> orgClosure = cOrgClosure.list();
+        LOGGER.trace("Translating JAXB to data type (object after modification).");
+        RObject newObject = createDataObjectFromJAXB(prismObject, false);
 
-        for (ROrgClosure o : orgClosure) {
-            if (LOGGER.isTraceEnabled()) {
-                RObject ancestor = o.getAncestor();
-                RObject descendant = o.getDescendant();
-                LOGGER.trace("deleting from hierarchy: A:{} D:{} depth:{}",
-                        new Object[]{RUtil.getDebugString(ancestor), RUtil.getDebugString(descendant), o.getDepth()});
-            }
-            session.delete(o);
-        }
-        deleteHierarchy(rObjectToModify, session);
-        return ocDescendant;
-    }
+        int changed = getObjectDeltaUpdater().update(persistent, newObject, modifications, session);
+        LOGGER.trace("Updated {} properties and collections of object {}.", changed, oid);
 
+        persistent.setVersion(persistent.getVersion() + 1);
+        updateFullObject(persistent, prismObject);
 
-    private void refillHierarchy(RObject parent, List<RObject> descendants,
-                                 Session session) throws SchemaException, DtoTranslationException {
-        fillHierarchy(parent, session, false);
+        getOrgClosureManager().updateOrgClosure(modifications, session, oid, type,
+                OrgClosureManager.Operation.MODIFY);
+        getObjectChangeLog().recordChange(persistent, oid, session);
+    }
 
-        for (RObject descendant : descendants) {
-            LOGGER.trace("ObjectToRecompute {}", descendant);
-            if (!parent.getOid().equals(descendant.getOid())) {
-                fillTransitiveHierarchy(descendant, parent.getOid(),
-                        session, false);
+    /**
+     * Loads persistent object (lazy collections are not initialized) and locks it for update if configured.
+     */
+    private <T extends ObjectType> RObject getObjectForUpdate(Session session, Class<T> type, String oid)
+            throws ObjectNotFoundException {
+        LockOptions lockOptions = new LockOptions();
+        if (getConfiguration().isLockForUpdateViaHibernate()) {
+            lockOptions.setLockMode(LockMode.PESSIMISTIC_WRITE);
+        } else if (getConfiguration().isLockForUpdateViaSql()) {
+            LOGGER.trace("Trying to lock object {} for update (via SQL)", oid);
+            SQLQuery query = session.createSQLQuery("select oid from m_object where oid = ? for update");
+            query.setString(0, oid);
+            if (query.uniqueResult() == null) {
+                throwObjectNotFoundException(type, oid);
             }
         }
 
-    }
+        RObject object = (RObject) session.get(ClassMapper.getHQLTypeClass(type), oid, lockOptions);
+        if (object == null) {
+            throwObjectNotFoundException(type, oid);
+        }
 
-    private void deleteHierarchy(RObject objectToDelete, Session session) {
-        session.getNamedQuery("sqlDeleteOrgClosure").setParameter("oid", objectToDelete.getOid()).executeUpdate();
-        session.getNamedQuery("sqlDeleteOrgIncorrect").setParameter("oid", objectToDelete.getOid()).executeUpdate();
+        return object;
     }
 
     @Override
@@ -1478,6 +1377,13 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 
         readDetailsFromConnection(diag, config);
 
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        if (pm.getLevel() > SqlPerformanceMonitor.LEVEL_NONE) {
+            for (OperationStatistics.Snapshot stats : pm.getStatistics()) {
+                details.add(new LabeledString(DETAILS_PERFORMANCE + stats.getKind(), stats.toString()));
+            }
+        }
+
         Collections.sort(details, new Comparator<LabeledString>() {
 
             @Override
@@ -1653,7 +1559,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         subResult.addParam("type", type.getName());
         subResult.addParam("query", query);
 
-        if (getConfiguration().isIterativeSearchByPaging()) {
+        if (getConfiguration().isIterativeSearchByPaging() || hasPagingCookie(query)) {
             searchObjectsIterativeByPaging(type, query, handler, options, subResult);
             return;
         }
@@ -1679,6 +1585,10 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
     }
 
+    private boolean hasPagingCookie(ObjectQuery query) {
+        return query != null && query.getPaging() != null && query.getPaging().getCookie() != null;
+    }
+
     private <T extends ObjectType> void searchObjectsIterativeAttempt(Class<T> type, ObjectQuery query,
                                                                       ResultHandler<T> handler,
                                                                       Collection<SelectorOptions<GetOperationOptions>> options,
@@ -1716,6 +1626,14 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
     }
 
+    /**
+     * Objects are read in batches, every batch in separate transaction. If the query is not ordered and doesn't
+     * start at some offset, keyset pagination is used: objects are ordered by OID and every batch continues
+     * after the last OID of the previous one. No count is needed and concurrent changes don't cause objects
+     * to be skipped or processed twice. Search can be resumed from OID stored in paging cookie.
+     * <p/>
+     * Queries with explicit ordering or offset are processed with offset based paging.
+     */
     private <T extends ObjectType> void searchObjectsIterativeByPaging(Class<T> type, ObjectQuery query,
                                                                        ResultHandler<T> handler,
                                                                        Collection<SelectorOptions<GetOperationOptions>> options,
@@ -1723,47 +1641,320 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             throws SchemaException {
 
         try {
-            ObjectQuery pagedQuery = query != null ? query.clone() : new ObjectQuery();
+            ObjectPaging paging = query != null ? query.getPaging() : null;
+            if (paging != null && paging.getCookie() == null
+                    && (paging.getOrderBy() != null || (paging.getOffset() != null && paging.getOffset() > 0))) {
+                searchObjectsIterativeByOffset(type, query, handler, options, result);
+            } else {
+                searchObjectsIterativeByKeyset(type, query, handler, options, result);
+            }
+        } finally {
+            if (result != null && result.isUnknown()) {
+                result.computeStatus();
+            }
+        }
+    }
 
-            int offset;
-            int remaining;
-            final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+    private <T extends ObjectType> void searchObjectsIterativeByKeyset(Class<T> type, ObjectQuery query,
+                                                                       ResultHandler<T> handler,
+                                                                       Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                       OperationResult result)
+            throws SchemaException {
 
-            ObjectPaging paging = pagedQuery.getPaging();
+        ObjectQuery batchQuery = query != null ? query.clone() : new ObjectQuery();
+        ObjectPaging paging = batchQuery.getPaging();
 
-            if (paging == null) {
-                paging = ObjectPaging.createPaging(0, 0);        // counts will be filled-in later
-                pagedQuery.setPaging(paging);
-                offset = 0;
-                remaining = countObjects(type, query, result);
-            } else {
-                offset = paging.getOffset() != null ? paging.getOffset() : 0;
-                remaining = paging.getMaxSize() != null ? paging.getMaxSize() : countObjects(type, query, result) - offset;
+        String lastOid = paging != null ? StringUtils.trimToNull(paging.getCookie()) : null;
+        Integer maxSize = paging != null ? paging.getMaxSize() : null;
+        batchQuery.setPaging(null);
+
+        final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+        int remaining = maxSize != null ? maxSize : Integer.MAX_VALUE;
+
+        while (remaining > 0) {
+            int size = remaining < batchSize ? remaining : batchSize;
+            List<PrismObject<T>> objects = searchObjectsAfterOid(type, batchQuery, lastOid, size, options, result);
+
+            for (PrismObject<T> object : objects) {
+                lastOid = object.getOid();
+                if (!handler.handle(object, result)) {
+                    return;
+                }
             }
 
-            while (remaining > 0) {
-                paging.setOffset(offset);
-                paging.setMaxSize(remaining < batchSize ? remaining : batchSize);
+            if (objects.size() < size) {
+                break;
+            }
+            remaining -= objects.size();
+        }
+    }
 
-                List<PrismObject<T>> objects = searchObjects(type, pagedQuery, options, result);
+    private <T extends ObjectType> List<PrismObject<T>> searchObjectsAfterOid(Class<T> type, ObjectQuery query,
+                                                                              String lastOid, int maxSize,
+                                                                              Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                              OperationResult result) throws SchemaException {
+        OperationResult subResult = result.createMinorSubresult(SEARCH_OBJECTS);
+        subResult.addParam("type", type.getName());
+        subResult.addParam("afterOid", lastOid);
+        subResult.addParam("maxSize", maxSize);
 
-                for (PrismObject<T> object : objects) {
-                    if (!handler.handle(object, result)) {
-                        break;
-                    }
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("searchObjects");
+
+        final String operation = "searching";
+        int attempt = 1;
+        try {
+            while (true) {
+                try {
+                    return searchObjectsAfterOidAttempt(type, query, lastOid, maxSize, options, subResult);
+                } catch (RuntimeException ex) {
+                    attempt = logOperationAttempt(null, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
+        }
+    }
+
+    private <T extends ObjectType> List<PrismObject<T>> searchObjectsAfterOidAttempt(Class<T> type, ObjectQuery query,
+                                                                                     String lastOid, int maxSize,
+                                                                                     Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                                     OperationResult result) throws SchemaException {
+        List<PrismObject<T>> list = new ArrayList<>();
+        Session session = null;
+        try {
+            session = beginReadOnlyTransaction();
+            QueryInterpreter interpreter = new QueryInterpreter(getConfiguration());
+            Criteria criteria = interpreter.interpret(query, type, options, getPrismContext(), false, session);
+            if (lastOid != null) {
+                criteria.add(Restrictions.gt("oid", lastOid));
+            }
+            criteria.addOrder(Order.asc("oid"));
+            criteria.setMaxResults(maxSize);
+            criteria.setResultTransformer(GetObjectResult.RESULT_TRANSFORMER);
+
+            List<GetObjectResult> objects = criteria.list();
+            LOGGER.trace("Found {} objects after oid {}.", new Object[]{objects.size(), lastOid});
+
+            for (GetObjectResult object : objects) {
+                list.add(updateLoadedObject(object, type, options, session));
+            }
+
+            session.getTransaction().commit();
+        } catch (QueryException | RuntimeException ex) {
+            handleGeneralException(ex, session, result);
+        } finally {
+            cleanupSessionAndResult(session, result);
+        }
+
+        return list;
+    }
+
+    private <T extends ObjectType> void searchObjectsIterativeByOffset(Class<T> type, ObjectQuery query,
+                                                                       ResultHandler<T> handler,
+                                                                       Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                       OperationResult result)
+            throws SchemaException {
+
+        ObjectQuery pagedQuery = query.clone();
+        ObjectPaging paging = pagedQuery.getPaging();
+
+        int offset = paging.getOffset() != null ? paging.getOffset() : 0;
+        int remaining = paging.getMaxSize() != null ? paging.getMaxSize() : countObjects(type, query, result) - offset;
+        final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+
+        while (remaining > 0) {
+            paging.setOffset(offset);
+            paging.setMaxSize(remaining < batchSize ? remaining : batchSize);
+
+            List<PrismObject<T>> objects = searchObjects(type, pagedQuery, options, result);
+
+            for (PrismObject<T> object : objects) {
+                if (!handler.handle(object, result)) {
+                    return;
                 }
+            }
+
+            if (objects.size() == 0) {
+                break;                      // should not occur, but let's check for this to avoid endless loops
+            }
+            offset += objects.size();
+            remaining -= objects.size();
+        }
+    }
+
+    @Override
+    public List<ObjectChangeRecord> listObjectChanges(long afterSequence, int maxSize, OperationResult result) {
+        Validate.notNull(result, "Operation result must not be null.");
+
+        OperationResult subResult = result.createMinorSubresult(LIST_OBJECT_CHANGES);
+        subResult.addParam("afterSequence", afterSequence);
+        subResult.addParam("maxSize", maxSize);
 
-                if (objects.size() == 0) {
-                    break;                      // should not occur, but let's check for this to avoid endless loops
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart(LIST_OBJECT_CHANGES);
+
+        final String operation = "listing object changes";
+        int attempt = 1;
+        try {
+            while (true) {
+                try {
+                    return listObjectChangesAttempt(afterSequence, maxSize, subResult);
+                } catch (RuntimeException ex) {
+                    attempt = logOperationAttempt(null, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
                 }
-                offset += objects.size();
-                remaining -= objects.size();
             }
         } finally {
-            if (result != null && result.isUnknown()) {
-                result.computeStatus();
+            pm.registerOperationFinish(opHandle, attempt);
+        }
+    }
+
+    private List<ObjectChangeRecord> listObjectChangesAttempt(long afterSequence, int maxSize,
+                                                              OperationResult result) {
+        List<ObjectChangeRecord> records = new ArrayList<>();
+        Session session = null;
+        try {
+            session = beginReadOnlyTransaction();
+            records = getObjectChangeLog().listChanges(afterSequence, maxSize, session);
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            handleGeneralRuntimeException(ex, session, result);
+        } finally {
+            cleanupSessionAndResult(session, result);
+        }
+
+        return records;
+    }
+
+    @Override
+    public long getLastObjectChangeSequence(OperationResult result) {
+        Validate.notNull(result, "Operation result must not be null.");
+
+        OperationResult subResult = result.createMinorSubresult(GET_LAST_OBJECT_CHANGE_SEQUENCE);
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart(GET_LAST_OBJECT_CHANGE_SEQUENCE);
+
+        final String operation = "getting last object change sequence";
+        int attempt = 1;
+        try {
+            while (true) {
+                try {
+                    return getLastObjectChangeSequenceAttempt(subResult);
+                } catch (RuntimeException ex) {
+                    attempt = logOperationAttempt(null, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
+        }
+    }
+
+    private long getLastObjectChangeSequenceAttempt(OperationResult result) {
+        long sequence = 0;
+        Session session = null;
+        try {
+            session = beginReadOnlyTransaction();
+            sequence = getObjectChangeLog().getLastSequence(session);
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            handleGeneralRuntimeException(ex, session, result);
+        } finally {
+            cleanupSessionAndResult(session, result);
+        }
+
+        return sequence;
+    }
+
+    @Override
+    public void cleanupObjectChanges(long olderThan, OperationResult result) {
+        Validate.notNull(result, "Operation result must not be null.");
+
+        OperationResult subResult = result.createSubresult(CLEANUP_OBJECT_CHANGES);
+        subResult.addParam("olderThan", new Date(olderThan));
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart(CLEANUP_OBJECT_CHANGES);
+
+        final String operation = "cleaning up object changes";
+        int attempt = 1;
+        try {
+            while (true) {
+                try {
+                    cleanupObjectChangesAttempt(olderThan, subResult);
+                    return;
+                } catch (RuntimeException ex) {
+                    attempt = logOperationAttempt(null, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
+        }
+    }
+
+    private void cleanupObjectChangesAttempt(long olderThan, OperationResult result) {
+        Session session = null;
+        try {
+            session = beginTransaction();
+            int count = getObjectChangeLog().cleanup(olderThan, session);
+            session.getTransaction().commit();
+
+            LOGGER.debug("Removed {} object change log records older than {}.", new Object[]{count, new Date(olderThan)});
+        } catch (RuntimeException ex) {
+            handleGeneralException(ex, session, result);
+        } finally {
+            cleanupSessionAndResult(session, result);
+        }
+    }
+
+    /**
+     * Recomputes org. closure table from parent org. references of all objects. It's not part of repository API,
+     * it's used to repair closure table or to fill it after bulk import.
+     *
+     * @return number of rows in closure table
+     */
+    public int rebuildOrgClosure(OperationResult result) {
+        Validate.notNull(result, "Operation result must not be null.");
+
+        OperationResult subResult = result.createSubresult(REBUILD_ORG_CLOSURE);
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart(REBUILD_ORG_CLOSURE);
+
+        final String operation = "rebuilding org. closure";
+        int attempt = 1;
+        try {
+            while (true) {
+                try {
+                    return rebuildOrgClosureAttempt(subResult);
+                } catch (RuntimeException ex) {
+                    attempt = logOperationAttempt(null, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
             }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
+        }
+    }
+
+    private int rebuildOrgClosureAttempt(OperationResult result) {
+        int count = 0;
+        Session session = null;
+        try {
+            session = beginTransaction();
+            count = getOrgClosureManager().rebuild(session);
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            handleGeneralException(ex, session, result);
+        } finally {
+            cleanupSessionAndResult(session, result);
         }
+
+        return count;
     }
 
     @Override
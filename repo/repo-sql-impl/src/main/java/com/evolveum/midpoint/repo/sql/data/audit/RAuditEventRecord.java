@@ -28,12 +28,15 @@ import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
 import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.schema.ObjectDeltaOperation;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 
 import org.apache.commons.lang.Validate;
 import org.hibernate.annotations.Cascade;
 import org.hibernate.annotations.ForeignKey;
+import org.hibernate.annotations.Index;
 
 import javax.persistence.*;
 import javax.xml.namespace.QName;
@@ -48,6 +51,11 @@ import java.util.Set;
  */
 @Entity
 @Table(name = RAuditEventRecord.TABLE_NAME)
+@org.hibernate.annotations.Table(appliesTo = RAuditEventRecord.TABLE_NAME,
+        indexes = {@Index(name = "iAuditTimestamp", columnNames = RAuditEventRecord.COLUMN_TIMESTAMP),
+                @Index(name = "iAuditInitiatorOid", columnNames = "initiatorOid"),
+                @Index(name = "iAuditTargetOid", columnNames = "targetOid"),
+                @Index(name = "iAuditTargetOwnerOid", columnNames = "targetOwnerOid")})
 public class RAuditEventRecord implements Serializable {
 
     public static final String TABLE_NAME = "m_audit_event";
@@ -401,6 +409,73 @@ public class RAuditEventRecord implements Serializable {
         return repo;
     }
 
+    /**
+     * Creates audit record without deltas. Initiator, target and target owner are objects which contain only
+     * OID and name, because only these are stored in audit table.
+     */
+    public static AuditEventRecord fromRepo(RAuditEventRecord repo, PrismContext prismContext)
+            throws DtoTranslationException {
+
+        Validate.notNull(repo, "Audit event record must not be null.");
+        Validate.notNull(prismContext, "Prism context must not be null.");
+
+        AuditEventRecord record = new AuditEventRecord();
+        record.setRepoId(repo.getId());
+        record.setChannel(repo.getChannel());
+        if (repo.getTimestamp() != null) {
+            record.setTimestamp(repo.getTimestamp().getTime());
+        }
+        if (repo.getEventStage() != null) {
+            record.setEventStage(repo.getEventStage().getStage());
+        }
+        if (repo.getEventType() != null) {
+            record.setEventType(repo.getEventType().getType());
+        }
+        record.setSessionIdentifier(repo.getSessionIdentifier());
+        record.setEventIdentifier(repo.getEventIdentifier());
+        record.setHostIdentifier(repo.getHostIdentifier());
+        record.setParameter(repo.getParameter());
+        record.setMessage(repo.getMessage());
+        if (repo.getOutcome() != null) {
+            record.setOutcome(OperationResultStatus.parseStatusType(repo.getOutcome().getSchemaValue()));
+        }
+        record.setTaskIdentifier(repo.getTaskIdentifier());
+        record.setTaskOID(repo.getTaskOID());
+        record.setResult(repo.getResult());
+
+        try {
+            if (repo.getTargetType() != null) {
+                Class<? extends ObjectType> targetType =
+                        ClassMapper.getObjectTypeForHQLType(repo.getTargetType()).getClassDefinition();
+                record.setTarget(createObject(targetType, repo.getTargetOid(), repo.getTargetName(), prismContext));
+            }
+            record.setTargetOwner(createObject(UserType.class, repo.getTargetOwnerOid(), repo.getTargetOwnerName(),
+                    prismContext));
+            record.setInitiator(createObject(UserType.class, repo.getInitiatorOid(), repo.getInitiatorName(),
+                    prismContext));
+        } catch (Exception ex) {
+            throw new DtoTranslationException(ex.getMessage(), ex);
+        }
+
+        return record;
+    }
+
+    private static <T extends ObjectType> PrismObject<T> createObject(Class<T> type, String oid, String name,
+                                                                      PrismContext prismContext) throws Exception {
+        if (oid == null && name == null) {
+            return null;
+        }
+
+        T object = type.newInstance();
+        object.setOid(oid);
+        if (name != null) {
+            object.setName(new PolyStringType(name));
+        }
+        prismContext.adopt(object);
+
+        return object.asPrismObject();
+    }
+
 	private static String trimMessage(String message) {
 		if (message == null || message.length() <= AuditService.MAX_MESSAGE_SIZE) {
 			return message;
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.data.common;
+
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Index;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+/**
+ * Append-only log of object changes (add, modify, delete). It is used by nodes of the cluster
+ * to invalidate their caches. Rows are removed after some time by cleanup.
+ * <p/>
+ * Identifiers come from dedicated sequence without preallocation, so that readers of the log can
+ * recognize changes that were not committed yet (gaps in the sequence).
+ *
+ * @author lazyman
+ */
+@Entity
+@Table(name = RObjectChange.TABLE_NAME)
+@org.hibernate.annotations.Table(appliesTo = RObjectChange.TABLE_NAME,
+        indexes = {@Index(name = "iObjectChangeTimestamp", columnNames = RObjectChange.COLUMN_TIMESTAMP)})
+public class RObjectChange implements Serializable {
+
+    public static final String TABLE_NAME = "m_object_change";
+    public static final String COLUMN_TIMESTAMP = "timestampValue";
+    public static final String SEQUENCE_NAME = "m_object_change_seq";
+
+    private Long id;
+    private String oid;
+    private RObjectType objectType;
+    private Timestamp timestamp;
+
+    public RObjectChange() {
+    }
+
+    public RObjectChange(String oid, RObjectType objectType) {
+        this.oid = oid;
+        this.objectType = objectType;
+        this.timestamp = new Timestamp(System.currentTimeMillis());
+    }
+
+    @Id
+    @GeneratedValue(generator = "ObjectChangeSequence")
+    @GenericGenerator(name = "ObjectChangeSequence", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+            parameters = {@Parameter(name = "sequence_name", value = SEQUENCE_NAME),
+                    @Parameter(name = "increment_size", value = "1")})
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    @Column(length = RUtil.COLUMN_LENGTH_OID, nullable = false)
+    public String getOid() {
+        return oid;
+    }
+
+    public void setOid(String oid) {
+        this.oid = oid;
+    }
+
+    @Enumerated(EnumType.ORDINAL)
+    @Column(nullable = false)
+    public RObjectType getObjectType() {
+        return objectType;
+    }
+
+    public void setObjectType(RObjectType objectType) {
+        this.objectType = objectType;
+    }
+
+    @Column(name = COLUMN_TIMESTAMP, nullable = false)
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Timestamp timestamp) {
+        this.timestamp = timestamp;
+    }
+}
@@ -130,6 +130,7 @@ public class RObjectReference implements ObjectReference {
 
         if (targetOid != null ? !targetOid.equals(ref.targetOid) : ref.targetOid != null) return false;
         if (type != ref.type) return false;
+        if (relation != null ? !relation.equals(ref.relation) : ref.relation != null) return false;
 
         return true;
     }
@@ -4,6 +4,7 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.util.GetObjectResult;
+import com.evolveum.midpoint.repo.sql.util.SummaryProjection;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
@@ -60,4 +61,25 @@ public class QueryEngine {
 
         return new RQueryCriteriaImpl(criteria);
     }
+
+    /**
+     * Creates query which selects only summary columns defined by {@link SummaryProjection}. Custom queries
+     * don't support summaries, null is returned if one of them matches and full objects have to be loaded.
+     */
+    public RQuery interpretSummary(ObjectQuery query, Class<? extends ObjectType> type,
+                                   Collection<SelectorOptions<GetOperationOptions>> options,
+                                   Session session) throws QueryException {
+
+        for (CustomQuery custom : queryLibrary) {
+            if (custom.match(query, type, options, false)) {
+                return null;
+            }
+        }
+
+        QueryInterpreter interpreter = new QueryInterpreter(repoConfiguration);
+        Criteria criteria = interpreter.interpret(query, type, options, prismContext, false, session);
+        criteria.setProjection(SummaryProjection.createProjection(type));
+
+        return new RQueryCriteriaImpl(criteria);
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.util;
+
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.xnode.MapXNode;
+import com.evolveum.midpoint.prism.xnode.PrimitiveXNode;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.prism.xnode.XNode;
+import com.evolveum.midpoint.repo.sql.FullObjectFormat;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.apache.commons.lang.Validate;
+
+import javax.xml.namespace.QName;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Encodes and decodes content of full object column. Object is always stored as XML, optionally compressed.
+ * <p/>
+ * Decoding detects format from data (GZIP header), so rows stored as plain or zipped XML are readable
+ * regardless of current configuration and they are written in configured format next time they're modified.
+ * <p/>
+ * Whole XML document is always parsed. If only some top-level items are requested, other items are
+ * dropped from parsed XML tree before it's converted to prism object. Attributes (oid, version) are
+ * always kept.
+ *
+ * @author lazyman
+ */
+public class FullObjectCodec {
+
+    private static final Trace LOGGER = TraceManager.getTrace(FullObjectCodec.class);
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+    private PrismContext prismContext;
+
+    public FullObjectCodec(PrismContext prismContext) {
+        Validate.notNull(prismContext, "Prism context must not be null.");
+        this.prismContext = prismContext;
+    }
+
+    public <T extends Objectable> byte[] encode(PrismObject<T> object, FullObjectFormat format)
+            throws SchemaException {
+        String xml = prismContext.serializeObjectToString(object, PrismContext.LANG_XML);
+        return RUtil.getByteArrayFromXml(xml, format == FullObjectFormat.ZIP);
+    }
+
+    /**
+     * Decodes whole object.
+     */
+    public <T extends Objectable> PrismObject<T> decode(byte[] data) throws SchemaException {
+        return decode(data, null);
+    }
+
+    /**
+     * @param items top-level items which have to be converted to prism items, null means all items.
+     */
+    public <T extends Objectable> PrismObject<T> decode(byte[] data, Collection<QName> items)
+            throws SchemaException {
+        XNode xnode = prismContext.getParserDom().parse(toXml(data));
+        if (!(xnode instanceof RootXNode)) {
+            throw new SchemaException("Couldn't decode full object data, expected root node but got " + xnode);
+        }
+
+        RootXNode root = (RootXNode) xnode;
+        if (items != null) {
+            root = filterItems(root, items);
+        }
+        return prismContext.getXnodeProcessor().parseObject(root);
+    }
+
+    /**
+     * Returns XML stored in data.
+     */
+    public String toXml(byte[] data) {
+        return RUtil.getXmlFromByteArray(data, detectFormat(data) == FullObjectFormat.ZIP);
+    }
+
+    public static FullObjectFormat detectFormat(byte[] data) {
+        if (data != null && data.length >= 2
+                && (data[0] & 0xff) == GZIP_MAGIC_1 && (data[1] & 0xff) == GZIP_MAGIC_2) {
+            return FullObjectFormat.ZIP;
+        }
+        return FullObjectFormat.XML;
+    }
+
+    /**
+     * Creates copy of root node which contains only attributes and requested top-level items.
+     * Root element name and type of root and object node are kept.
+     */
+    private RootXNode filterItems(RootXNode root, Collection<QName> items) throws SchemaException {
+        if (!(root.getSubnode() instanceof MapXNode)) {
+            throw new SchemaException("Couldn't decode full object data, content of object is not a map.");
+        }
+        MapXNode map = (MapXNode) root.getSubnode();
+
+        MapXNode filtered = new MapXNode();
+        filtered.setTypeQName(map.getTypeQName());
+        filtered.setExplicitTypeDeclaration(map.isExplicitTypeDeclaration());
+        for (Map.Entry<QName, XNode> entry : map.entrySet()) {
+            if (!isAttribute(entry.getValue()) && !QNameUtil.matchAny(entry.getKey(), items)) {
+                LOGGER.trace("Skipping item {}", entry.getKey());
+                continue;
+            }
+            filtered.put(entry.getKey(), entry.getValue());
+        }
+
+        RootXNode filteredRoot = new RootXNode(root.getRootElementName(), filtered);
+        filteredRoot.setTypeQName(root.getTypeQName());
+        filteredRoot.setExplicitTypeDeclaration(root.isExplicitTypeDeclaration());
+        return filteredRoot;
+    }
+
+    private boolean isAttribute(XNode node) {
+        return node instanceof PrimitiveXNode && ((PrimitiveXNode) node).isAttribute();
+    }
+}
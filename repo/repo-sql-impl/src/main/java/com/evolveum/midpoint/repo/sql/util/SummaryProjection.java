@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.midpoint.repo.sql.util;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismObjectDefinition;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.repo.sql.data.common.RFocus;
+import com.evolveum.midpoint.repo.sql.data.common.RObject;
+import com.evolveum.midpoint.repo.sql.data.common.RUser;
+import com.evolveum.midpoint.repo.sql.data.common.embedded.RPolyString;
+import com.evolveum.midpoint.repo.sql.data.common.enums.RActivationStatus;
+import com.evolveum.midpoint.repo.sql.data.common.other.RAssignmentOwner;
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.RetrieveOption;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.criterion.Projection;
+import org.hibernate.criterion.ProjectionList;
+import org.hibernate.criterion.Projections;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates object summaries (see {@link GetOperationOptions#isSummary(GetOperationOptions)}) from indexed
+ * columns, full object column is not read. Search returns rows with properties defined by
+ * {@link #createProjection(Class)}, links and assignment targets are loaded afterwards by one query for
+ * whole page of objects, only if they were explicitly included by options.
+ *
+ * @author lazyman
+ */
+public class SummaryProjection {
+
+    private static final Trace LOGGER = TraceManager.getTrace(SummaryProjection.class);
+
+    private static final String[] OBJECT_PROPERTIES = {"oid", "objectTypeClass", "version", "name.orig", "name.norm"};
+
+    private static final String[] FOCUS_PROPERTIES = {"activation.administrativeStatus", "activation.effectiveStatus"};
+
+    private static final String[] USER_PROPERTIES = {"givenName.orig", "givenName.norm", "familyName.orig",
+            "familyName.norm", "fullName.orig", "fullName.norm", "emailAddress"};
+
+    private PrismContext prismContext;
+
+    public SummaryProjection(PrismContext prismContext) {
+        this.prismContext = prismContext;
+    }
+
+    public static boolean isSummary(Collection<SelectorOptions<GetOperationOptions>> options) {
+        return GetOperationOptions.isSummary(SelectorOptions.findRootOptions(options));
+    }
+
+    public static Projection createProjection(Class<? extends ObjectType> type) {
+        Class<? extends RObject> hqlType = ClassMapper.getHQLTypeClass(type);
+
+        ProjectionList projections = Projections.projectionList();
+        addProperties(projections, OBJECT_PROPERTIES);
+        if (RFocus.class.isAssignableFrom(hqlType)) {
+            addProperties(projections, FOCUS_PROPERTIES);
+        }
+        if (RUser.class.equals(hqlType)) {
+            addProperties(projections, USER_PROPERTIES);
+        }
+
+        return projections;
+    }
+
+    private static void addProperties(ProjectionList projections, String[] properties) {
+        for (String property : properties) {
+            projections.add(Projections.property(property));
+        }
+    }
+
+    public <T extends ObjectType> List<PrismObject<T>> createObjects(Class<T> type, List<Object[]> rows,
+                                                                     Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                     Session session) throws SchemaException {
+        Class<? extends RObject> hqlType = ClassMapper.getHQLTypeClass(type);
+
+        List<PrismObject<T>> objects = new ArrayList<>();
+        Map<String, FocusType> focuses = new HashMap<>();
+        for (Object[] row : rows) {
+            PrismObject<T> object = createObject(type, hqlType, row);
+            objects.add(object);
+
+            if (object.asObjectable() instanceof FocusType) {
+                focuses.put(object.getOid(), (FocusType) object.asObjectable());
+            }
+        }
+
+        if (focuses.isEmpty()) {
+            return objects;
+        }
+
+        if (isIncluded(FocusType.F_LINK_REF, options)) {
+            loadLinks(focuses, session);
+        }
+        if (isIncluded(FocusType.F_ASSIGNMENT, options)) {
+            loadAssignments(focuses, session);
+        }
+
+        return objects;
+    }
+
+    private <T extends ObjectType> PrismObject<T> createObject(Class<T> type, Class<? extends RObject> hqlType,
+                                                               Object[] row) throws SchemaException {
+        int i = 0;
+        String oid = (String) row[i++];
+        RObjectType objectType = (RObjectType) row[i++];
+        Integer version = (Integer) row[i++];
+        RPolyString name = createPolyString(row[i++], row[i++]);
+
+        Class<? extends ObjectType> objectClass = objectType != null ?
+                ClassMapper.getObjectTypeForHQLType(objectType).getClassDefinition() : type;
+        PrismObjectDefinition<T> definition = prismContext.getSchemaRegistry()
+                .findObjectDefinitionByCompileTimeClass((Class<T>) objectClass);
+        if (definition == null) {
+            throw new SchemaException("Couldn't find definition for " + objectClass);
+        }
+
+        PrismObject<T> object = definition.instantiate();
+        object.setOid(oid);
+        object.setVersion(version != null ? Integer.toString(version) : null);
+
+        T jaxb = object.asObjectable();
+        jaxb.setName(RPolyString.copyToJAXB(name));
+
+        if (RFocus.class.isAssignableFrom(hqlType)) {
+            RActivationStatus administrativeStatus = (RActivationStatus) row[i++];
+            RActivationStatus effectiveStatus = (RActivationStatus) row[i++];
+            if (administrativeStatus != null || effectiveStatus != null) {
+                ActivationType activation = new ActivationType();
+                activation.setAdministrativeStatus(administrativeStatus != null ?
+                        administrativeStatus.getSchemaValue() : null);
+                activation.setEffectiveStatus(effectiveStatus != null ? effectiveStatus.getSchemaValue() : null);
+                ((FocusType) jaxb).setActivation(activation);
+            }
+        }
+
+        if (RUser.class.equals(hqlType)) {
+            UserType user = (UserType) jaxb;
+            user.setGivenName(RPolyString.copyToJAXB(createPolyString(row[i++], row[i++])));
+            user.setFamilyName(RPolyString.copyToJAXB(createPolyString(row[i++], row[i++])));
+            user.setFullName(RPolyString.copyToJAXB(createPolyString(row[i++], row[i++])));
+            user.setEmailAddress((String) row[i++]);
+        }
+
+        return object;
+    }
+
+    private RPolyString createPolyString(Object orig, Object norm) {
+        if (orig == null && norm == null) {
+            return null;
+        }
+        return new RPolyString((String) orig, (String) norm);
+    }
+
+    private void loadLinks(Map<String, FocusType> focuses, Session session) {
+        Query query = session.createQuery("select r.ownerOid, r.targetOid, r.type from RLinkRef r "
+                + "where r.ownerOid in (:oids)");
+        query.setParameterList("oids", focuses.keySet());
+
+        List<Object[]> rows = query.list();
+        LOGGER.trace("Loaded {} links for {} objects.", new Object[]{rows.size(), focuses.size()});
+        for (Object[] row : rows) {
+            ObjectReferenceType link = new ObjectReferenceType();
+            link.setOid((String) row[1]);
+            link.setType(ClassMapper.getQNameForHQLType((RObjectType) row[2]));
+
+            focuses.get(row[0]).getLinkRef().add(link);
+        }
+    }
+
+    private void loadAssignments(Map<String, FocusType> focuses, Session session) {
+        Query query = session.createQuery("select a.ownerOid, a.id, a.targetRef.targetOid, a.targetRef.type, "
+                + "a.targetRef.relation from RAssignment a where a.ownerOid in (:oids) and a.assignmentOwner = :owner");
+        query.setParameterList("oids", focuses.keySet());
+        query.setParameter("owner", RAssignmentOwner.FOCUS);
+
+        List<Object[]> rows = query.list();
+        LOGGER.trace("Loaded {} assignments for {} objects.", new Object[]{rows.size(), focuses.size()});
+        for (Object[] row : rows) {
+            AssignmentType assignment = new AssignmentType();
+            assignment.setId(((Short) row[1]).longValue());
+            if (row[2] != null) {
+                ObjectReferenceType targetRef = new ObjectReferenceType();
+                targetRef.setOid((String) row[2]);
+                targetRef.setType(ClassMapper.getQNameForHQLType((RObjectType) row[3]));
+                targetRef.setRelation(RUtil.stringToQName((String) row[4]));
+                assignment.setTargetRef(targetRef);
+            }
+
+            focuses.get(row[0]).getAssignment().add(assignment);
+        }
+    }
+
+    /**
+     * Links and assignments are not part of summary by default, they're loaded only if they were
+     * explicitly included.
+     */
+    private boolean isIncluded(QName item, Collection<SelectorOptions<GetOperationOptions>> options) {
+        ItemPath path = new ItemPath(item);
+        for (SelectorOptions<GetOperationOptions> option : SelectorOptions.filterRetrieveOptions(options)) {
+            if (option.getSelector() == null || !path.equals(option.getSelector().getPath())) {
+                continue;
+            }
+            if (option.getOptions().getRetrieve() == RetrieveOption.INCLUDE) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -28,6 +28,8 @@ import org.apache.commons.lang.StringUtils;
 
 import com.evolveum.midpoint.audit.api.AuditEventRecord;
 import com.evolveum.midpoint.audit.api.AuditEventStage;
+import com.evolveum.midpoint.audit.api.AuditQuery;
+import com.evolveum.midpoint.audit.api.AuditResultHandler;
 import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.prism.Objectable;
 import com.evolveum.midpoint.prism.PrismObject;
@@ -57,6 +59,7 @@ public class DummyAuditService implements AuditService, DebugDumpable {
 	private static DummyAuditService instance = null;
 	
 	private List<AuditEventRecord> records = new ArrayList<AuditEventRecord>();
+	private long nextRepoId = 1;
 	
 	public static DummyAuditService getInstance() {
 		if (instance == null) {
@@ -67,11 +70,13 @@ public class DummyAuditService implements AuditService, DebugDumpable {
 	
 	@Override
 	public void audit(AuditEventRecord record, Task task) {
-		records.add(record.clone());
+		AuditEventRecord clone = record.clone();
+		clone.setRepoId(nextRepoId++);
+		records.add(clone);
 	}
 
     @Override
-    public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult) {
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult) {
         Validate.notNull(policy, "Cleanup policy must not be null.");
         Validate.notNull(parentResult, "Operation result must not be null.");
 
@@ -99,6 +104,52 @@ public class DummyAuditService implements AuditService, DebugDumpable {
         }
     }
 
+    @Override
+    public boolean supportsRetrieval() {
+        return true;
+    }
+
+    @Override
+    public List<AuditEventRecord> searchAudit(AuditQuery query, OperationResult parentResult) {
+        Validate.notNull(query, "Audit query must not be null.");
+
+        List<AuditEventRecord> result = new ArrayList<AuditEventRecord>();
+        for (AuditEventRecord record : records) {
+            if (query.matches(record)) {
+                result.add(record);
+            }
+        }
+
+        Collections.sort(result, new Comparator<AuditEventRecord>() {
+
+            @Override
+            public int compare(AuditEventRecord r1, AuditEventRecord r2) {
+                long t1 = r1.getTimestamp() != null ? r1.getTimestamp() : 0;
+                long t2 = r2.getTimestamp() != null ? r2.getTimestamp() : 0;
+                if (t1 != t2) {
+                    return t1 < t2 ? -1 : 1;
+                }
+                return r1.getRepoId().compareTo(r2.getRepoId());
+            }
+        });
+
+        if (query.getMaxSize() != null && result.size() > query.getMaxSize()) {
+            return result.subList(0, query.getMaxSize());
+        }
+        return result;
+    }
+
+    @Override
+    public void searchAuditIterative(AuditQuery query, AuditResultHandler handler, OperationResult parentResult) {
+        Validate.notNull(handler, "Result handler must not be null.");
+
+        for (AuditEventRecord record : searchAudit(query, parentResult)) {
+            if (!handler.handle(record, parentResult)) {
+                return;
+            }
+        }
+    }
+
     public List<AuditEventRecord> getRecords() {
 		return records;
 	}
@@ -17,6 +17,8 @@
 package com.evolveum.midpoint.init;
 
 import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditQuery;
+import com.evolveum.midpoint.audit.api.AuditResultHandler;
 import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.audit.spi.AuditServiceRegistry;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -30,6 +32,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.CleanupPolicyType;
 import org.apache.commons.lang.Validate;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
 
@@ -58,15 +61,55 @@ public class AuditServiceProxy implements AuditService, AuditServiceRegistry {
     }
 
     @Override
-    public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult) {
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult) {
         Validate.notNull(policy, "Cleanup policy must not be null.");
         Validate.notNull(parentResult, "Operation result must not be null.");
 
         for (AuditService service : services) {
-            service.cleanupAudit(policy, parentResult);
+            service.cleanupAudit(policy, task, parentResult);
         }
     }
 
+    @Override
+    public boolean supportsRetrieval() {
+        return getRetrievalService() != null;
+    }
+
+    @Override
+    public List<AuditEventRecord> searchAudit(AuditQuery query, OperationResult parentResult) {
+        AuditService service = getRetrievalService();
+        if (service == null) {
+            LOGGER.warn("Audit records can't be searched. No registered audit service supports retrieval.");
+            return new ArrayList<>();
+        }
+
+        return service.searchAudit(query, parentResult);
+    }
+
+    @Override
+    public void searchAuditIterative(AuditQuery query, AuditResultHandler handler, OperationResult parentResult) {
+        AuditService service = getRetrievalService();
+        if (service == null) {
+            LOGGER.warn("Audit records can't be searched. No registered audit service supports retrieval.");
+            return;
+        }
+
+        service.searchAuditIterative(query, handler, parentResult);
+    }
+
+    /**
+     * @return first registered service which supports retrieval of audit records, null if there's none
+     */
+    private AuditService getRetrievalService() {
+        for (AuditService service : services) {
+            if (service.supportsRetrieval()) {
+                return service;
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public void registerService(AuditService service) {
         Validate.notNull(service, "Audit service must not be null.");
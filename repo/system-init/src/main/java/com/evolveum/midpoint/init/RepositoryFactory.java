@@ -86,6 +86,9 @@ public class RepositoryFactory implements ApplicationContextAware, RuntimeConfig
 
     public void destroy() {
         try {
+            if (cacheFactory != null) {
+                cacheFactory.destroy();
+            }
             if (factory != null) {
                 factory.destroy();
             }
@@ -126,6 +129,7 @@ public class RepositoryFactory implements ApplicationContextAware, RuntimeConfig
             try {
                 Class<RepositoryServiceFactory> clazz = (Class<RepositoryServiceFactory>) Class.forName(REPOSITORY_FACTORY_CACHE_CLASS);
                 cacheFactory = getFactoryBean(clazz);
+                cacheFactory.init(getCurrentConfiguration());
                 //TODO decompose this dependency, remove class casting !!!
                 RepositoryCache repositoryCache = (RepositoryCache) cacheFactory.getRepositoryService();
                 repositoryCache.setRepository(getRepositoryService());
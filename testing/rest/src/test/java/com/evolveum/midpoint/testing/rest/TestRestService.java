@@ -162,6 +162,61 @@ public class TestRestService {
 		  
 	}
 	
+	@Test
+	public void test004searchUsersStream(){
+		displayTestTile(this, "test004searchUsersStream");
+		
+		WebClient client = prepareClient(true);
+		
+		client.path("/users/search/stream");
+		client.query("format", "ndjson");
+		client.query("fields", "fullName");
+		client.type("application/xml");
+		
+		  Response response = client.post("<query xmlns='http://prism.evolveum.com/xml/ns/public/query-3'/>");
+		  
+		  assertEquals("Expected 200 but got " + response.getStatus(), 200, response.getStatus());
+		  String body = response.readEntity(String.class);
+		  LOGGER.info("Returned entity: {}", body);
+		  String[] lines = body.trim().split("\n");
+		  assertEquals("Unexpected number of returned objects", 1, lines.length);
+		  AssertJUnit.assertTrue("Administrator not returned", lines[0].contains(SystemObjectsType.USER_ADMINISTRATOR.value()));
+		  AssertJUnit.assertFalse("Not projected item returned", lines[0].contains("credentials"));
+	}
+	
+	@Test
+	public void test005bulkAddUsers(){
+		displayTestTile(this, "test005bulkAddUsers");
+		
+		WebClient client = prepareClient(true);
+		
+		client.path("/bulk");
+		client.query("batchSize", "1");
+		client.query("threads", "2");
+		client.type("application/xml");
+		
+		StringBuilder deltas = new StringBuilder();
+		deltas.append("<objectDeltaList xmlns='http://midpoint.evolveum.com/xml/ns/public/common/api-types-3'")
+				.append(" xmlns:c='http://midpoint.evolveum.com/xml/ns/public/common/common-3'")
+				.append(" xmlns:t='http://prism.evolveum.com/xml/ns/public/types-3'")
+				.append(" xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'>");
+		for (String name : new String[] { "bulk1", "bulk2", "bulk3" }) {
+			deltas.append("<delta><t:changeType>add</t:changeType><t:objectType>c:UserType</t:objectType>")
+					.append("<t:objectToAdd xsi:type='c:UserType'><c:name>").append(name)
+					.append("</c:name></t:objectToAdd></delta>");
+		}
+		deltas.append("</objectDeltaList>");
+		
+		  Response response = client.post(deltas.toString());
+		  
+		  assertEquals("Expected 200 but got " + response.getStatus(), 200, response.getStatus());
+		  String body = response.readEntity(String.class);
+		  LOGGER.info("Returned entity: {}", body);
+		  AssertJUnit.assertTrue("Results not in request order", body.indexOf("bulk1") < body.indexOf("bulk2")
+				  && body.indexOf("bulk2") < body.indexOf("bulk3"));
+		  AssertJUnit.assertFalse("Some delta failed", body.contains("fatal_error"));
+	}
+	
 	@Test
 	  public void test401addSystemConfigurationOverwrite() throws Exception{
 		displayTestTile(this, "test101addSystemConfigurationOverwrite");
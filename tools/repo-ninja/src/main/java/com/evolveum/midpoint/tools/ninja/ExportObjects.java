@@ -3,40 +3,84 @@ package com.evolveum.midpoint.tools.ninja;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismProperty;
-import com.evolveum.midpoint.prism.parser.DomSerializer;
 import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.SchemaConstantsGenerated;
 import com.evolveum.midpoint.schema.result.OperationResult;
-import com.evolveum.midpoint.util.DOMUtil;
-import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 import org.apache.commons.io.IOUtils;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
-import org.w3c.dom.Element;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 
 /**
+ * Exports repository objects to XML.
+ * <p/>
+ * Every concrete object type is exported separately. When more threads are used, OID space of each type is split
+ * to ranges (by the first four hex characters of the OID) which are read in parallel, each range is read ordered
+ * by OID in batches. Objects can be written to one file or to one file per type, optionally gzip compressed and
+ * split to more files when the size limit is reached.
+ *
  * @author lazyman
  */
 public class ExportObjects extends BaseNinjaAction {
 
+    private static final String XML_EXTENSION = ".xml";
+    private static final String GZIP_EXTENSION = ".gz";
+
     private String filePath;
+    private int threads = 1;
+    private boolean zip;
+    private boolean splitByType;
+    private long maxFileSize;
 
     public ExportObjects(String filePath) {
         this.filePath = filePath;
     }
 
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setZip(boolean zip) {
+        this.zip = zip;
+    }
+
+    /**
+     * If true, file path is used as directory where one file per object type is created.
+     */
+    public void setSplitByType(boolean splitByType) {
+        this.splitByType = splitByType;
+    }
+
+    /**
+     * Maximal size of one file in bytes (uncompressed), new file is started when it's reached. Zero means
+     * no limit.
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
     private String createHeaderForXml() {
         StringBuilder builder = new StringBuilder();
         builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
@@ -47,105 +91,257 @@ public class ExportObjects extends BaseNinjaAction {
         return builder.toString();
     }
     
-    public boolean execute() throws UnsupportedEncodingException, FileNotFoundException {
+    public boolean execute() {
         System.out.println("Starting objects export.");
 
         File file = new File(filePath);
-        if (file.exists() || file.canRead()) {
+        if (splitByType) {
+            if (file.exists() && (!file.isDirectory() || file.list().length != 0)) {
+                System.out.println("Export directory already exists and it's not empty, export won't be done.");
+                return false;
+            }
+            if (!file.exists() && !file.mkdirs()) {
+                System.out.println("Couldn't create export directory '" + file.getAbsolutePath() + "'.");
+                return false;
+            }
+        } else if (file.exists() || file.canRead()) {
             System.out.println("XML file already exists, export won't be done.");
             return false;
         }
 
-        final ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(CONTEXTS);
-        final OutputStreamWriter stream = new OutputStreamWriter(new FileOutputStream(file), "utf-8");
-        
+        ClassPathXmlApplicationContext context = null;
+        ExecutorService executor = null;
+        List<ExportWriter> writers = new ArrayList<>();
         try {
-        	
             System.out.println("Loading spring contexts.");
-            
-            System.out.println("Set repository.");
-            
+            context = new ClassPathXmlApplicationContext(CONTEXTS);
+
             RepositoryService repository = context.getBean("repositoryService", RepositoryService.class);
-            
-            ResultHandler<ObjectType> handler = new ResultHandler<ObjectType>() 
-            {
-            	
-            	PrismContext prismContext = context.getBean(PrismContext.class);
-
-            	@Override
-                public boolean handle(PrismObject<ObjectType> object, OperationResult parentResult) 
-                {
-                    String displayName = getDisplayName(object);
-                    System.out.println("Exporting object " + displayName);
-
-                    OperationResult resultExport = new OperationResult("Export " + displayName);
-                    try 
-                    {
-                    	String stringObject = prismContext.serializeObjectToString(object, PrismContext.LANG_XML);
-                        stream.write("\t" + stringObject + "\n");
-                    } 
-                    catch (Exception ex) 
-                    {
-                    	System.out.println("Failed to parse objects to string for xml. Reason: " +  ex);
-                        resultExport.recordFatalError("Failed to parse objects to string for xml. Reason: ", ex);
-                    }
+            PrismContext prismContext = context.getBean(PrismContext.class);
 
-                    return true;
+            ProgressReporter progress = new ProgressReporter("Exported");
+            List<Callable<Void>> tasks = new ArrayList<>();
+
+            ExportWriter writer = splitByType ? null : new ExportWriter(file);
+            if (writer != null) {
+                writers.add(writer);
+            }
+
+            for (ObjectTypes type : ObjectTypes.values()) {
+                Class<? extends ObjectType> clazz = type.getClassDefinition();
+                if (Modifier.isAbstract(clazz.getModifiers())) {
+                    continue;
+                }
+
+                ExportWriter typeWriter = writer;
+                if (typeWriter == null) {
+                    String name = type.getRestType() + XML_EXTENSION + (zip ? GZIP_EXTENSION : "");
+                    typeWriter = new ExportWriter(new File(file, name));
+                    writers.add(typeWriter);
                 }
-            };
-            
-            stream.write(createHeaderForXml());
-                    
-            OperationResult result = new OperationResult("search set");
 
-            System.out.println("Creating xml file " + file.getName());
+                int ranges = threads > 1 ? threads : 1;
+                for (int i = 0; i < ranges; i++) {
+                    String fromOid = getRangeBoundary(i, ranges);
+                    String toOid = i + 1 < ranges ? getRangeBoundary(i + 1, ranges) : null;
+                    tasks.add(createExportTask(repository, prismContext, clazz, fromOid, toOid, typeWriter, progress));
+                }
+            }
+
+            System.out.println("Exporting objects using " + threads + " thread(s) to " + file.getName());
+            progress.start();
+
+            executor = Executors.newFixedThreadPool(threads > 1 ? threads : 1);
+            List<Future<Void>> futures = executor.invokeAll(tasks);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    progress.error();
+                    System.out.println("Exception occurred during export, reason: " + ex.getCause().getMessage());
+                    ex.getCause().printStackTrace();
+                }
+            }
 
-            repository.searchObjectsIterative(ObjectType.class, null, handler, null, result);
-            
-            stream.write("</objects>");
-            System.out.println("Created xml file " + file.getName());
-            
+            for (ExportWriter exportWriter : writers) {
+                exportWriter.close();
+            }
+            progress.finish();
         } catch (Exception ex) {
             System.out.println("Exception occurred during context loading, reason: " + ex.getMessage());
             ex.printStackTrace();
         } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            for (ExportWriter exportWriter : writers) {
+                exportWriter.closeQuietly();
+            }
             destroyContext(context);
-            if (stream != null) 
-            {
-            	IOUtils.closeQuietly(stream);
+        }
+
+        System.out.println("Objects export finished.");
+        return true;
+    }
+
+    /**
+     * Lower boundary of OID range, first range starts with empty string. Boundaries are prefixes made of first four
+     * hex characters of OID, like "4000" for second range of four.
+     */
+    private String getRangeBoundary(int index, int ranges) {
+        if (index == 0) {
+            return "";
+        }
+        return String.format("%04x", index * 0x10000 / ranges);
+    }
+
+    /**
+     * Reads objects with OID greater than fromOid and not greater than toOid (null means no upper limit).
+     * Repository reads them ordered by OID in batches when paging cookie is set, therefore the search is stopped
+     * by the handler as soon as first object after the range is found.
+     */
+    private <T extends ObjectType> Callable<Void> createExportTask(final RepositoryService repository,
+                                                                   final PrismContext prismContext,
+                                                                   final Class<T> type, final String fromOid,
+                                                                   final String toOid, final ExportWriter writer,
+                                                                   final ProgressReporter progress) {
+        return new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                ResultHandler<T> handler = new ResultHandler<T>() {
+
+                    @Override
+                    public boolean handle(PrismObject<T> object, OperationResult parentResult) {
+                        if (toOid != null && object.getOid().compareTo(toOid) > 0) {
+                            return false;
+                        }
+
+                        try {
+                            String stringObject = prismContext.serializeObjectToString(object, PrismContext.LANG_XML);
+                            writer.write("\t" + stringObject + "\n");
+                            progress.increment();
+                        } catch (Exception ex) {
+                            progress.error();
+                            System.out.println("Failed to export object " + getDisplayName(object)
+                                    + ". Reason: " + ex);
+                        }
+
+                        return true;
+                    }
+                };
+
+                ObjectPaging paging = ObjectPaging.createEmptyPaging();
+                paging.setCookie(fromOid);
+                ObjectQuery query = new ObjectQuery();
+                query.setPaging(paging);
+
+                OperationResult result = new OperationResult("Export " + type.getSimpleName());
+                repository.searchObjectsIterative(type, query, handler, null, result);
+
+                return null;
             }
+        };
+    }
 
+    private String getDisplayName(PrismObject object) {
+        StringBuilder builder = new StringBuilder();
+
+        //name
+        PolyString name = getName(object);
+        if (name != null) {
+            builder.append(name.getOrig());
         }
 
+        //oid
+        if (builder.length() != 0) {
+            builder.append(' ');
+        }
+        builder.append('\'').append(object.getOid()).append('\'');
 
-        System.out.println("Objects export finished.");
-        return true;
+        return builder.toString();
+    }
+
+    private PolyString getName(PrismObject object) {
+        PrismProperty property = object.findProperty(ObjectType.F_NAME);
+        if (property == null || property.isEmpty()) {
+            return null;
+        }
+
+        return (PolyString) property.getRealValue(PolyString.class);
     }
-        
-        private String getDisplayName(PrismObject object) {
-            StringBuilder builder = new StringBuilder();
-
-            //name
-            PolyString name = getName(object);
-            if (name != null) {
-                builder.append(name.getOrig());
+
+    /**
+     * Writes serialized objects to file, shared by all threads exporting to the same file. File is created with the
+     * first object, so no empty files are left for types without objects. When maximal file size is set, files are
+     * numbered (e.g. users-0001.xml.gz) and next one is started after the limit is reached.
+     */
+    private class ExportWriter {
+
+        private final File file;
+        private int fileIndex;
+        private OutputStreamWriter stream;
+        private long written;
+
+        private ExportWriter(File file) {
+            this.file = file;
+        }
+
+        public synchronized void write(String object) throws IOException {
+            if (stream == null || (maxFileSize > 0 && written >= maxFileSize)) {
+                nextFile();
             }
 
-            //oid
-            if (builder.length() != 0) {
-                builder.append(' ');
+            stream.write(object);
+            written += object.length();
+        }
+
+        public synchronized void close() throws IOException {
+            if (stream == null) {
+                return;
             }
-            builder.append('\'').append(object.getOid()).append('\'');
 
-            return builder.toString();
+            try {
+                stream.write("</objects>");
+                stream.close();
+            } finally {
+                stream = null;
+            }
         }
 
-        private PolyString getName(PrismObject object) {
-            PrismProperty property = object.findProperty(ObjectType.F_NAME);
-            if (property == null || property.isEmpty()) {
-                return null;
+        public synchronized void closeQuietly() {
+            IOUtils.closeQuietly(stream);
+            stream = null;
+        }
+
+        private void nextFile() throws IOException {
+            close();
+
+            fileIndex++;
+            File next = maxFileSize > 0 ? createNumberedFile(fileIndex) : file;
+            System.out.println("Creating xml file " + next.getName());
+
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(next));
+            if (zip) {
+                output = new GZIPOutputStream(output);
             }
+            stream = new OutputStreamWriter(output, "utf-8");
+            stream.write(createHeaderForXml());
+            written = 0;
+        }
 
-            return (PolyString) property.getRealValue(PolyString.class);
+        private File createNumberedFile(int index) {
+            String name = file.getName();
+            String suffix = String.format("-%04d", index);
+
+            int dot = name.indexOf('.');
+            if (dot > 0) {
+                name = name.substring(0, dot) + suffix + name.substring(dot);
+            } else {
+                name = name + suffix;
+            }
+
+            return new File(file.getParentFile(), name);
         }
+    }
 }
@@ -25,6 +25,7 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismProperty;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
 import com.evolveum.midpoint.schema.result.OperationConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
@@ -35,24 +36,44 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 /**
+ * Imports objects from XML file or from all XML files (*.xml, *.xml.gz) in directory, e.g. created by
+ * {@link ExportObjects}. Gzip compressed files are recognized by .gz extension. When more threads are used,
+ * objects are parsed and added to repository in parallel, every object in its own transaction.
+ * <p/>
+ * Org. closure rows are computed by each transaction from closure rows committed before, therefore an org
+ * and its child added in parallel may miss their mutual rows. Closure table is rebuilt from parent references
+ * after parallel import instead of importing orgs in one thread, because the rebuild is done level by level
+ * and it is faster than sequential import of big org. structure.
+ *
  * @author lazyman
  */
 public class ImportObjects extends BaseNinjaAction {
 
     private String filePath;
 	private boolean validateSchema;
+    private int threads = 1;
 
     public ImportObjects(String filePath, boolean validateSchema) {
         this.filePath = filePath;
         this.validateSchema = validateSchema;
     }
 
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     public boolean execute() {
         System.out.println("Starting objects import.");
 
@@ -62,15 +83,18 @@ public class ImportObjects extends BaseNinjaAction {
             return false;
         }
 
-        InputStream input = null;
+        List<File> files = listFiles(objects);
+        if (files.isEmpty()) {
+            System.out.println("No XML files with objects found in '" + objects.getAbsolutePath() + "'.");
+            return false;
+        }
+
         ClassPathXmlApplicationContext context = null;
         try {
             System.out.println("Loading spring contexts.");
             context = new ClassPathXmlApplicationContext(CONTEXTS);
 
-            InputStreamReader reader = new InputStreamReader(new FileInputStream(objects), "utf-8");
-            input = new ReaderInputStream(reader, reader.getEncoding());
-
+            final ProgressReporter progress = new ProgressReporter("Imported");
             final RepositoryService repository = context.getBean("repositoryService", RepositoryService.class);
             PrismContext prismContext = context.getBean(PrismContext.class);
 
@@ -84,22 +108,22 @@ public class ImportObjects extends BaseNinjaAction {
                 @Override
                 public <T extends Objectable> EventResult postMarshall(PrismObject<T> object, Element objectElement, OperationResult objectResult) {
                     try {
-                        String displayName = getDisplayName(object);
-                        System.out.println("Importing object " + displayName);
-
                         repository.addObject((PrismObject<ObjectType>) object, null, objectResult);
                     } catch (Exception ex) {
                         objectResult.recordFatalError("Unexpected problem: " + ex.getMessage(), ex);
 
-                        System.out.println("Exception occurred during import, reason: " + ex.getMessage());
+                        System.out.println("Exception occurred during import of " + getDisplayName(object)
+                                + ", reason: " + ex.getMessage());
                         ex.printStackTrace();
                     }
 
                     objectResult.recordSuccessIfUnknown();
                     if (objectResult.isAcceptable()) {
+                        progress.increment();
                         // Continue import
                         return EventResult.cont();
                     } else {
+                        progress.error();
                         return EventResult.skipObject(objectResult.getMessage());
                     }
                 }
@@ -111,19 +135,22 @@ public class ImportObjects extends BaseNinjaAction {
             Validator validator = new Validator(prismContext, handler);
             validator.setVerbose(true);
             validator.setValidateSchema(validateSchema);
+            validator.setWorkerThreads(threads);
 
-            OperationResult result = new OperationResult("Import objeccts");
-            validator.validate(input, result, OperationConstants.IMPORT_OBJECT);
+            System.out.println("Importing objects using " + threads + " thread(s).");
+            progress.start();
+            for (File file : files) {
+                importFile(file, validator);
+            }
+            progress.finish();
 
-            result.recomputeStatus();
-            if (!result.isSuccess()) {
-                System.out.println("Operation result was not success, dumping result.\n" + result.debugDump(3));
+            if (threads > 1) {
+                rebuildOrgClosure(repository);
             }
         } catch (Exception ex) {
             System.out.println("Exception occurred during import task, reason: " + ex.getMessage());
             ex.printStackTrace();
         } finally {
-            IOUtils.closeQuietly(input);
             destroyContext(context);
         }
 
@@ -131,6 +158,66 @@ public class ImportObjects extends BaseNinjaAction {
         return true;
     }
 
+    private void rebuildOrgClosure(RepositoryService repository) {
+        if (!(repository instanceof SqlRepositoryServiceImpl)) {
+            System.out.println("Repository " + repository.getClass().getSimpleName() + " can't rebuild org. "
+                    + "closure, it may be incomplete after parallel import.");
+            return;
+        }
+
+        System.out.println("Rebuilding org. closure.");
+        long time = System.currentTimeMillis();
+        OperationResult result = new OperationResult("Rebuild org. closure");
+        int rows = ((SqlRepositoryServiceImpl) repository).rebuildOrgClosure(result);
+        System.out.println("Org. closure rebuilt, " + rows + " rows (" + (System.currentTimeMillis() - time) + " ms).");
+    }
+
+    private void importFile(File file, Validator validator) throws IOException {
+        System.out.println("Importing objects from file " + file.getName());
+
+        InputStream input = null;
+        try {
+            InputStream stream = new BufferedInputStream(new FileInputStream(file));
+            if (file.getName().endsWith(".gz")) {
+                stream = new GZIPInputStream(stream);
+            }
+            InputStreamReader reader = new InputStreamReader(stream, "utf-8");
+            input = new ReaderInputStream(reader, reader.getEncoding());
+
+            OperationResult result = new OperationResult("Import objeccts");
+            validator.validate(input, result, OperationConstants.IMPORT_OBJECT);
+
+            result.recomputeStatus();
+            if (!result.isSuccess()) {
+                System.out.println("Operation result was not success, dumping result.\n" + result.debugDump(3));
+            }
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private List<File> listFiles(File objects) {
+        List<File> files = new ArrayList<>();
+        if (!objects.isDirectory()) {
+            files.add(objects);
+            return files;
+        }
+
+        File[] children = objects.listFiles();
+        if (children == null) {
+            return files;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            String name = child.getName();
+            if (child.isFile() && (name.endsWith(".xml") || name.endsWith(".xml.gz"))) {
+                files.add(child);
+            }
+        }
+
+        return files;
+    }
+
     private String getDisplayName(PrismObject object) {
         StringBuilder builder = new StringBuilder();
 
@@ -30,7 +30,7 @@ public class Main {
     public static final Option create = new Option("c", "create", true,
             "Create tables with sql script provided by this option.");
     public static final Option importOp = new Option("i", "import", true,
-            "Import objects from XML file provided by this option.");
+            "Import objects from XML file (or directory with XML files) provided by this option.");
     public static final Option schemaOp = new Option("s", "schema", false,
             "validate schema of imported objects");
     public static final Option driver = new Option("d", "driver", true, "JDBC driver class");
@@ -40,6 +40,13 @@ public class Main {
     public static final Option Password = new Option("P", "password-prompt", false, "JDBC password (prompt)");
     public static final Option exportOp = new Option("e", "export", true,
             "Export objects to XML file provided by this option.");
+    public static final Option threads = new Option("th", "threads", true,
+            "Number of threads used for objects import/export (default 1).");
+    public static final Option zip = new Option("z", "zip", false, "Compress exported XML files using gzip.");
+    public static final Option splitTypes = new Option("st", "split-types", false,
+            "Export every object type to separate file, export option value is used as output directory.");
+    public static final Option splitSize = new Option("ss", "split-size", true,
+            "Start new export file when current one reaches provided size in megabytes (uncompressed).");
     public static final Option keyStore = new Option("k", "keystore", false,
             "Dumping key store entries.");
     public static final Option trans = new Option("t", "transform", true, "Transformation between xml/json/yaml");
@@ -56,6 +63,10 @@ public class Main {
         options.addOption(importOp);
         options.addOption(schemaOp);
         options.addOption(exportOp);
+        options.addOption(threads);
+        options.addOption(zip);
+        options.addOption(splitTypes);
+        options.addOption(splitSize);
         options.addOption(driver);
         options.addOption(url);
         options.addOption(username);
@@ -94,12 +105,17 @@ public class Main {
                 String path = line.getOptionValue(importOp.getOpt());
                 boolean validateSchema = line.hasOption(schemaOp.getOpt());
                 ImportObjects objects = new ImportObjects(path, validateSchema);
+                objects.setThreads(getIntOption(line, threads, 1));
                 objects.execute();
             }
 
             if (valid && line.hasOption(exportOp.getOpt())) {
                 String path = line.getOptionValue(exportOp.getOpt());
                 ExportObjects objects = new ExportObjects(path);
+                objects.setThreads(getIntOption(line, threads, 1));
+                objects.setZip(line.hasOption(zip.getOpt()));
+                objects.setSplitByType(line.hasOption(splitTypes.getOpt()));
+                objects.setMaxFileSize(getIntOption(line, splitSize, 0) * 1024L * 1024L);
                 objects.execute();
             }
             
@@ -125,6 +141,19 @@ public class Main {
         }
     }
 
+    private static int getIntOption(CommandLine line, Option option, int defaultValue) throws ParseException {
+        if (!line.hasOption(option.getOpt())) {
+            return defaultValue;
+        }
+
+        String value = line.getOptionValue(option.getOpt());
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new ParseException("Option " + option.getLongOpt() + " must be number, but was '" + value + "'.");
+        }
+    }
+
     private static void configureTransformer(FileTransformer transformer, CommandLine line) {
 		transformer.setOutputDirecorty(line.getOptionValue(outputDirectory.getOpt()));
 		transformer.setOutputFormat(line.getOptionValue(outputFormat.getOpt()));
@@ -178,7 +207,7 @@ public class Main {
 
     private static void printHelp(Options options) {
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp("Main [-c <arg>][-h][-i <arg>][-e <arg>][-v][-d <arg>][-u <arg>][-U <arg>][-p <arg>][-P]",
+        formatter.printHelp("Main [-c <arg>][-h][-i <arg>][-e <arg>][-th <arg>][-z][-st][-ss <arg>][-v][-d <arg>][-u <arg>][-U <arg>][-p <arg>][-P]",
                 options);
     }
 }
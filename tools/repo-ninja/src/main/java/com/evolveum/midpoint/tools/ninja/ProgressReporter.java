@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2010-2014 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.midpoint.tools.ninja;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts objects processed by (possibly more) threads and periodically prints progress and throughput.
+ *
+ * @author lazyman
+ */
+public class ProgressReporter {
+
+    private static final long DEFAULT_INTERVAL = 1000;
+
+    private final String operation;
+    private final long interval;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private long startTime;
+
+    public ProgressReporter(String operation) {
+        this(operation, DEFAULT_INTERVAL);
+    }
+
+    public ProgressReporter(String operation, long interval) {
+        this.operation = operation;
+        this.interval = interval;
+    }
+
+    public void start() {
+        startTime = System.currentTimeMillis();
+    }
+
+    public void increment() {
+        long current = count.incrementAndGet();
+        if (interval > 0 && current % interval == 0) {
+            System.out.println(operation + " " + current + " objects, " + formatThroughput(current) + ".");
+        }
+    }
+
+    public void error() {
+        errors.incrementAndGet();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public void finish() {
+        long current = count.get();
+        long time = System.currentTimeMillis() - startTime;
+        System.out.println(operation + " " + current + " objects (" + errors.get() + " errors) in "
+                + (time / 1000.0) + " s, " + formatThroughput(current) + ".");
+    }
+
+    private String formatThroughput(long current) {
+        long time = System.currentTimeMillis() - startTime;
+        if (time <= 0) {
+            time = 1;
+        }
+        return String.format("%.1f objects/s", current * 1000.0 / time);
+    }
+}